@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+/**
+ * Aggregation of a field over the documents that match a query. Documents are counted whether they have the field or
+ * not. Sum and average only take numbers into account, min and max follow the Firestore value ordering (numbers, then
+ * timestamps, then strings and so on).
+ */
+public final class Aggregate {
+
+	private long count;
+	private long numbers;
+	private double sum;
+	private Object min;
+	private Object max;
+
+	/**
+	 * Accumulate the field value of a document. A missing field is null.
+	 */
+	void accept(Object value) {
+		count++;
+		if (value == null) {
+			return;
+		}
+
+		Object normalized = CollectionReplica.normalize(value);
+		if (normalized instanceof Number) {
+			numbers++;
+			sum += ((Number) normalized).doubleValue();
+		}
+
+		if (min == null || CollectionReplica.compareValues(normalized, min) < 0) {
+			min = normalized;
+		}
+
+		if (max == null || CollectionReplica.compareValues(normalized, max) > 0) {
+			max = normalized;
+		}
+	}
+
+	/**
+	 * Merge the aggregation of another partition into this one.
+	 */
+	Aggregate merge(Aggregate other) {
+		count += other.count;
+		numbers += other.numbers;
+		sum += other.sum;
+		if (other.min != null && (min == null || CollectionReplica.compareValues(other.min, min) < 0)) {
+			min = other.min;
+		}
+
+		if (other.max != null && (max == null || CollectionReplica.compareValues(other.max, max) > 0)) {
+			max = other.max;
+		}
+		return this;
+	}
+
+	/**
+	 * @return amount of matching documents.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return sum of the numeric values.
+	 */
+	public double getSum() {
+		return sum;
+	}
+
+	/**
+	 * @return average of the numeric values, NaN without numeric values.
+	 */
+	public double getAverage() {
+		return numbers == 0 ? Double.NaN : sum / numbers;
+	}
+
+	/**
+	 * @return min value, null if no document has the field. Integers are returned as Long and dates as Timestamp.
+	 */
+	public Object getMin() {
+		return min;
+	}
+
+	/**
+	 * @return max value, null if no document has the field. Integers are returned as Long and dates as Timestamp.
+	 */
+	public Object getMax() {
+		return max;
+	}
+}
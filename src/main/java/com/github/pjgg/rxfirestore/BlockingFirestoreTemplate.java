@@ -19,11 +19,14 @@
 package com.github.pjgg.rxfirestore;
 
 import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.Transaction;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
 import io.reactivex.subjects.SingleSubject;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -33,12 +36,12 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
-import com.google.auth.oauth2.GoogleCredentials;
 import com.google.cloud.firestore.EventListener;
 import com.google.cloud.firestore.Firestore;
-import com.google.cloud.firestore.FirestoreOptions;
 import com.google.cloud.firestore.QuerySnapshot;
 
 import io.vertx.reactivex.core.Vertx;
@@ -48,25 +51,19 @@ public class BlockingFirestoreTemplate<E extends Entity> {
 	private final Supplier<? extends Entity> supplier;
 	private final Firestore firestore;
 	private final SingleSubject<Vertx> vertx;
+	private final SharedQueryListeners<E> sharedListeners;
+	private final TransactionRunner transactions;
+	private final AtomicBoolean closed = new AtomicBoolean();
 
 	public BlockingFirestoreTemplate(Supplier<? extends Entity> entityConstructor, SingleSubject<Vertx> vertxSubject) {
 		supplier = Objects.requireNonNull(entityConstructor);
 		this.vertx = vertxSubject;
 
+		firestore = FirestoreTemplateFactory.INSTANCE.acquireFirestore();
 
-		try {
-			firestore = FirestoreOptions.newBuilder()
-					/*
-					* See for further information about authentication
-					* https://cloud.google.com/docs/authentication/production
-					* In order to use different project-id than the one defined in applicationDefaultCredentials
-					* you can use GCLOUD_PROJECT environment variable 
-					*/
-					.setCredentials(GoogleCredentials.getApplicationDefault().createScoped(FirestoreTemplate.SCOPES))
-					.build().getService();
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
+		sharedListeners = new SharedQueryListeners<>(supplier,
+				(query, listener) -> listenerQuery(query).addSnapshotListener(listener));
+		transactions = new TransactionRunner(firestore);
 	}
 
 	/**
@@ -98,46 +95,33 @@ public class BlockingFirestoreTemplate<E extends Entity> {
 	public EventListenerResponse<E> addQueryListener(final Query query,
 			final Optional<EventListener<QuerySnapshot>> eventsHandler)
 			throws InterruptedException, ExecutionException, TimeoutException {
+		return addQueryListener(query, eventsHandler, new DefaultEventListener<E>(supplier.get()));
+	}
+
+	/**
+	 * Same as addQueryListener with the default eventHandler, where backpressure defines what happens with the changes
+	 * while a subscriber is busy.
+	 *
+	 * @param bufferSize max amount of buffered changes (or batches) on BUFFER and DROP_OLDEST.
+	 */
+	public EventListenerResponse<E> addQueryListener(final Query query, final ListenerBackpressure backpressure,
+			final int bufferSize) throws InterruptedException, ExecutionException, TimeoutException {
+		return addQueryListener(query, Optional.empty(),
+				new DefaultEventListener<E>(supplier.get(), backpressure, bufferSize));
+	}
+
+	private EventListenerResponse<E> addQueryListener(final Query query,
+			final Optional<EventListener<QuerySnapshot>> eventsHandler, final DefaultEventListener<E> defaultHandler)
+			throws InterruptedException, ExecutionException, TimeoutException {
 
 		CompletableFuture<EventListenerResponse<E>> fut = new CompletableFuture<>();
 		vertx.subscribe(vertx -> {
 			vertx.executeBlocking(future -> {
-				final DefaultEventListener<E> defaultHandler = new DefaultEventListener<E>(supplier.get());
-				CollectionReference q = firestore.collection(query.getCollectionName());
-				com.google.cloud.firestore.Query queryBuilder;
-
-				queryBuilder = q.offset(0);
-
-				HashMap<String, Object> equalTo = query.getEqualTo();
-				Iterator equalToIt = equalTo.entrySet().iterator();
-				while (equalToIt.hasNext()) {
-					Map.Entry pair = (Map.Entry) equalToIt.next();
-					queryBuilder = queryBuilder.whereEqualTo((String) pair.getKey(), pair.getValue());
-				}
-
-				HashMap<String, Object> arrayContains = query.getArrayContains();
-				Iterator arrayContainsIt = arrayContains.entrySet().iterator();
-				while (arrayContainsIt.hasNext()) {
-					Map.Entry pair = (Map.Entry) arrayContainsIt.next();
-					queryBuilder = queryBuilder.whereArrayContains((String) pair.getKey(), pair.getValue());
-				}
-
-				HashMap<String, Object> greaterThan = query.getGreaterThan();
-				Iterator greaterThanIt = greaterThan.entrySet().iterator();
-				while (greaterThanIt.hasNext()) {
-					Map.Entry pair = (Map.Entry) greaterThanIt.next();
-					queryBuilder = queryBuilder.whereGreaterThan((String) pair.getKey(), pair.getValue());
-				}
-
-				HashMap<String, Object> lessThan = query.getLessThan();
-				Iterator lessThanIt = lessThan.entrySet().iterator();
-				while (lessThanIt.hasNext()) {
-					Map.Entry pair = (Map.Entry) lessThanIt.next();
-					queryBuilder = queryBuilder.whereLessThan((String) pair.getKey(), pair.getValue());
-				}
+				com.google.cloud.firestore.Query queryBuilder = listenerQuery(query);
 
 				ListenerRegistration listener = queryBuilder.addSnapshotListener(eventsHandler.orElse(defaultHandler));
-				fut.complete(new EventListenerResponse<E>(defaultHandler.getSource(), listener));
+				fut.complete(new EventListenerResponse<E>(defaultHandler.getSource(), defaultHandler.getBatches(),
+						listener));
 
 			}, result -> {});
 		});
@@ -145,8 +129,88 @@ public class BlockingFirestoreTemplate<E extends Entity> {
 		return fut.get(10, TimeUnit.SECONDS);
 	}
 
+	/**
+	 * listen, shared version of addQueryListener: every subscriber of the same query shares a single Firestore
+	 * listener, opened with the first subscriber and removed when the last one cancels. Late subscribers get the
+	 * current documents, as ADDED changes, and then the live changes.
+	 *
+	 * @param backpressure what to do with the changes while a subscriber is busy.
+	 * @param bufferSize max amount of buffered changes on BUFFER and DROP_OLDEST.
+	 */
+	public Flowable<E> listen(final Query query, final ListenerBackpressure backpressure, final int bufferSize) {
+		return sharedListeners.listen(query, backpressure, bufferSize);
+	}
+
+	public SharedQueryListeners<E> getSharedListeners() {
+		return sharedListeners;
+	}
+
+	/**
+	 * Run the transaction function, again on contention, see TransactionRunner.
+	 *
+	 * @param body reads and writes through the Firestore transaction.
+	 * @param maxAttempts max amount of times that the function is run.
+	 */
+	public <T> Single<T> runTransaction(final Function<Transaction, Single<T>> body, final int maxAttempts) {
+		return transactions.run(body, maxAttempts);
+	}
+
+	public TransactionMetrics getTransactionMetrics() {
+		return transactions.getMetrics();
+	}
+
+	DocumentReference document(final String collectionName, final String id) {
+		return firestore.collection(collectionName).document(id);
+	}
+
+	private com.google.cloud.firestore.Query listenerQuery(final Query query) {
+		CollectionReference q = firestore.collection(query.getCollectionName());
+		com.google.cloud.firestore.Query queryBuilder;
+
+		queryBuilder = q.offset(0);
+
+		HashMap<String, Object> equalTo = query.getEqualTo();
+		Iterator equalToIt = equalTo.entrySet().iterator();
+		while (equalToIt.hasNext()) {
+			Map.Entry pair = (Map.Entry) equalToIt.next();
+			queryBuilder = queryBuilder.whereEqualTo((String) pair.getKey(), pair.getValue());
+		}
+
+		HashMap<String, Object> arrayContains = query.getArrayContains();
+		Iterator arrayContainsIt = arrayContains.entrySet().iterator();
+		while (arrayContainsIt.hasNext()) {
+			Map.Entry pair = (Map.Entry) arrayContainsIt.next();
+			queryBuilder = queryBuilder.whereArrayContains((String) pair.getKey(), pair.getValue());
+		}
+
+		HashMap<String, Object> greaterThan = query.getGreaterThan();
+		Iterator greaterThanIt = greaterThan.entrySet().iterator();
+		while (greaterThanIt.hasNext()) {
+			Map.Entry pair = (Map.Entry) greaterThanIt.next();
+			queryBuilder = queryBuilder.whereGreaterThan((String) pair.getKey(), pair.getValue());
+		}
+
+		HashMap<String, Object> lessThan = query.getLessThan();
+		Iterator lessThanIt = lessThan.entrySet().iterator();
+		while (lessThanIt.hasNext()) {
+			Map.Entry pair = (Map.Entry) lessThanIt.next();
+			queryBuilder = queryBuilder.whereLessThan((String) pair.getKey(), pair.getValue());
+		}
+
+		return FirestoreTemplate.applyCursors(FirestoreTemplate.applyOrder(queryBuilder, query), query);
+	}
+
 	public Query queryBuilder(final String collectionName) {
 		return new Query(collectionName);
 	}
 
+	/**
+	 * Release the shared Firestore client. Closing twice has no effect.
+	 */
+	public void close() {
+		if (closed.compareAndSet(false, true)) {
+			FirestoreTemplateFactory.INSTANCE.releaseFirestore(firestore);
+		}
+	}
+
 }
@@ -0,0 +1,443 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import com.google.cloud.firestore.DocumentReference;
+import io.reactivex.Emitter;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * BulkTransfer exports the documents of a query to a newline-delimited JSON file (a document per line, see
+ * NdjsonCodec) and imports them back into a collection.
+ * <p>
+ * Export walks the query page by page (see QueryPager) and writes through a buffered FileChannel, optionally gzip
+ * compressed. Import reads the file line by line and upserts the documents in WriteBatch chunks, several chunks at the
+ * same time. Memory is bounded by a few pages or chunks, whatever the file size.
+ * <p>
+ * Both keep a checkpoint file next to the exported/imported file (file name plus ".checkpoint") every
+ * CHECKPOINT_INTERVAL documents. A failed or cancelled transfer that is run again with the same file resumes from the
+ * last checkpoint. The checkpoint is deleted once the transfer is done.
+ */
+public final class BulkTransfer {
+
+	public static final int DEFAULT_PAGE_SIZE = 1000;
+
+	/**
+	 * Documents between checkpoints.
+	 */
+	public static final int CHECKPOINT_INTERVAL = 10_000;
+
+	private static final int BUFFER_SIZE = 256 * 1024;
+	private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+	private final Function<Query, Single<List<Map<String, Object>>>> fetch;
+	private final BiFunction<Map<String, Map<String, Object>>, String, Single<Map<String, Boolean>>> upsert;
+	private final NdjsonCodec codec;
+	private final int pageSize;
+	private final int checkpointInterval;
+
+	public BulkTransfer(FirestoreTemplate firestoreTemplate) {
+		this(firestoreTemplate, DEFAULT_PAGE_SIZE);
+	}
+
+	/**
+	 * @param pageSize documents requested per page on export.
+	 */
+	public BulkTransfer(FirestoreTemplate firestoreTemplate, int pageSize) {
+		this(firestoreTemplate::rxGetPage,
+			(documents, collectionName) -> firestoreTemplate.rxUpsertAll(documents, collectionName, 1),
+			firestoreTemplate::document, pageSize, CHECKPOINT_INTERVAL);
+	}
+
+	/**
+	 * @param fetch retrieves an export page, see FirestoreTemplate.rxGetPage.
+	 * @param upsert commits an import chunk, see FirestoreTemplate.rxUpsertAll.
+	 */
+	BulkTransfer(Function<Query, Single<List<Map<String, Object>>>> fetch,
+		BiFunction<Map<String, Map<String, Object>>, String, Single<Map<String, Boolean>>> upsert,
+		Function<String, DocumentReference> references, int pageSize, int checkpointInterval) {
+		this.fetch = fetch;
+		this.upsert = upsert;
+		this.codec = new NdjsonCodec(references);
+		this.pageSize = pageSize;
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	/**
+	 * Export the documents that match the query to the file, replacing it unless there is a checkpoint to resume from.
+	 * The document ID is written in the _id field.
+	 *
+	 * @param query .Build your query with queryBuilder method. Limit, if set, bounds the amount of exported documents.
+	 * @param gzip compress the file. Each checkpoint closes a gzip member, any gzip reader reads them as a single file.
+	 * @return Single with the amount of exported documents, size of the file and elapsed time.
+	 */
+	public Single<TransferResult> exportTo(final Query query, final Path file, final boolean gzip) {
+		Function<Map<String, Object>, List<Object>> cursor = document -> QueryPager.cursorOf(query, document);
+
+		return Flowable.using(() -> new Export(file, gzip),
+			export -> new QueryPager<>(export.resume(query), pageSize, fetch, cursor)
+				.stream()
+				// fetched documents are written before a page error, so the checkpoint gets as far as possible
+				.observeOn(Schedulers.io(), true, pageSize)
+				.doOnNext(document -> export.write(document, cursor))
+				.ignoreElements()
+				.andThen(Flowable.fromCallable(export::finish)),
+			Export::close)
+			.singleOrError();
+	}
+
+	/**
+	 * Import the documents of the file, plain or gzip compressed, into the collection. Each line is upserted with its
+	 * _id field as document ID.
+	 *
+	 * @param parallelism amount of WriteBatch chunks committed at the same time.
+	 * @return Single with the amount of imported and failed documents and elapsed time. Failed chunks are not part of
+	 * the checkpoint, so running the import again retries them.
+	 */
+	public Single<TransferResult> importFrom(final Path file, final String collectionName, final int parallelism) {
+		return Flowable.using(() -> new Import(file),
+			load -> Flowable.<Chunk>generate(load::next)
+				.subscribeOn(Schedulers.io())
+				.flatMapSingle(chunk -> upsert.apply(chunk.documents, collectionName)
+					.doOnSuccess(results -> load.committed(chunk, results)), false, parallelism)
+				.ignoreElements()
+				.andThen(Flowable.fromCallable(load::finish)),
+			Import::close)
+			.singleOrError();
+	}
+
+	static Path checkpointOf(Path file) {
+		return file.resolveSibling(file.getFileName() + CHECKPOINT_SUFFIX);
+	}
+
+	private Map<String, Object> readCheckpoint(Path checkpoint) throws IOException {
+		if (!Files.exists(checkpoint)) {
+			return null;
+		}
+		return codec.decode(new String(Files.readAllBytes(checkpoint), StandardCharsets.UTF_8));
+	}
+
+	private void writeCheckpoint(Path checkpoint, Map<String, Object> state) throws IOException {
+		Path temporary = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+		Files.write(temporary, codec.encode(state));
+		Files.move(temporary, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private final class Export implements Closeable {
+
+		private final Path checkpoint;
+		private final FileChannel channel;
+		private final boolean gzip;
+		private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		private final long started = System.nanoTime();
+		private OutputStream gzipMember;
+		private long resumed;
+		private long written;
+		private List<Object> cursor;
+
+		Export(Path file, boolean gzip) throws IOException {
+			this.checkpoint = checkpointOf(file);
+			this.gzip = gzip;
+			this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+			Map<String, Object> state = readCheckpoint(checkpoint);
+			if (state == null) {
+				channel.truncate(0);
+			} else {
+				channel.truncate((Long) state.get("position"));
+				resumed = (Long) state.get("documents");
+				cursor = (List<Object>) state.get("cursor");
+			}
+			channel.position(channel.size());
+		}
+
+		/**
+		 * The query, or what is left of it after the checkpoint.
+		 */
+		Query resume(Query query) {
+			if (cursor == null) {
+				return query;
+			}
+
+			Query rest = query.copy().withStartAfter(cursor);
+			if (query.isLimitSet() && query.getLimit() != null) {
+				rest.withLimit((int) Math.max(0, query.getLimit() - resumed));
+			}
+			return rest;
+		}
+
+		void write(Map<String, Object> document, Function<Map<String, Object>, List<Object>> cursorOf)
+			throws IOException {
+			byte[] line = codec.encode(document);
+			if (buffer.remaining() < line.length + 1) {
+				drain();
+			}
+
+			if (line.length + 1 > buffer.capacity()) {
+				output(ByteBuffer.wrap(line));
+				output(ByteBuffer.wrap(new byte[] {'\n'}));
+			} else {
+				buffer.put(line).put((byte) '\n');
+			}
+
+			if (++written % checkpointInterval == 0) {
+				checkpoint(cursorOf.apply(document));
+			}
+		}
+
+		TransferResult finish() throws IOException {
+			drain();
+			if (gzipMember != null) {
+				gzipMember.close();
+				gzipMember = null;
+			}
+			channel.force(false);
+			long bytes = channel.size();
+			channel.close();
+			Files.deleteIfExists(checkpoint);
+
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+			return new TransferResult(written, resumed, 0, bytes, elapsed);
+		}
+
+		/**
+		 * Everything written so far is on disk, and the file ends at a gzip member boundary.
+		 */
+		private void checkpoint(List<Object> last) throws IOException {
+			drain();
+			if (gzipMember != null) {
+				gzipMember.close();
+				gzipMember = null;
+			}
+			channel.force(false);
+
+			Map<String, Object> state = new HashMap<>();
+			state.put("documents", resumed + written);
+			state.put("position", channel.position());
+			state.put("cursor", last);
+			writeCheckpoint(checkpoint, state);
+		}
+
+		private void drain() throws IOException {
+			buffer.flip();
+			output(buffer);
+			buffer.clear();
+		}
+
+		private void output(ByteBuffer bytes) throws IOException {
+			if (!gzip) {
+				while (bytes.hasRemaining()) {
+					channel.write(bytes);
+				}
+				return;
+			}
+
+			if (gzipMember == null) {
+				gzipMember = new GZIPOutputStream(new ChannelOutputStream(channel), BUFFER_SIZE);
+			}
+			gzipMember.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+			bytes.position(bytes.limit());
+		}
+
+		/**
+		 * Keep the checkpoint, so the export can be resumed.
+		 */
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+	private final class Import implements Closeable {
+
+		private final Path checkpoint;
+		private final FileChannel channel;
+		private final BufferedReader reader;
+		private final long started = System.nanoTime();
+		private final long resumed;
+		private final TreeMap<Long, Integer> done = new TreeMap<>();
+		private long read;
+		private long chunks;
+		private long contiguous;
+		private long committedLines;
+		private long checkpointLines;
+		private long documents;
+		private long failed;
+
+		Import(Path file) throws IOException {
+			this.checkpoint = checkpointOf(file);
+			this.channel = FileChannel.open(file, StandardOpenOption.READ);
+
+			InputStream in = new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE);
+			in.mark(2);
+			boolean gzip = in.read() == 0x1f && in.read() == 0x8b;
+			in.reset();
+			if (gzip) {
+				in = new GZIPInputStream(in, BUFFER_SIZE);
+			}
+			reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER_SIZE);
+
+			Map<String, Object> state = readCheckpoint(checkpoint);
+			resumed = state == null ? 0 : (Long) state.get("lines");
+			while (read < resumed && reader.readLine() != null) {
+				read++;
+			}
+			committedLines = read;
+			checkpointLines = read;
+		}
+
+		/**
+		 * Read the next chunk of up to MAX_BATCH_SIZE documents.
+		 */
+		void next(Emitter<Chunk> emitter) throws IOException {
+			Map<String, Map<String, Object>> chunk = new LinkedHashMap<>();
+			int lines = 0;
+			String line;
+			while (chunk.size() < FirestoreTemplate.MAX_BATCH_SIZE && (line = reader.readLine()) != null) {
+				lines++;
+				if (line.isEmpty()) {
+					continue;
+				}
+
+				Map<String, Object> document = codec.decode(line);
+				Object id = document.remove("_id");
+				if (!(id instanceof String)) {
+					throw new IOException("Document without _id at line " + (read + lines));
+				}
+				chunk.put((String) id, document);
+			}
+
+			read += lines;
+			if (lines == 0) {
+				emitter.onComplete();
+			} else {
+				emitter.onNext(new Chunk(chunks++, lines, chunk));
+			}
+		}
+
+		/**
+		 * The checkpoint moves forward over the chunks that are committed, in file order.
+		 */
+		synchronized void committed(Chunk chunk, Map<String, Boolean> results) throws IOException {
+			long ok = results.values().stream().filter(Boolean::booleanValue).count();
+			documents += ok;
+			failed += results.size() - ok;
+			done.put(chunk.index, ok == results.size() ? chunk.lines : -1);
+
+			while (!done.isEmpty() && done.firstKey() == contiguous && done.firstEntry().getValue() >= 0) {
+				committedLines += done.pollFirstEntry().getValue();
+				contiguous++;
+			}
+
+			if (committedLines - checkpointLines >= checkpointInterval) {
+				saveCheckpoint();
+			}
+		}
+
+		synchronized TransferResult finish() throws IOException {
+			long bytes = channel.size();
+			channel.close();
+			if (failed == 0) {
+				Files.deleteIfExists(checkpoint);
+			} else {
+				saveCheckpoint();
+			}
+
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+			return new TransferResult(documents, resumed, failed, bytes, elapsed);
+		}
+
+		private void saveCheckpoint() throws IOException {
+			Map<String, Object> state = new HashMap<>();
+			state.put("lines", committedLines);
+			writeCheckpoint(checkpoint, state);
+			checkpointLines = committedLines;
+		}
+
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+
+	private static final class Chunk {
+
+		private final long index;
+		private final int lines;
+		private final Map<String, Map<String, Object>> documents;
+
+		Chunk(long index, int lines, Map<String, Map<String, Object>> documents) {
+			this.index = index;
+			this.lines = lines;
+			this.documents = documents;
+		}
+	}
+
+	/**
+	 * Writes into the channel without closing it, so a gzip member can be closed (which releases its deflater) and the
+	 * next one written into the same file.
+	 */
+	private static final class ChannelOutputStream extends OutputStream {
+
+		private final FileChannel channel;
+
+		ChannelOutputStream(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+	}
+}
@@ -0,0 +1,553 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentChange;
+import com.google.cloud.firestore.EventListener;
+import com.google.cloud.firestore.FirestoreException;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.QuerySnapshot;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.LongSupplier;
+import javax.annotation.Nullable;
+
+/**
+ * CollectionReplica is an in-memory copy of a collection (or of the documents that match a query), kept up to date by
+ * a snapshot listener. Every top level field is indexed: a hash index answers whereEqualTo, a sorted index answers
+ * whereGreaterThan and whereLessThan and an inverted index answers whereArrayContains. Nested fields ("a.b") are
+ * filtered by scanning the candidates.
+ * <p>
+ * The replica is eventually consistent: a write is visible once the listener receives it, see getStalenessMs. Results
+ * follow Firestore ordering, by document ID or by the inequality field and then by document ID.
+ */
+public class CollectionReplica implements EventListener<QuerySnapshot> {
+
+	private static final Logger LOG = LoggerFactory.getLogger(CollectionReplica.class);
+
+	private static final Comparator<Object> VALUE_ORDER = CollectionReplica::compareValues;
+	private static final Object MISSING = new Object();
+
+	private final Query source;
+	private final LongSupplier nanoTime;
+
+	private final Map<String, Map<String, Object>> documents = new HashMap<>();
+	private final Map<String, Map<Object, Set<String>>> hashIndex = new HashMap<>();
+	private final Map<String, TreeMap<Object, Set<String>>> sortedIndex = new HashMap<>();
+	private final Map<String, Map<Object, Set<String>>> invertedIndex = new HashMap<>();
+
+	private ListenerRegistration registration;
+	private boolean ready;
+	private boolean closed;
+	private long lastUpdate;
+	private long snapshots;
+	private long localQueries;
+
+	/**
+	 * @param source collection, or filtered query, to replicate. Limit and offset are not allowed.
+	 */
+	public CollectionReplica(Query source) {
+		this(source, System::nanoTime);
+	}
+
+	CollectionReplica(Query source, LongSupplier nanoTime) {
+		if (source.isLimitSet() || source.isOffsetSet()) {
+			throw new IllegalArgumentException("A replica query can not have limit or offset");
+		}
+
+		this.source = Objects.requireNonNull(source);
+		this.nanoTime = nanoTime;
+	}
+
+	@Override
+	public synchronized void onEvent(@Nullable QuerySnapshot snapshot, @Nullable FirestoreException e) {
+		if (e != null) {
+			LOG.error("Replica of " + source.getCollectionName() + " stopped, queries go to the server.", e);
+			ready = false;
+			return;
+		}
+
+		for (DocumentChange dc : snapshot.getDocumentChanges()) {
+			apply(dc.getType(), dc.getDocument().getId(), dc.getDocument().getData());
+		}
+		snapshotApplied();
+	}
+
+	/**
+	 * Apply a single document change. The listener applies every change of a snapshot and then calls
+	 * snapshotApplied, so queries never see a half applied snapshot.
+	 */
+	synchronized void apply(DocumentChange.Type type, String id, Map<String, Object> data) {
+		Map<String, Object> previous = documents.remove(id);
+		if (previous != null) {
+			unindex(id, previous);
+		}
+
+		if (type != DocumentChange.Type.REMOVED) {
+			Map<String, Object> document = new HashMap<>(data);
+			document.put("_id", id);
+			documents.put(id, document);
+			index(id, document);
+		}
+	}
+
+	synchronized void snapshotApplied() {
+		snapshots++;
+		lastUpdate = nanoTime.getAsLong();
+		ready = !closed;
+	}
+
+	/**
+	 * @return true if the replica has received its first snapshot, is still listening and its source covers the
+	 * query: same collection and the query has, at least, the same filters than the source. Ordered queries and
+	 * cursors go to the server.
+	 */
+	public synchronized boolean canAnswer(Query query) {
+		return ready
+			&& source.getCollectionName().equals(query.getCollectionName())
+			&& covers(source.getEqualTo(), query.getEqualTo())
+			&& covers(source.getArrayContains(), query.getArrayContains())
+			&& covers(source.getGreaterThan(), query.getGreaterThan())
+			&& covers(source.getLessThan(), query.getLessThan())
+			&& query.getOrderBy().isEmpty()
+			&& query.getStartAt().isEmpty()
+			&& query.getStartAfter().isEmpty()
+			&& query.getEndBefore().isEmpty();
+	}
+
+	/**
+	 * Answer the query from the replica. As on the server, a query without limit only gets the first
+	 * FirestoreTemplate.DEFAULT_QUERY_LIMIT documents.
+	 *
+	 * @return copies of the matching documents, with the document ID in the _id field.
+	 */
+	public synchronized List<Map<String, Object>> get(Query query) {
+		localQueries++;
+
+		List<Set<String>> candidates = new ArrayList<>();
+		List<Map.Entry<String, Object>> scanEqualTo = new ArrayList<>();
+		List<Map.Entry<String, Object>> scanArrayContains = new ArrayList<>();
+		List<Map.Entry<String, Object>> scanGreaterThan = new ArrayList<>();
+		List<Map.Entry<String, Object>> scanLessThan = new ArrayList<>();
+
+		for (Map.Entry<String, Object> filter : query.getEqualTo().entrySet()) {
+			if (isNested(filter.getKey())) {
+				scanEqualTo.add(filter);
+			} else {
+				candidates.add(lookup(hashIndex, filter.getKey(), normalize(filter.getValue())));
+			}
+		}
+
+		for (Map.Entry<String, Object> filter : query.getArrayContains().entrySet()) {
+			if (isNested(filter.getKey())) {
+				scanArrayContains.add(filter);
+			} else {
+				candidates.add(lookup(invertedIndex, filter.getKey(), normalize(filter.getValue())));
+			}
+		}
+
+		for (Map.Entry<String, Object> filter : query.getGreaterThan().entrySet()) {
+			if (isNested(filter.getKey())) {
+				scanGreaterThan.add(filter);
+			} else {
+				candidates.add(range(filter.getKey(), normalize(filter.getValue()), true));
+			}
+		}
+
+		for (Map.Entry<String, Object> filter : query.getLessThan().entrySet()) {
+			if (isNested(filter.getKey())) {
+				scanLessThan.add(filter);
+			} else {
+				candidates.add(range(filter.getKey(), normalize(filter.getValue()), false));
+			}
+		}
+
+		Set<String> ids = intersect(candidates);
+		List<Map<String, Object>> matches = new ArrayList<>(ids.size());
+		for (String id : ids) {
+			Map<String, Object> document = documents.get(id);
+			if (scan(document, scanEqualTo, scanArrayContains, scanGreaterThan, scanLessThan)) {
+				matches.add(document);
+			}
+		}
+
+		matches.sort(order(query));
+
+		int from = query.isOffsetSet() && query.getOffset() != null ? Math.min(query.getOffset(), matches.size()) : 0;
+		int limit = query.isLimitSet() && query.getLimit() != null
+			? query.getLimit()
+			: FirestoreTemplate.DEFAULT_QUERY_LIMIT;
+		int to = Math.min(matches.size(), from + limit);
+
+		List<Map<String, Object>> result = new ArrayList<>(to - from);
+		for (Map<String, Object> document : matches.subList(from, to)) {
+			result.add(project(document, query));
+		}
+		return result;
+	}
+
+	/**
+	 * Copy of the document with the selected fields of the query, as Firestore would return it.
+	 */
+	private static Map<String, Object> project(Map<String, Object> document, Query query) {
+		if (!query.isSelectSet()) {
+			return Documents.copy(document);
+		}
+
+		Map<String, Object> projection = new HashMap<>();
+		projection.put("_id", document.get("_id"));
+		for (String field : query.getSelect()) {
+			Object value = valueAt(document, field);
+			if (value == MISSING) {
+				continue;
+			}
+
+			String[] segments = field.split("\\.");
+			Map<String, Object> parent = projection;
+			for (int i = 0; i < segments.length - 1; i++) {
+				parent = (Map<String, Object>) parent.computeIfAbsent(segments[i], segment -> new HashMap<>());
+			}
+			parent.put(segments[segments.length - 1], Documents.copyValue(value));
+		}
+		return projection;
+	}
+
+	/**
+	 * Stop listening. Once closed, the replica can not answer queries.
+	 */
+	public synchronized void close() {
+		closed = true;
+		ready = false;
+		if (registration != null) {
+			registration.remove();
+		}
+	}
+
+	synchronized void setRegistration(ListenerRegistration registration) {
+		this.registration = registration;
+	}
+
+	public Query getSource() {
+		return source;
+	}
+
+	public synchronized boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 * Amount of replicated documents.
+	 */
+	public synchronized int getSize() {
+		return documents.size();
+	}
+
+	/**
+	 * Rough estimation of the memory used by the replicated documents, without indexes.
+	 */
+	public synchronized long getEstimatedBytes() {
+		long bytes = 0;
+		for (Map<String, Object> document : documents.values()) {
+			bytes += DocumentCache.estimateSize(document);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Time since the last snapshot was applied, or -1 if no snapshot has been received yet.
+	 */
+	public synchronized long getStalenessMs() {
+		return snapshots == 0 ? -1 : (nanoTime.getAsLong() - lastUpdate) / 1_000_000;
+	}
+
+	public synchronized long getSnapshots() {
+		return snapshots;
+	}
+
+	/**
+	 * Amount of queries answered by the replica.
+	 */
+	public synchronized long getLocalQueries() {
+		return localQueries;
+	}
+
+	private void index(String id, Map<String, Object> document) {
+		for (Map.Entry<String, Object> field : document.entrySet()) {
+			Object value = normalize(field.getValue());
+			add(hashIndex.computeIfAbsent(field.getKey(), k -> new HashMap<>()), value, id);
+
+			if (isRangeComparable(value)) {
+				add(sortedIndex.computeIfAbsent(field.getKey(), k -> new TreeMap<>(VALUE_ORDER)), value, id);
+			}
+
+			if (value instanceof List) {
+				Map<Object, Set<String>> elements = invertedIndex.computeIfAbsent(field.getKey(), k -> new HashMap<>());
+				for (Object elem : (List<?>) value) {
+					add(elements, elem, id);
+				}
+			}
+		}
+	}
+
+	private void unindex(String id, Map<String, Object> document) {
+		for (Map.Entry<String, Object> field : document.entrySet()) {
+			Object value = normalize(field.getValue());
+			remove(hashIndex.get(field.getKey()), value, id);
+
+			if (isRangeComparable(value)) {
+				remove(sortedIndex.get(field.getKey()), value, id);
+			}
+
+			if (value instanceof List) {
+				for (Object elem : (List<?>) value) {
+					remove(invertedIndex.get(field.getKey()), elem, id);
+				}
+			}
+		}
+	}
+
+	private static void add(Map<Object, Set<String>> index, Object value, String id) {
+		index.computeIfAbsent(value, k -> new HashSet<>()).add(id);
+	}
+
+	private static void remove(Map<Object, Set<String>> index, Object value, String id) {
+		if (index == null) {
+			return;
+		}
+
+		Set<String> ids = index.get(value);
+		if (ids != null && ids.remove(id) && ids.isEmpty()) {
+			index.remove(value);
+		}
+	}
+
+	private static Set<String> lookup(Map<String, Map<Object, Set<String>>> index, String field, Object value) {
+		Map<Object, Set<String>> values = index.get(field);
+		if (values == null) {
+			return Collections.emptySet();
+		}
+
+		return values.getOrDefault(value, Collections.emptySet());
+	}
+
+	/**
+	 * Firestore range filters only match values of the same type than the bound.
+	 */
+	private Set<String> range(String field, Object bound, boolean greaterThan) {
+		TreeMap<Object, Set<String>> values = sortedIndex.get(field);
+		if (values == null || !isRangeComparable(bound)) {
+			return Collections.emptySet();
+		}
+
+		Map<Object, Set<String>> side = greaterThan
+			? values.tailMap(bound, false)
+			: values.headMap(bound, false).descendingMap();
+
+		Set<String> ids = new HashSet<>();
+		for (Map.Entry<Object, Set<String>> entry : side.entrySet()) {
+			if (typeOrder(entry.getKey()) != typeOrder(bound)) {
+				break;
+			}
+			ids.addAll(entry.getValue());
+		}
+		return ids;
+	}
+
+	private Set<String> intersect(List<Set<String>> candidates) {
+		if (candidates.isEmpty()) {
+			return documents.keySet();
+		}
+
+		candidates.sort(Comparator.comparingInt(Set::size));
+		Set<String> ids = new HashSet<>(candidates.get(0));
+		for (int i = 1; i < candidates.size() && !ids.isEmpty(); i++) {
+			ids.retainAll(candidates.get(i));
+		}
+		return ids;
+	}
+
+	private static boolean scan(Map<String, Object> document, List<Map.Entry<String, Object>> equalTo,
+		List<Map.Entry<String, Object>> arrayContains, List<Map.Entry<String, Object>> greaterThan,
+		List<Map.Entry<String, Object>> lessThan) {
+		for (Map.Entry<String, Object> filter : equalTo) {
+			Object value = valueAt(document, filter.getKey());
+			if (value == MISSING || !Objects.equals(normalize(value), normalize(filter.getValue()))) {
+				return false;
+			}
+		}
+
+		for (Map.Entry<String, Object> filter : arrayContains) {
+			Object value = normalize(valueAt(document, filter.getKey()));
+			if (!(value instanceof List) || !((List<?>) value).contains(normalize(filter.getValue()))) {
+				return false;
+			}
+		}
+
+		for (Map.Entry<String, Object> filter : greaterThan) {
+			if (!inRange(valueAt(document, filter.getKey()), filter.getValue(), 1)) {
+				return false;
+			}
+		}
+
+		for (Map.Entry<String, Object> filter : lessThan) {
+			if (!inRange(valueAt(document, filter.getKey()), filter.getValue(), -1)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static boolean inRange(Object value, Object bound, int sign) {
+		Object normalized = normalize(value);
+		Object normalizedBound = normalize(bound);
+		return isRangeComparable(normalized)
+			&& typeOrder(normalized) == typeOrder(normalizedBound)
+			&& Integer.signum(compareValues(normalized, normalizedBound)) == sign;
+	}
+
+	private static Object valueAt(Map<String, Object> document, String path) {
+		Object current = document;
+		for (String segment : path.split("\\.")) {
+			if (!(current instanceof Map) || !((Map<?, ?>) current).containsKey(segment)) {
+				return MISSING;
+			}
+			current = ((Map<?, ?>) current).get(segment);
+		}
+		return current;
+	}
+
+	/**
+	 * Order by the inequality field, if any, and then by document ID.
+	 */
+	private static Comparator<Map<String, Object>> order(Query query) {
+		Comparator<Map<String, Object>> byId = Comparator.comparing(document -> (String) document.get("_id"));
+
+		String field = query.getGreaterThan().isEmpty()
+			? query.getLessThan().keySet().stream().findFirst().orElse(null)
+			: query.getGreaterThan().keySet().iterator().next();
+		if (field == null) {
+			return byId;
+		}
+
+		Comparator<Map<String, Object>> byField =
+			(left, right) -> compareValues(normalize(valueAt(left, field)), normalize(valueAt(right, field)));
+		return byField.thenComparing(byId);
+	}
+
+	private static boolean covers(Map<String, Object> source, Map<String, Object> query) {
+		for (Map.Entry<String, Object> filter : source.entrySet()) {
+			if (!query.containsKey(filter.getKey())
+				|| !Objects.equals(normalize(filter.getValue()), normalize(query.get(filter.getKey())))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isNested(String field) {
+		return field.indexOf('.') >= 0;
+	}
+
+	/**
+	 * Firestore considers 1 and 1.0 the same value, and stores dates as timestamps.
+	 */
+	static Object normalize(Object value) {
+		if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+			return ((Number) value).longValue();
+		}
+
+		if (value instanceof Double || value instanceof Float) {
+			double number = ((Number) value).doubleValue();
+			return number == Math.rint(number) && !Double.isInfinite(number) && Math.abs(number) < 0x1p63
+				? (Object) (long) number
+				: (Object) number;
+		}
+
+		if (value instanceof Date) {
+			return Timestamp.of((Date) value);
+		}
+
+		if (value instanceof List) {
+			List<Object> list = new ArrayList<>(((List<?>) value).size());
+			for (Object elem : (List<?>) value) {
+				list.add(normalize(elem));
+			}
+			return list;
+		}
+
+		return value;
+	}
+
+	private static boolean isRangeComparable(Object value) {
+		int order = typeOrder(value);
+		return order > 0 && order < 5;
+	}
+
+	/**
+	 * Firestore type ordering: null, booleans, numbers, timestamps, strings and then everything else.
+	 */
+	private static int typeOrder(Object value) {
+		if (value == null) {
+			return 0;
+		} else if (value instanceof Boolean) {
+			return 1;
+		} else if (value instanceof Number) {
+			return 2;
+		} else if (value instanceof Timestamp) {
+			return 3;
+		} else if (value instanceof String) {
+			return 4;
+		} else {
+			return 5;
+		}
+	}
+
+	static int compareValues(Object left, Object right) {
+		int byType = Integer.compare(typeOrder(left), typeOrder(right));
+		if (byType != 0) {
+			return byType;
+		}
+
+		if (left instanceof Boolean) {
+			return ((Boolean) left).compareTo((Boolean) right);
+		} else if (left instanceof Long && right instanceof Long) {
+			return ((Long) left).compareTo((Long) right);
+		} else if (left instanceof Number) {
+			return Double.compare(((Number) left).doubleValue(), ((Number) right).doubleValue());
+		} else if (left instanceof Timestamp) {
+			return ((Timestamp) left).compareTo((Timestamp) right);
+		} else if (left instanceof String) {
+			return ((String) left).compareTo((String) right);
+		}
+
+		return 0;
+	}
+}
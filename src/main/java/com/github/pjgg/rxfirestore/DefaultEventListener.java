@@ -17,6 +17,8 @@
 
 package com.github.pjgg.rxfirestore;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
@@ -28,16 +30,40 @@ import com.google.cloud.firestore.EventListener;
 import com.google.cloud.firestore.FirestoreException;
 import com.google.cloud.firestore.QuerySnapshot;
 
+import io.reactivex.BackpressureOverflowStrategy;
 import io.reactivex.Flowable;
 import io.reactivex.processors.PublishProcessor;
 
+/**
+ * DefaultEventListener turns document changes into entities. getSource emits a change at a time and getBatches a list
+ * of changes per snapshot, so a whole burst could be processed in one go. Entities are only built for the flows that
+ * have subscribers. What happens when a subscriber is busy is defined by ListenerBackpressure.
+ */
 public class DefaultEventListener<E extends Entity> implements EventListener<QuerySnapshot> {
 
-	private PublishProcessor<E> source = PublishProcessor.create();
-	private Entity response;
+	public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+	private final PublishProcessor<E> source = PublishProcessor.create();
+	private final PublishProcessor<List<E>> batches = PublishProcessor.create();
+	private final LatestByKeyBuffer<E> latestByDocument;
+	private final Entity response;
+	private final ListenerBackpressure backpressure;
+	private final int bufferSize;
 
 	public DefaultEventListener(Entity response) {
+		this(response, ListenerBackpressure.LATEST, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param response entity used to build the entities of the changes (see Entity.fromJsonAsMap).
+	 * @param backpressure what to do with the changes while a subscriber is busy.
+	 * @param bufferSize max amount of buffered changes (or batches) on BUFFER and DROP_OLDEST.
+	 */
+	public DefaultEventListener(Entity response, ListenerBackpressure backpressure, int bufferSize) {
 		this.response = Objects.requireNonNull(response);
+		this.backpressure = Objects.requireNonNull(backpressure);
+		this.bufferSize = bufferSize;
+		latestByDocument = backpressure == ListenerBackpressure.LATEST_PER_DOCUMENT ? new LatestByKeyBuffer<>() : null;
 	}
 
 	@Override
@@ -45,41 +71,85 @@ public class DefaultEventListener<E extends Entity> implements EventListener<Que
 
 		if (e != null) {
 			source.onError(e);
+			batches.onError(e);
+			if (latestByDocument != null) {
+				latestByDocument.onError(e);
+			}
+			return;
+		}
+
+		boolean perChange = source.hasSubscribers() || latestByDocument != null;
+		boolean perSnapshot = batches.hasSubscribers();
+		if (!perChange && !perSnapshot) {
 			return;
 		}
 
-		for (DocumentChange dc : snapshots.getDocumentChanges()) {
-			switch (dc.getType()) {
-				case ADDED:
-					Map<String, Object> dataAdded = dc.getDocument().getData();
-					dataAdded.put("_id", Optional.ofNullable(dc.getDocument().getId()).orElse("NONE"));
-					dataAdded.put("_eventType", DocumentChange.Type.ADDED.toString());
-					source.onNext((E) response.fromJsonAsMap(dataAdded));
-					break;
-
-				case MODIFIED:
-					Map<String, Object> dataUpdated = dc.getDocument().getData();
-					dataUpdated.put("_id", Optional.ofNullable(dc.getDocument().getId()).orElse("NONE"));
-					dataUpdated.put("_eventType", DocumentChange.Type.MODIFIED.toString());
-					source.onNext((E) response.fromJsonAsMap(dataUpdated));
-					break;
-
-				case REMOVED:
-					Map<String, Object> dataRemoved = dc.getDocument().getData();
-					dataRemoved.put("_id", Optional.ofNullable(dc.getDocument().getId()).orElse("NONE"));
-					dataRemoved.put("_eventType", DocumentChange.Type.REMOVED.toString());
-					source.onNext((E) response.fromJsonAsMap(dataRemoved));
-					break;
-
-				default:
-					break;
+		List<DocumentChange> changes = snapshots.getDocumentChanges();
+		List<E> batch = perSnapshot ? new ArrayList<>(changes.size()) : null;
+		for (DocumentChange dc : changes) {
+			String id = Optional.ofNullable(dc.getDocument().getId()).orElse("NONE");
+			Map<String, Object> data = dc.getDocument().getData();
+			data.put("_id", id);
+			data.put("_eventType", dc.getType().toString());
+			E entity = (E) response.fromJsonAsMap(data);
+
+			if (perChange) {
+				publish(id, entity);
+			}
+
+			if (perSnapshot) {
+				batch.add(entity);
 			}
 		}
+
+		if (perSnapshot && !batch.isEmpty()) {
+			publishBatch(batch);
+		}
 	}
 
+	void publish(String id, E entity) {
+		if (latestByDocument != null) {
+			latestByDocument.offer(id, entity);
+		} else {
+			source.onNext(entity);
+		}
+	}
+
+	void publishBatch(List<E> batch) {
+		batches.onNext(batch);
+	}
+
+	/**
+	 * @return Flowable with a change at a time. On LATEST_PER_DOCUMENT it allows a single subscriber.
+	 */
 	public Flowable<E> getSource() {
-		return source.onBackpressureLatest();
+		if (latestByDocument != null) {
+			return latestByDocument.toFlowable();
+		}
+
+		return withBackpressure(source);
+	}
+
+	/**
+	 * @return Flowable with the changes of each snapshot. Batches are never merged, so LATEST_PER_DOCUMENT buffers
+	 * them as BUFFER does.
+	 */
+	public Flowable<List<E>> getBatches() {
+		return withBackpressure(batches);
 	}
 
+	private <T> Flowable<T> withBackpressure(Flowable<T> flow) {
+		return withBackpressure(flow, backpressure, bufferSize);
+	}
 
+	static <T> Flowable<T> withBackpressure(Flowable<T> flow, ListenerBackpressure backpressure, int bufferSize) {
+		switch (backpressure) {
+			case LATEST:
+				return flow.onBackpressureLatest();
+			case DROP_OLDEST:
+				return flow.onBackpressureBuffer(bufferSize, null, BackpressureOverflowStrategy.DROP_OLDEST);
+			default:
+				return flow.onBackpressureBuffer(bufferSize, null, BackpressureOverflowStrategy.ERROR);
+		}
+	}
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import com.google.cloud.firestore.FieldValue;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * DirtyTrackingEntity remembers the document it was read from, so that update and upsert of that same document only
+ * send the fields that changed since then, instead of the whole entity. Changes are found by comparing the current
+ * document (see Entity.toMap) with the remembered one. Changes of nested maps are expressed as dotted field paths,
+ * like "engine.power", and removed fields are deleted. Writes to any other document (or collection) send the whole
+ * entity.
+ * <p>
+ * Entities are remembered when they are retrieved through RxFirestoreSdk and after every successful write of the whole
+ * entity or of its changes, batched and transactional ones included. Entities built by the application have nothing
+ * to compare with, so they are fully written, unless markClean is called.
+ */
+public abstract class DirtyTrackingEntity implements Entity {
+
+	private transient String cleanPath;
+	private transient Map<String, Object> clean;
+
+	/**
+	 * Remember the current state as the stored one of the given document: only later changes will be written to it.
+	 */
+	public void markClean(String id, String collectionName) {
+		markClean(path(id, collectionName), toMap());
+	}
+
+	/**
+	 * @param path of the stored document, see path.
+	 * @param current document to compare changes with, see Entity.toMap. It is copied, as it may hold the lists and
+	 * maps of the entity itself, that would change along with it.
+	 */
+	void markClean(String path, Map<String, Object> current) {
+		cleanPath = path;
+		clean = Documents.copy(current);
+	}
+
+	/**
+	 * @return true if there is something to write: any field changed, or the entity was never stored.
+	 */
+	public boolean hasChanges() {
+		Map<String, Object> changes = changesFrom(toMap());
+		return changes == null || !changes.isEmpty();
+	}
+
+	/**
+	 * @return dotted paths of the changed fields, or every field if the entity was never stored.
+	 */
+	public Set<String> changedFields() {
+		Map<String, Object> current = toMap();
+		Map<String, Object> changes = changesFrom(current);
+		return changes == null ? current.keySet() : changes.keySet();
+	}
+
+	/**
+	 * @param current document, see Entity.toMap.
+	 * @return changed values by dotted field path, FieldValue.delete() for removed fields. Null if the entity was never
+	 * stored.
+	 */
+	Map<String, Object> changesFrom(Map<String, Object> current) {
+		if (clean == null) {
+			return null;
+		}
+
+		Map<String, Object> changes = new LinkedHashMap<>();
+		diff("", clean, current, changes);
+		return changes;
+	}
+
+	/**
+	 * @param path of the written document, see path.
+	 * @return changes, see changesFrom. Null if the entity was not stored as that document.
+	 */
+	Map<String, Object> changesFrom(String path, Map<String, Object> current) {
+		return path.equals(cleanPath) ? changesFrom(current) : null;
+	}
+
+	/**
+	 * @return document path as collectionName/id, the same key used by the document cache.
+	 */
+	static String path(String id, String collectionName) {
+		return collectionName + "/" + id;
+	}
+
+	/**
+	 * Nested document with the changed values, in order to merge it with set, where keys are not field paths.
+	 */
+	static HashMap<String, Object> nest(Map<String, Object> changes) {
+		HashMap<String, Object> document = new HashMap<>();
+		changes.forEach((path, value) -> {
+			String[] segments = path.split("\\.");
+			Map<String, Object> parent = document;
+			for (int i = 0; i < segments.length - 1; i++) {
+				parent = (Map<String, Object>) parent.computeIfAbsent(segments[i],
+					key -> new HashMap<String, Object>());
+			}
+			parent.put(segments[segments.length - 1], value);
+		});
+		return document;
+	}
+
+	private static void diff(String prefix, Map<String, Object> before, Map<String, Object> after,
+		Map<String, Object> changes) {
+		after.forEach((field, value) -> {
+			Object previous = before.get(field);
+			if (!before.containsKey(field)) {
+				changes.put(prefix + field, value);
+			} else if (previous instanceof Map && value instanceof Map) {
+				diff(prefix + field + ".", (Map<String, Object>) previous, (Map<String, Object>) value, changes);
+			} else if (!Objects.equals(previous, value)) {
+				changes.put(prefix + field, value);
+			}
+		});
+
+		before.keySet().forEach(field -> {
+			if (!after.containsKey(field)) {
+				changes.put(prefix + field, FieldValue.delete());
+			}
+		});
+	}
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+/**
+ * DispatchMode defines how RxFirestoreSdk reaches Firestore.
+ * <p>
+ * EVENT_BUS: every operation is sent through the Vertx event bus to a FirestoreTemplate worker verticle.
+ * <p>
+ * DIRECT: operations are invoked in-process on a FirestoreTemplate owned by the repository and the Firestore
+ * ApiFuture is returned as a Single, so there is no event bus hop, no context switch and no JSON round trip.
+ */
+public enum DispatchMode {
+
+	EVENT_BUS,
+	DIRECT
+}
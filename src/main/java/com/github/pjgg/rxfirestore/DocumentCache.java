@@ -0,0 +1,220 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * DocumentCache is a read-through cache of documents, bounded by entries and by estimated bytes, with LRU eviction and
+ * TTL expiration.
+ * <p>
+ * A read that was running while a write was invalidating the cache does not populate the cache, so a stale document
+ * is never cached after a write has finished. Documents are copied on put and get, nested maps and lists included,
+ * as entities keep the nested values of the document they are built from.
+ */
+public class DocumentCache {
+
+	private static final long MAP_OVERHEAD_BYTES = 48;
+	private static final long ENTRY_OVERHEAD_BYTES = 32;
+	private static final long STRING_OVERHEAD_BYTES = 40;
+	private static final long VALUE_BYTES = 16;
+
+	private final int maxEntries;
+	private final long maxBytes;
+	private final long ttlNanos;
+	private final LongSupplier nanoTime;
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes;
+	private long epoch;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long expirations;
+
+	/**
+	 * @param maxEntries max amount of cached documents.
+	 * @param maxBytes max estimated size of the cached documents.
+	 * @param ttlMs time to live of a cached document. Zero or less means no expiration.
+	 */
+	public DocumentCache(int maxEntries, long maxBytes, long ttlMs) {
+		this(maxEntries, maxBytes, ttlMs, System::nanoTime);
+	}
+
+	DocumentCache(int maxEntries, long maxBytes, long ttlMs, LongSupplier nanoTime) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("maxEntries must be greater than zero");
+		}
+
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		this.ttlNanos = ttlMs > 0 ? ttlMs * 1_000_000 : Long.MAX_VALUE;
+		this.nanoTime = nanoTime;
+	}
+
+	/**
+	 * @return cached document, or null if there is no document or it has expired.
+	 */
+	public synchronized Map<String, Object> get(String key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+
+		if (nanoTime.getAsLong() - entry.createdAt >= ttlNanos) {
+			remove(key);
+			expirations++;
+			misses++;
+			return null;
+		}
+
+		hits++;
+		return Documents.copy(entry.document);
+	}
+
+	/**
+	 * Invalidation epoch. Read it before fetching a document and pass it to put.
+	 */
+	public synchronized long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * Cache a fetched document, unless the cache has been invalidated since the fetch started.
+	 */
+	public synchronized void put(String key, Map<String, Object> document, long fetchEpoch) {
+		if (fetchEpoch != epoch) {
+			return;
+		}
+
+		long size = estimateSize(key) + estimateSize(document);
+		if (size > maxBytes) {
+			return;
+		}
+
+		remove(key);
+		entries.put(key, new Entry(Documents.copy(document), size, nanoTime.getAsLong()));
+		bytes += size;
+
+		Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+		while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+			bytes -= eldest.next().getValue().size;
+			eldest.remove();
+			evictions++;
+		}
+	}
+
+	public synchronized void invalidate(String key) {
+		epoch++;
+		remove(key);
+	}
+
+	public synchronized void invalidateAll() {
+		epoch++;
+		entries.clear();
+		bytes = 0;
+	}
+
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	/**
+	 * Estimated memory footprint of the cached documents.
+	 */
+	public synchronized long getEstimatedBytes() {
+		return bytes;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized double getHitRatio() {
+		long requests = hits + misses;
+		return requests == 0 ? 0 : (double) hits / requests;
+	}
+
+	/**
+	 * Amount of documents evicted because of entries or bytes limits.
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized long getExpirations() {
+		return expirations;
+	}
+
+	private void remove(String key) {
+		Entry removed = entries.remove(key);
+		if (removed != null) {
+			bytes -= removed.size;
+		}
+	}
+
+	/**
+	 * Rough estimation of the heap used by a document value.
+	 */
+	static long estimateSize(Object value) {
+		if (value instanceof String) {
+			return STRING_OVERHEAD_BYTES + 2L * ((String) value).length();
+		}
+
+		if (value instanceof Map) {
+			long size = MAP_OVERHEAD_BYTES;
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				size += ENTRY_OVERHEAD_BYTES + estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+			}
+			return size;
+		}
+
+		if (value instanceof Collection) {
+			long size = MAP_OVERHEAD_BYTES;
+			for (Object elem : (Collection<?>) value) {
+				size += 8 + estimateSize(elem);
+			}
+			return size;
+		}
+
+		return VALUE_BYTES;
+	}
+
+	private static final class Entry {
+
+		private final Map<String, Object> document;
+		private final long size;
+		private final long createdAt;
+
+		Entry(Map<String, Object> document, long size, long createdAt) {
+			this.document = document;
+			this.size = size;
+			this.createdAt = createdAt;
+		}
+	}
+}
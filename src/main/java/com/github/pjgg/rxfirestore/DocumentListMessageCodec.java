@@ -0,0 +1,61 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.MessageCodec;
+import io.vertx.core.json.Json;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Event bus codec for query results. Local sends pass the list reference (no copy and no JSON), when the event bus is
+ * clustered the documents are sent as a JSON array.
+ */
+public class DocumentListMessageCodec implements MessageCodec<List<Map<String, Object>>, List<Map<String, Object>>> {
+
+	public static final String NAME = "rxfirestore.documentList";
+
+	@Override
+	public void encodeToWire(Buffer buffer, List<Map<String, Object>> documents) {
+		Buffer json = Json.encodeToBuffer(documents);
+		buffer.appendInt(json.length());
+		buffer.appendBuffer(json);
+	}
+
+	@Override
+	public List<Map<String, Object>> decodeFromWire(int pos, Buffer buffer) {
+		int length = buffer.getInt(pos);
+		return Json.decodeValue(buffer.getBuffer(pos + 4, pos + 4 + length), List.class);
+	}
+
+	@Override
+	public List<Map<String, Object>> transform(List<Map<String, Object>> documents) {
+		return documents;
+	}
+
+	@Override
+	public String name() {
+		return NAME;
+	}
+
+	@Override
+	public byte systemCodecID() {
+		return -1;
+	}
+}
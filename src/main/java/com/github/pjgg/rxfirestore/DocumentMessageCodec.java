@@ -0,0 +1,60 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.MessageCodec;
+import io.vertx.core.json.Json;
+import java.util.HashMap;
+
+/**
+ * Event bus codec for Firestore documents. Local sends pass the map reference (no copy and no JSON), when the event
+ * bus is clustered the document is sent as JSON.
+ */
+public class DocumentMessageCodec implements MessageCodec<HashMap<String, Object>, HashMap<String, Object>> {
+
+	public static final String NAME = "rxfirestore.document";
+
+	@Override
+	public void encodeToWire(Buffer buffer, HashMap<String, Object> document) {
+		Buffer json = Json.encodeToBuffer(document);
+		buffer.appendInt(json.length());
+		buffer.appendBuffer(json);
+	}
+
+	@Override
+	public HashMap<String, Object> decodeFromWire(int pos, Buffer buffer) {
+		int length = buffer.getInt(pos);
+		return Json.decodeValue(buffer.getBuffer(pos + 4, pos + 4 + length), HashMap.class);
+	}
+
+	@Override
+	public HashMap<String, Object> transform(HashMap<String, Object> document) {
+		return document;
+	}
+
+	@Override
+	public String name() {
+		return NAME;
+	}
+
+	@Override
+	public byte systemCodecID() {
+		return -1;
+	}
+}
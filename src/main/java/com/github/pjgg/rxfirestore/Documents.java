@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Document helpers. Entities keep the nested maps and lists of the documents they are built from, and documents
+ * built by Entity.toMap hold the fields of the entity, so documents kept beyond a call are copied.
+ */
+final class Documents {
+
+	private Documents() {
+	}
+
+	/**
+	 * @return copy of the document, nested maps, lists and dates included. Other Firestore values are immutable.
+	 */
+	static Map<String, Object> copy(Map<String, Object> document) {
+		Map<String, Object> copy = new HashMap<>(document.size() * 4 / 3 + 1);
+		document.forEach((field, value) -> copy.put(field, copyValue(value)));
+		return copy;
+	}
+
+	/**
+	 * @return copy of a document value, see copy.
+	 */
+	static Object copyValue(Object value) {
+		if (value instanceof Map) {
+			return copy((Map<String, Object>) value);
+		}
+		if (value instanceof List) {
+			List<?> list = (List<?>) value;
+			List<Object> copy = new ArrayList<>(list.size());
+			list.forEach(elem -> copy.add(copyValue(elem)));
+			return copy;
+		}
+		if (value instanceof Date) {
+			return new Date(((Date) value).getTime());
+		}
+		return value;
+	}
+}
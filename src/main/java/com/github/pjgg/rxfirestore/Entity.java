@@ -17,6 +17,7 @@
 
 package com.github.pjgg.rxfirestore;
 
+import com.github.pjgg.rxfirestore.mapper.EntityMappers;
 import io.vertx.core.json.Json;
 import java.util.HashMap;
 import java.util.Map;
@@ -26,12 +27,30 @@ public interface Entity {
 	String getCollectionName();
 
 	/**
-	 * Note that your will receive two extra fields _id and _eventType
+	 * Note that your will receive two extra fields _id and _eventType. Documents retrieved by a query with select only
+	 * have the selected fields, so every other field may be missing.
+	 * <p>
+	 * Entities annotated with FirestoreEntity don't need to implement this method, the generated mapper is used.
 	 */
-	Entity fromJsonAsMap(Map<String, Object> json);
+	default Entity fromJsonAsMap(Map<String, Object> json) {
+		return EntityMappers.lookup((Class<Entity>) getClass())
+			.map(entityMapper -> entityMapper.fromMap(json, this))
+			.orElseThrow(() -> new UnsupportedOperationException(
+				getClass().getName() + " must implement fromJsonAsMap or be annotated with @FirestoreEntity"));
+	}
 
 	default String toJson() {
 		return Json.encode(this);
 	}
 
+	/**
+	 * The document that is stored in Firestore. Uses the generated mapper when the entity is annotated with
+	 * FirestoreEntity, Jackson otherwise.
+	 */
+	default HashMap<String, Object> toMap() {
+		return EntityMappers.lookup((Class<Entity>) getClass())
+			.map(entityMapper -> entityMapper.toMap(this))
+			.orElseGet(() -> Json.mapper.convertValue(this, HashMap.class));
+	}
+
 }
@@ -20,15 +20,23 @@ package com.github.pjgg.rxfirestore;
 import com.google.cloud.firestore.ListenerRegistration;
 
 import io.reactivex.Flowable;
+import java.util.List;
 
 public class EventListenerResponse<E extends Entity> {
 
 	private Flowable<E> eventsFlow;
 
+	private Flowable<List<E>> batchesFlow;
+
 	private ListenerRegistration registration;
 
 	public EventListenerResponse(Flowable<E> e, ListenerRegistration r) {
+		this(e, Flowable.empty(), r);
+	}
+
+	public EventListenerResponse(Flowable<E> e, Flowable<List<E>> b, ListenerRegistration r) {
 		eventsFlow = e;
+		batchesFlow = b;
 		registration = r;
 	}
 
@@ -40,6 +48,17 @@ public class EventListenerResponse<E extends Entity> {
 		this.eventsFlow = eventsFlow;
 	}
 
+	/**
+	 * @return Flowable with a list of changes per snapshot, instead of a change at a time.
+	 */
+	public Flowable<List<E>> getBatchesFlow() {
+		return batchesFlow;
+	}
+
+	public void setBatchesFlow(Flowable<List<E>> batchesFlow) {
+		this.batchesFlow = batchesFlow;
+	}
+
 	public ListenerRegistration getRegistration() {
 		return registration;
 	}
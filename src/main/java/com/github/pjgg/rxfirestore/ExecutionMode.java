@@ -0,0 +1,43 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+/**
+ * ExecutionMode defines how FirestoreTemplate handlers wait for Firestore responses.
+ * <p>
+ * BLOCKING: the worker thread that handles the event bus message waits until the Firestore SDK call ends, so the
+ * amount of concurrent calls is bounded by DB_THREAD_POOL_SIZE.
+ * <p>
+ * ASYNC: the Firestore ApiFuture is bridged straight into the event bus reply and the worker thread is released
+ * immediately, so the amount of concurrent calls is only bounded by DB_MAX_IN_FLIGHT.
+ */
+public enum ExecutionMode {
+
+	BLOCKING,
+	ASYNC;
+
+	public static ExecutionMode fromString(String mode) {
+		for (ExecutionMode value : values()) {
+			if (value.name().equalsIgnoreCase(mode)) {
+				return value;
+			}
+		}
+
+		throw new IllegalArgumentException("Unknown execution mode " + mode);
+	}
+}
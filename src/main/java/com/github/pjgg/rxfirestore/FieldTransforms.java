@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import com.google.cloud.firestore.FieldValue;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * FieldTransforms are field changes applied by Firestore on the stored value, so they do not need to read the
+ * document first and they are not lost under concurrent writes: counters, array members and server timestamps.
+ * Fields are dotted paths, like "stats.views". A field can only be changed once per write.
+ * <p>
+ * example:
+ * <p>
+ * {@code new FieldTransforms().increment("views", 1).arrayUnion("tags", "hybrid").serverTimestamp("updatedAt")}
+ */
+public final class FieldTransforms {
+
+	private final Map<String, Object> fields = new LinkedHashMap<>();
+
+	/**
+	 * Add the value to the stored number, a missing or non numeric field is set to the value.
+	 */
+	public FieldTransforms increment(final String field, final long value) {
+		return put(field, FieldValue.increment(value));
+	}
+
+	public FieldTransforms increment(final String field, final double value) {
+		return put(field, FieldValue.increment(value));
+	}
+
+	/**
+	 * Add the elements that are not already in the stored array, a missing or non array field is set to the elements.
+	 */
+	public FieldTransforms arrayUnion(final String field, final Object... elements) {
+		return put(field, FieldValue.arrayUnion(elements));
+	}
+
+	/**
+	 * Remove every instance of the elements from the stored array, a missing or non array field is set to an empty
+	 * array.
+	 */
+	public FieldTransforms arrayRemove(final String field, final Object... elements) {
+		return put(field, FieldValue.arrayRemove(elements));
+	}
+
+	/**
+	 * Set the field to the time the write is committed by the server.
+	 */
+	public FieldTransforms serverTimestamp(final String field) {
+		return put(field, FieldValue.serverTimestamp());
+	}
+
+	/**
+	 * Set the field to a plain value, together with the transforms.
+	 */
+	public FieldTransforms set(final String field, final Object value) {
+		return put(field, value);
+	}
+
+	public FieldTransforms delete(final String field) {
+		return put(field, FieldValue.delete());
+	}
+
+	public boolean isEmpty() {
+		return fields.isEmpty();
+	}
+
+	/**
+	 * @return changes by dotted field path, as taken by Firestore update.
+	 */
+	public HashMap<String, Object> toMap() {
+		return new HashMap<>(fields);
+	}
+
+	private FieldTransforms put(final String field, final Object value) {
+		if (fields.containsKey(field)) {
+			throw new IllegalArgumentException("Field " + field + " is already changed by this write");
+		}
+
+		fields.put(field, value);
+		return this;
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * FirestoreClients keeps a single Firestore client per project and database. Every FirestoreTemplate verticle instance
+ * and every BlockingFirestoreTemplate acquire the same client, so gRPC channels, credentials refresh and their threads
+ * are shared. The client is closed when the last user releases it, and a new one is built on next acquire.
+ */
+final class FirestoreClients {
+
+	private final Function<FirestoreOptions, Firestore> factory;
+	private final Map<String, Client> clients = new HashMap<>();
+
+	/**
+	 * @param factory builds the client of the given options, see FirestoreOptions.getService.
+	 */
+	FirestoreClients(Function<FirestoreOptions, Firestore> factory) {
+		this.factory = factory;
+	}
+
+	synchronized Firestore acquire(FirestoreOptions options) {
+		Client client = clients.computeIfAbsent(key(options), key -> new Client(factory.apply(options)));
+		client.references++;
+		return client.firestore;
+	}
+
+	/**
+	 * Releases a client returned by acquire. Unknown or already closed clients are ignored.
+	 */
+	void release(Firestore firestore) {
+		Firestore closed = null;
+
+		synchronized (this) {
+			Iterator<Client> iterator = clients.values().iterator();
+			while (iterator.hasNext()) {
+				Client client = iterator.next();
+				if (client.firestore == firestore && --client.references == 0) {
+					iterator.remove();
+					closed = client.firestore;
+				}
+			}
+		}
+
+		if (closed != null) {
+			try {
+				closed.close();
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	synchronized int getReferences(FirestoreOptions options) {
+		Client client = clients.get(key(options));
+		return client == null ? 0 : client.references;
+	}
+
+	static String key(FirestoreOptions options) {
+		return options.getProjectId() + "/" + options.getDatabaseId();
+	}
+
+	private static final class Client {
+
+		private final Firestore firestore;
+		private int references;
+
+		Client(Firestore firestore) {
+			this.firestore = firestore;
+		}
+	}
+}
@@ -17,37 +17,47 @@
 
 package com.github.pjgg.rxfirestore;
 
+import com.github.pjgg.rxfirestore.exceptions.NotFoundExceptions;
+import com.github.pjgg.rxfirestore.exceptions.PreconditionFailedExceptions;
 import com.github.pjgg.rxfirestore.exceptions.RxFirestoreExceptions;
 import com.google.cloud.firestore.CollectionReference;
+import io.reactivex.BackpressureOverflowStrategy;
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
 import io.reactivex.Single;
-import io.reactivex.subjects.SingleSubject;
-import io.vertx.core.eventbus.ReplyException;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import io.vertx.reactivex.core.eventbus.EventBus;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-
-import org.apache.commons.lang3.SerializationUtils;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 
 import com.google.api.core.ApiFuture;
 import com.google.api.core.ApiFutures;
-import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.Timestamp;
 import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
 import com.google.cloud.firestore.Firestore;
-import com.google.cloud.firestore.FirestoreOptions;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.Precondition;
 import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.SetOptions;
+import com.google.cloud.firestore.WriteBatch;
 import com.google.cloud.firestore.WriteResult;
+import com.google.common.collect.Lists;
 import com.google.common.collect.ImmutableList;
 
-import io.vertx.core.json.Json;
+import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.reactivex.core.AbstractVerticle;
 import io.vertx.reactivex.core.eventbus.Message;
 import io.vertx.reactivex.core.eventbus.MessageConsumer;
@@ -66,24 +76,68 @@ public class FirestoreTemplate extends AbstractVerticle {
 	public static final String TOPIC_QUERY = "FIRESTORE_QUERY";
 	public static final String TOPIC_CLOSE = "FIRESTORE_CLOSE";
 	public static final String TOPIC_QUERY_BUILDER = "FIRESTORE_QUERY_BUILDER";
+	public static final String TOPIC_INSERT_ALL = "FIRESTORE_INSERT_ALL";
+	public static final String TOPIC_UPSERT_ALL = "FIRESTORE_UPSERT_ALL";
+	public static final String TOPIC_UPDATE_ALL = "FIRESTORE_UPDATE_ALL";
+	public static final String TOPIC_DELETE_ALL = "FIRESTORE_DELETE_ALL";
+	public static final String TOPIC_GET_ALL = "FIRESTORE_GET_ALL";
+	public static final String TOPIC_QUERY_PAGE = "FIRESTORE_QUERY_PAGE";
+	public static final String TOPIC_QUERY_STREAM = "FIRESTORE_QUERY_STREAM";
+
+	/**
+	 * Firestore limit of writes in a single WriteBatch.
+	 */
+	public static final int MAX_BATCH_SIZE = 500;
+
+	/**
+	 * Amount of documents requested in each getAll RPC.
+	 */
+	public static final int GET_ALL_CHUNK_SIZE = 100;
+
+	/**
+	 * Amount of documents requested per page when a query is streamed.
+	 */
+	public static final int DEFAULT_PAGE_SIZE = 300;
+
+	/**
+	 * Amount of documents requested per page when only a few fields (or none) are retrieved, as in streamIds or
+	 * aggregations.
+	 */
+	public static final int PROJECTED_PAGE_SIZE = 1000;
+
+	/**
+	 * Amount of documents retrieved by a query without limit. Use stream in order to walk bigger result sets.
+	 */
+	public static final int DEFAULT_QUERY_LIMIT = 20;
+
+	/**
+	 * Max amount of documents of a streaming query sent in a single event bus message.
+	 */
+	public static final int STREAM_CHUNK_SIZE = 100;
+
+	/**
+	 * Max time that a streamed document waits for its chunk to be full before being sent through the event bus.
+	 */
+	public static final long STREAM_CHUNK_MS = 10;
+
+	/**
+	 * Max time that a streamed chunk waits for the acknowledgement of the subscriber.
+	 */
+	static final long STREAM_ACK_TIMEOUT_MS = 30000;
 
 	private final Firestore firestore;
+	private final ExecutionMode executionMode;
+	private final InFlightLimiter inFlightLimiter;
+	private final Optional<WriteCoalescer> writeCoalescer;
+	private final AtomicBoolean closed = new AtomicBoolean();
 
 	public FirestoreTemplate() {
+		executionMode = FirestoreTemplateFactory.INSTANCE.getExecutionMode();
+		inFlightLimiter = FirestoreTemplateFactory.INSTANCE.getInFlightLimiter();
 
-		try {
-			firestore = FirestoreOptions.newBuilder()
-					/*
-					* See for further information about authentication
-					* https://cloud.google.com/docs/authentication/production
-					* In order to use different project-id than the one defined in applicationDefaultCredentials
-					* you can use GCLOUD_PROJECT environment variable 
-					*/
-					.setCredentials(GoogleCredentials.getApplicationDefault().createScoped(FirestoreTemplate.SCOPES))
-					.build().getService();
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
+		firestore = FirestoreTemplateFactory.INSTANCE.acquireFirestore();
+
+		writeCoalescer = FirestoreTemplateFactory.INSTANCE.acquireWriteCoalescer();
 	}
 
 
@@ -109,25 +163,62 @@ public class FirestoreTemplate extends AbstractVerticle {
 		MessageConsumer<Object> deleteConsumer = firestoreEventBus.localConsumer(TOPIC_DELETE);
 		deleteConsumer.handler(this::handlerDelete);
 
-		MessageConsumer<byte[]> queryBuilderConsumer = firestoreEventBus.localConsumer(TOPIC_QUERY_BUILDER);
+		MessageConsumer<Object> queryBuilderConsumer = firestoreEventBus.localConsumer(TOPIC_QUERY_BUILDER);
 		queryBuilderConsumer.handler(this::handlerQueryBuilder);
 
-		MessageConsumer<byte[]> queryConsumer = firestoreEventBus.localConsumer(TOPIC_QUERY);
+		MessageConsumer<Object> queryConsumer = firestoreEventBus.localConsumer(TOPIC_QUERY);
 		queryConsumer.handler(this::handlerQuery);
 
+		MessageConsumer<Object> insertAllConsumer = firestoreEventBus.localConsumer(TOPIC_INSERT_ALL);
+		insertAllConsumer.handler(this::handlerInsertAll);
+
+		MessageConsumer<Object> upsertAllConsumer = firestoreEventBus.localConsumer(TOPIC_UPSERT_ALL);
+		upsertAllConsumer.handler(this::handlerUpsertAll);
+
+		MessageConsumer<Object> updateAllConsumer = firestoreEventBus.localConsumer(TOPIC_UPDATE_ALL);
+		updateAllConsumer.handler(this::handlerUpdateAll);
+
+		MessageConsumer<Object> deleteAllConsumer = firestoreEventBus.localConsumer(TOPIC_DELETE_ALL);
+		deleteAllConsumer.handler(this::handlerDeleteAll);
+
+		MessageConsumer<Object> getAllConsumer = firestoreEventBus.localConsumer(TOPIC_GET_ALL);
+		getAllConsumer.handler(this::handlerGetAll);
+
+		MessageConsumer<Object> queryPageConsumer = firestoreEventBus.localConsumer(TOPIC_QUERY_PAGE);
+		queryPageConsumer.handler(this::handlerQueryPage);
+
+		MessageConsumer<Object> queryStreamConsumer = firestoreEventBus.localConsumer(TOPIC_QUERY_STREAM);
+		queryStreamConsumer.handler(this::handlerQueryStream);
+
 		MessageConsumer<Void> closeClient = firestoreEventBus.localConsumer(TOPIC_CLOSE);
 		closeClient.handler(this::handlerClose);
 
 	}
 
+	@Override
+	public void stop() {
+		close();
+	}
+
 	public String insert(final HashMap<String, Object> entity, final String collectionName) {
 		LOG.trace("Insert blocking Firestore SDK call. Collection " + collectionName);
 
-		SingleEntityIdCallbackHandler singleEntityId = new SingleEntityIdCallbackHandler<String>();
-		ApiFuture<DocumentReference> response = firestore.collection(collectionName).add(entity);
+		return rxInsert(entity, collectionName).blockingGet();
+	}
 
-		ApiFutures.addCallback(response, singleEntityId, Runnable::run);
-		return (String) singleEntityId.getEntityId().blockingGet();
+	/**
+	 * Non blocking version of insert. The Firestore ApiFuture is bridged into the returned Single, so no thread is
+	 * parked while the RPC is running.
+	 */
+	public Single<String> rxInsert(final HashMap<String, Object> entity, final String collectionName) {
+		LOG.trace("Insert async Firestore SDK call. Collection " + collectionName);
+
+		return inFlightLimiter.submit(() -> {
+			SingleEntityIdCallbackHandler<String> singleEntityId = new SingleEntityIdCallbackHandler<>();
+			ApiFuture<DocumentReference> response = firestore.collection(collectionName).add(entity);
+			ApiFutures.addCallback(response, singleEntityId, Runnable::run);
+			return singleEntityId.getEntityId();
+		});
 	}
 
 
@@ -142,39 +233,356 @@ public class FirestoreTemplate extends AbstractVerticle {
 	public Boolean upsert(final HashMap<String, Object> entity, final String id, final String collectionName) {
 		LOG.trace("Upsert blocking Firestore SDK call. Collection " + collectionName);
 
-		UpdateCallbackHandler updateCallbackHandler = new UpdateCallbackHandler();
-		ApiFuture<WriteResult> response = firestore.collection(collectionName).document(id).set(entity);
-		ApiFutures.addCallback(response, updateCallbackHandler, Runnable::run);
-		return updateCallbackHandler.isUpdated().blockingGet();
+		return rxUpsert(entity, id, collectionName).blockingGet();
+	}
+
+	public Single<Boolean> rxUpsert(final HashMap<String, Object> entity, final String id,
+			final String collectionName) {
+		return rxUpsert(entity, id, collectionName, false);
+	}
+
+	/**
+	 * @param merge only write the fields of the document, leaving the rest of the stored document as it is. Nested
+	 * maps are merged too, see SetOptions.merge.
+	 */
+	public Single<Boolean> rxUpsert(final HashMap<String, Object> entity, final String id,
+			final String collectionName, final boolean merge) {
+		LOG.trace("Upsert async Firestore SDK call. Collection " + collectionName + " merge " + merge);
+
+		SetOptions options = merge ? SetOptions.merge() : null;
+		if (writeCoalescer.isPresent()) {
+			DocumentReference reference = firestore.collection(collectionName).document(id);
+			return writeCoalescer.get().submit(reference.getPath(), batch -> {
+				if (merge) {
+					batch.set(reference, entity, options);
+				} else {
+					batch.set(reference, entity);
+				}
+			});
+		}
+
+		return inFlightLimiter.submit(() -> {
+			UpdateCallbackHandler updateCallbackHandler = new UpdateCallbackHandler();
+			DocumentReference reference = firestore.collection(collectionName).document(id);
+			ApiFuture<WriteResult> response = merge ? reference.set(entity, options) : reference.set(entity);
+			ApiFutures.addCallback(response, updateCallbackHandler, Runnable::run);
+			return updateCallbackHandler.isUpdated();
+		});
 	}
 
 
 	public Map<String, Object> get(final String id, final String collectionName) throws RxFirestoreExceptions {
 		LOG.trace("Get blocking Firestore SDK call. Collection " + collectionName);
 
-		SingleEntityCallbackHandler entityCallbackHandler = new SingleEntityCallbackHandler();
-		ApiFuture<DocumentSnapshot> response = firestore.collection(collectionName).document(id).get();
-		ApiFutures.addCallback(response, entityCallbackHandler, Runnable::run);
-
-		return entityCallbackHandler.getEntity().blockingGet();
+		return rxGet(id, collectionName).blockingGet();
 	}
 
 	public List<Map<String, Object>> get(final Query query) {
 		LOG.trace("Query blocking Firestore SDK call. Collection " + query.getCollectionName());
 
-		CollectionReference q = firestore.collection(query.getCollectionName());
-		com.google.cloud.firestore.Query queryBuilder;
+		return rxGet(query).blockingGet();
+	}
+
+	public Single<Map<String, Object>> rxGet(final String id, final String collectionName) {
+		LOG.trace("Get async Firestore SDK call. Collection " + collectionName);
+
+		return inFlightLimiter.submit(() -> {
+			SingleEntityCallbackHandler entityCallbackHandler = new SingleEntityCallbackHandler();
+			ApiFuture<DocumentSnapshot> response = firestore.collection(collectionName).document(id).get();
+			ApiFutures.addCallback(response, entityCallbackHandler, Runnable::run);
+			return entityCallbackHandler.getEntity();
+		});
+	}
+
+	public Single<List<Map<String, Object>>> rxGet(final Query query) {
+		LOG.trace("Query async Firestore SDK call. Collection " + query.getCollectionName());
+
+		return inFlightLimiter.submit(() -> {
+			QueryCallbackHandler queryCallbackHandler = new QueryCallbackHandler();
+			ApiFuture<QuerySnapshot> response = buildQuery(query).get();
+			ApiFutures.addCallback(response, queryCallbackHandler, Runnable::run);
+			return queryCallbackHandler.getEntities();
+		});
+	}
+
+	/**
+	 * Same as rxGet, but the DocumentSnapshot is returned as is. Used to map the document straight into an entity.
+	 */
+	public Single<DocumentSnapshot> rxGetSnapshot(final String id, final String collectionName) {
+		LOG.trace("Get snapshot async Firestore SDK call. Collection " + collectionName);
+
+		return inFlightLimiter.<DocumentSnapshot>submit(() -> {
+			SnapshotCallbackHandler<DocumentSnapshot> snapshotCallbackHandler = new SnapshotCallbackHandler<>();
+			ApiFuture<DocumentSnapshot> response = firestore.collection(collectionName).document(id).get();
+			ApiFutures.addCallback(response, snapshotCallbackHandler, Runnable::run);
+			return snapshotCallbackHandler.getSnapshot();
+		}).map(snapshot -> {
+			if (!snapshot.exists()) {
+				throw new NotFoundExceptions("Document Not found");
+			}
+			return snapshot;
+		});
+	}
+
+	/**
+	 * Same as rxGet, plus the update time of the document in the _updateTime field, see rxUpdate with precondition.
+	 */
+	public Single<Map<String, Object>> rxGetVersioned(final String id, final String collectionName) {
+		return rxGetSnapshot(id, collectionName).map(snapshot -> {
+			Map<String, Object> data = snapshot.getData();
+			data.put("_id", snapshot.getId());
+			data.put("_updateTime", snapshot.getUpdateTime());
+			return data;
+		});
+	}
+
+	/**
+	 * Same as rxGet, but the QueryDocumentSnapshots are returned as is. Used to map the documents straight into
+	 * entities.
+	 */
+	public Single<List<QueryDocumentSnapshot>> rxGetSnapshots(final Query query) {
+		LOG.trace("Query snapshot async Firestore SDK call. Collection " + query.getCollectionName());
+
+		return inFlightLimiter.<QuerySnapshot>submit(() -> {
+			SnapshotCallbackHandler<QuerySnapshot> snapshotCallbackHandler = new SnapshotCallbackHandler<>();
+			ApiFuture<QuerySnapshot> response = buildQuery(query).get();
+			ApiFutures.addCallback(response, snapshotCallbackHandler, Runnable::run);
+			return snapshotCallbackHandler.getSnapshot();
+		}).map(QuerySnapshot::getDocuments);
+	}
+
+	public GetAllResponse<Map<String, Object>> getAll(final List<String> ids, final String collectionName) {
+		LOG.trace("GetAll blocking Firestore SDK call. Collection " + collectionName);
+
+		return rxGetAll(ids, collectionName).blockingGet();
+	}
+
+	/**
+	 * Get many documents by ID, see rxGetAllSnapshots.
+	 */
+	public Single<GetAllResponse<Map<String, Object>>> rxGetAll(final List<String> ids, final String collectionName) {
+		return rxGetAllSnapshots(ids, collectionName).map(snapshots -> {
+			Map<String, Map<String, Object>> found = new LinkedHashMap<>();
+			List<String> missing = new ArrayList<>();
+			for (DocumentSnapshot snapshot : snapshots) {
+				if (snapshot.exists()) {
+					Map<String, Object> data = snapshot.getData();
+					data.put("_id", snapshot.getId());
+					found.put(snapshot.getId(), data);
+				} else {
+					missing.add(snapshot.getId());
+				}
+			}
+			return new GetAllResponse<>(found, missing);
+		});
+	}
+
+	/**
+	 * Get many documents by ID through Firestore getAll, in chunks of GET_ALL_CHUNK_SIZE documents. Up to
+	 * DB_BATCH_PARALLELISM chunks are requested at the same time. Repeated IDs are requested once.
+	 *
+	 * @return Single with a snapshot per ID, in the same order. Snapshots of missing documents don't exist.
+	 */
+	public Single<List<DocumentSnapshot>> rxGetAllSnapshots(final List<String> ids, final String collectionName) {
+		LOG.trace("GetAll async Firestore SDK call. Collection " + collectionName + " size " + ids.size());
+
+		return Single.defer(() -> {
+			CollectionReference collection = firestore.collection(collectionName);
+			List<String> uniqueIds = new ArrayList<>(new LinkedHashSet<>(ids));
+
+			return Flowable.fromIterable(Lists.partition(uniqueIds, GET_ALL_CHUNK_SIZE))
+				.concatMapEager(chunk -> rxGetAllChunk(chunk, collection).toFlowable(),
+					FirestoreTemplateFactory.INSTANCE.getBatchParallelism(), 1)
+				.concatMapIterable(snapshots -> snapshots)
+				.toList();
+		});
+	}
+
+	private Single<List<DocumentSnapshot>> rxGetAllChunk(final List<String> ids, final CollectionReference collection) {
+		return inFlightLimiter.submit(() -> {
+			DocumentReference[] references = new DocumentReference[ids.size()];
+			for (int i = 0; i < references.length; i++) {
+				references[i] = collection.document(ids.get(i));
+			}
+
+			SnapshotCallbackHandler<List<DocumentSnapshot>> snapshotCallbackHandler = new SnapshotCallbackHandler<>();
+			ApiFutures.addCallback(firestore.getAll(references), snapshotCallbackHandler, Runnable::run);
+			return snapshotCallbackHandler.getSnapshot();
+		});
+	}
+
+	/**
+	 * Retrieve a page of a streamed query, see rxGetPageSnapshots.
+	 */
+	public Single<List<Map<String, Object>>> rxGetPage(final Query query) {
+		LOG.trace("Query page async Firestore SDK call. Collection " + query.getCollectionName());
+
+		return inFlightLimiter.submit(() -> {
+			QueryCallbackHandler queryCallbackHandler = new QueryCallbackHandler();
+			ApiFuture<QuerySnapshot> response = buildPageQuery(query).get();
+			ApiFutures.addCallback(response, queryCallbackHandler, Runnable::run);
+			return queryCallbackHandler.getEntities();
+		});
+	}
+
+	/**
+	 * Retrieve a page of a streamed query. Pages are ordered by the inequality field (if any) and then by document ID,
+	 * and start after the query cursor (see Query.getStartAfter), so there is no need of offsets in order to walk the
+	 * query.
+	 *
+	 * @param query with the page size as limit.
+	 */
+	public Single<List<QueryDocumentSnapshot>> rxGetPageSnapshots(final Query query) {
+		LOG.trace("Query page snapshot async Firestore SDK call. Collection " + query.getCollectionName());
+
+		return inFlightLimiter.<QuerySnapshot>submit(() -> {
+			SnapshotCallbackHandler<QuerySnapshot> snapshotCallbackHandler = new SnapshotCallbackHandler<>();
+			ApiFuture<QuerySnapshot> response = buildPageQuery(query).get();
+			ApiFutures.addCallback(response, snapshotCallbackHandler, Runnable::run);
+			return snapshotCallbackHandler.getSnapshot();
+		}).map(QuerySnapshot::getDocuments);
+	}
+
+	/**
+	 * Run the query with the Firestore streaming RPC. Documents are emitted as soon as they arrive, instead of waiting
+	 * for the whole QuerySnapshot. The stream can not be paused, so up to DB_STREAM_BUFFER_SIZE documents are buffered
+	 * while the subscriber is busy, then the stream fails with MissingBackpressureException.
+	 *
+	 * @param query without limit retrieves every document that matches the query.
+	 */
+	public Flowable<DocumentSnapshot> rxServerStream(final Query query) {
+		LOG.trace("Query stream async Firestore SDK call. Collection " + query.getCollectionName());
+
+		return Flowable.<DocumentSnapshot>create(
+			emitter -> buildStreamQuery(query).stream(new StreamCallbackHandler(emitter)), BackpressureStrategy.MISSING)
+			.onBackpressureBuffer(FirestoreTemplateFactory.INSTANCE.getStreamBufferSize(),
+				() -> LOG.warn("Query stream buffer overflow. Collection " + query.getCollectionName()),
+				BackpressureOverflowStrategy.ERROR);
+	}
+
+	/**
+	 * Same as rxServerStream, with documents as maps where the document ID is the _id field.
+	 */
+	public Flowable<Map<String, Object>> rxServerStreamData(final Query query) {
+		return rxServerStream(query).map(document -> {
+			Map<String, Object> data = document.getData();
+			data.put("_id", document.getId());
+			return data;
+		});
+	}
+
+	private com.google.cloud.firestore.Query buildQuery(final Query query) {
+		com.google.cloud.firestore.Query queryBuilder = firestore.collection(query.getCollectionName())
+			.limit(query.isLimitSet() ? query.getLimit() : DEFAULT_QUERY_LIMIT);
+
+		if (query.isOffsetSet()) {
+			queryBuilder = queryBuilder.offset(query.getOffset());
+		}
+
+		queryBuilder = applyCursors(applyOrder(applyFilters(queryBuilder, query), query), query);
+		return applySelect(queryBuilder, query);
+	}
+
+	private com.google.cloud.firestore.Query buildStreamQuery(final Query query) {
+		CollectionReference collection = firestore.collection(query.getCollectionName());
+		com.google.cloud.firestore.Query queryBuilder = applyCursors(applyOrder(applyFilters(collection, query), query),
+			query);
 
 		if (query.isLimitSet()) {
-			queryBuilder = q.limit(query.getLimit());
+			queryBuilder = queryBuilder.limit(query.getLimit());
+		}
+
+		if (query.isOffsetSet()) {
+			queryBuilder = queryBuilder.offset(query.getOffset());
+		}
+
+		return applySelect(queryBuilder, query);
+	}
+
+	private com.google.cloud.firestore.Query buildPageQuery(final Query query) {
+		CollectionReference collection = firestore.collection(query.getCollectionName());
+		com.google.cloud.firestore.Query queryBuilder = applyFilters(collection, query);
+
+		Query.Direction direction = Query.Direction.ASCENDING;
+		if (query.getOrderBy().isEmpty()) {
+			String orderField = QueryPager.orderField(query);
+			if (orderField != null) {
+				queryBuilder = queryBuilder.orderBy(orderField);
+			}
 		} else {
-			queryBuilder = q.limit(20);
+			queryBuilder = applyOrder(queryBuilder, query);
+			direction = new ArrayList<>(query.getOrderBy().values()).get(query.getOrderBy().size() - 1);
 		}
 
+		if (!query.getOrderBy().containsKey(Query.DOCUMENT_ID)) {
+			queryBuilder = queryBuilder.orderBy(FieldPath.documentId(), toDirection(direction));
+		}
+
+		queryBuilder = applyCursors(queryBuilder, query);
 		if (query.isOffsetSet()) {
-			queryBuilder.offset(query.getOffset());
+			queryBuilder = queryBuilder.offset(query.getOffset());
 		}
 
+		return applySelect(queryBuilder, query).limit(query.isLimitSet() ? query.getLimit() : DEFAULT_PAGE_SIZE);
+	}
+
+	static com.google.cloud.firestore.Query applyOrder(final com.google.cloud.firestore.Query from,
+			final Query query) {
+		com.google.cloud.firestore.Query queryBuilder = from;
+		for (Map.Entry<String, Query.Direction> order : query.getOrderBy().entrySet()) {
+			queryBuilder = Query.DOCUMENT_ID.equals(order.getKey())
+				? queryBuilder.orderBy(FieldPath.documentId(), toDirection(order.getValue()))
+				: queryBuilder.orderBy(order.getKey(), toDirection(order.getValue()));
+		}
+		return queryBuilder;
+	}
+
+	/**
+	 * startAt, startAfter and endBefore cursors of the query. Must be applied once the query is ordered.
+	 */
+	static com.google.cloud.firestore.Query applyCursors(final com.google.cloud.firestore.Query from,
+			final Query query) {
+		com.google.cloud.firestore.Query queryBuilder = from;
+		if (!query.getStartAt().isEmpty()) {
+			queryBuilder = queryBuilder.startAt(query.getStartAt().toArray());
+		}
+
+		if (!query.getStartAfter().isEmpty()) {
+			queryBuilder = queryBuilder.startAfter(query.getStartAfter().toArray());
+		}
+
+		if (!query.getEndBefore().isEmpty()) {
+			queryBuilder = queryBuilder.endBefore(query.getEndBefore().toArray());
+		}
+		return queryBuilder;
+	}
+
+	private static com.google.cloud.firestore.Query.Direction toDirection(final Query.Direction direction) {
+		return direction == Query.Direction.DESCENDING
+			? com.google.cloud.firestore.Query.Direction.DESCENDING
+			: com.google.cloud.firestore.Query.Direction.ASCENDING;
+	}
+
+	/**
+	 * Field mask of the query. Selecting the document ID alone retrieves documents without fields.
+	 */
+	private com.google.cloud.firestore.Query applySelect(final com.google.cloud.firestore.Query from,
+			final Query query) {
+		if (!query.isSelectSet()) {
+			return from;
+		}
+
+		if (query.getSelect().isEmpty()) {
+			return from.select(FieldPath.documentId());
+		}
+
+		return from.select(query.getSelect().toArray(new String[0]));
+	}
+
+	private com.google.cloud.firestore.Query applyFilters(final com.google.cloud.firestore.Query from,
+			final Query query) {
+		com.google.cloud.firestore.Query queryBuilder = from;
+
 		HashMap<String, Object> equalTo = query.getEqualTo();
 		Iterator equalToIt = equalTo.entrySet().iterator();
 		while (equalToIt.hasNext()) {
@@ -203,11 +611,7 @@ public class FirestoreTemplate extends AbstractVerticle {
 			queryBuilder = queryBuilder.whereLessThan((String) pair.getKey(), pair.getValue());
 		}
 
-		QueryCallbackHandler queryCallbackHandler = new QueryCallbackHandler();
-		ApiFuture<QuerySnapshot> response = queryBuilder.get();
-		ApiFutures.addCallback(response, queryCallbackHandler, Runnable::run);
-
-		return queryCallbackHandler.getEntities().blockingGet();
+		return queryBuilder;
 	}
 
 
@@ -221,71 +625,260 @@ public class FirestoreTemplate extends AbstractVerticle {
 	public Boolean update(final String id, final String collectionName, final HashMap<String, Object> entity) {
 		LOG.trace("Update blocking Firestore SDK call. Collection " + collectionName);
 
-		UpdateCallbackHandler updateCallbackHandler = new UpdateCallbackHandler();
-		ApiFuture<WriteResult> response = firestore.collection(collectionName).document(id).update(entity);
-		ApiFutures.addCallback(response, updateCallbackHandler, Runnable::run);
-		return updateCallbackHandler.isUpdated().blockingGet();
+		return rxUpdate(id, collectionName, entity).blockingGet();
 	}
 
-	/*
-	public Single<Boolean> update(final Precondition precondition, final K id, final E entity) {
-		try (Firestore db = firestoreOpts.getService()) {
-			ApiFuture<WriteResult> response = db.collection(entity.getCollectionName()).document(id)
-					.update(entity.toMap(), precondition);
-			ApiFutures.addCallback(response, updateCallbackHandler, rxJavaExecutor);
+	public Single<Boolean> rxUpdate(final String id, final String collectionName,
+			final HashMap<String, Object> entity) {
+		LOG.trace("Update async Firestore SDK call. Collection " + collectionName);
+
+		if (writeCoalescer.isPresent()) {
+			DocumentReference reference = firestore.collection(collectionName).document(id);
+			return writeCoalescer.get().submit(reference.getPath(), batch -> batch.update(reference, entity));
+		}
 
+		return inFlightLimiter.submit(() -> {
+			UpdateCallbackHandler updateCallbackHandler = new UpdateCallbackHandler();
+			ApiFuture<WriteResult> response = firestore.collection(collectionName).document(id).update(entity);
+			ApiFutures.addCallback(response, updateCallbackHandler, Runnable::run);
 			return updateCallbackHandler.isUpdated();
-		} catch (Exception e) {
-			e.printStackTrace();
-			throw new RuntimeException(e.getMessage());
+		});
+	}
+
+	/**
+	 * Update only if the document was not changed since expectedUpdateTime, so that concurrent read-modify-write
+	 * sequences do not overwrite each other. It is never coalesced, as a failed precondition fails the whole batch.
+	 *
+	 * @param expectedUpdateTime update time of the document when it was read, see rxGetVersioned.
+	 * @return Single boolean. Fails with PreconditionFailedExceptions if the document was changed or deleted.
+	 */
+	public Single<Boolean> rxUpdate(final String id, final String collectionName,
+			final HashMap<String, Object> entity, final Timestamp expectedUpdateTime) {
+		LOG.trace("Update with precondition async Firestore SDK call. Collection " + collectionName);
+
+		return inFlightLimiter.submit(() -> {
+			UpdateCallbackHandler updateCallbackHandler = new UpdateCallbackHandler();
+			ApiFuture<WriteResult> response = firestore.collection(collectionName).document(id)
+					.update(entity, Precondition.updatedAt(expectedUpdateTime));
+			ApiFutures.addCallback(response, updateCallbackHandler, Runnable::run);
+			return updateCallbackHandler.isUpdated();
+		}).onErrorResumeNext(FirestoreTemplate::preconditionFailed);
+	}
+
+	public Boolean delete(final String id, final String collectionName) {
+		LOG.trace("Delete blocking Firestore SDK call. Collection " + collectionName);
+
+		return rxDelete(id, collectionName).blockingGet();
+	}
+
+	public Single<Boolean> rxDelete(final String id, final String collectionName) {
+		LOG.trace("Delete async Firestore SDK call. Collection " + collectionName);
+
+		if (writeCoalescer.isPresent()) {
+			DocumentReference reference = firestore.collection(collectionName).document(id);
+			return writeCoalescer.get().submit(reference.getPath(), batch -> batch.delete(reference));
 		}
-	}*/
 
+		return inFlightLimiter.submit(() -> {
+			DeleteCallbackHandler deleteCallbackHandler = new DeleteCallbackHandler();
+			ApiFuture<WriteResult> response = firestore.collection(collectionName).document(id).delete();
+			ApiFutures.addCallback(response, deleteCallbackHandler, Runnable::run);
+			return deleteCallbackHandler.isDeleted();
+		});
+	}
+
+	/**
+	 * Delete only if the document was not changed since expectedUpdateTime, see rxUpdate with precondition.
+	 */
+	public Single<Boolean> rxDelete(final String id, final String collectionName, final Timestamp expectedUpdateTime) {
+		LOG.trace("Delete with precondition async Firestore SDK call. Collection " + collectionName);
+
+		return inFlightLimiter.submit(() -> {
+			DeleteCallbackHandler deleteCallbackHandler = new DeleteCallbackHandler();
+			ApiFuture<WriteResult> response = firestore.collection(collectionName).document(id)
+					.delete(Precondition.updatedAt(expectedUpdateTime));
+			ApiFutures.addCallback(response, deleteCallbackHandler, Runnable::run);
+			return deleteCallbackHandler.isDeleted();
+		}).onErrorResumeNext(FirestoreTemplate::preconditionFailed);
+	}
+
+	public Map<String, Boolean> insertAll(final List<? extends Map<String, Object>> documents,
+			final String collectionName) {
+		LOG.trace("InsertAll blocking Firestore SDK call. Collection " + collectionName);
 
-	/*
-	public Single<Boolean> update(final K id, final String collectionName, final HashMap<String, Object> fields) {
-		try (Firestore db = firestoreOpts.getService()) {
-			HashMap<String, Single<Boolean>> result = new HashMap();
-			ApiFuture<HashMap<String, Single<Boolean>>> transactionResponse = db.runTransaction(transaction -> {
-				for (Map.Entry<String, Object> entry : fields.entrySet()) {
-					DocumentReference docRef = db.collection(collectionName).document(id);
+		return rxInsertAll(documents, collectionName).blockingGet();
+	}
 
-					ApiFuture<WriteResult> response = docRef.update(entry.getKey(), entry.getValue());
-					ApiFutures.addCallback(response, updateCallbackHandler, rxJavaExecutor);
-					result.put(entry.getKey(), updateCallbackHandler.isUpdated());
-				}
-				return result;
-			});
+	public Single<Map<String, Boolean>> rxInsertAll(final List<? extends Map<String, Object>> documents,
+			final String collectionName) {
+		return rxInsertAll(documents, collectionName, FirestoreTemplateFactory.INSTANCE.getBatchParallelism());
+	}
 
-			ApiFutures.addCallback(transactionResponse, partialUpdateCallbackHandler, rxJavaExecutor);
-			return partialUpdateCallbackHandler.isUpdated();
-		} catch (Exception e) {
-			e.printStackTrace();
-			throw new RuntimeException(e.getMessage());
+	/**
+	 * Insert all the documents with auto-generated IDs. Documents are written through WriteBatch in chunks of
+	 * MAX_BATCH_SIZE writes, and up to parallelism chunks are committed at the same time. Each chunk is atomic.
+	 *
+	 * @return Single per document result keyed by the generated ID, in the same order than documents. False means that
+	 * the chunk of the document was not committed, the cause is logged. Fails when the chunks can not be committed at
+	 * all, e.g. UNAUTHENTICATED or PERMISSION_DENIED.
+	 */
+	public Single<Map<String, Boolean>> rxInsertAll(final List<? extends Map<String, Object>> documents,
+			final String collectionName, final int parallelism) {
+		LOG.trace("InsertAll async Firestore SDK call. Collection " + collectionName + " size " + documents.size());
+
+		return Single.defer(() -> {
+			CollectionReference collection = firestore.collection(collectionName);
+			Map<String, Map<String, Object>> documentsById = new LinkedHashMap<>();
+			for (Map<String, Object> document : documents) {
+				documentsById.put(collection.document().getId(), document);
+			}
+
+			return rxWriteAll(new ArrayList<>(documentsById.keySet()), collectionName, parallelism,
+				(batch, reference) -> batch.set(reference, documentsById.get(reference.getId())));
+		});
+	}
+
+	public Map<String, Boolean> upsertAll(final Map<String, ? extends Map<String, Object>> documents,
+			final String collectionName) {
+		LOG.trace("UpsertAll blocking Firestore SDK call. Collection " + collectionName);
+
+		return rxUpsertAll(documents, collectionName).blockingGet();
+	}
+
+	public Single<Map<String, Boolean>> rxUpsertAll(final Map<String, ? extends Map<String, Object>> documents,
+			final String collectionName) {
+		return rxUpsertAll(documents, collectionName, FirestoreTemplateFactory.INSTANCE.getBatchParallelism());
+	}
+
+	/**
+	 * Batched version of upsert, see rxInsertAll.
+	 *
+	 * @param documents keyed by document ID.
+	 */
+	public Single<Map<String, Boolean>> rxUpsertAll(final Map<String, ? extends Map<String, Object>> documents,
+			final String collectionName, final int parallelism) {
+		LOG.trace("UpsertAll async Firestore SDK call. Collection " + collectionName + " size " + documents.size());
+
+		return rxWriteAll(new ArrayList<>(documents.keySet()), collectionName, parallelism,
+			(batch, reference) -> batch.set(reference, documents.get(reference.getId())));
+	}
+
+	public Map<String, Boolean> updateAll(final Map<String, ? extends Map<String, Object>> documents,
+			final String collectionName) {
+		LOG.trace("UpdateAll blocking Firestore SDK call. Collection " + collectionName);
+
+		return rxUpdateAll(documents, collectionName).blockingGet();
+	}
+
+	public Single<Map<String, Boolean>> rxUpdateAll(final Map<String, ? extends Map<String, Object>> documents,
+			final String collectionName) {
+		return rxUpdateAll(documents, collectionName, FirestoreTemplateFactory.INSTANCE.getBatchParallelism());
+	}
+
+	/**
+	 * Batched version of update, see rxInsertAll. A chunk fails if any of its documents does not exist.
+	 *
+	 * @param documents keyed by document ID.
+	 */
+	public Single<Map<String, Boolean>> rxUpdateAll(final Map<String, ? extends Map<String, Object>> documents,
+			final String collectionName, final int parallelism) {
+		LOG.trace("UpdateAll async Firestore SDK call. Collection " + collectionName + " size " + documents.size());
+
+		return rxWriteAll(new ArrayList<>(documents.keySet()), collectionName, parallelism,
+			(batch, reference) -> batch.update(reference, documents.get(reference.getId())));
+	}
+
+	public Map<String, Boolean> deleteAll(final List<String> ids, final String collectionName) {
+		LOG.trace("DeleteAll blocking Firestore SDK call. Collection " + collectionName);
+
+		return rxDeleteAll(ids, collectionName).blockingGet();
+	}
+
+	public Single<Map<String, Boolean>> rxDeleteAll(final List<String> ids, final String collectionName) {
+		return rxDeleteAll(ids, collectionName, FirestoreTemplateFactory.INSTANCE.getBatchParallelism());
+	}
+
+	/**
+	 * Batched version of delete, see rxInsertAll.
+	 */
+	public Single<Map<String, Boolean>> rxDeleteAll(final List<String> ids, final String collectionName,
+			final int parallelism) {
+		LOG.trace("DeleteAll async Firestore SDK call. Collection " + collectionName + " size " + ids.size());
+
+		return rxWriteAll(ids, collectionName, parallelism, WriteBatch::delete);
+	}
+
+	private Single<Map<String, Boolean>> rxWriteAll(final List<String> ids, final String collectionName,
+			final int parallelism, final BiConsumer<WriteBatch, DocumentReference> operation) {
+		if (parallelism < 1) {
+			return Single.error(new IllegalArgumentException("parallelism must be greater than zero"));
 		}
-	}*/
 
+		return Single.defer(() -> {
+			CollectionReference collection = firestore.collection(collectionName);
+			Map<String, Boolean> result = new LinkedHashMap<>();
+			ids.forEach(id -> result.put(id, false));
 
-	public Boolean delete(final String id, final String collectionName) {
-		LOG.trace("Delete blocking Firestore SDK call. Collection " + collectionName);
+			return Flowable.fromIterable(Lists.partition(ids, MAX_BATCH_SIZE))
+				.flatMapSingle(chunk -> rxCommit(chunk, collection, operation), false, parallelism)
+				.collectInto(result, (acc, committedIds) -> committedIds.forEach(id -> acc.put(id, true)));
+		});
+	}
 
-		DeleteCallbackHandler deleteCallbackHandler = new DeleteCallbackHandler();
-		ApiFuture<WriteResult> response = firestore.collection(collectionName).document(id).delete();
-		ApiFutures.addCallback(response, deleteCallbackHandler, Runnable::run);
+	/**
+	 * Commit a chunk of writes. The failure is logged with the chunk size and collection, and only fails the Single
+	 * when it is not about the documents of the chunk (see failsEveryChunk), as the rest of the chunks would fail
+	 * the same way.
+	 *
+	 * @return Single with the committed IDs, empty when the chunk fails.
+	 */
+	private Single<List<String>> rxCommit(final List<String> ids, final CollectionReference collection,
+			final BiConsumer<WriteBatch, DocumentReference> operation) {
+		return inFlightLimiter.<Boolean>submit(() -> {
+			WriteBatch batch = firestore.batch();
+			ids.forEach(id -> operation.accept(batch, collection.document(id)));
+
+			BatchCallbackHandler batchCallbackHandler = new BatchCallbackHandler();
+			ApiFutures.addCallback(batch.commit(), batchCallbackHandler, Runnable::run);
+			return batchCallbackHandler.isCommitted();
+		}).map(committed -> ids).onErrorResumeNext(err -> {
+			String reason = TransactionRunner.abortReason(err);
+			LOG.error("Batch of " + ids.size() + " writes to " + collection.getId() + " failed (" + reason + "): "
+					+ err.getMessage(), err);
+			return failsEveryChunk(reason) ? Single.error(err) : Single.just(Collections.emptyList());
+		});
+	}
 
-		return deleteCallbackHandler.isDeleted().blockingGet();
+	/**
+	 * Commit the writes gathered by the WriteCoalescer as one WriteBatch, see
+	 * FirestoreTemplateFactory.acquireWriteCoalescer.
+	 */
+	static Single<Boolean> rxCommit(final Firestore firestore, final InFlightLimiter inFlightLimiter,
+			final List<WriteCoalescer.Write> writes) {
+		return inFlightLimiter.submit(() -> {
+			WriteBatch batch = firestore.batch();
+			writes.forEach(write -> write.getOperation().accept(batch));
+
+			BatchCallbackHandler batchCallbackHandler = new BatchCallbackHandler();
+			ApiFutures.addCallback(batch.commit(), batchCallbackHandler, Runnable::run);
+			return batchCallbackHandler.isCommitted();
+		});
+	}
+
+	/**
+	 * Authentication and permission errors are not about the documents of a chunk.
+	 */
+	private static boolean failsEveryChunk(final String reason) {
+		return "UNAUTHENTICATED".equals(reason) || "PERMISSION_DENIED".equals(reason);
 	}
 
 	private void handlerInsert(Message<Object> message) {
 		LOG.trace("handler insert operation called.");
 
 		String collectionName = message.headers().get("_collectionName");
-		HashMap entity = Json.decodeValue((String) message.body(), HashMap.class);
+		HashMap<String, Object> entity = (HashMap<String, Object>) message.body();
 
-		String id = insert(entity, collectionName);
-		message
-			.rxReply(id)
-			.subscribe(res -> { /**Do nothing */}, err -> handlerObjectMsgError(message, err));
+		reply(message, rxInsert(entity, collectionName));
 	}
 
 	private void handlerEmpty(Message<Object> message) {
@@ -294,9 +887,7 @@ public class FirestoreTemplate extends AbstractVerticle {
 		String collectionName = message.headers().get("_collectionName");
 		String id = empty(collectionName);
 
-		message.rxReply(id)
-			.subscribe(res -> { /**Do nothing */}, err -> handlerObjectMsgError(message, err));
-
+		message.reply(id);
 	}
 
 	private void handlerUpsert(Message<Object> message) {
@@ -304,30 +895,22 @@ public class FirestoreTemplate extends AbstractVerticle {
 
 		String collectionName = message.headers().get("_collectionName");
 		String id = message.headers().get("_id");
-		HashMap entity = Json.decodeValue((String) message.body(), HashMap.class);
-		Boolean idUpdated = upsert(entity, id, collectionName);
-
-		message.rxReply(idUpdated)
-			.subscribe(res -> { /**Do nothing */}, err -> handlerObjectMsgError(message, err));
+		boolean merge = Boolean.parseBoolean(message.headers().get("_merge"));
+		HashMap<String, Object> entity = (HashMap<String, Object>) message.body();
 
+		reply(message, rxUpsert(entity, id, collectionName, merge));
 	}
 
 	private void handlerGet(Message<Object> message) {
 		LOG.trace("handler get operation called.");
 
-		try {
-			String collectionName = message.headers().get("_collectionName");
-			String id = message.headers().get("_id");
-			Map<String, Object> entity = get(id, collectionName);
-
-			message.rxReply(Json.encode(entity))
-				.doOnError(err -> message.fail(001, err.getMessage()))
-				.subscribe(res -> { /**Do nothing */}, err -> handlerObjectMsgError(message, err));
-
-		} catch (RxFirestoreExceptions err) {
-			message.fail(err.getErrorCode(), err.getMessage());
-		}
+		String collectionName = message.headers().get("_collectionName");
+		String id = message.headers().get("_id");
+		Single<Map<String, Object>> document = Boolean.parseBoolean(message.headers().get("_versioned"))
+			? rxGetVersioned(id, collectionName)
+			: rxGet(id, collectionName);
 
+		reply(message, document, new DeliveryOptions().setCodecName(DocumentMessageCodec.NAME));
 	}
 
 	private void handlerUpdate(Message<Object> message) {
@@ -335,12 +918,12 @@ public class FirestoreTemplate extends AbstractVerticle {
 
 		String collectionName = message.headers().get("_collectionName");
 		String id = message.headers().get("_id");
-		HashMap entity = Json.decodeValue((String) message.body(), HashMap.class);
-		Boolean updated = update(id, collectionName, entity);
-
-		message.rxReply(Json.encode(updated))
-			.subscribe(res -> { /**Do nothing */}, err -> handlerObjectMsgError(message, err));
+		String updateTime = message.headers().get("_updateTime");
+		HashMap<String, Object> entity = (HashMap<String, Object>) message.body();
 
+		reply(message, updateTime == null
+			? rxUpdate(id, collectionName, entity)
+			: rxUpdate(id, collectionName, entity, Timestamp.parseTimestamp(updateTime)));
 	}
 
 	private void handlerDelete(Message<Object> message) {
@@ -348,41 +931,182 @@ public class FirestoreTemplate extends AbstractVerticle {
 
 		String collectionName = message.headers().get("_collectionName");
 		String id = message.headers().get("_id");
-		Boolean deleted = delete(id, collectionName);
+		String updateTime = message.headers().get("_updateTime");
+
+		reply(message, updateTime == null
+			? rxDelete(id, collectionName)
+			: rxDelete(id, collectionName, Timestamp.parseTimestamp(updateTime)));
+	}
+
+	private void handlerInsertAll(Message<Object> message) {
+		LOG.trace("handler insertAll operation called.");
+
+		String collectionName = message.headers().get("_collectionName");
+		int parallelism = Integer.parseInt(message.headers().get("_parallelism"));
+		List<Map<String, Object>> documents = (List<Map<String, Object>>) message.body();
+
+		replyBatch(message, rxInsertAll(documents, collectionName, parallelism));
+	}
+
+	private void handlerUpsertAll(Message<Object> message) {
+		LOG.trace("handler upsertAll operation called.");
+
+		String collectionName = message.headers().get("_collectionName");
+		int parallelism = Integer.parseInt(message.headers().get("_parallelism"));
+		Map<String, Map<String, Object>> documents = documentsById((List<Map<String, Object>>) message.body());
+
+		replyBatch(message, rxUpsertAll(documents, collectionName, parallelism));
+	}
+
+	private void handlerUpdateAll(Message<Object> message) {
+		LOG.trace("handler updateAll operation called.");
+
+		String collectionName = message.headers().get("_collectionName");
+		int parallelism = Integer.parseInt(message.headers().get("_parallelism"));
+		Map<String, Map<String, Object>> documents = documentsById((List<Map<String, Object>>) message.body());
+
+		replyBatch(message, rxUpdateAll(documents, collectionName, parallelism));
+	}
+
+	private void handlerDeleteAll(Message<Object> message) {
+		LOG.trace("handler deleteAll operation called.");
+
+		String collectionName = message.headers().get("_collectionName");
+		int parallelism = Integer.parseInt(message.headers().get("_parallelism"));
+		List<String> ids = new ArrayList<>(documentsById((List<Map<String, Object>>) message.body()).keySet());
+
+		replyBatch(message, rxDeleteAll(ids, collectionName, parallelism));
+	}
+
+	private void handlerGetAll(Message<Object> message) {
+		LOG.trace("handler getAll operation called.");
+
+		String collectionName = message.headers().get("_collectionName");
+		List<String> ids = new ArrayList<>(documentsById((List<Map<String, Object>>) message.body()).keySet());
+
+		reply(message, rxGetAll(ids, collectionName).map(FirestoreTemplate::toReply),
+			new DeliveryOptions().setCodecName(DocumentMessageCodec.NAME));
+	}
 
-		message.rxReply(Json.encode(deleted))
-			.subscribe(res -> { /**Do nothing */}, err -> handlerObjectMsgError(message, err));
+	/**
+	 * getAll replies with a document per requested ID, null when the document is missing.
+	 */
+	private static HashMap<String, Object> toReply(GetAllResponse<Map<String, Object>> response) {
+		LinkedHashMap<String, Object> reply = new LinkedHashMap<>(response.getFound());
+		response.getMissing().forEach(id -> reply.put(id, null));
+		return reply;
+	}
+
+	/**
+	 * Batched writes travel as a document list where the document ID is the _id field.
+	 */
+	private static Map<String, Map<String, Object>> documentsById(List<Map<String, Object>> documents) {
+		Map<String, Map<String, Object>> documentsById = new LinkedHashMap<>();
+		for (Map<String, Object> document : documents) {
+			documentsById.put((String) document.remove("_id"), document);
+		}
+		return documentsById;
+	}
 
+	private void replyBatch(Message<?> message, Single<Map<String, Boolean>> response) {
+		reply(message, response.map(LinkedHashMap<String, Object>::new),
+			new DeliveryOptions().setCodecName(DocumentMessageCodec.NAME));
 	}
 
-	private void handlerQueryBuilder(Message<byte[]> message) {
+	private void handlerQueryBuilder(Message<Object> message) {
 		LOG.trace("handler query operation called.");
 
 		String collectionName = message.headers().get("_collectionName");
 		Query query = queryBuilder(collectionName);
-		message.rxReply(SerializationUtils.serialize(query))
-			.subscribe(res -> { /**Do nothing */}, err -> handlerByteMsgError(message, err));
+		message.reply(query, new DeliveryOptions().setCodecName(QueryMessageCodec.NAME));
+	}
 
+	private void handlerQuery(Message<Object> message) {
+		LOG.trace("handler query operation called.");
+
+		Query query = (Query) message.body();
+		reply(message, rxGet(query), new DeliveryOptions().setCodecName(DocumentListMessageCodec.NAME));
 	}
 
-	private void handlerQuery(Message<byte[]> message) {
+	private void handlerQueryPage(Message<Object> message) {
+		LOG.trace("handler query page operation called.");
 
-		Query query = SerializationUtils.deserialize(message.body());
-		List<Map<String, Object>> entityList = get(query);
-		message.rxReply(Json.encode(entityList))
-			.subscribe(res -> { /**Do nothing */}, err -> handlerByteMsgError(message, err));
+		Query query = (Query) message.body();
+		reply(message, rxGetPage(query), new DeliveryOptions().setCodecName(DocumentListMessageCodec.NAME));
+	}
 
+	/**
+	 * Stream the query to the _streamAddress header address, in chunks of up to STREAM_CHUNK_SIZE documents. Each
+	 * chunk waits for the acknowledgement of the previous one, so a slow subscriber slows down the stream instead of
+	 * filling the event bus. The last message has the _end header, or the _error header if the query fails. The
+	 * request itself is replied as soon as the stream starts.
+	 */
+	private void handlerQueryStream(Message<Object> message) {
+		LOG.trace("handler query stream operation called.");
+
+		Query query = (Query) message.body();
+		String address = message.headers().get("_streamAddress");
+		message.reply(null);
+		EventBus eventBus = vertx.eventBus();
+		DeliveryOptions chunkOpt = new DeliveryOptions()
+			.setCodecName(DocumentListMessageCodec.NAME)
+			.setSendTimeout(STREAM_ACK_TIMEOUT_MS);
+
+		rxServerStreamData(query)
+			.buffer(STREAM_CHUNK_MS, TimeUnit.MILLISECONDS, STREAM_CHUNK_SIZE)
+			.filter(chunk -> !chunk.isEmpty())
+			.onBackpressureBuffer(FirestoreTemplateFactory.INSTANCE.getStreamBufferSize() / STREAM_CHUNK_SIZE + 1,
+				null, BackpressureOverflowStrategy.ERROR)
+			.concatMapSingle(chunk -> eventBus.rxSend(address, chunk, chunkOpt), 1)
+			.ignoreElements()
+			.subscribe(
+				() -> eventBus.send(address, Collections.emptyList(), streamEnd(chunkOpt, "_end", "true")),
+				err -> eventBus.send(address, Collections.emptyList(), streamEnd(chunkOpt, "_error", errorOf(err))));
 	}
 
-	private void handlerByteMsgError(Message<byte[]> message, Throwable err) {
-		if (err instanceof ReplyException == false) {
-			LOG.error(err.getMessage());
-			message.fail(001, err.getMessage());
+	private static DeliveryOptions streamEnd(DeliveryOptions chunkOpt, String header, String value) {
+		return new DeliveryOptions(chunkOpt).addHeader(header, value);
+	}
+
+	private static String errorOf(Throwable err) {
+		LOG.error(err.getMessage());
+		return String.valueOf(err.getMessage());
+	}
+
+	/**
+	 * Reply the message with the Firestore response. On BLOCKING mode the current worker thread waits for the
+	 * response, on ASYNC mode the reply is sent from the ApiFuture callback and the worker thread is released.
+	 */
+	private <T> void reply(Message<?> message, Single<T> response) {
+		reply(message, response, new DeliveryOptions());
+	}
+
+	private <T> void reply(Message<?> message, Single<T> response, DeliveryOptions deliveryOpt) {
+		if (executionMode == ExecutionMode.ASYNC) {
+			response.subscribe(res -> message.reply(res, deliveryOpt), err -> handlerMsgError(message, err));
+		} else {
+			try {
+				message.reply(response.blockingGet(), deliveryOpt);
+			} catch (Exception err) {
+				handlerMsgError(message, err);
+			}
+		}
+	}
+
+	/**
+	 * Firestore reports a failed precondition as a FAILED_PRECONDITION status.
+	 */
+	private static <T> Single<T> preconditionFailed(final Throwable err) {
+		if ("FAILED_PRECONDITION".equals(TransactionRunner.abortReason(err))) {
+			return Single.error(new PreconditionFailedExceptions(err.getMessage()));
 		}
+		return Single.error(err);
 	}
 
-	private void handlerObjectMsgError(Message<Object> message, Throwable err) {
-		if (err instanceof ReplyException == false) {
+	private void handlerMsgError(Message<?> message, Throwable err) {
+		if (err instanceof RxFirestoreExceptions) {
+			message.fail(((RxFirestoreExceptions) err).getErrorCode(), err.getMessage());
+		} else {
 			LOG.error(err.getMessage());
 			message.fail(001, err.getMessage());
 		}
@@ -390,31 +1114,28 @@ public class FirestoreTemplate extends AbstractVerticle {
 
 	private void handlerClose(Message<Void> message) {
 		try {
-			firestore.close();
-		} catch (Exception e) {
+			close();
+		} catch (RuntimeException e) {
 			message.fail(001, e.getMessage());
 		}
 	}
 
 	/**
-	 * To delete a document with some given preconditions.
-	 *
-	 * @param precondition
-	 * @param id
-	 * @param collectionName
-	 * @return Single boolean
+	 * Reference of the document with the given path (collection/id), used to restore exported references.
 	 */
-	/*
-	public Single<Boolean> delete(final Precondition precondition, final K id, final String collectionName) {
-		try (Firestore db = firestoreOpts.getService()) {
-			ApiFuture<WriteResult> response = db.collection(collectionName).document(id).delete(precondition);
-			ApiFutures.addCallback(response, deleteCallbackHandler, rxJavaExecutor);
+	DocumentReference document(final String path) {
+		return firestore.document(path);
+	}
 
-			return deleteCallbackHandler.isDeleted();
-		} catch (Exception e) {
-			e.printStackTrace();
-			throw new RuntimeException(e.getMessage());
+	/**
+	 * Release the shared Firestore client, which is closed once every FirestoreTemplate and BlockingFirestoreTemplate
+	 * have released it. Closing twice has no effect.
+	 */
+	public void close() {
+		if (closed.compareAndSet(false, true)) {
+			writeCoalescer.ifPresent(FirestoreTemplateFactory.INSTANCE::releaseWriteCoalescer);
+			FirestoreTemplateFactory.INSTANCE.releaseFirestore(firestore);
 		}
-	}*/
+	}
 
 }
@@ -17,16 +17,28 @@
 
 package com.github.pjgg.rxfirestore;
 
+import com.google.api.gax.grpc.InstantiatingGrpcChannelProvider;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
+import io.reactivex.Single;
 import io.reactivex.subjects.SingleSubject;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.threeten.bp.Duration;
 
 import io.netty.channel.DefaultChannelId;
 import io.vertx.core.DeploymentOptions;
 import io.vertx.core.VertxOptions;
 import io.vertx.core.eventbus.EventBusOptions;
+import io.vertx.core.eventbus.MessageCodec;
 import io.vertx.reactivex.core.AbstractVerticle;
 import io.vertx.reactivex.core.Vertx;
 import io.vertx.reactivex.core.eventbus.EventBus;
@@ -36,9 +48,30 @@ public enum FirestoreTemplateFactory {
 	INSTANCE;
 
 	private static final long MAX_EXECUTION_TIME_SEC = 30;
+	private static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+	private static final int DEFAULT_BATCH_PARALLELISM = 4;
+	private static final long DEFAULT_COALESCE_WINDOW_MS = 0;
+	private static final int DEFAULT_COALESCE_MAX_BATCH_SIZE = 200;
+	private static final int DEFAULT_STREAM_BUFFER_SIZE = 1000;
+	private static final int DEFAULT_CHANNEL_POOL_SIZE = 1;
+	private static final long DEFAULT_KEEPALIVE_TIME_MS = 0;
+	private static final long DEFAULT_KEEPALIVE_TIMEOUT_MS = 20000;
+	private static final int DEFAULT_MAX_INBOUND_MESSAGE_SIZE = 4 * 1024 * 1024;
 
 	private EventBus eventBus;
 	private SingleSubject<Vertx> vertxSubject = SingleSubject.create();
+	private final ExecutionMode executionMode = loadExecutionMode();
+	private final InFlightLimiter inFlightLimiter = new InFlightLimiter(loadMaxInFlight());
+	private final int batchParallelism = loadBatchParallelism();
+	private final long coalesceWindowMs = loadCoalesceWindowMs();
+	private final int coalesceMaxBatchSize = loadCoalesceMaxBatchSize();
+	private final int streamBufferSize = loadStreamBufferSize();
+	private WriteCoalescer writeCoalescer;
+	private Firestore coalescerFirestore;
+	private ScheduledExecutorService coalescerScheduler;
+	private int coalescerUsers;
+	private final FirestoreClients firestoreClients = new FirestoreClients(FirestoreOptions::getService);
+	private FirestoreOptions firestoreOptions;
 
 	public void init(Vertx... vertxArg) {
 
@@ -76,6 +109,27 @@ public enum FirestoreTemplateFactory {
 			eventBus = vertxArg[0].eventBus();
 			vertxSubject.onSuccess(vertxArg[0]);
 		}
+
+		registerCodecs(eventBus);
+	}
+
+	/**
+	 * Register the codecs that allow documents, query results and queries to travel through the event bus as objects.
+	 * Local sends pass references, so there is no copy and no JSON encoding.
+	 */
+	private static void registerCodecs(EventBus eventBus) {
+		List<MessageCodec<?, ?>> codecs = Arrays.asList(
+				new DocumentMessageCodec(),
+				new DocumentListMessageCodec(),
+				new QueryMessageCodec());
+
+		for (MessageCodec<?, ?> codec : codecs) {
+			try {
+				eventBus.registerCodec(codec);
+			} catch (IllegalStateException e) {
+				// init is called once per repository, so codecs may be already registered in this event bus.
+			}
+		}
 	}
 
 	public EventBus getEventBus() {
@@ -85,4 +139,264 @@ public enum FirestoreTemplateFactory {
 	public SingleSubject<Vertx> getVertx() {
 		return vertxSubject;
 	}
+
+	public ExecutionMode getExecutionMode() {
+		return executionMode;
+	}
+
+	public InFlightLimiter getInFlightLimiter() {
+		return inFlightLimiter;
+	}
+
+	public int getBatchParallelism() {
+		return batchParallelism;
+	}
+
+	/**
+	 * Max amount of documents of a streaming query that are buffered while the subscriber is busy.
+	 */
+	public int getStreamBufferSize() {
+		return streamBufferSize;
+	}
+
+	/**
+	 * Write coalescing is enabled when DB_COALESCE_WINDOW_MS is greater than zero.
+	 *
+	 * @return the coalescer shared by every FirestoreTemplate, if enabled.
+	 */
+	public synchronized Optional<WriteCoalescer> getWriteCoalescer() {
+		return Optional.ofNullable(writeCoalescer);
+	}
+
+	/**
+	 * The first FirestoreTemplate creates the shared coalescer. It commits through its own reference of the shared
+	 * Firestore client, so it keeps working whichever template is closed first.
+	 *
+	 * @return the coalescer shared by every FirestoreTemplate, if enabled. Release it on close.
+	 */
+	synchronized Optional<WriteCoalescer> acquireWriteCoalescer() {
+		if (coalesceWindowMs <= 0) {
+			return Optional.empty();
+		}
+
+		if (writeCoalescer == null) {
+			Firestore firestore = acquireFirestore();
+			ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "rxfirestore-write-coalescer");
+				thread.setDaemon(true);
+				return thread;
+			});
+			writeCoalescer = new WriteCoalescer(coalesceWindowMs, coalesceMaxBatchSize, scheduler,
+				writes -> FirestoreTemplate.rxCommit(firestore, inFlightLimiter, writes));
+			coalescerFirestore = firestore;
+			coalescerScheduler = scheduler;
+		}
+
+		coalescerUsers++;
+		return Optional.of(writeCoalescer);
+	}
+
+	/**
+	 * Once the last FirestoreTemplate releases the coalescer, its pending writes are committed, then its scheduler is
+	 * shut down and its Firestore client released. The next template creates a new coalescer.
+	 */
+	synchronized void releaseWriteCoalescer(WriteCoalescer coalescer) {
+		if (coalescer != writeCoalescer || --coalescerUsers > 0) {
+			return;
+		}
+
+		Firestore firestore = coalescerFirestore;
+		ScheduledExecutorService scheduler = coalescerScheduler;
+		writeCoalescer = null;
+		coalescerFirestore = null;
+		coalescerScheduler = null;
+
+		coalescer.close().subscribe(() -> {
+			scheduler.shutdown();
+			releaseFirestore(firestore);
+		});
+	}
+
+	/**
+	 * Options of the Firestore client shared by every FirestoreTemplate and BlockingFirestoreTemplate. Set them before
+	 * init in order to target another project or database, or to tune the gRPC channels with your own
+	 * InstantiatingGrpcChannelProvider.
+	 */
+	public synchronized void setFirestoreOptions(FirestoreOptions options) {
+		firestoreOptions = options;
+	}
+
+	/**
+	 * By default, Application Default Credentials are loaded once, and the gRPC channels are tuned through
+	 * DB_CHANNEL_POOL_SIZE, DB_KEEPALIVE_TIME_MS, DB_KEEPALIVE_TIMEOUT_MS and DB_MAX_INBOUND_MESSAGE_SIZE.
+	 */
+	public synchronized FirestoreOptions getFirestoreOptions() {
+		if (firestoreOptions == null) {
+			firestoreOptions = defaultFirestoreOptions();
+		}
+
+		return firestoreOptions;
+	}
+
+	/**
+	 * @return the shared client of the current options. Release it once it is not used anymore.
+	 */
+	Firestore acquireFirestore() {
+		return firestoreClients.acquire(getFirestoreOptions());
+	}
+
+	/**
+	 * The client is closed when its last user releases it.
+	 */
+	void releaseFirestore(Firestore firestore) {
+		firestoreClients.release(firestore);
+	}
+
+	private static FirestoreOptions defaultFirestoreOptions() {
+		InstantiatingGrpcChannelProvider.Builder channelProvider = FirestoreOptions
+				.getDefaultTransportChannelProviderBuilder()
+				.setPoolSize(loadChannelPoolSize())
+				.setMaxInboundMessageSize(loadMaxInboundMessageSize());
+
+		long keepAliveTimeMs = loadKeepAliveTimeMs();
+		if (keepAliveTimeMs > 0) {
+			channelProvider.setKeepAliveTime(Duration.ofMillis(keepAliveTimeMs))
+					.setKeepAliveTimeout(Duration.ofMillis(loadKeepAliveTimeoutMs()));
+		}
+
+		try {
+			return FirestoreOptions.newBuilder()
+					/*
+					* See for further information about authentication
+					* https://cloud.google.com/docs/authentication/production
+					* In order to use different project-id than the one defined in applicationDefaultCredentials
+					* you can use GCLOUD_PROJECT environment variable
+					*/
+					.setCredentials(GoogleCredentials.getApplicationDefault().createScoped(FirestoreTemplate.SCOPES))
+					.setChannelProvider(channelProvider.build())
+					.build();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static ExecutionMode loadExecutionMode() {
+		String mode = Optional.ofNullable(System.getenv("DB_EXECUTION_MODE")).orElse("");
+
+		if (mode.isEmpty()) {
+			System.out.println("DB_EXECUTION_MODE environment variable not found. Default value "
+					+ ExecutionMode.BLOCKING);
+			return ExecutionMode.BLOCKING;
+		}
+
+		return ExecutionMode.fromString(mode);
+	}
+
+	private static int loadMaxInFlight() {
+		String maxInFlight = Optional.ofNullable(System.getenv("DB_MAX_IN_FLIGHT")).orElse("");
+
+		if (maxInFlight.isEmpty()) {
+			System.out.println("DB_MAX_IN_FLIGHT environment variable not found. Default value "
+					+ DEFAULT_MAX_IN_FLIGHT);
+			return DEFAULT_MAX_IN_FLIGHT;
+		}
+
+		return Integer.parseInt(maxInFlight);
+	}
+
+	private static int loadBatchParallelism() {
+		String batchParallelism = Optional.ofNullable(System.getenv("DB_BATCH_PARALLELISM")).orElse("");
+
+		if (batchParallelism.isEmpty()) {
+			System.out.println("DB_BATCH_PARALLELISM environment variable not found. Default value "
+					+ DEFAULT_BATCH_PARALLELISM);
+			return DEFAULT_BATCH_PARALLELISM;
+		}
+
+		return Integer.parseInt(batchParallelism);
+	}
+
+	private static int loadStreamBufferSize() {
+		String bufferSize = Optional.ofNullable(System.getenv("DB_STREAM_BUFFER_SIZE")).orElse("");
+
+		if (bufferSize.isEmpty()) {
+			System.out.println("DB_STREAM_BUFFER_SIZE environment variable not found. Default value "
+					+ DEFAULT_STREAM_BUFFER_SIZE);
+			return DEFAULT_STREAM_BUFFER_SIZE;
+		}
+
+		return Integer.parseInt(bufferSize);
+	}
+
+	private static long loadCoalesceWindowMs() {
+		String windowMs = Optional.ofNullable(System.getenv("DB_COALESCE_WINDOW_MS")).orElse("");
+
+		if (windowMs.isEmpty()) {
+			System.out.println("DB_COALESCE_WINDOW_MS environment variable not found. Default value "
+					+ DEFAULT_COALESCE_WINDOW_MS);
+			return DEFAULT_COALESCE_WINDOW_MS;
+		}
+
+		return Long.parseLong(windowMs);
+	}
+
+	private static int loadCoalesceMaxBatchSize() {
+		String maxBatchSize = Optional.ofNullable(System.getenv("DB_COALESCE_MAX_BATCH_SIZE")).orElse("");
+
+		if (maxBatchSize.isEmpty()) {
+			System.out.println("DB_COALESCE_MAX_BATCH_SIZE environment variable not found. Default value "
+					+ DEFAULT_COALESCE_MAX_BATCH_SIZE);
+			return DEFAULT_COALESCE_MAX_BATCH_SIZE;
+		}
+
+		return Integer.parseInt(maxBatchSize);
+	}
+
+	private static int loadChannelPoolSize() {
+		String poolSize = Optional.ofNullable(System.getenv("DB_CHANNEL_POOL_SIZE")).orElse("");
+
+		if (poolSize.isEmpty()) {
+			System.out.println("DB_CHANNEL_POOL_SIZE environment variable not found. Default value "
+					+ DEFAULT_CHANNEL_POOL_SIZE);
+			return DEFAULT_CHANNEL_POOL_SIZE;
+		}
+
+		return Integer.parseInt(poolSize);
+	}
+
+	private static long loadKeepAliveTimeMs() {
+		String keepAliveMs = Optional.ofNullable(System.getenv("DB_KEEPALIVE_TIME_MS")).orElse("");
+
+		if (keepAliveMs.isEmpty()) {
+			System.out.println("DB_KEEPALIVE_TIME_MS environment variable not found. Default value "
+					+ DEFAULT_KEEPALIVE_TIME_MS);
+			return DEFAULT_KEEPALIVE_TIME_MS;
+		}
+
+		return Long.parseLong(keepAliveMs);
+	}
+
+	private static long loadKeepAliveTimeoutMs() {
+		String keepAliveTimeoutMs = Optional.ofNullable(System.getenv("DB_KEEPALIVE_TIMEOUT_MS")).orElse("");
+
+		if (keepAliveTimeoutMs.isEmpty()) {
+			System.out.println("DB_KEEPALIVE_TIMEOUT_MS environment variable not found. Default value "
+					+ DEFAULT_KEEPALIVE_TIMEOUT_MS);
+			return DEFAULT_KEEPALIVE_TIMEOUT_MS;
+		}
+
+		return Long.parseLong(keepAliveTimeoutMs);
+	}
+
+	private static int loadMaxInboundMessageSize() {
+		String maxSize = Optional.ofNullable(System.getenv("DB_MAX_INBOUND_MESSAGE_SIZE")).orElse("");
+
+		if (maxSize.isEmpty()) {
+			System.out.println("DB_MAX_INBOUND_MESSAGE_SIZE environment variable not found. Default value "
+					+ DEFAULT_MAX_INBOUND_MESSAGE_SIZE);
+			return DEFAULT_MAX_INBOUND_MESSAGE_SIZE;
+		}
+
+		return Integer.parseInt(maxSize);
+	}
 }
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Result of a multi-document get. Found documents keep the order of the requested IDs, IDs without document are
+ * reported as missing.
+ */
+public class GetAllResponse<E> {
+
+	private final Map<String, E> found;
+
+	private final List<String> missing;
+
+	public GetAllResponse(Map<String, E> found, List<String> missing) {
+		this.found = found;
+		this.missing = missing;
+	}
+
+	public Map<String, E> getFound() {
+		return found;
+	}
+
+	public List<String> getMissing() {
+		return missing;
+	}
+
+	public Optional<E> get(String id) {
+		return Optional.ofNullable(found.get(id));
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * IdRanges splits a query into queries over consecutive document ID ranges, so they can run concurrently. Firestore
+ * partition queries are not available in this client version, so the split points are taken from the alphabet of
+ * Firestore auto-generated IDs, which are uniformly distributed. Collections with custom IDs may get uneven
+ * partitions.
+ */
+final class IdRanges {
+
+	/**
+	 * Characters of Firestore auto-generated IDs, in document ID order.
+	 */
+	static final String AUTO_ID_ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+
+	private IdRanges() {
+	}
+
+	/**
+	 * @return the given query when there is a single partition, otherwise a query per ID range, ordered by document ID.
+	 * @throws IllegalArgumentException if the query has limit, offset, orderBy, cursors or inequality filters, as they
+	 * can not be split by document ID.
+	 */
+	static List<Query> split(Query query, int partitions) {
+		if (partitions < 1) {
+			throw new IllegalArgumentException("partitions must be greater than zero");
+		}
+
+		if (partitions == 1) {
+			return Collections.singletonList(query);
+		}
+
+		if (query.isLimitSet() || query.isOffsetSet() || !query.getOrderBy().isEmpty()
+			|| QueryPager.orderField(query) != null || !query.getStartAt().isEmpty()
+			|| !query.getStartAfter().isEmpty() || !query.getEndBefore().isEmpty()) {
+			throw new IllegalArgumentException(
+				"Queries with limit, offset, orderBy, cursors or inequality filters can not be partitioned");
+		}
+
+		int size = Math.min(partitions, AUTO_ID_ALPHABET.length());
+		List<Query> ranges = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			Query range = query.copy().orderBy(Query.DOCUMENT_ID);
+			if (i > 0) {
+				range.startAt(bound(i, size));
+			}
+
+			if (i < size - 1) {
+				range.endBefore(bound(i + 1, size));
+			}
+			ranges.add(range);
+		}
+		return ranges;
+	}
+
+	private static String bound(int index, int size) {
+		return String.valueOf(AUTO_ID_ALPHABET.charAt(index * AUTO_ID_ALPHABET.length() / size));
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import io.reactivex.Single;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * InFlightLimiter bounds the amount of Firestore calls that are running at the same time. Calls over the limit are
+ * queued (no thread is parked) and started as soon as a running call ends.
+ */
+public class InFlightLimiter {
+
+	private final int maxInFlight;
+	private final AtomicInteger inFlight = new AtomicInteger(0);
+	private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+
+	public InFlightLimiter(int maxInFlight) {
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException("maxInFlight must be greater than zero");
+		}
+
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Run the given operation as soon as there is a free slot.
+	 *
+	 * @param operation lazy Firestore call. Is not invoked until the returned Single is subscribed and a slot is free.
+	 * @return Single with the operation result.
+	 */
+	public <T> Single<T> submit(Supplier<Single<T>> operation) {
+		return Single.create(emitter -> {
+			pending.offer(() -> {
+				if (emitter.isDisposed()) {
+					release();
+					return;
+				}
+
+				try {
+					emitter.setDisposable(operation.get()
+						.doFinally(this::release)
+						.subscribe(emitter::onSuccess, emitter::tryOnError));
+				} catch (Throwable err) {
+					release();
+					emitter.tryOnError(err);
+				}
+			});
+
+			drain();
+		});
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	public int getPending() {
+		return pending.size();
+	}
+
+	private void release() {
+		inFlight.decrementAndGet();
+		drain();
+	}
+
+	private void drain() {
+		while (!pending.isEmpty()) {
+			int current = inFlight.get();
+			if (current >= maxInFlight) {
+				return;
+			}
+
+			if (inFlight.compareAndSet(current, current + 1)) {
+				Runnable task = pending.poll();
+				if (task == null) {
+					inFlight.decrementAndGet();
+				} else {
+					task.run();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import io.reactivex.Flowable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * LatestByKeyBuffer keeps, for every key, the latest value that has not been requested yet. A value replaces the
+ * pending value of the same key but keeps its position, so keys are emitted in the order they first changed. Memory is
+ * bounded by the amount of distinct keys. It allows a single subscriber.
+ */
+final class LatestByKeyBuffer<T> {
+
+	private final Map<Object, T> pending = new LinkedHashMap<>();
+	private final AtomicLong requested = new AtomicLong();
+	private final AtomicInteger wip = new AtomicInteger();
+
+	private volatile Subscriber<? super T> subscriber;
+	private volatile boolean cancelled;
+	private volatile boolean done;
+	private Throwable error;
+
+	void offer(Object key, T value) {
+		synchronized (pending) {
+			pending.put(key, value);
+		}
+		drain();
+	}
+
+	void onError(Throwable err) {
+		error = err;
+		done = true;
+		drain();
+	}
+
+	Flowable<T> toFlowable() {
+		Publisher<T> publisher = this::subscribe;
+		return Flowable.fromPublisher(publisher);
+	}
+
+	private synchronized void subscribe(Subscriber<? super T> s) {
+		if (subscriber != null) {
+			Flowable.<T>error(new IllegalStateException("Only one subscriber allowed")).subscribe(s);
+			return;
+		}
+
+		s.onSubscribe(new Subscription() {
+			@Override
+			public void request(long n) {
+				requested.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+				drain();
+			}
+
+			@Override
+			public void cancel() {
+				cancelled = true;
+			}
+		});
+		subscriber = s;
+		drain();
+	}
+
+	private void drain() {
+		if (wip.getAndIncrement() != 0) {
+			return;
+		}
+
+		int missed = 1;
+		while (missed != 0) {
+			Subscriber<? super T> s = subscriber;
+			if (s != null && !cancelled) {
+				long emitted = 0;
+				long limit = requested.get();
+				T next = emitted == limit ? null : poll();
+				while (next != null && !cancelled) {
+					s.onNext(next);
+					emitted++;
+					next = emitted == limit ? null : poll();
+				}
+
+				if (emitted != 0 && limit != Long.MAX_VALUE) {
+					requested.addAndGet(-emitted);
+				}
+
+				if (done && isEmpty() && !cancelled) {
+					cancelled = true;
+					s.onError(error);
+				}
+			}
+
+			missed = wip.addAndGet(-missed);
+		}
+	}
+
+	private T poll() {
+		synchronized (pending) {
+			Iterator<T> values = pending.values().iterator();
+			if (!values.hasNext()) {
+				return null;
+			}
+
+			T value = values.next();
+			values.remove();
+			return value;
+		}
+	}
+
+	private boolean isEmpty() {
+		synchronized (pending) {
+			return pending.isEmpty();
+		}
+	}
+}
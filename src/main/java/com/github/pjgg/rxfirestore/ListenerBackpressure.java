@@ -0,0 +1,39 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+/**
+ * ListenerBackpressure defines what a query listener does with document changes while its subscriber is busy.
+ * <p>
+ * LATEST: only the latest change is kept, older changes are dropped. Default behavior.
+ * <p>
+ * BUFFER: changes are buffered up to the buffer size, then the flow fails with MissingBackpressureException. No
+ * change is ever lost silently.
+ * <p>
+ * DROP_OLDEST: changes are buffered up to the buffer size, then the oldest change is dropped.
+ * <p>
+ * LATEST_PER_DOCUMENT: the latest change of every document is kept, so a busy subscriber skips intermediate versions
+ * of a document but never misses a document.
+ */
+public enum ListenerBackpressure {
+
+	LATEST,
+	BUFFER,
+	DROP_OLDEST,
+	LATEST_PER_DOCUMENT
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.Blob;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.GeoPoint;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * NdjsonCodec writes a document as a single JSON line and reads it back, without losing Firestore types: numbers keep
+ * integer or decimal representation, and timestamps, geo points, bytes, references and the decimals that JSON can not
+ * hold are written as tagged objects ({"$timestamp": [seconds, nanos]}, {"$geo": [latitude, longitude]},
+ * {"$bytes": base64}, {"$ref": path} and {"$double": "NaN"}, "Infinity" or "-Infinity"). Field names that start with
+ * $ are escaped with another $, so they are never taken as tags. Documents are streamed through Jackson, without an
+ * intermediate tree.
+ */
+final class NdjsonCodec {
+
+	private static final String TIMESTAMP = "$timestamp";
+	private static final String GEO_POINT = "$geo";
+	private static final String BYTES = "$bytes";
+	private static final String REFERENCE = "$ref";
+	private static final String DOUBLE = "$double";
+
+	private final JsonFactory factory = new JsonFactory();
+	private final Function<String, DocumentReference> references;
+
+	/**
+	 * @param references builds a document reference from its path, see FirestoreTemplate.document.
+	 */
+	NdjsonCodec(Function<String, DocumentReference> references) {
+		this.references = references;
+	}
+
+	/**
+	 * @return the document as a JSON line, without the line separator.
+	 */
+	byte[] encode(Map<String, Object> document) throws IOException {
+		ByteArrayBuilder bytes = new ByteArrayBuilder(512);
+		try (JsonGenerator generator = factory.createGenerator(bytes)) {
+			writeValue(generator, document);
+		}
+		return bytes.toByteArray();
+	}
+
+	Map<String, Object> decode(String line) throws IOException {
+		try (JsonParser parser = factory.createParser(line)) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new IOException("A document must be a JSON object: " + line);
+			}
+			return (Map<String, Object>) readObject(parser);
+		}
+	}
+
+	private void writeValue(JsonGenerator generator, Object value) throws IOException {
+		if (value == null) {
+			generator.writeNull();
+		} else if (value instanceof String) {
+			generator.writeString((String) value);
+		} else if (value instanceof Boolean) {
+			generator.writeBoolean((Boolean) value);
+		} else if (value instanceof Long || value instanceof Integer || value instanceof Short) {
+			generator.writeNumber(((Number) value).longValue());
+		} else if (value instanceof Number) {
+			double number = ((Number) value).doubleValue();
+			if (Double.isNaN(number) || Double.isInfinite(number)) {
+				generator.writeStartObject();
+				generator.writeStringField(DOUBLE, Double.toString(number));
+				generator.writeEndObject();
+			} else {
+				generator.writeNumber(number);
+			}
+		} else if (value instanceof Map) {
+			generator.writeStartObject();
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				String name = (String) entry.getKey();
+				generator.writeFieldName(name.startsWith("$") ? "$" + name : name);
+				writeValue(generator, entry.getValue());
+			}
+			generator.writeEndObject();
+		} else if (value instanceof List) {
+			generator.writeStartArray();
+			for (Object elem : (List<?>) value) {
+				writeValue(generator, elem);
+			}
+			generator.writeEndArray();
+		} else if (value instanceof Timestamp || value instanceof Date) {
+			Timestamp timestamp = value instanceof Date ? Timestamp.of((Date) value) : (Timestamp) value;
+			generator.writeStartObject();
+			generator.writeFieldName(TIMESTAMP);
+			generator.writeStartArray();
+			generator.writeNumber(timestamp.getSeconds());
+			generator.writeNumber(timestamp.getNanos());
+			generator.writeEndArray();
+			generator.writeEndObject();
+		} else if (value instanceof GeoPoint) {
+			generator.writeStartObject();
+			generator.writeFieldName(GEO_POINT);
+			generator.writeStartArray();
+			generator.writeNumber(((GeoPoint) value).getLatitude());
+			generator.writeNumber(((GeoPoint) value).getLongitude());
+			generator.writeEndArray();
+			generator.writeEndObject();
+		} else if (value instanceof Blob) {
+			generator.writeStartObject();
+			generator.writeFieldName(BYTES);
+			generator.writeBinary(((Blob) value).toBytes());
+			generator.writeEndObject();
+		} else if (value instanceof DocumentReference) {
+			generator.writeStartObject();
+			generator.writeStringField(REFERENCE, ((DocumentReference) value).getPath());
+			generator.writeEndObject();
+		} else {
+			throw new IOException("Unsupported value type " + value.getClass().getName());
+		}
+	}
+
+	private Object readValue(JsonParser parser, JsonToken token) throws IOException {
+		switch (token) {
+			case VALUE_NULL:
+				return null;
+			case VALUE_STRING:
+				return parser.getText();
+			case VALUE_TRUE:
+				return Boolean.TRUE;
+			case VALUE_FALSE:
+				return Boolean.FALSE;
+			case VALUE_NUMBER_INT:
+				return parser.getLongValue();
+			case VALUE_NUMBER_FLOAT:
+				return parser.getDoubleValue();
+			case START_ARRAY:
+				List<Object> list = new ArrayList<>();
+				for (JsonToken elem = parser.nextToken(); elem != JsonToken.END_ARRAY; elem = parser.nextToken()) {
+					list.add(readValue(parser, elem));
+				}
+				return list;
+			case START_OBJECT:
+				return readObject(parser);
+			default:
+				throw new IOException("Unexpected JSON token " + token);
+		}
+	}
+
+	/**
+	 * A JSON object, or the Firestore value of a tagged object.
+	 */
+	private Object readObject(JsonParser parser) throws IOException {
+		Map<String, Object> map = new HashMap<>();
+		for (JsonToken field = parser.nextToken(); field != JsonToken.END_OBJECT; field = parser.nextToken()) {
+			String name = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			if (name.startsWith("$$")) {
+				name = name.substring(1);
+			} else if (map.isEmpty() && name.startsWith("$")) {
+				Object tagged = readTagged(parser, name, token);
+				if (tagged != null) {
+					return tagged;
+				}
+			}
+			map.put(name, readValue(parser, token));
+		}
+		return map;
+	}
+
+	/**
+	 * @return the tagged value, null if the field is not a tag.
+	 */
+	private Object readTagged(JsonParser parser, String tag, JsonToken token) throws IOException {
+		Object value;
+		switch (tag) {
+			case TIMESTAMP:
+				List<?> timestamp = (List<?>) readValue(parser, token);
+				value = Timestamp.ofTimeSecondsAndNanos((Long) timestamp.get(0), ((Long) timestamp.get(1)).intValue());
+				break;
+			case GEO_POINT:
+				List<?> point = (List<?>) readValue(parser, token);
+				value = new GeoPoint(((Number) point.get(0)).doubleValue(), ((Number) point.get(1)).doubleValue());
+				break;
+			case BYTES:
+				value = Blob.fromBytes(parser.getBinaryValue());
+				break;
+			case REFERENCE:
+				value = references.apply(parser.getText());
+				break;
+			case DOUBLE:
+				value = Double.valueOf(parser.getText());
+				break;
+			default:
+				return null;
+		}
+
+		if (parser.nextToken() != JsonToken.END_OBJECT) {
+			throw new IOException("Tagged value " + tag + " must be the only field of its object");
+		}
+		return value;
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * PartitionedScan walks a query split into document ID ranges (see IdRanges), several partitions at the same time,
+ * so a full pass over a large collection is not bound to the speed of a single query. Each partition is streamed
+ * page by page (see RxFirestoreSdk.stream) and reports its progress, see getProgress.
+ *
+ * @param <E> entity type.
+ */
+public final class PartitionedScan<E> {
+
+	private final List<Query> partitions;
+	private final Function<Query, Flowable<E>> stream;
+	private final List<ScanProgress> progress;
+
+	PartitionedScan(List<Query> partitions, Function<Query, Flowable<E>> stream) {
+		this(partitions, stream, System::nanoTime);
+	}
+
+	PartitionedScan(List<Query> partitions, Function<Query, Flowable<E>> stream, LongSupplier nanoTime) {
+		this.partitions = partitions;
+		this.stream = stream;
+		List<ScanProgress> all = new ArrayList<>(partitions.size());
+		for (int i = 0; i < partitions.size(); i++) {
+			all.add(new ScanProgress(i, partitions.get(i), nanoTime));
+		}
+		this.progress = Collections.unmodifiableList(all);
+	}
+
+	/**
+	 * Scan up to parallelism partitions at the same time and merge their documents. Documents of different partitions
+	 * are interleaved.
+	 */
+	public Flowable<E> toFlowable(int parallelism) {
+		return Flowable.range(0, partitions.size()).flatMap(this::partition, false, parallelism);
+	}
+
+	/**
+	 * Hand every partition to the consumer, up to parallelism partitions at the same time. The consumer gets the
+	 * partition progress and its documents, and completes once the partition is processed.
+	 */
+	public Completable forEachPartition(int parallelism, BiFunction<ScanProgress, Flowable<E>, Completable> consumer) {
+		return Flowable.range(0, partitions.size())
+			.flatMapCompletable(index -> consumer.apply(progress.get(index), partition(index)), false, parallelism);
+	}
+
+	/**
+	 * @return progress of every partition, in partition order.
+	 */
+	public List<ScanProgress> getProgress() {
+		return progress;
+	}
+
+	/**
+	 * @return documents scanned so far, by every partition.
+	 */
+	public long getDocuments() {
+		long documents = 0;
+		for (ScanProgress partition : progress) {
+			documents += partition.getDocuments();
+		}
+		return documents;
+	}
+
+	private Flowable<E> partition(int index) {
+		ScanProgress partition = progress.get(index);
+		return Flowable.defer(() -> {
+			partition.start();
+			return stream.apply(partitions.get(index))
+				.doOnNext(document -> partition.scanned())
+				.doOnComplete(() -> partition.finish(ScanProgress.State.DONE))
+				.doOnError(err -> partition.finish(ScanProgress.State.FAILED));
+		});
+	}
+}
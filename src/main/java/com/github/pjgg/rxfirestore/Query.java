@@ -18,10 +18,25 @@
 package com.github.pjgg.rxfirestore;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public class Query implements Serializable {
 
+	/**
+	 * Field name of the document ID, in order to order by it.
+	 */
+	public static final String DOCUMENT_ID = "__name__";
+
+	public enum Direction {
+		ASCENDING, DESCENDING
+	}
+
 	private final String collectionName;
 	private HashMap<String, Object> equalTo = new HashMap<>();
 	private HashMap<String, Object> arrayContains = new HashMap<>();
@@ -31,6 +46,11 @@ public class Query implements Serializable {
 	private Integer offset;
 	private boolean limitSet;
 	private boolean offsetSet;
+	private LinkedHashMap<String, Direction> orderBy = new LinkedHashMap<>();
+	private ArrayList<Object> startAt = new ArrayList<>();
+	private ArrayList<Object> startAfter = new ArrayList<>();
+	private ArrayList<Object> endBefore = new ArrayList<>();
+	private ArrayList<String> select;
 
 	protected Query(String collecitonName) {
 		this.collectionName = collecitonName;
@@ -68,6 +88,136 @@ public class Query implements Serializable {
 		return this;
 	}
 
+	/**
+	 * Retrieve only the given fields (dotted paths for nested fields) instead of the whole documents, so less bytes
+	 * travel and less values are decoded. Fields that are not selected are missing from the retrieved documents.
+	 * Without fields, only the document IDs are retrieved.
+	 */
+	public Query select(String... fields) {
+		select = new ArrayList<>(Arrays.asList(fields));
+		return this;
+	}
+
+	/**
+	 * Order the results by the field, ascending. Several orderBy calls sort by the first field, then by the second
+	 * one, and so on. With an inequality filter, the first order must be the filtered field. See DOCUMENT_ID.
+	 */
+	public Query orderBy(String field) {
+		return orderBy(field, Direction.ASCENDING);
+	}
+
+	public Query orderBy(String field, Direction direction) {
+		orderBy.put(field, direction);
+		return this;
+	}
+
+	/**
+	 * Start at the document that has the given values of the orderBy fields, in the same order. Unlike offset,
+	 * skipped documents are not read, so every page costs the same.
+	 */
+	public Query startAt(Object... values) {
+		startAt = new ArrayList<>(Arrays.asList(values));
+		return this;
+	}
+
+	/**
+	 * Start at a previously retrieved entity, see startAfter(Entity, String).
+	 */
+	public Query startAt(Entity entity, String id) {
+		startAt = cursorOf(entity, id);
+		return this;
+	}
+
+	/**
+	 * Start after the document that has the given values of the orderBy fields, in the same order.
+	 */
+	public Query startAfter(Object... values) {
+		startAfter = new ArrayList<>(Arrays.asList(values));
+		return this;
+	}
+
+	/**
+	 * Start after a previously retrieved entity: the cursor is made of its values of the orderBy fields and its
+	 * document ID, and the query is ordered by document ID after the orderBy fields, so documents with the same values
+	 * are neither repeated nor skipped. Call it once the orderBy fields are set.
+	 */
+	public Query startAfter(Entity entity, String id) {
+		startAfter = cursorOf(entity, id);
+		return this;
+	}
+
+	/**
+	 * End before the document that has the given values of the orderBy fields, in the same order.
+	 */
+	public Query endBefore(Object... values) {
+		endBefore = new ArrayList<>(Arrays.asList(values));
+		return this;
+	}
+
+	/**
+	 * End before a previously retrieved entity, see startAfter(Entity, String).
+	 */
+	public Query endBefore(Entity entity, String id) {
+		endBefore = cursorOf(entity, id);
+		return this;
+	}
+
+	/**
+	 * Start after the given cursor values, instead of the start of the query (startAt, startAfter and offset). Used by
+	 * stream in order to page, values follow the stream ordering (see QueryPager.orderFields) and the document ID.
+	 */
+	Query withStartAfter(List<Object> values) {
+		startAt = new ArrayList<>();
+		startAfter = new ArrayList<>(values);
+		offset = null;
+		offsetSet = false;
+		return this;
+	}
+
+	/**
+	 * Values of the entity for the orderBy fields and its ID. Without orderBy, the inequality field (if any) is used as
+	 * Firestore would do.
+	 */
+	private ArrayList<Object> cursorOf(Entity entity, String id) {
+		if (orderBy.isEmpty() && QueryPager.orderField(this) != null) {
+			orderBy(QueryPager.orderField(this));
+		}
+
+		if (!orderBy.containsKey(DOCUMENT_ID)) {
+			Direction last = orderBy.isEmpty() ? Direction.ASCENDING : new ArrayList<>(orderBy.values())
+				.get(orderBy.size() - 1);
+			orderBy(DOCUMENT_ID, last);
+		}
+
+		Map<String, Object> document = entity.toMap();
+		ArrayList<Object> values = new ArrayList<>(orderBy.size());
+		for (String field : orderBy.keySet()) {
+			values.add(DOCUMENT_ID.equals(field) ? id : QueryPager.valueAt(document, field));
+		}
+		return values;
+	}
+
+	/**
+	 * Copy of the query, in order to change it without changing this one.
+	 */
+	Query copy() {
+		Query copy = new Query(collectionName);
+		copy.equalTo.putAll(equalTo);
+		copy.arrayContains.putAll(arrayContains);
+		copy.greaterThan.putAll(greaterThan);
+		copy.lessThan.putAll(lessThan);
+		copy.limit = limit;
+		copy.limitSet = limitSet;
+		copy.offset = offset;
+		copy.offsetSet = offsetSet;
+		copy.orderBy.putAll(orderBy);
+		copy.startAt = new ArrayList<>(startAt);
+		copy.startAfter = new ArrayList<>(startAfter);
+		copy.endBefore = new ArrayList<>(endBefore);
+		copy.select = select == null ? null : new ArrayList<>(select);
+		return copy;
+	}
+
 	public String getCollectionName() {
 		return collectionName;
 	}
@@ -103,4 +253,31 @@ public class Query implements Serializable {
 	public HashMap<String, Object> getLessThan() {
 		return lessThan;
 	}
+
+	public Map<String, Direction> getOrderBy() {
+		return orderBy;
+	}
+
+	public List<Object> getStartAt() {
+		return startAt;
+	}
+
+	public List<Object> getStartAfter() {
+		return startAfter;
+	}
+
+	public List<Object> getEndBefore() {
+		return endBefore;
+	}
+
+	public boolean isSelectSet() {
+		return select != null;
+	}
+
+	/**
+	 * @return selected fields, empty when select is not set or only document IDs are selected (see isSelectSet).
+	 */
+	public List<String> getSelect() {
+		return select == null ? Collections.emptyList() : select;
+	}
 }
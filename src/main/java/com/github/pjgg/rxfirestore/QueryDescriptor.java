@@ -0,0 +1,389 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.Blob;
+import com.google.cloud.firestore.GeoPoint;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compact and versioned binary encoding of a Query.
+ * <p>
+ * Layout: version byte, collection name, the four filter sections (equalTo, arrayContains, greaterThan, lessThan) as
+ * a count followed by field/value pairs, limit and offset, each one prefixed by a presence flag, the startAfter cursor
+ * as a count followed by values (since version 2), the selected fields, prefixed by a presence flag and a count (since
+ * version 3), and finally the orderBy fields, as a count followed by field/direction pairs, and the startAt and
+ * endBefore cursors (since version 4). Numbers are written as varints and filter fields are written sorted, so two
+ * equivalent queries have the same encoding. Older descriptors are still decoded.
+ */
+public final class QueryDescriptor {
+
+	public static final byte VERSION = 4;
+
+	private static final byte VERSION_WITHOUT_CURSOR = 1;
+	private static final byte VERSION_WITHOUT_SELECT = 2;
+	private static final byte VERSION_WITHOUT_ORDER = 3;
+
+	private static final byte NULL = 0;
+	private static final byte STRING = 1;
+	private static final byte FALSE = 2;
+	private static final byte TRUE = 3;
+	private static final byte INTEGER = 4;
+	private static final byte LONG = 5;
+	private static final byte DOUBLE = 6;
+	private static final byte FLOAT = 7;
+	private static final byte DATE = 8;
+	private static final byte TIMESTAMP = 9;
+	private static final byte LIST = 10;
+	private static final byte MAP = 11;
+	private static final byte BLOB = 12;
+	private static final byte GEO_POINT = 13;
+
+	private QueryDescriptor() {
+	}
+
+	public static byte[] encode(Query query) {
+		Writer writer = new Writer();
+		writer.writeByte(VERSION);
+		writer.writeString(query.getCollectionName());
+		writeFilters(writer, query.getEqualTo());
+		writeFilters(writer, query.getArrayContains());
+		writeFilters(writer, query.getGreaterThan());
+		writeFilters(writer, query.getLessThan());
+		writeOptionalInt(writer, query.isLimitSet(), query.getLimit());
+		writeOptionalInt(writer, query.isOffsetSet(), query.getOffset());
+		writeValues(writer, query.getStartAfter());
+		writer.writeByte(query.isSelectSet() ? (byte) 1 : (byte) 0);
+		if (query.isSelectSet()) {
+			writer.writeVarInt(query.getSelect().size());
+			for (String field : query.getSelect()) {
+				writer.writeString(field);
+			}
+		}
+		writer.writeVarInt(query.getOrderBy().size());
+		for (Map.Entry<String, Query.Direction> order : query.getOrderBy().entrySet()) {
+			writer.writeString(order.getKey());
+			writer.writeByte((byte) order.getValue().ordinal());
+		}
+		writeValues(writer, query.getStartAt());
+		writeValues(writer, query.getEndBefore());
+		return writer.toByteArray();
+	}
+
+	public static Query decode(byte[] bytes) {
+		Reader reader = new Reader(bytes);
+		byte version = reader.readByte();
+		if (version < VERSION_WITHOUT_CURSOR || version > VERSION) {
+			throw new IllegalArgumentException("Unsupported query descriptor version " + version);
+		}
+
+		Query query = new Query(reader.readString());
+		readFilters(reader, query.getEqualTo());
+		readFilters(reader, query.getArrayContains());
+		readFilters(reader, query.getGreaterThan());
+		readFilters(reader, query.getLessThan());
+
+		if (reader.readByte() == 1) {
+			query.withLimit(reader.readVarInt());
+		}
+
+		if (reader.readByte() == 1) {
+			query.withOffset(reader.readVarInt());
+		}
+
+		if (version >= VERSION_WITHOUT_SELECT) {
+			query.startAfter(readValues(reader).toArray());
+		}
+
+		if (version >= VERSION_WITHOUT_ORDER && reader.readByte() == 1) {
+			String[] fields = new String[reader.readVarInt()];
+			for (int i = 0; i < fields.length; i++) {
+				fields[i] = reader.readString();
+			}
+			query.select(fields);
+		}
+
+		if (version >= VERSION) {
+			int size = reader.readVarInt();
+			for (int i = 0; i < size; i++) {
+				query.orderBy(reader.readString(), Query.Direction.values()[reader.readByte()]);
+			}
+			query.startAt(readValues(reader).toArray());
+			query.endBefore(readValues(reader).toArray());
+		}
+
+		return query;
+	}
+
+	private static void writeFilters(Writer writer, Map<String, Object> filters) {
+		writer.writeVarInt(filters.size());
+		for (Map.Entry<String, Object> filter : new TreeMap<>(filters).entrySet()) {
+			writer.writeString(filter.getKey());
+			writeValue(writer, filter.getValue());
+		}
+	}
+
+	private static void readFilters(Reader reader, Map<String, Object> filters) {
+		int size = reader.readVarInt();
+		for (int i = 0; i < size; i++) {
+			filters.put(reader.readString(), readValue(reader));
+		}
+	}
+
+	private static void writeValues(Writer writer, List<Object> values) {
+		writer.writeVarInt(values.size());
+		for (Object value : values) {
+			writeValue(writer, value);
+		}
+	}
+
+	private static List<Object> readValues(Reader reader) {
+		int size = reader.readVarInt();
+		List<Object> values = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			values.add(readValue(reader));
+		}
+		return values;
+	}
+
+	private static void writeOptionalInt(Writer writer, boolean isSet, Integer value) {
+		if (isSet && value != null) {
+			writer.writeByte((byte) 1);
+			writer.writeVarInt(value);
+		} else {
+			writer.writeByte((byte) 0);
+		}
+	}
+
+	private static void writeValue(Writer writer, Object value) {
+		if (value == null) {
+			writer.writeByte(NULL);
+		} else if (value instanceof String) {
+			writer.writeByte(STRING);
+			writer.writeString((String) value);
+		} else if (value instanceof Boolean) {
+			writer.writeByte((Boolean) value ? TRUE : FALSE);
+		} else if (value instanceof Integer) {
+			writer.writeByte(INTEGER);
+			writer.writeVarLong((Integer) value);
+		} else if (value instanceof Long) {
+			writer.writeByte(LONG);
+			writer.writeVarLong((Long) value);
+		} else if (value instanceof Double) {
+			writer.writeByte(DOUBLE);
+			writer.writeLong(Double.doubleToRawLongBits((Double) value));
+		} else if (value instanceof Float) {
+			writer.writeByte(FLOAT);
+			writer.writeLong(Double.doubleToRawLongBits((Float) value));
+		} else if (value instanceof Date) {
+			writer.writeByte(DATE);
+			writer.writeVarLong(((Date) value).getTime());
+		} else if (value instanceof Timestamp) {
+			writer.writeByte(TIMESTAMP);
+			writer.writeVarLong(((Timestamp) value).getSeconds());
+			writer.writeVarLong(((Timestamp) value).getNanos());
+		} else if (value instanceof List) {
+			List<?> list = (List<?>) value;
+			writer.writeByte(LIST);
+			writer.writeVarInt(list.size());
+			for (Object elem : list) {
+				writeValue(writer, elem);
+			}
+		} else if (value instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			writer.writeByte(MAP);
+			writer.writeVarInt(map.size());
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				writer.writeString((String) entry.getKey());
+				writeValue(writer, entry.getValue());
+			}
+		} else if (value instanceof Blob) {
+			byte[] bytes = ((Blob) value).toBytes();
+			writer.writeByte(BLOB);
+			writer.writeVarInt(bytes.length);
+			writer.writeBytes(bytes);
+		} else if (value instanceof GeoPoint) {
+			writer.writeByte(GEO_POINT);
+			writer.writeLong(Double.doubleToRawLongBits(((GeoPoint) value).getLatitude()));
+			writer.writeLong(Double.doubleToRawLongBits(((GeoPoint) value).getLongitude()));
+		} else {
+			throw new IllegalArgumentException("Unsupported query value type " + value.getClass().getName());
+		}
+	}
+
+	private static Object readValue(Reader reader) {
+		byte type = reader.readByte();
+		switch (type) {
+			case NULL:
+				return null;
+			case STRING:
+				return reader.readString();
+			case FALSE:
+				return Boolean.FALSE;
+			case TRUE:
+				return Boolean.TRUE;
+			case INTEGER:
+				return (int) reader.readVarLong();
+			case LONG:
+				return reader.readVarLong();
+			case DOUBLE:
+				return Double.longBitsToDouble(reader.readLong());
+			case FLOAT:
+				return (float) Double.longBitsToDouble(reader.readLong());
+			case DATE:
+				return new Date(reader.readVarLong());
+			case TIMESTAMP:
+				return Timestamp.ofTimeSecondsAndNanos(reader.readVarLong(), (int) reader.readVarLong());
+			case LIST:
+				int listSize = reader.readVarInt();
+				List<Object> list = new ArrayList<>(listSize);
+				for (int i = 0; i < listSize; i++) {
+					list.add(readValue(reader));
+				}
+				return list;
+			case MAP:
+				int mapSize = reader.readVarInt();
+				Map<String, Object> map = new HashMap<>();
+				for (int i = 0; i < mapSize; i++) {
+					map.put(reader.readString(), readValue(reader));
+				}
+				return map;
+			case BLOB:
+				return Blob.fromBytes(reader.readBytes(reader.readVarInt()));
+			case GEO_POINT:
+				double latitude = Double.longBitsToDouble(reader.readLong());
+				return new GeoPoint(latitude, Double.longBitsToDouble(reader.readLong()));
+			default:
+				throw new IllegalArgumentException("Unknown query value type " + type);
+		}
+	}
+
+	private static final class Writer {
+
+		private byte[] buffer = new byte[64];
+		private int position;
+
+		void writeByte(byte value) {
+			ensureCapacity(1);
+			buffer[position++] = value;
+		}
+
+		void writeBytes(byte[] bytes) {
+			ensureCapacity(bytes.length);
+			System.arraycopy(bytes, 0, buffer, position, bytes.length);
+			position += bytes.length;
+		}
+
+		void writeVarInt(int value) {
+			writeVarLong(value);
+		}
+
+		void writeVarLong(long value) {
+			long zigZag = (value << 1) ^ (value >> 63);
+			ensureCapacity(10);
+			while ((zigZag & ~0x7FL) != 0) {
+				buffer[position++] = (byte) ((zigZag & 0x7F) | 0x80);
+				zigZag >>>= 7;
+			}
+			buffer[position++] = (byte) zigZag;
+		}
+
+		void writeLong(long value) {
+			ensureCapacity(8);
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				buffer[position++] = (byte) (value >>> shift);
+			}
+		}
+
+		void writeString(String value) {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(bytes.length);
+			writeBytes(bytes);
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(buffer, position);
+		}
+
+		private void ensureCapacity(int length) {
+			if (position + length > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + length));
+			}
+		}
+	}
+
+	private static final class Reader {
+
+		private final byte[] buffer;
+		private int position;
+
+		Reader(byte[] buffer) {
+			this.buffer = buffer;
+		}
+
+		byte readByte() {
+			return buffer[position++];
+		}
+
+		byte[] readBytes(int length) {
+			byte[] bytes = Arrays.copyOfRange(buffer, position, position + length);
+			position += length;
+			return bytes;
+		}
+
+		int readVarInt() {
+			return (int) readVarLong();
+		}
+
+		long readVarLong() {
+			byte current = buffer[position++];
+			long zigZag = current & 0x7F;
+			int shift = 7;
+			while ((current & 0x80) != 0) {
+				current = buffer[position++];
+				zigZag |= (long) (current & 0x7F) << shift;
+				shift += 7;
+			}
+
+			return (zigZag >>> 1) ^ -(zigZag & 1);
+		}
+
+		long readLong() {
+			long value = 0;
+			for (int i = 0; i < 8; i++) {
+				value = (value << 8) | (buffer[position++] & 0xFF);
+			}
+			return value;
+		}
+
+		String readString() {
+			int length = readVarInt();
+			String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+			position += length;
+			return value;
+		}
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.MessageCodec;
+
+/**
+ * Event bus codec for query descriptors. Local sends pass the query reference, when the event bus is clustered the
+ * query is written with its compact binary encoding (see QueryDescriptor).
+ */
+public class QueryMessageCodec implements MessageCodec<Query, Query> {
+
+	public static final String NAME = "rxfirestore.query";
+
+	@Override
+	public void encodeToWire(Buffer buffer, Query query) {
+		byte[] bytes = QueryDescriptor.encode(query);
+		buffer.appendInt(bytes.length);
+		buffer.appendBytes(bytes);
+	}
+
+	@Override
+	public Query decodeFromWire(int pos, Buffer buffer) {
+		int length = buffer.getInt(pos);
+		return QueryDescriptor.decode(buffer.getBytes(pos + 4, pos + 4 + length));
+	}
+
+	@Override
+	public Query transform(Query query) {
+		return query;
+	}
+
+	@Override
+	public String name() {
+		return NAME;
+	}
+
+	@Override
+	public byte systemCodecID() {
+		return -1;
+	}
+}
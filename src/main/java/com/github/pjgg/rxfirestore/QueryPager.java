@@ -0,0 +1,208 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import com.google.cloud.firestore.DocumentSnapshot;
+import io.reactivex.Emitter;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+import io.reactivex.subjects.SingleSubject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * QueryPager walks a query page by page with startAfter cursors, instead of offsets. The next page is requested as
+ * soon as the current one is emitted, so it is fetched while the current page is consumed, and no more pages are
+ * requested until downstream asks for them. Memory is bounded by a few pages, whatever the result size.
+ *
+ * @param <T> document type returned by the page fetch.
+ */
+final class QueryPager<T> {
+
+	private final Query query;
+	private final int pageSize;
+	private final Function<Query, Single<List<T>>> fetch;
+	private final Function<T, List<Object>> cursor;
+
+	/**
+	 * @param query to walk. Its limit, if any, bounds the amount of streamed documents.
+	 * @param pageSize amount of documents requested per page.
+	 * @param fetch retrieves a page. The page query has limit and cursor set, see FirestoreTemplate.rxGetPage.
+	 * @param cursor cursor values of a document, see cursorOf.
+	 */
+	QueryPager(Query query, int pageSize, Function<Query, Single<List<T>>> fetch, Function<T, List<Object>> cursor) {
+		if (pageSize < 1) {
+			throw new IllegalArgumentException("pageSize must be greater than zero");
+		}
+
+		this.query = query;
+		this.pageSize = pageSize;
+		this.fetch = fetch;
+		this.cursor = cursor;
+	}
+
+	Flowable<T> stream() {
+		long limit = query.isLimitSet() && query.getLimit() != null ? query.getLimit() : Long.MAX_VALUE;
+
+		return Flowable.generate(() -> first(limit), this::generate)
+			.concatMapSingle(page -> page, 1)
+			.takeUntil(page -> page.last)
+			.concatMapIterable(page -> page.documents, 1);
+	}
+
+	/**
+	 * A page is fetched when it is subscribed, and pages are subscribed one after the other, so there is only one page
+	 * requested ahead of the one being consumed.
+	 */
+	private SingleSubject<Page<T>> generate(SingleSubject<Page<T>> previous, Emitter<Single<Page<T>>> emitter) {
+		SingleSubject<Page<T>> next = SingleSubject.create();
+		emitter.onNext(previous.flatMap(this::next).doOnSuccess(next::onSuccess).doOnError(next::onError));
+		return next;
+	}
+
+	private Single<Page<T>> next(Page<T> previous) {
+		if (previous.last) {
+			return Single.just(new Page<>(Collections.emptyList(), null, 0, true));
+		}
+
+		int size = (int) Math.min(pageSize, previous.remaining);
+		return fetch.apply(pageQuery(previous.cursor, size)).map(documents -> {
+			long remaining = previous.remaining - documents.size();
+			List<Object> last = documents.isEmpty() ? null : cursor.apply(documents.get(documents.size() - 1));
+			return new Page<>(documents, last, remaining, documents.size() < size || remaining <= 0);
+		});
+	}
+
+	/**
+	 * Same filters, order and end cursor than the streamed query. The first page keeps the query start (cursor or
+	 * offset), next pages start after the cursor.
+	 */
+	private Query pageQuery(List<Object> after, int size) {
+		Query page = query.copy().withLimit(size);
+		select(page);
+
+		if (after != null) {
+			page.withStartAfter(after);
+		}
+
+		return page;
+	}
+
+	/**
+	 * Same field mask than the streamed query, plus the order field as cursors are built with its value.
+	 */
+	private void select(Query page) {
+		if (!query.isSelectSet()) {
+			return;
+		}
+
+		List<String> fields = new ArrayList<>(query.getSelect());
+		for (String field : orderFields(query)) {
+			if (!Query.DOCUMENT_ID.equals(field) && !fields.contains(field)) {
+				fields.add(field);
+			}
+		}
+		page.select(fields.toArray(new String[0]));
+	}
+
+	private static <T> SingleSubject<Page<T>> first(long limit) {
+		SingleSubject<Page<T>> first = SingleSubject.create();
+		first.onSuccess(new Page<>(Collections.emptyList(), null, limit, limit <= 0));
+		return first;
+	}
+
+	/**
+	 * Fields that pages are ordered by before the document ID: the orderBy fields or, without them, the inequality
+	 * field (if any).
+	 */
+	static List<String> orderFields(Query query) {
+		if (!query.getOrderBy().isEmpty()) {
+			List<String> fields = new ArrayList<>(query.getOrderBy().keySet());
+			fields.remove(Query.DOCUMENT_ID);
+			return fields;
+		}
+
+		String field = orderField(query);
+		return field == null ? Collections.emptyList() : Collections.singletonList(field);
+	}
+
+	/**
+	 * The inequality field, if any. Firestore only allows inequality filters on a single field, and orders by it.
+	 */
+	static String orderField(Query query) {
+		if (!query.getGreaterThan().isEmpty()) {
+			return query.getGreaterThan().keySet().iterator().next();
+		}
+
+		if (!query.getLessThan().isEmpty()) {
+			return query.getLessThan().keySet().iterator().next();
+		}
+
+		return null;
+	}
+
+	static List<Object> cursorOf(Query query, DocumentSnapshot snapshot) {
+		List<Object> cursor = new ArrayList<>();
+		for (String field : orderFields(query)) {
+			cursor.add(snapshot.get(field));
+		}
+		cursor.add(snapshot.getId());
+		return cursor;
+	}
+
+	/**
+	 * Cursor of a document retrieved through the event bus, where the document ID is the _id field.
+	 */
+	static List<Object> cursorOf(Query query, Map<String, Object> document) {
+		List<Object> cursor = new ArrayList<>();
+		for (String field : orderFields(query)) {
+			cursor.add(valueAt(document, field));
+		}
+		cursor.add(document.get("_id"));
+		return cursor;
+	}
+
+	static Object valueAt(Map<String, Object> document, String path) {
+		Object current = document;
+		for (String segment : path.split("\\.")) {
+			if (!(current instanceof Map)) {
+				return null;
+			}
+			current = ((Map<?, ?>) current).get(segment);
+		}
+		return current;
+	}
+
+	private static final class Page<T> {
+
+		private final List<T> documents;
+		private final List<Object> cursor;
+		private final long remaining;
+		private final boolean last;
+
+		Page(List<T> documents, List<Object> cursor, long remaining, boolean last) {
+			this.documents = documents;
+			this.cursor = cursor;
+			this.remaining = remaining;
+			this.last = last;
+		}
+	}
+}
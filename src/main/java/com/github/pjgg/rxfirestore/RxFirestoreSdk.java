@@ -19,39 +19,64 @@ package com.github.pjgg.rxfirestore;
 
 import static com.github.pjgg.rxfirestore.FirestoreTemplate.TOPIC_CLOSE;
 import static com.github.pjgg.rxfirestore.FirestoreTemplate.TOPIC_DELETE;
+import static com.github.pjgg.rxfirestore.FirestoreTemplate.TOPIC_DELETE_ALL;
 import static com.github.pjgg.rxfirestore.FirestoreTemplate.TOPIC_EMPTY;
 import static com.github.pjgg.rxfirestore.FirestoreTemplate.TOPIC_GET;
+import static com.github.pjgg.rxfirestore.FirestoreTemplate.TOPIC_GET_ALL;
 import static com.github.pjgg.rxfirestore.FirestoreTemplate.TOPIC_INSERT;
+import static com.github.pjgg.rxfirestore.FirestoreTemplate.TOPIC_INSERT_ALL;
 import static com.github.pjgg.rxfirestore.FirestoreTemplate.TOPIC_QUERY;
-import static com.github.pjgg.rxfirestore.FirestoreTemplate.TOPIC_QUERY_BUILDER;
+import static com.github.pjgg.rxfirestore.FirestoreTemplate.TOPIC_QUERY_PAGE;
+import static com.github.pjgg.rxfirestore.FirestoreTemplate.TOPIC_QUERY_STREAM;
 import static com.github.pjgg.rxfirestore.FirestoreTemplate.TOPIC_UPDATE;
+import static com.github.pjgg.rxfirestore.FirestoreTemplate.TOPIC_UPDATE_ALL;
 import static com.github.pjgg.rxfirestore.FirestoreTemplate.TOPIC_UPSERT;
+import static com.github.pjgg.rxfirestore.FirestoreTemplate.TOPIC_UPSERT_ALL;
 
 import com.github.pjgg.rxfirestore.exceptions.NotFoundExceptions;
+import com.github.pjgg.rxfirestore.exceptions.PreconditionFailedExceptions;
+import com.github.pjgg.rxfirestore.mapper.EntityMapper;
+import com.github.pjgg.rxfirestore.mapper.EntityMappers;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.Transaction;
+import io.reactivex.Flowable;
 import io.reactivex.Observable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.processors.FlowableProcessor;
+import io.reactivex.processors.UnicastProcessor;
 import io.reactivex.subjects.SingleSubject;
 import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import io.vertx.reactivex.core.eventbus.EventBus;
+import io.vertx.reactivex.core.eventbus.MessageConsumer;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
-import org.apache.commons.lang3.SerializationUtils;
-
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.cloud.firestore.EventListener;
 import com.google.cloud.firestore.QuerySnapshot;
 
 import io.reactivex.Single;
 import io.vertx.core.eventbus.DeliveryOptions;
-import io.vertx.core.json.Json;
 import io.vertx.reactivex.core.Vertx;
 import io.vertx.reactivex.core.eventbus.Message;
 
@@ -72,24 +97,58 @@ public class RxFirestoreSdk<E extends Entity> {
 	private static final Logger LOG = LoggerFactory.getLogger(RxFirestoreSdk.class);
 
 	private static final long SEND_TIMEOUT_MS = 59000;
+
+	/**
+	 * Max time that serverStream waits for the next chunk. The stream producer gives up after STREAM_ACK_TIMEOUT_MS
+	 * without acknowledgement, so a longer wait means that the producer is gone.
+	 */
+	private static final long STREAM_IDLE_TIMEOUT_MS = 2 * FirestoreTemplate.STREAM_ACK_TIMEOUT_MS;
 	private final Supplier<? extends Entity> supplier;
 	private final BlockingFirestoreTemplate blockingFirestoreTemplate;
+	private final DispatchMode dispatchMode;
+	private final FirestoreTemplate firestoreTemplate;
+	private final EntityMapper<Entity> entityMapper;
+	private final SingleFlight singleFlight;
+	private final DocumentCache cache;
+	private final Map<String, CollectionReplica> replicas = new ConcurrentHashMap<>();
 
 	public RxFirestoreSdk(Supplier<? extends Entity> entityConstructor) {
+		this(entityConstructor, new RxFirestoreSdkOptions());
+	}
+
+	public RxFirestoreSdk(Supplier<? extends Entity> entityConstructor, RxFirestoreSdkOptions options) {
 		supplier = Objects.requireNonNull(entityConstructor);
 		FirestoreTemplateFactory.INSTANCE.init();
 		blockingFirestoreTemplate = new BlockingFirestoreTemplate(
 			supplier,
 			FirestoreTemplateFactory.INSTANCE.getVertx()
 		);
+		dispatchMode = options.getDispatchMode();
+		firestoreTemplate = dispatchMode == DispatchMode.DIRECT ? new FirestoreTemplate() : null;
+		entityMapper = EntityMappers.lookup((Class<Entity>) supplier.get().getClass()).orElse(null);
+		singleFlight = options.isSingleFlight() ? new SingleFlight() : null;
+		cache = options.getCacheMaxEntries() > 0
+			? new DocumentCache(options.getCacheMaxEntries(), options.getCacheMaxBytes(), options.getCacheTtlMs())
+			: null;
 	}
 
 	public RxFirestoreSdk(Supplier<? extends Entity> entityConstructor, Vertx vertx) {
+		this(entityConstructor, vertx, new RxFirestoreSdkOptions());
+	}
+
+	public RxFirestoreSdk(Supplier<? extends Entity> entityConstructor, Vertx vertx, RxFirestoreSdkOptions options) {
 		supplier = Objects.requireNonNull(entityConstructor);
 		FirestoreTemplateFactory.INSTANCE.init(vertx);
 		SingleSubject<Vertx> vertxSubject = SingleSubject.create();
 		vertxSubject.onSuccess(vertx);
 		blockingFirestoreTemplate = new BlockingFirestoreTemplate(supplier, vertxSubject);
+		dispatchMode = options.getDispatchMode();
+		firestoreTemplate = dispatchMode == DispatchMode.DIRECT ? new FirestoreTemplate() : null;
+		entityMapper = EntityMappers.lookup((Class<Entity>) supplier.get().getClass()).orElse(null);
+		singleFlight = options.isSingleFlight() ? new SingleFlight() : null;
+		cache = options.getCacheMaxEntries() > 0
+			? new DocumentCache(options.getCacheMaxEntries(), options.getCacheMaxBytes(), options.getCacheTtlMs())
+			: null;
 	}
 
 	/**
@@ -101,28 +160,39 @@ public class RxFirestoreSdk<E extends Entity> {
 	 */
 	public Single<String> insert(final E entity) {
 
-		LOG.trace("insert called. Collection name "
-			+ entity.getCollectionName()
-			+ " Entity "
-			+ entity.toJson());
+		if (LOG.isTraceEnabled()) {
+			LOG.trace("insert called. Collection name "
+				+ entity.getCollectionName()
+				+ " Entity "
+				+ entity.toJson());
+		}
+
+		String collectionName = entity.getCollectionName();
+		HashMap<String, Object> current = entity.toMap();
+		if (dispatchMode == DispatchMode.DIRECT) {
+			return firestoreTemplate.rxInsert(current, collectionName)
+				.doOnSuccess(id -> markClean(entity, DirtyTrackingEntity.path(id, collectionName), current));
+		}
 
 		final EventBus eventBus = FirestoreTemplateFactory.INSTANCE.getEventBus();
 		final DeliveryOptions deliveryOpt = new DeliveryOptions();
 		deliveryOpt.setLocalOnly(true);
 		deliveryOpt.setSendTimeout(SEND_TIMEOUT_MS);
 		deliveryOpt.addHeader("_collectionName", entity.getCollectionName());
+		deliveryOpt.setCodecName(DocumentMessageCodec.NAME);
 
 		LOG.trace("Sending msg to Eventbus. Delivery option: timeout "
 			+ deliveryOpt.getSendTimeout()
 			+ " local only "
 			+ deliveryOpt.isLocalOnly());
 
-		return eventBus.<String>rxSend(TOPIC_INSERT, entity.toJson(), deliveryOpt)
+		return eventBus.<String>rxSend(TOPIC_INSERT, current, deliveryOpt)
 			.map(Message::body)
 			.map(message -> {
 				LOG.trace("Reply received. Msg " + message);
 				return message;
-			});
+			})
+			.doOnSuccess(id -> markClean(entity, DirtyTrackingEntity.path(id, collectionName), current));
 	}
 
 	/**
@@ -136,6 +206,10 @@ public class RxFirestoreSdk<E extends Entity> {
 	public Single<String> empty(final String collectionName) {
 		LOG.trace("empty called. Collection name " + collectionName);
 
+		if (dispatchMode == DispatchMode.DIRECT) {
+			return Single.fromCallable(() -> firestoreTemplate.empty(collectionName));
+		}
+
 		final EventBus eventBus = FirestoreTemplateFactory.INSTANCE.getEventBus();
 		final DeliveryOptions deliveryOpt = new DeliveryOptions();
 		deliveryOpt.setLocalOnly(true);
@@ -157,7 +231,7 @@ public class RxFirestoreSdk<E extends Entity> {
 
 	/**
 	 * queryBuilder allow you to develop your own query with where statement. Use in combination with get in order to
-	 * develop complex inferences.
+	 * develop complex inferences. The query is built locally, there is no event bus round trip.
 	 *
 	 * @param collectionName against which you want to make the query.
 	 * @return Query
@@ -169,23 +243,7 @@ public class RxFirestoreSdk<E extends Entity> {
 	public Single<Query> queryBuilder(final String collectionName) {
 		LOG.trace("queryBuilder called. Collection name " + collectionName);
 
-		final EventBus eventBus = FirestoreTemplateFactory.INSTANCE.getEventBus();
-		final DeliveryOptions deliveryOpt = new DeliveryOptions();
-		deliveryOpt.setLocalOnly(true);
-		deliveryOpt.setSendTimeout(SEND_TIMEOUT_MS);
-		deliveryOpt.addHeader("_collectionName", collectionName);
-
-		LOG.trace("Sending msg to Eventbus. Delivery option: timeout "
-			+ deliveryOpt.getSendTimeout()
-			+ " local only "
-			+ deliveryOpt.isLocalOnly());
-
-		return eventBus.<byte[]>rxSend(TOPIC_QUERY_BUILDER, "", deliveryOpt)
-			.map(Message::body)
-			.map(message -> {
-				LOG.trace("Reply received. Query created ");
-				return SerializationUtils.deserialize(message);
-			});
+		return Single.fromCallable(() -> new Query(collectionName));
 	}
 
 	public Query queryBuilderSync(final String collectionName) {
@@ -200,7 +258,8 @@ public class RxFirestoreSdk<E extends Entity> {
 	}
 
 	/**
-	 * get will retrieve a List of Documents by a given query.
+	 * get will retrieve a List of Documents by a given query. Without limit, only the first 20 documents are retrieved,
+	 * use stream in order to walk bigger result sets.
 	 *
 	 * @param query .Build your query with queryBuilder method.
 	 * @return a single list of documents that match query criteria.
@@ -208,37 +267,119 @@ public class RxFirestoreSdk<E extends Entity> {
 	public Single<List<E>> get(Query query) {
 		LOG.trace("get called. Collection name " + query.getCollectionName());
 
+		CollectionReplica replica = replicas.get(query.getCollectionName());
+		if (replica != null) {
+			return Single.defer(() -> replica.canAnswer(query)
+				? Single.fromCallable(() -> fromMaps(query.getCollectionName(), replica.get(query)))
+				: getFromServer(query));
+		}
+
+		return getFromServer(query);
+	}
+
+	/**
+	 * get will retrieve a Document by ID for a given collection name.
+	 *
+	 * @param collectionName against which you want to make the query.
+	 * @param id , document ID that you would like to retrieve
+	 * @return Single document
+	 */
+	public Single<E> get(final String id, final String collectionName) {
+		LOG.trace("get called. Collection name " + collectionName + " ID " + id);
+
+		String key = collectionName + "/" + id;
+		if (cache != null) {
+			return Single.defer(() -> {
+				Map<String, Object> cached = cache.get(key);
+				if (cached != null) {
+					return Single.just(fromMap(collectionName, cached));
+				}
+
+				// The epoch is taken when the shared fetch starts, not by each joining caller: a caller that joins a
+				// fetch started before a write must not cache its result as current.
+				return singleFlight(key, () -> cachedFetch(id, collectionName, key))
+					.map(data -> fromMap(collectionName, shared(data)));
+			});
+		}
+
+		if (dispatchMode == DispatchMode.DIRECT) {
+			return singleFlight(key, () -> firestoreTemplate.rxGetSnapshot(id, collectionName)).map(this::fromSnapshot);
+		}
+
+		return singleFlight(key, () -> fetchDocument(id, collectionName))
+			.map(data -> fromMap(collectionName, shared(data)));
+	}
+
+	/**
+	 * get will retrieve many Documents by ID for a given collection name, with Firestore getAll. IDs are requested in
+	 * chunks, so there is a RPC per chunk instead of a RPC per document.
+	 *
+	 * @param ids documents that you would like to retrieve.
+	 * @param collectionName against which you want to make the query.
+	 * @return Single with found documents (in the same order than ids) and missing IDs. Missing documents are not an
+	 * error.
+	 */
+	public Single<GetAllResponse<E>> get(final List<String> ids, final String collectionName) {
+		LOG.trace("get called. Collection name " + collectionName + " size " + ids.size());
+
+		if (dispatchMode == DispatchMode.DIRECT) {
+			return firestoreTemplate.rxGetAllSnapshots(ids, collectionName).map(snapshots -> {
+				Map<String, E> found = new LinkedHashMap<>();
+				List<String> missing = new ArrayList<>();
+				for (DocumentSnapshot snapshot : snapshots) {
+					if (snapshot.exists()) {
+						found.put(snapshot.getId(), fromSnapshot(snapshot));
+					} else {
+						missing.add(snapshot.getId());
+					}
+				}
+				return new GetAllResponse<>(found, missing);
+			});
+		}
+
 		final EventBus eventBus = FirestoreTemplateFactory.INSTANCE.getEventBus();
 		final DeliveryOptions deliveryOpt = new DeliveryOptions();
 		deliveryOpt.setLocalOnly(true);
 		deliveryOpt.setSendTimeout(SEND_TIMEOUT_MS);
+		deliveryOpt.addHeader("_collectionName", collectionName);
+		deliveryOpt.setCodecName(DocumentListMessageCodec.NAME);
 
 		LOG.trace("Sending msg to Eventbus. Delivery option: timeout "
 			+ deliveryOpt.getSendTimeout()
 			+ " local only "
 			+ deliveryOpt.isLocalOnly());
 
-		return eventBus.<String>rxSend(TOPIC_QUERY, SerializationUtils.serialize(query), deliveryOpt)
+		return eventBus.<Map<String, Object>>rxSend(TOPIC_GET_ALL, toIdList(ids), deliveryOpt)
 			.map(Message::body)
-			.map(message -> {
-				List<E> result = new ArrayList<>();
-				List<HashMap> data = Json.decodeValue(message, new TypeReference<List<HashMap>>() {
+			.map(data -> {
+				Map<String, E> found = new LinkedHashMap<>();
+				List<String> missing = new ArrayList<>();
+				data.forEach((id, document) -> {
+					if (document == null) {
+						missing.add(id);
+					} else {
+						found.put(id, fromMap(collectionName, (Map<String, Object>) document));
+					}
 				});
-				data.stream().forEach(elem -> result.add((E) supplier.get().fromJsonAsMap(elem)));
-				LOG.trace("Reply received. Amount of elements retrieved " + result.size());
-				return result;
+				LOG.trace("Reply received. Found " + found.size() + " missing " + missing.size());
+				return new GetAllResponse<>(found, missing);
 			});
 	}
 
 	/**
-	 * get will retrieve a Document by ID for a given collection name.
+	 * getVersioned retrieves a Document together with its update time, in order to write it back with update or
+	 * delete only if nobody changed it in the meantime. It is always read from the server, bypassing cache and
+	 * deduplication.
 	 *
-	 * @param collectionName against which you want to make the query.
-	 * @param id , document ID that you would like to retrieve
-	 * @return Single document
+	 * @return Single with the entity and its update time. NotFoundExceptions if the document does not exist.
 	 */
-	public Single<E> get(final String id, final String collectionName) {
-		LOG.trace("get called. Collection name " + collectionName + " ID " + id);
+	public Single<Versioned<E>> getVersioned(final String id, final String collectionName) {
+		LOG.trace("getVersioned called. Collection name " + collectionName + " ID " + id);
+
+		if (dispatchMode == DispatchMode.DIRECT) {
+			return Single.defer(() -> firestoreTemplate.rxGetSnapshot(id, collectionName))
+				.map(snapshot -> new Versioned<>(id, fromSnapshot(snapshot), snapshot.getUpdateTime()));
+		}
 
 		final EventBus eventBus = FirestoreTemplateFactory.INSTANCE.getEventBus();
 		final DeliveryOptions deliveryOpt = new DeliveryOptions();
@@ -246,18 +387,260 @@ public class RxFirestoreSdk<E extends Entity> {
 		deliveryOpt.setSendTimeout(SEND_TIMEOUT_MS);
 		deliveryOpt.addHeader("_collectionName", collectionName);
 		deliveryOpt.addHeader("_id", id);
+		deliveryOpt.addHeader("_versioned", "true");
 
 		LOG.trace("Sending msg to Eventbus. Delivery option: timeout "
 			+ deliveryOpt.getSendTimeout()
 			+ " local only "
 			+ deliveryOpt.isLocalOnly());
 
-		return eventBus.<String>rxSend(TOPIC_GET, "", deliveryOpt)
+		return eventBus.<Map<String, Object>>rxSend(TOPIC_GET, "", deliveryOpt)
 			.map(Message::body)
-			.map(message -> {
-				HashMap data = Json.decodeValue(message, HashMap.class);
+			.map(data -> {
 				LOG.trace("Reply received.");
-				return (E) supplier.get().fromJsonAsMap(data);
+				Timestamp updateTime = (Timestamp) data.remove("_updateTime");
+				return new Versioned<>(id, fromMap(collectionName, data), updateTime);
+			});
+	}
+
+	/**
+	 * readModifyWrite reads the document, applies the change and writes it back only if nobody else changed it in the
+	 * meantime. On conflict the sequence runs again, after a jittered backoff, up to 5 attempts. The change may run
+	 * more than once, so it must not have side effects.
+	 * <p>
+	 * example:
+	 * <p>
+	 * {@code carsRepository.readModifyWrite(id, "cars", car -> { car.setStock(car.getStock() - 1); return car; });}
+	 *
+	 * @param change new state of the entity given the stored one.
+	 * @return Single with the written entity. PreconditionFailedExceptions if the last attempt conflicted too.
+	 */
+	public Single<E> readModifyWrite(final String id, final String collectionName, final Function<E, E> change) {
+		return readModifyWrite(id, collectionName, change, TransactionRunner.DEFAULT_MAX_ATTEMPTS);
+	}
+
+	public Single<E> readModifyWrite(final String id, final String collectionName, final Function<E, E> change,
+		final int maxAttempts) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("maxAttempts must be greater than zero");
+		}
+
+		return readModifyWrite(id, collectionName, change, 1, maxAttempts);
+	}
+
+	private Single<E> readModifyWrite(final String id, final String collectionName, final Function<E, E> change,
+		final int attempt, final int maxAttempts) {
+		return getVersioned(id, collectionName)
+			.flatMap(versioned -> {
+				E changed = change.apply(versioned.getEntity());
+				return update(id, collectionName, changed, versioned.getUpdateTime()).map(updated -> changed);
+			})
+			.onErrorResumeNext(err -> {
+				if (!(err instanceof PreconditionFailedExceptions) || attempt >= maxAttempts) {
+					return Single.error(err);
+				}
+
+				long backoff = TransactionRunner.backoffMs(attempt, ThreadLocalRandom.current().nextDouble());
+				LOG.debug("readModifyWrite conflict on " + collectionName + "/" + id + ", retrying in " + backoff
+					+ "ms");
+				return Single.timer(backoff, TimeUnit.MILLISECONDS)
+					.flatMap(tick -> readModifyWrite(id, collectionName, change, attempt + 1, maxAttempts));
+			});
+	}
+
+	/**
+	 * stream will walk every Document that matches the query, page by page. Pages are requested with startAfter
+	 * cursors (ordered by the inequality field, if any, and then by document ID), the next page is fetched while the
+	 * current one is consumed and no more pages are requested until downstream asks for them. Memory is bounded by the
+	 * page size, not by the result size.
+	 *
+	 * @param query .Build your query with queryBuilder method. Limit, if set, bounds the amount of streamed documents.
+	 * @return Flowable with the documents that match query criteria.
+	 */
+	public Flowable<E> stream(final Query query) {
+		return stream(query, FirestoreTemplate.DEFAULT_PAGE_SIZE);
+	}
+
+	/**
+	 * Same as stream, with the given page size.
+	 */
+	public Flowable<E> stream(final Query query, final int pageSize) {
+		LOG.trace("stream called. Collection name " + query.getCollectionName() + " page size " + pageSize);
+
+		if (dispatchMode == DispatchMode.DIRECT) {
+			return streamSnapshots(query, pageSize).map(this::fromSnapshot);
+		}
+
+		return streamMaps(query, pageSize).map(data -> fromMap(query.getCollectionName(), data));
+	}
+
+	/**
+	 * streamIds walks the IDs of every Document that matches the query, as stream does, without retrieving any field.
+	 *
+	 * @param query .Build your query with queryBuilder method. Its select, if any, is ignored.
+	 * @return Flowable with the IDs of the documents that match query criteria.
+	 */
+	public Flowable<String> streamIds(final Query query) {
+		LOG.trace("streamIds called. Collection name " + query.getCollectionName());
+		final Query ids = query.copy().select();
+
+		if (dispatchMode == DispatchMode.DIRECT) {
+			return streamSnapshots(ids, FirestoreTemplate.PROJECTED_PAGE_SIZE).map(DocumentSnapshot::getId);
+		}
+
+		return streamMaps(ids, FirestoreTemplate.PROJECTED_PAGE_SIZE).map(document -> (String) document.get("_id"));
+	}
+
+	/**
+	 * count the Documents that match the query. This client version has no server side aggregations, so the IDs of
+	 * the matching documents are streamed (see streamIds) and counted, with constant memory whatever the result size.
+	 *
+	 * @param query .Build your query with queryBuilder method.
+	 * @return amount of documents that match query criteria.
+	 */
+	public Single<Long> count(final Query query) {
+		return count(query, 1);
+	}
+
+	/**
+	 * Same as count, where the collection is split into document ID ranges that are counted concurrently.
+	 *
+	 * @param partitions amount of ranges. Queries with limit, offset, orderBy, cursors or inequality filters can not
+	 * be partitioned.
+	 */
+	public Single<Long> count(final Query query, final int partitions) {
+		LOG.trace("count called. Collection name " + query.getCollectionName() + " partitions " + partitions);
+
+		return Flowable.fromIterable(IdRanges.split(query, partitions))
+			.flatMapSingle(partition -> streamIds(partition).count(), false, partitions)
+			.reduce(0L, Long::sum);
+	}
+
+	/**
+	 * aggregate computes count, sum, average, min and max of a field over the Documents that match the query. Only the
+	 * field is retrieved, page by page, and folded into the result, so memory is constant whatever the result size.
+	 *
+	 * @param query .Build your query with queryBuilder method. Its select, if any, is ignored.
+	 * @param field to aggregate, dotted path for nested fields.
+	 * @return the aggregation, see Aggregate.
+	 */
+	public Single<Aggregate> aggregate(final Query query, final String field) {
+		return aggregate(query, field, 1);
+	}
+
+	/**
+	 * Same as aggregate, where the collection is split into document ID ranges that are aggregated concurrently.
+	 *
+	 * @param partitions amount of ranges. Queries with limit, offset, orderBy, cursors or inequality filters can not
+	 * be partitioned.
+	 */
+	public Single<Aggregate> aggregate(final Query query, final String field, final int partitions) {
+		LOG.trace("aggregate called. Collection name " + query.getCollectionName() + " field " + field);
+
+		return Flowable.fromIterable(IdRanges.split(query, partitions))
+			.flatMapSingle(partition -> aggregatePartition(partition.copy().select(field), field), false, partitions)
+			.reduceWith(Aggregate::new, Aggregate::merge);
+	}
+
+	/**
+	 * scan splits the query into document ID ranges (Firestore partition queries are not available in this client
+	 * version), in order to stream them concurrently: merged into a single Flowable (PartitionedScan.toFlowable) or
+	 * handed to a consumer per partition (PartitionedScan.forEachPartition). Every partition reports its progress and
+	 * throughput, see PartitionedScan.getProgress.
+	 *
+	 * @param query .Build your query with queryBuilder method. Queries with limit, offset, orderBy, cursors or
+	 * inequality filters can not be partitioned.
+	 * @param partitions amount of document ID ranges.
+	 * @return the scan, nothing is retrieved until it is subscribed.
+	 */
+	public PartitionedScan<E> scan(final Query query, final int partitions) {
+		LOG.trace("scan called. Collection name " + query.getCollectionName() + " partitions " + partitions);
+		return new PartitionedScan<>(IdRanges.split(query, partitions), this::stream);
+	}
+
+	private Single<Aggregate> aggregatePartition(final Query query, final String field) {
+		if (dispatchMode == DispatchMode.DIRECT) {
+			return streamSnapshots(query, FirestoreTemplate.PROJECTED_PAGE_SIZE)
+				.collect(Aggregate::new, (aggregate, snapshot) -> aggregate.accept(snapshot.get(field)));
+		}
+
+		return streamMaps(query, FirestoreTemplate.PROJECTED_PAGE_SIZE)
+			.collect(Aggregate::new, (aggregate, document) -> aggregate.accept(QueryPager.valueAt(document, field)));
+	}
+
+	private Flowable<QueryDocumentSnapshot> streamSnapshots(final Query query, final int pageSize) {
+		return new QueryPager<>(query, pageSize, firestoreTemplate::rxGetPageSnapshots,
+			snapshot -> QueryPager.cursorOf(query, snapshot))
+			.stream();
+	}
+
+	private Flowable<Map<String, Object>> streamMaps(final Query query, final int pageSize) {
+		final EventBus eventBus = FirestoreTemplateFactory.INSTANCE.getEventBus();
+		final DeliveryOptions deliveryOpt = new DeliveryOptions();
+		deliveryOpt.setLocalOnly(true);
+		deliveryOpt.setSendTimeout(SEND_TIMEOUT_MS);
+		deliveryOpt.setCodecName(QueryMessageCodec.NAME);
+
+		return new QueryPager<Map<String, Object>>(query, pageSize,
+			page -> eventBus.<List<Map<String, Object>>>rxSend(TOPIC_QUERY_PAGE, page, deliveryOpt).map(Message::body),
+			document -> QueryPager.cursorOf(query, document))
+			.stream();
+	}
+
+	/**
+	 * serverStream runs the query with the Firestore streaming RPC and emits each Document as soon as it arrives, so
+	 * the first documents are available before the query finishes. Through the event bus documents travel in small
+	 * chunks, and a chunk is not sent until the previous one has been taken by the subscriber. Up to
+	 * DB_STREAM_BUFFER_SIZE documents are buffered, a subscriber that is slower than that fails with
+	 * MissingBackpressureException; use stream for slow subscribers. Through the event bus, it fails if the stream is
+	 * not started or stops sending chunks, see receiveStream.
+	 *
+	 * @param query .Build your query with queryBuilder method. Without limit, every matching document is retrieved.
+	 * @return Flowable with the documents that match query criteria.
+	 */
+	public Flowable<E> serverStream(final Query query) {
+		LOG.trace("serverStream called. Collection name " + query.getCollectionName());
+
+		if (dispatchMode == DispatchMode.DIRECT) {
+			return firestoreTemplate.rxServerStream(query).map(this::fromSnapshot);
+		}
+
+		return Flowable.defer(() -> receiveStream(FirestoreTemplateFactory.INSTANCE.getEventBus(), query,
+			SEND_TIMEOUT_MS, STREAM_IDLE_TIMEOUT_MS))
+			.map(data -> fromMap(query.getCollectionName(), data));
+	}
+
+	/**
+	 * Start the stream of the query through the event bus and receive its chunks, see serverStream. Fails if nobody
+	 * starts the stream within sendTimeoutMs (e.g. NO_HANDLERS when FirestoreTemplate is not deployed), or if no chunk
+	 * arrives within idleTimeoutMs.
+	 */
+	static Flowable<Map<String, Object>> receiveStream(final EventBus eventBus, final Query query,
+		final long sendTimeoutMs, final long idleTimeoutMs) {
+		final String address = TOPIC_QUERY_STREAM + "." + UUID.randomUUID();
+		final FlowableProcessor<Message<List<Map<String, Object>>>> chunks = UnicastProcessor
+			.<Message<List<Map<String, Object>>>>create().toSerialized();
+		final MessageConsumer<List<Map<String, Object>>> consumer = eventBus.localConsumer(address);
+		consumer.handler(chunk -> onStreamChunk(chunk, chunks));
+
+		final DeliveryOptions deliveryOpt = new DeliveryOptions();
+		deliveryOpt.setLocalOnly(true);
+		deliveryOpt.setSendTimeout(sendTimeoutMs);
+		deliveryOpt.setCodecName(QueryMessageCodec.NAME);
+		deliveryOpt.addHeader("_streamAddress", address);
+		final Disposable start = eventBus.<Void>rxSend(TOPIC_QUERY_STREAM, query, deliveryOpt)
+			.subscribe(started -> { }, chunks::onError);
+
+		return chunks
+			.timeout(idleTimeoutMs, TimeUnit.MILLISECONDS, Flowable.error(() -> new ReplyException(ReplyFailure.TIMEOUT,
+				"No chunk of the stream " + address + " within " + idleTimeoutMs + " ms")))
+			.concatMapIterable(chunk -> {
+				chunk.reply(null);
+				return chunk.body();
+			}, 1)
+			.doFinally(() -> {
+				start.dispose();
+				consumer.unregister();
 			});
 	}
 
@@ -269,88 +652,378 @@ public class RxFirestoreSdk<E extends Entity> {
 	 * isn't a meaningful ID for the document, and it's more convenient to let Cloud Firestore auto-generate an ID for
 	 * you. You can do this by calling empty.
 	 *
+	 * <p>
+	 * A DirtyTrackingEntity that was retrieved or stored before as this same document only merges its changed fields
+	 * into it, and nothing is sent if there are no changes.
+	 *
 	 * @param collectionName against which you want to upsert.
 	 * @return Single boolean.
 	 */
 	public Single<Boolean> upsert(final String id, final String collectionName, final E entity) {
 		LOG.trace("upsert called. Collection name " + collectionName + " ID " + id);
 
+		HashMap<String, Object> current = entity.toMap();
+		String path = DirtyTrackingEntity.path(id, collectionName);
+		Map<String, Object> changes = changesOf(entity, id, collectionName, current);
+		if (changes != null && changes.isEmpty()) {
+			return Single.just(true);
+		}
+
+		boolean merge = changes != null;
+		HashMap<String, Object> document = merge ? DirtyTrackingEntity.nest(changes) : current;
+
+		if (dispatchMode == DispatchMode.DIRECT) {
+			return firestoreTemplate.rxUpsert(document, id, collectionName, merge)
+				.doOnSuccess(result -> markClean(entity, path, current))
+				.doOnEvent((result, err) -> invalidate(collectionName, id));
+		}
+
 		final EventBus eventBus = FirestoreTemplateFactory.INSTANCE.getEventBus();
 		final DeliveryOptions deliveryOpt = new DeliveryOptions();
 		deliveryOpt.setLocalOnly(true);
 		deliveryOpt.setSendTimeout(SEND_TIMEOUT_MS);
 		deliveryOpt.addHeader("_collectionName", collectionName);
 		deliveryOpt.addHeader("_id", id);
+		deliveryOpt.addHeader("_merge", String.valueOf(merge));
+		deliveryOpt.setCodecName(DocumentMessageCodec.NAME);
 
 		LOG.trace("Sending msg to Eventbus. Delivery option: timeout "
 			+ deliveryOpt.getSendTimeout()
 			+ " local only "
 			+ deliveryOpt.isLocalOnly());
 
-		return eventBus.<Boolean>rxSend(TOPIC_UPSERT, entity.toJson(), deliveryOpt)
+		return eventBus.<Boolean>rxSend(TOPIC_UPSERT, document, deliveryOpt)
 			.map(Message::body)
 			.map(message -> {
 				LOG.trace("Reply received. Element " + id + " updated or created.");
 				return message;
-			});
+			})
+			.doOnSuccess(result -> markClean(entity, path, current))
+			.doOnEvent((result, err) -> invalidate(collectionName, id));
 	}
 
 	/**
 	 * Update full document (overwrite).
+	 * <p>
+	 * A DirtyTrackingEntity that was retrieved or stored before as this same document only updates its changed fields,
+	 * by dotted field path, and nothing is sent if there are no changes.
 	 *
 	 * @param collectionName against which you want to make the query.
 	 * @return Single boolean. True means updated.
 	 */
 	public Single<Boolean> update(final String id, final String collectionName, final E entity) {
+		return update(id, collectionName, entity, Optional.empty());
+	}
+
+	/**
+	 * Optimistic concurrency version of update: the document is only updated if it was not changed since it was read,
+	 * cheaper than a transaction for a single document. See getVersioned and readModifyWrite. An unchanged
+	 * DirtyTrackingEntity is not written, but the document is still read in order to check its update time.
+	 *
+	 * @param expectedUpdateTime update time of the document when it was read, see Versioned.getUpdateTime.
+	 * @return Single boolean. True means updated. Fails with PreconditionFailedExceptions if the document was changed
+	 * or deleted in the meantime.
+	 */
+	public Single<Boolean> update(final String id, final String collectionName, final E entity,
+		final Timestamp expectedUpdateTime) {
+		return update(id, collectionName, entity, Optional.of(expectedUpdateTime));
+	}
+
+	private Single<Boolean> update(final String id, final String collectionName, final E entity,
+		final Optional<Timestamp> expectedUpdateTime) {
 		LOG.trace("update called. Collection name " + collectionName + " ID " + id);
 
+		HashMap<String, Object> current = entity.toMap();
+		String path = DirtyTrackingEntity.path(id, collectionName);
+		Map<String, Object> changes = changesOf(entity, id, collectionName, current);
+		if (changes != null && changes.isEmpty()) {
+			return expectedUpdateTime
+				.map(updateTime -> checkUpdateTime(id, collectionName, updateTime))
+				.orElseGet(() -> Single.just(true));
+		}
+
+		HashMap<String, Object> document = changes != null ? new HashMap<>(changes) : current;
+
+		if (dispatchMode == DispatchMode.DIRECT) {
+			return expectedUpdateTime
+				.map(updateTime -> firestoreTemplate.rxUpdate(id, collectionName, document, updateTime))
+				.orElseGet(() -> firestoreTemplate.rxUpdate(id, collectionName, document))
+				.doOnSuccess(result -> markClean(entity, path, current))
+				.doOnEvent((result, err) -> invalidate(collectionName, id));
+		}
+
 		final EventBus eventBus = FirestoreTemplateFactory.INSTANCE.getEventBus();
 		final DeliveryOptions deliveryOpt = new DeliveryOptions();
 		deliveryOpt.setLocalOnly(true);
 		deliveryOpt.setSendTimeout(SEND_TIMEOUT_MS);
 		deliveryOpt.addHeader("_collectionName", collectionName);
 		deliveryOpt.addHeader("_id", id);
+		expectedUpdateTime.ifPresent(updateTime -> deliveryOpt.addHeader("_updateTime", updateTime.toString()));
+		deliveryOpt.setCodecName(DocumentMessageCodec.NAME);
 
 		LOG.trace("Sending msg to Eventbus. Delivery option: timeout "
 			+ deliveryOpt.getSendTimeout()
 			+ " local only "
 			+ deliveryOpt.isLocalOnly());
 
-		return eventBus.<String>rxSend(TOPIC_UPDATE, entity.toJson(), deliveryOpt)
+		return eventBus.<Boolean>rxSend(TOPIC_UPDATE, document, deliveryOpt)
 			.map(Message::body)
 			.map(message -> {
 				LOG.trace("Reply received. Element " + id + " updated.");
-				return Boolean.valueOf(message);
-			});
+				return message;
+			})
+			.onErrorResumeNext(RxFirestoreSdk::preconditionFailed)
+			.doOnSuccess(result -> markClean(entity, path, current))
+			.doOnEvent((result, err) -> invalidate(collectionName, id));
 	}
 
 
+	/**
+	 * There is nothing to write, but the precondition still has to hold: the document is read and its update time
+	 * compared with the expected one.
+	 */
+	private Single<Boolean> checkUpdateTime(final String id, final String collectionName,
+		final Timestamp expectedUpdateTime) {
+		return getVersioned(id, collectionName)
+			.onErrorResumeNext(err -> Single.error(isNotFound(err)
+				? new PreconditionFailedExceptions("Document " + collectionName + "/" + id + " does not exist")
+				: err))
+			.map(versioned -> {
+				if (!expectedUpdateTime.equals(versioned.getUpdateTime())) {
+					throw new PreconditionFailedExceptions("Document " + collectionName + "/" + id
+						+ " was updated at " + versioned.getUpdateTime());
+				}
+				return true;
+			});
+	}
+
 	/**
 	 * To delete a document, use the delete method. Deleting a document does not delete its subcollections!
 	 *
 	 * @return Single boolean
 	 */
 	public Single<Boolean> delete(final String id, final String collectionName) {
+		return delete(id, collectionName, Optional.empty());
+	}
+
+	/**
+	 * Optimistic concurrency version of delete, see update with expectedUpdateTime.
+	 *
+	 * @return Single boolean. Fails with PreconditionFailedExceptions if the document was changed or deleted in the
+	 * meantime.
+	 */
+	public Single<Boolean> delete(final String id, final String collectionName, final Timestamp expectedUpdateTime) {
+		return delete(id, collectionName, Optional.of(expectedUpdateTime));
+	}
+
+	private Single<Boolean> delete(final String id, final String collectionName,
+		final Optional<Timestamp> expectedUpdateTime) {
 		LOG.trace("delete called. Collection name " + collectionName + " ID " + id);
 
+		if (dispatchMode == DispatchMode.DIRECT) {
+			return expectedUpdateTime
+				.map(updateTime -> firestoreTemplate.rxDelete(id, collectionName, updateTime))
+				.orElseGet(() -> firestoreTemplate.rxDelete(id, collectionName))
+				.doOnEvent((result, err) -> invalidate(collectionName, id));
+		}
+
 		final EventBus eventBus = FirestoreTemplateFactory.INSTANCE.getEventBus();
 		final DeliveryOptions deliveryOpt = new DeliveryOptions();
 		deliveryOpt.setLocalOnly(true);
 		deliveryOpt.setSendTimeout(SEND_TIMEOUT_MS);
 		deliveryOpt.addHeader("_collectionName", collectionName);
 		deliveryOpt.addHeader("_id", id);
+		expectedUpdateTime.ifPresent(updateTime -> deliveryOpt.addHeader("_updateTime", updateTime.toString()));
 
 		LOG.trace("Sending msg to Eventbus. Delivery option: timeout "
 			+ deliveryOpt.getSendTimeout()
 			+ " local only "
 			+ deliveryOpt.isLocalOnly());
 
-		return eventBus.<String>rxSend(TOPIC_DELETE, "", deliveryOpt)
+		return eventBus.<Boolean>rxSend(TOPIC_DELETE, "", deliveryOpt)
 			.map(Message::body)
 			.map(message -> {
 				LOG.trace("Reply received. Element " + id + " deleted.");
-				return Boolean.valueOf(message);
-			});
+				return message;
+			})
+			.onErrorResumeNext(RxFirestoreSdk::preconditionFailed)
+			.doOnEvent((result, err) -> invalidate(collectionName, id));
+	}
+
+	/**
+	 * insertAll create a Document with an auto-generate ID for each entity, through Firestore batched writes. Entities
+	 * are split in chunks of 500 writes (Firestore WriteBatch limit), each chunk is atomic. Up to DB_BATCH_PARALLELISM
+	 * chunks are committed at the same time.
+	 *
+	 * @param collectionName against which you want to insert.
+	 * @return Single per document result keyed by the generated ID, in the same order than entities. False means that
+	 * the chunk of the document was not committed.
+	 */
+	public Single<Map<String, Boolean>> insertAll(final List<E> entities, final String collectionName) {
+		return insertAll(entities, collectionName, FirestoreTemplateFactory.INSTANCE.getBatchParallelism());
+	}
+
+	public Single<Map<String, Boolean>> insertAll(final List<E> entities, final String collectionName,
+		final int parallelism) {
+		LOG.trace("insertAll called. Collection name " + collectionName + " size " + entities.size());
+
+		List<Map<String, Object>> documents = new ArrayList<>(entities.size());
+		entities.forEach(entity -> documents.add(entity.toMap()));
+
+		Single<Map<String, Boolean>> response = dispatchMode == DispatchMode.DIRECT
+			? firestoreTemplate.rxInsertAll(documents, collectionName, parallelism)
+			: sendBatch(TOPIC_INSERT_ALL, documents, collectionName, parallelism);
+
+		return response.doOnSuccess(result -> {
+			Map<String, E> entitiesById = new HashMap<>();
+			Map<String, Map<String, Object>> documentsById = new HashMap<>();
+			int index = 0;
+			for (String id : result.keySet()) {
+				entitiesById.put(id, entities.get(index));
+				documentsById.put(id, documents.get(index));
+				index++;
+			}
+			markCommitted(entitiesById, collectionName, documentsById, result);
+		});
+	}
+
+	/**
+	 * Batched version of upsert. See insertAll.
+	 *
+	 * @param entities keyed by document ID.
+	 * @return Single per document result keyed by document ID.
+	 */
+	public Single<Map<String, Boolean>> upsertAll(final Map<String, E> entities, final String collectionName) {
+		return upsertAll(entities, collectionName, FirestoreTemplateFactory.INSTANCE.getBatchParallelism());
+	}
+
+	public Single<Map<String, Boolean>> upsertAll(final Map<String, E> entities, final String collectionName,
+		final int parallelism) {
+		LOG.trace("upsertAll called. Collection name " + collectionName + " size " + entities.size());
+
+		Map<String, Map<String, Object>> documents = toDocumentsById(entities);
+		Single<Map<String, Boolean>> response = dispatchMode == DispatchMode.DIRECT
+			? firestoreTemplate.rxUpsertAll(documents, collectionName, parallelism)
+			: sendBatch(TOPIC_UPSERT_ALL, toDocumentList(documents), collectionName, parallelism);
+
+		return response
+			.doOnSuccess(result -> markCommitted(entities, collectionName, documents, result))
+			.doOnEvent((result, err) -> invalidate(collectionName, entities.keySet()));
+	}
+
+	/**
+	 * Batched version of update. See insertAll. A chunk is not committed if any of its documents does not exist.
+	 *
+	 * @param entities keyed by document ID.
+	 * @return Single per document result keyed by document ID.
+	 */
+	public Single<Map<String, Boolean>> updateAll(final Map<String, E> entities, final String collectionName) {
+		return updateAll(entities, collectionName, FirestoreTemplateFactory.INSTANCE.getBatchParallelism());
+	}
+
+	public Single<Map<String, Boolean>> updateAll(final Map<String, E> entities, final String collectionName,
+		final int parallelism) {
+		LOG.trace("updateAll called. Collection name " + collectionName + " size " + entities.size());
+
+		Map<String, Map<String, Object>> documents = toDocumentsById(entities);
+		Single<Map<String, Boolean>> response = dispatchMode == DispatchMode.DIRECT
+			? firestoreTemplate.rxUpdateAll(documents, collectionName, parallelism)
+			: sendBatch(TOPIC_UPDATE_ALL, toDocumentList(documents), collectionName, parallelism);
+
+		return response
+			.doOnSuccess(result -> markCommitted(entities, collectionName, documents, result))
+			.doOnEvent((result, err) -> invalidate(collectionName, entities.keySet()));
+	}
+
+	/**
+	 * transform applies server-side field transforms to a document in a single write, without reading it first:
+	 * counters are incremented, array members added or removed and timestamps set by Firestore itself, so concurrent
+	 * changes are never lost. The document must exist.
+	 * <p>
+	 * example:
+	 * <p>
+	 * {@code carsRepository.transform(id, "cars", new FieldTransforms().increment("views", 1));}
+	 *
+	 * @param transforms field changes, see FieldTransforms.
+	 * @return Single boolean. True means updated.
+	 */
+	public Single<Boolean> transform(final String id, final String collectionName, final FieldTransforms transforms) {
+		LOG.trace("transform called. Collection name " + collectionName + " ID " + id);
+
+		if (dispatchMode == DispatchMode.DIRECT) {
+			return firestoreTemplate.rxUpdate(id, collectionName, transforms.toMap())
+				.doOnEvent((result, err) -> invalidate(collectionName, id));
+		}
+
+		final EventBus eventBus = FirestoreTemplateFactory.INSTANCE.getEventBus();
+		final DeliveryOptions deliveryOpt = new DeliveryOptions();
+		deliveryOpt.setLocalOnly(true);
+		deliveryOpt.setSendTimeout(SEND_TIMEOUT_MS);
+		deliveryOpt.addHeader("_collectionName", collectionName);
+		deliveryOpt.addHeader("_id", id);
+		deliveryOpt.setCodecName(DocumentMessageCodec.NAME);
+
+		LOG.trace("Sending msg to Eventbus. Delivery option: timeout "
+			+ deliveryOpt.getSendTimeout()
+			+ " local only "
+			+ deliveryOpt.isLocalOnly());
+
+		return eventBus.<Boolean>rxSend(TOPIC_UPDATE, transforms.toMap(), deliveryOpt)
+			.map(Message::body)
+			.map(message -> {
+				LOG.trace("Reply received. Element " + id + " transformed.");
+				return message;
+			})
+			.doOnEvent((result, err) -> invalidate(collectionName, id));
+	}
+
+	/**
+	 * Batched version of transform. See insertAll.
+	 *
+	 * @param transforms keyed by document ID.
+	 * @return Single per document result keyed by document ID.
+	 */
+	public Single<Map<String, Boolean>> transformAll(final Map<String, FieldTransforms> transforms,
+		final String collectionName) {
+		return transformAll(transforms, collectionName, FirestoreTemplateFactory.INSTANCE.getBatchParallelism());
+	}
+
+	public Single<Map<String, Boolean>> transformAll(final Map<String, FieldTransforms> transforms,
+		final String collectionName, final int parallelism) {
+		LOG.trace("transformAll called. Collection name " + collectionName + " size " + transforms.size());
+
+		Map<String, Map<String, Object>> documents = new LinkedHashMap<>();
+		transforms.forEach((id, changes) -> documents.put(id, changes.toMap()));
+
+		if (dispatchMode == DispatchMode.DIRECT) {
+			return firestoreTemplate.rxUpdateAll(documents, collectionName, parallelism)
+				.doOnEvent((result, err) -> invalidate(collectionName, transforms.keySet()));
+		}
+
+		return sendBatch(TOPIC_UPDATE_ALL, toDocumentList(documents), collectionName, parallelism)
+			.doOnEvent((result, err) -> invalidate(collectionName, transforms.keySet()));
+	}
+
+	/**
+	 * Batched version of delete. See insertAll.
+	 *
+	 * @return Single per document result keyed by document ID.
+	 */
+	public Single<Map<String, Boolean>> deleteAll(final List<String> ids, final String collectionName) {
+		return deleteAll(ids, collectionName, FirestoreTemplateFactory.INSTANCE.getBatchParallelism());
+	}
+
+	public Single<Map<String, Boolean>> deleteAll(final List<String> ids, final String collectionName,
+		final int parallelism) {
+		LOG.trace("deleteAll called. Collection name " + collectionName + " size " + ids.size());
+
+		if (dispatchMode == DispatchMode.DIRECT) {
+			return firestoreTemplate.rxDeleteAll(ids, collectionName, parallelism)
+				.doOnEvent((result, err) -> invalidate(collectionName, ids));
+		}
+
+		return sendBatch(TOPIC_DELETE_ALL, toIdList(ids), collectionName, parallelism)
+			.doOnEvent((result, err) -> invalidate(collectionName, ids));
 	}
 
 	/**
@@ -384,7 +1057,144 @@ public class RxFirestoreSdk<E extends Entity> {
 		return blockingFirestoreTemplate.addQueryListener(query, eventsHandler);
 	}
 
+	/**
+	 * addQueryListener with the default eventHandler, where backpressure defines what happens with the document
+	 * changes while a subscriber is busy: keep the latest change (default), buffer them and fail on overflow, drop the
+	 * oldest ones or keep the latest change of each document. EventListenerResponse.getBatchesFlow emits the changes
+	 * of a snapshot at once.
+	 *
+	 * @param query to subscribe. Build your query with queryBuilder method.
+	 * @param backpressure what to do with the changes while a subscriber is busy.
+	 * @param bufferSize max amount of buffered changes (or batches) on BUFFER and DROP_OLDEST.
+	 * @return EventListenerResponse, see addQueryListener.
+	 * @throws TimeoutException default timeout after 10 seconds
+	 * @throws ExecutionException if something weird happens
+	 * @throws InterruptedException if something weird happens as somebody break connection.
+	 */
+	public EventListenerResponse<E> addQueryListener(final Query query, final ListenerBackpressure backpressure,
+		final int bufferSize) throws InterruptedException, ExecutionException, TimeoutException {
+		return blockingFirestoreTemplate.addQueryListener(query, backpressure, bufferSize);
+	}
+
+	/**
+	 * listen, shared addQueryListener: subscribers of the same query (same collection, filters, order and cursors, as
+	 * listeners ignore limit, offset and select) share a single Firestore listener, opened with the first subscriber
+	 * and removed when the last one cancels. Late
+	 * subscribers get the current documents, as ADDED changes, and then the live changes. The same entity instance is
+	 * emitted to every subscriber, do not modify it. Changes are kept per document while a subscriber is busy, see
+	 * ListenerBackpressure.LATEST_PER_DOCUMENT.
+	 *
+	 * @param query to subscribe. Build your query with queryBuilder method.
+	 * @return Flowable of document changes. The listener is opened on subscribe.
+	 */
+	public Flowable<E> listen(final Query query) {
+		return listen(query, ListenerBackpressure.LATEST_PER_DOCUMENT, DefaultEventListener.DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Same as listen, where backpressure defines what happens with the changes while a subscriber is busy.
+	 *
+	 * @param bufferSize max amount of buffered changes on BUFFER and DROP_OLDEST.
+	 */
+	public Flowable<E> listen(final Query query, final ListenerBackpressure backpressure, final int bufferSize) {
+		return blockingFirestoreTemplate.listen(query, backpressure, bufferSize);
+	}
+
+	/**
+	 * runTransaction runs a read-modify-write sequence atomically. The function reads documents through the handle
+	 * and then buffers its writes, that are committed once the returned Single succeeds. If a read document is written
+	 * by somebody else before the commit, the transaction is aborted and the function runs again, after a jittered
+	 * backoff, up to 5 attempts. The function must not have side effects other than the handle writes.
+	 * <p>
+	 * example:
+	 * <p>
+	 * {@code
+	 * carsRepository.runTransaction(tx -> tx.get(id, "cars")
+	 *     .toSingle()
+	 *     .map(car -> {
+	 *         tx.update(id, "cars", Collections.singletonMap("stock", car.getStock() - 1));
+	 *         return true;
+	 *     }));}
+	 *
+	 * @param body reads and writes through the transaction handle, the value of its Single is the transaction result.
+	 * @return Single with the result of the committed attempt, or the error of the last attempt.
+	 */
+	public <T> Single<T> runTransaction(final Function<TransactionHandle<E>, Single<T>> body) {
+		return runTransaction(body, TransactionRunner.DEFAULT_MAX_ATTEMPTS);
+	}
+
+	/**
+	 * @param maxAttempts max amount of times that the function is run on contention.
+	 */
+	public <T> Single<T> runTransaction(final Function<TransactionHandle<E>, Single<T>> body, final int maxAttempts) {
+		LOG.trace("runTransaction called. Max attempts " + maxAttempts);
+
+		Collection<String> written = ConcurrentHashMap.newKeySet();
+		AtomicReference<TransactionHandle<E>> committed = new AtomicReference<>();
+		Function<Transaction, Single<T>> attempt = transaction -> {
+			TransactionHandle<E> handle = new TransactionHandle<>(transaction, blockingFirestoreTemplate::document,
+				this::fromSnapshot);
+			return body.apply(handle).doOnSuccess(result -> {
+				written.addAll(handle.getWrites());
+				committed.set(handle);
+			});
+		};
+
+		return ((Single<T>) blockingFirestoreTemplate.runTransaction(attempt, maxAttempts))
+			.doOnSuccess(result -> committed.get().onCommitted())
+			.doOnEvent((result, err) -> written.forEach(key -> {
+				if (cache != null) {
+					cache.invalidate(key);
+				}
+			}));
+	}
+
+	/**
+	 * @return attempts, abort reasons and commit latency of runTransaction.
+	 */
+	public TransactionMetrics getTransactionMetrics() {
+		return blockingFirestoreTemplate.getTransactionMetrics();
+	}
+
+	/**
+	 * replicate keeps an in-memory copy of a collection, or of the documents that match a query, up to date with a
+	 * snapshot listener. Once the first snapshot is received, get(Query) is answered by the replica whenever the query
+	 * has, at least, the filters of the replicated query. Use it for small and read-hot collections. Reads are
+	 * eventually consistent, see CollectionReplica.getStalenessMs. There is a replica per collection, a new replica
+	 * closes the previous one.
+	 *
+	 * @param query collection, or filtered query, to replicate. Build it with queryBuilder, without limit or offset.
+	 * @return the replica, in order to check its size and staleness or to close it.
+	 * @throws TimeoutException default timeout after 10 seconds
+	 * @throws ExecutionException if something weird happens
+	 * @throws InterruptedException if something weird happens as somebody break connection.
+	 */
+	public CollectionReplica replicate(final Query query)
+		throws InterruptedException, ExecutionException, TimeoutException {
+		CollectionReplica replica = new CollectionReplica(query);
+		EventListenerResponse<E> listener = blockingFirestoreTemplate.addQueryListener(query, Optional.of(replica));
+		replica.setRegistration(listener.getRegistration());
+
+		CollectionReplica previous = replicas.put(query.getCollectionName(), replica);
+		if (previous != null) {
+			previous.close();
+		}
+		return replica;
+	}
+
+	public Optional<CollectionReplica> getReplica(final String collectionName) {
+		return Optional.ofNullable(replicas.get(collectionName));
+	}
+
 	public void closeConnection() {
+		replicas.values().forEach(CollectionReplica::close);
+		replicas.clear();
+
+		if (dispatchMode == DispatchMode.DIRECT) {
+			firestoreTemplate.close();
+		}
+		blockingFirestoreTemplate.close();
+
 		final EventBus eventBus = FirestoreTemplateFactory.INSTANCE.getEventBus();
 		final DeliveryOptions deliveryOpt = new DeliveryOptions();
 		deliveryOpt.setLocalOnly(true);
@@ -392,5 +1202,289 @@ public class RxFirestoreSdk<E extends Entity> {
 		eventBus.publish(TOPIC_CLOSE, null, deliveryOpt);
 	}
 
-}
+	public DispatchMode getDispatchMode() {
+		return dispatchMode;
+	}
 
+	/**
+	 * @return read deduplication hit and miss counters, if enabled through RxFirestoreSdkOptions.
+	 */
+	public Optional<SingleFlight> getSingleFlight() {
+		return Optional.ofNullable(singleFlight);
+	}
+
+	/**
+	 * @return read-through cache stats, if enabled through RxFirestoreSdkOptions.
+	 */
+	public Optional<DocumentCache> getCache() {
+		return Optional.ofNullable(cache);
+	}
+
+	/**
+	 * Chunks are acknowledged when they are taken by the subscriber, see serverStream.
+	 */
+	private static void onStreamChunk(final Message<List<Map<String, Object>>> chunk,
+		final FlowableProcessor<Message<List<Map<String, Object>>>> chunks) {
+		String error = chunk.headers().get("_error");
+		if (error != null) {
+			chunks.onError(new ReplyException(ReplyFailure.RECIPIENT_FAILURE, 1, error));
+		} else if (chunk.headers().contains("_end")) {
+			chunks.onComplete();
+		} else {
+			chunks.onNext(chunk);
+		}
+	}
+
+	/**
+	 * A failed precondition travels through the event bus as a failure code.
+	 */
+	private static <T> Single<T> preconditionFailed(final Throwable err) {
+		if (err instanceof ReplyException
+			&& ((ReplyException) err).failureCode() == PreconditionFailedExceptions.PRECONDITION_FAILED_CODE) {
+			return Single.error(new PreconditionFailedExceptions(err.getMessage()));
+		}
+		return Single.error(err);
+	}
+
+	/**
+	 * Not found documents fail with NotFoundExceptions on DIRECT mode, and with its code through the event bus.
+	 */
+	private static boolean isNotFound(final Throwable err) {
+		return err instanceof NotFoundExceptions || err instanceof ReplyException
+			&& ((ReplyException) err).failureCode() == NotFoundExceptions.NOT_FOUND_CODE;
+	}
+
+	/**
+	 * Drop the cached document once a write ends. On error the document state is unknown, so it is dropped too.
+	 */
+	private void invalidate(final String collectionName, final String id) {
+		if (cache != null) {
+			cache.invalidate(collectionName + "/" + id);
+		}
+	}
+
+	private void invalidate(final String collectionName, final Collection<String> ids) {
+		ids.forEach(id -> invalidate(collectionName, id));
+	}
+
+	/**
+	 * Share the raw response of concurrent identical reads. Entities are not shared, each caller maps its own.
+	 */
+	private <V> Single<V> singleFlight(final Object key, final Supplier<Single<V>> call) {
+		return singleFlight == null || key == null ? call.get() : singleFlight.execute(key, call);
+	}
+
+	/**
+	 * Copy of a raw document that single-flight may have handed to other callers too, as entities keep its nested
+	 * values. Snapshots don't need it, each getData call builds a new document.
+	 */
+	private Map<String, Object> shared(final Map<String, Object> document) {
+		return singleFlight == null ? document : Documents.copy(document);
+	}
+
+	private Single<Map<String, Boolean>> sendBatch(final String topic, final List<Map<String, Object>> documents,
+		final String collectionName, final int parallelism) {
+		final EventBus eventBus = FirestoreTemplateFactory.INSTANCE.getEventBus();
+		final DeliveryOptions deliveryOpt = new DeliveryOptions();
+		deliveryOpt.setLocalOnly(true);
+		deliveryOpt.setSendTimeout(SEND_TIMEOUT_MS);
+		deliveryOpt.addHeader("_collectionName", collectionName);
+		deliveryOpt.addHeader("_parallelism", String.valueOf(parallelism));
+		deliveryOpt.setCodecName(DocumentListMessageCodec.NAME);
+
+		LOG.trace("Sending msg to Eventbus. Delivery option: timeout "
+			+ deliveryOpt.getSendTimeout()
+			+ " local only "
+			+ deliveryOpt.isLocalOnly());
+
+		return eventBus.<Map<String, Object>>rxSend(topic, documents, deliveryOpt)
+			.map(Message::body)
+			.map(message -> {
+				LOG.trace("Reply received. Batch of " + message.size() + " documents.");
+				Map<String, Boolean> result = new LinkedHashMap<>();
+				message.forEach((id, committed) -> result.put(id, (Boolean) committed));
+				return result;
+			});
+	}
+
+	private Map<String, Map<String, Object>> toDocumentsById(final Map<String, E> entities) {
+		Map<String, Map<String, Object>> documents = new LinkedHashMap<>();
+		entities.forEach((id, entity) -> documents.put(id, entity.toMap()));
+		return documents;
+	}
+
+	/**
+	 * Batched writes travel through the event bus as a document list where the document ID is the _id field.
+	 */
+	private static List<Map<String, Object>> toDocumentList(final Map<String, Map<String, Object>> documentsById) {
+		List<Map<String, Object>> documents = new ArrayList<>(documentsById.size());
+		documentsById.forEach((id, document) -> {
+			Map<String, Object> message = new HashMap<>(document);
+			message.put("_id", id);
+			documents.add(message);
+		});
+		return documents;
+	}
+
+	/**
+	 * IDs travel through the event bus as a document list where each document only has the _id field.
+	 */
+	private static List<Map<String, Object>> toIdList(final List<String> ids) {
+		List<Map<String, Object>> documents = new ArrayList<>(ids.size());
+		ids.forEach(id -> {
+			Map<String, Object> document = new HashMap<>();
+			document.put("_id", id);
+			documents.add(document);
+		});
+		return documents;
+	}
+
+	private Single<List<E>> getFromServer(final Query query) {
+		return Single.defer(() -> fetchQuery(queryKey(query), query));
+	}
+
+	/**
+	 * Single-flight key of the query, or null (no deduplication) when the query can not be encoded.
+	 */
+	private Object queryKey(final Query query) {
+		if (singleFlight == null) {
+			return null;
+		}
+		try {
+			return ByteBuffer.wrap(QueryDescriptor.encode(query));
+		} catch (RuntimeException e) {
+			LOG.trace("Query of " + query.getCollectionName() + " is not deduplicated: " + e.getMessage());
+			return null;
+		}
+	}
+
+	private Single<List<E>> fetchQuery(final Object key, final Query query) {
+		if (dispatchMode == DispatchMode.DIRECT) {
+			return singleFlight(key, () -> firestoreTemplate.rxGetSnapshots(query)).map(snapshots -> {
+				List<E> result = new ArrayList<>(snapshots.size());
+				snapshots.forEach(snapshot -> result.add(fromSnapshot(snapshot)));
+				return result;
+			});
+		}
+
+		final EventBus eventBus = FirestoreTemplateFactory.INSTANCE.getEventBus();
+		final DeliveryOptions deliveryOpt = new DeliveryOptions();
+		deliveryOpt.setLocalOnly(true);
+		deliveryOpt.setSendTimeout(SEND_TIMEOUT_MS);
+		deliveryOpt.setCodecName(QueryMessageCodec.NAME);
+
+		LOG.trace("Sending msg to Eventbus. Delivery option: timeout "
+			+ deliveryOpt.getSendTimeout()
+			+ " local only "
+			+ deliveryOpt.isLocalOnly());
+
+		return singleFlight(key, () -> eventBus.<List<Map<String, Object>>>rxSend(TOPIC_QUERY, query, deliveryOpt)
+			.map(Message::body))
+			.map(data -> {
+				List<E> result = new ArrayList<>(data.size());
+				data.forEach(elem -> result.add(fromMap(query.getCollectionName(), shared(elem))));
+				LOG.trace("Reply received. Amount of elements retrieved " + result.size());
+				return result;
+			});
+	}
+
+	private Single<Map<String, Object>> cachedFetch(final String id, final String collectionName, final String key) {
+		long epoch = cache.getEpoch();
+		return fetchDocument(id, collectionName).doOnSuccess(data -> cache.put(key, data, epoch));
+	}
+
+	private Single<Map<String, Object>> fetchDocument(final String id, final String collectionName) {
+		if (dispatchMode == DispatchMode.DIRECT) {
+			return firestoreTemplate.rxGet(id, collectionName);
+		}
+
+		final EventBus eventBus = FirestoreTemplateFactory.INSTANCE.getEventBus();
+		final DeliveryOptions deliveryOpt = new DeliveryOptions();
+		deliveryOpt.setLocalOnly(true);
+		deliveryOpt.setSendTimeout(SEND_TIMEOUT_MS);
+		deliveryOpt.addHeader("_collectionName", collectionName);
+		deliveryOpt.addHeader("_id", id);
+
+		LOG.trace("Sending msg to Eventbus. Delivery option: timeout "
+			+ deliveryOpt.getSendTimeout()
+			+ " local only "
+			+ deliveryOpt.isLocalOnly());
+
+		return eventBus.<Map<String, Object>>rxSend(TOPIC_GET, "", deliveryOpt)
+			.map(Message::body)
+			.map(data -> {
+				LOG.trace("Reply received.");
+				return data;
+			});
+	}
+
+	/**
+	 * @return changed fields of a DirtyTrackingEntity read from or stored as the given document, null if the whole
+	 * entity has to be written.
+	 */
+	private static Map<String, Object> changesOf(final Entity entity, final String id, final String collectionName,
+		final Map<String, Object> current) {
+		return entity instanceof DirtyTrackingEntity
+			? ((DirtyTrackingEntity) entity).changesFrom(DirtyTrackingEntity.path(id, collectionName), current)
+			: null;
+	}
+
+	private static <T extends Entity> T markClean(final T entity, final String path,
+		final Map<String, Object> current) {
+		if (entity instanceof DirtyTrackingEntity) {
+			((DirtyTrackingEntity) entity).markClean(path, current);
+		}
+		return entity;
+	}
+
+	/**
+	 * The entity is remembered as the document it was read from, if its ID is known.
+	 */
+	private static <T extends Entity> T markRead(final T entity, final String collectionName, final Object id) {
+		return entity instanceof DirtyTrackingEntity && id != null
+			? markClean(entity, DirtyTrackingEntity.path((String) id, collectionName), entity.toMap())
+			: entity;
+	}
+
+	/**
+	 * Remember the committed documents of a batched write as the stored state of their entities.
+	 */
+	private static <T extends Entity> void markCommitted(final Map<String, T> entities, final String collectionName,
+		final Map<String, Map<String, Object>> documents, final Map<String, Boolean> result) {
+		result.forEach((id, committed) -> {
+			if (Boolean.TRUE.equals(committed) && entities.containsKey(id)) {
+				markClean(entities.get(id), DirtyTrackingEntity.path(id, collectionName), documents.get(id));
+			}
+		});
+	}
+
+	private List<E> fromMaps(final String collectionName, final List<Map<String, Object>> data) {
+		List<E> result = new ArrayList<>(data.size());
+		data.forEach(elem -> result.add(fromMap(collectionName, elem)));
+		return result;
+	}
+
+	private E fromMap(final String collectionName, final Map<String, Object> data) {
+		if (entityMapper != null) {
+			return markRead((E) entityMapper.fromMap(data, supplier.get()), collectionName, data.get("_id"));
+		}
+
+		return markRead((E) supplier.get().fromJsonAsMap(data), collectionName, data.get("_id"));
+	}
+
+	private E fromSnapshot(final DocumentSnapshot snapshot) {
+		E entity;
+		if (entityMapper != null) {
+			entity = (E) entityMapper.fromSnapshot(snapshot, supplier.get());
+		} else {
+			Map<String, Object> data = snapshot.getData();
+			data.put("_id", snapshot.getId());
+			entity = (E) supplier.get().fromJsonAsMap(data);
+		}
+
+		return entity instanceof DirtyTrackingEntity
+			? markClean(entity, snapshot.getReference().getPath(), entity.toMap())
+			: entity;
+	}
+
+}
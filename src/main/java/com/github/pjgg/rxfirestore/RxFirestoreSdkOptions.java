@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import java.util.Objects;
+
+/**
+ * Per repository options. Pass them to RxFirestoreSdk constructor.
+ */
+public class RxFirestoreSdkOptions {
+
+	public static final DispatchMode DEFAULT_DISPATCH_MODE = DispatchMode.EVENT_BUS;
+
+	private DispatchMode dispatchMode = DEFAULT_DISPATCH_MODE;
+	private boolean singleFlight;
+	private int cacheMaxEntries;
+	private long cacheMaxBytes = Long.MAX_VALUE;
+	private long cacheTtlMs;
+
+	public DispatchMode getDispatchMode() {
+		return dispatchMode;
+	}
+
+	public RxFirestoreSdkOptions setDispatchMode(DispatchMode dispatchMode) {
+		this.dispatchMode = Objects.requireNonNull(dispatchMode);
+		return this;
+	}
+
+	public boolean isSingleFlight() {
+		return singleFlight;
+	}
+
+	/**
+	 * Deduplicate concurrent identical reads (get by ID and get by query). While a read is running, later identical
+	 * reads wait for its result instead of issuing a new request. Disabled by default.
+	 */
+	public RxFirestoreSdkOptions setSingleFlight(boolean singleFlight) {
+		this.singleFlight = singleFlight;
+		return this;
+	}
+
+	public int getCacheMaxEntries() {
+		return cacheMaxEntries;
+	}
+
+	/**
+	 * Enable a read-through cache of get by ID, bounded to the given amount of documents. Writes made through the same
+	 * repository invalidate the cached document. Disabled by default (zero).
+	 */
+	public RxFirestoreSdkOptions setCacheMaxEntries(int cacheMaxEntries) {
+		this.cacheMaxEntries = cacheMaxEntries;
+		return this;
+	}
+
+	public long getCacheMaxBytes() {
+		return cacheMaxBytes;
+	}
+
+	/**
+	 * Bound the cache to an estimated amount of memory. Unbounded by default.
+	 */
+	public RxFirestoreSdkOptions setCacheMaxBytes(long cacheMaxBytes) {
+		this.cacheMaxBytes = cacheMaxBytes;
+		return this;
+	}
+
+	public long getCacheTtlMs() {
+		return cacheTtlMs;
+	}
+
+	/**
+	 * Time to live of a cached document. Documents never expire by default (zero).
+	 */
+	public RxFirestoreSdkOptions setCacheTtlMs(long cacheTtlMs) {
+		this.cacheTtlMs = cacheTtlMs;
+		return this;
+	}
+}
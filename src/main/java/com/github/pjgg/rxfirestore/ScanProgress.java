@@ -0,0 +1,107 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Progress of a partition of a PartitionedScan: state, scanned documents, elapsed time and throughput.
+ */
+public final class ScanProgress {
+
+	public enum State {
+		PENDING, RUNNING, DONE, FAILED
+	}
+
+	private final int partition;
+	private final Query query;
+	private final LongSupplier nanoTime;
+	private final AtomicLong documents = new AtomicLong();
+	private volatile State state = State.PENDING;
+	private volatile long started;
+	private volatile long finished;
+
+	ScanProgress(int partition, Query query, LongSupplier nanoTime) {
+		this.partition = partition;
+		this.query = query;
+		this.nanoTime = nanoTime;
+	}
+
+	void start() {
+		documents.set(0);
+		started = nanoTime.getAsLong();
+		state = State.RUNNING;
+	}
+
+	void scanned() {
+		documents.incrementAndGet();
+	}
+
+	void finish(State end) {
+		finished = nanoTime.getAsLong();
+		state = end;
+	}
+
+	public int getPartition() {
+		return partition;
+	}
+
+	/**
+	 * @return query of the partition, with its document ID range as startAt and endBefore cursors.
+	 */
+	public Query getQuery() {
+		return query;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	public long getDocuments() {
+		return documents.get();
+	}
+
+	/**
+	 * @return time spent scanning the partition so far, 0 if it has not started.
+	 */
+	public long getElapsedMs() {
+		State current = state;
+		if (current == State.PENDING) {
+			return 0;
+		}
+
+		long end = current == State.RUNNING ? nanoTime.getAsLong() : finished;
+		return TimeUnit.NANOSECONDS.toMillis(end - started);
+	}
+
+	/**
+	 * @return scanned documents per second.
+	 */
+	public double getThroughput() {
+		long elapsed = getElapsedMs();
+		return elapsed == 0 ? 0 : getDocuments() * 1000.0 / elapsed;
+	}
+
+	@Override
+	public String toString() {
+		return "partition " + partition + " " + state + " documents " + getDocuments() + " elapsed "
+			+ getElapsedMs() + "ms throughput " + String.format("%.1f", getThroughput()) + " docs/s";
+	}
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import com.google.cloud.firestore.DocumentChange;
+import com.google.cloud.firestore.EventListener;
+import com.google.cloud.firestore.FirestoreException;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.QuerySnapshot;
+import io.reactivex.Flowable;
+import io.reactivex.processors.UnicastProcessor;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+
+/**
+ * SharedQueryListeners multiplexes query listeners: every subscriber of the same query (same collection, filters,
+ * order and cursors) shares a single Firestore listener. Listeners ignore limit, offset and select, so queries that
+ * only differ on them are the same. The listener is opened by the first subscriber and removed when the last
+ * subscriber cancels. Late subscribers get the current documents, as ADDED changes, and then the live changes.
+ * Queries that can not be encoded (see QueryDescriptor) get a listener of their own.
+ * <p>
+ * Each change is turned into an entity once and the same entity is emitted to every subscriber, so subscribers must
+ * not modify them. Changes are queued per subscriber while holding the lock, in order, and handed to the subscribers
+ * after releasing it, so a slow subscriber never blocks other queries nor subscribing and cancelling.
+ */
+public class SharedQueryListeners<E extends Entity> {
+
+	private final Supplier<? extends Entity> supplier;
+	private final BiFunction<Query, EventListener<QuerySnapshot>, ListenerRegistration> register;
+	private final Map<Object, Shared> listeners = new HashMap<>();
+
+	/**
+	 * @param supplier builds the entity used to map the changes (see Entity.fromJsonAsMap).
+	 * @param register opens a Firestore listener for the query.
+	 */
+	public SharedQueryListeners(Supplier<? extends Entity> supplier,
+		BiFunction<Query, EventListener<QuerySnapshot>, ListenerRegistration> register) {
+		this.supplier = supplier;
+		this.register = register;
+	}
+
+	/**
+	 * @return Flowable with the current documents and then the live changes of the query. The listener is shared with
+	 * every other subscriber of the same query.
+	 */
+	public Flowable<E> listen(Query query, ListenerBackpressure backpressure, int bufferSize) {
+		return Flowable.defer(() -> {
+			Object shareKey = key(query);
+			Object key = shareKey == null ? new Object() : shareKey;
+			Member<E> member = new Member<>(backpressure, bufferSize);
+			join(key, query, member);
+			return member.flow().doFinally(() -> leave(key, member));
+		});
+	}
+
+	/**
+	 * @return key of the listened query, the query without limit, offset and select. Null if it can not be encoded.
+	 */
+	static Object key(Query query) {
+		Query listened = new Query(query.getCollectionName());
+		query.getEqualTo().forEach(listened::whereEqualTo);
+		query.getArrayContains().forEach(listened::whereArrayContains);
+		query.getGreaterThan().forEach(listened::whereGreaterThan);
+		query.getLessThan().forEach(listened::whereLessThan);
+		query.getOrderBy().forEach(listened::orderBy);
+		listened.startAt(query.getStartAt().toArray())
+			.startAfter(query.getStartAfter().toArray())
+			.endBefore(query.getEndBefore().toArray());
+
+		try {
+			return ByteBuffer.wrap(QueryDescriptor.encode(listened));
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Amount of open Firestore listeners.
+	 */
+	public synchronized int getListeners() {
+		return listeners.size();
+	}
+
+	/**
+	 * Amount of subscribers, of every shared listener.
+	 */
+	public synchronized int getSubscribers() {
+		int subscribers = 0;
+		for (Shared shared : listeners.values()) {
+			subscribers += shared.members.size();
+		}
+		return subscribers;
+	}
+
+	private void join(Object key, Query query, Member<E> member) {
+		synchronized (this) {
+			Shared shared = listeners.get(key);
+			if (shared == null) {
+				shared = new Shared(key);
+				listeners.put(key, shared);
+				try {
+					shared.registration = register.apply(query, shared);
+				} catch (RuntimeException err) {
+					listeners.remove(key);
+					throw err;
+				}
+			}
+
+			shared.members.add(member);
+			for (Map.Entry<String, Document> document : shared.documents.entrySet()) {
+				member.offer(document.getKey(), document.getValue().replay());
+			}
+		}
+
+		member.drain();
+	}
+
+	private synchronized void leave(Object key, Member<E> member) {
+		Shared shared = listeners.get(key);
+		if (shared == null || !shared.members.remove(member) || !shared.members.isEmpty()) {
+			return;
+		}
+
+		listeners.remove(key);
+		shared.registration.remove();
+	}
+
+	private E toEntity(Map<String, Object> data, String id, DocumentChange.Type type) {
+		Map<String, Object> document = new HashMap<>(data);
+		document.put("_id", id);
+		document.put("_eventType", type.toString());
+		return (E) supplier.get().fromJsonAsMap(document);
+	}
+
+	/**
+	 * The Firestore listener of a query, its subscribers and the current documents.
+	 */
+	final class Shared implements EventListener<QuerySnapshot> {
+
+		private final Object key;
+		private final List<Member<E>> members = new ArrayList<>();
+		private final Map<String, Document> documents = new LinkedHashMap<>();
+		private ListenerRegistration registration;
+
+		Shared(Object key) {
+			this.key = key;
+		}
+
+		@Override
+		public void onEvent(@Nullable QuerySnapshot snapshot, @Nullable FirestoreException e) {
+			List<Member<E>> targets;
+			synchronized (SharedQueryListeners.this) {
+				if (listeners.get(key) != this) {
+					return;
+				}
+
+				if (e != null) {
+					listeners.remove(key);
+					members.forEach(member -> member.onError(e));
+				} else {
+					for (DocumentChange dc : snapshot.getDocumentChanges()) {
+						update(dc.getType(), dc.getDocument().getId(), dc.getDocument().getData());
+					}
+				}
+				targets = new ArrayList<>(members);
+			}
+
+			targets.forEach(Member::drain);
+		}
+
+		void apply(DocumentChange.Type type, String id, Map<String, Object> data) {
+			List<Member<E>> targets;
+			synchronized (SharedQueryListeners.this) {
+				update(type, id, data);
+				targets = new ArrayList<>(members);
+			}
+
+			targets.forEach(Member::drain);
+		}
+
+		/**
+		 * Update the current documents and queue the change to every member. The caller holds the lock.
+		 */
+		private void update(DocumentChange.Type type, String id, Map<String, Object> data) {
+			E entity = toEntity(data, id, type);
+			if (type == DocumentChange.Type.REMOVED) {
+				documents.remove(id);
+			} else {
+				documents.put(id, new Document(data, id, type == DocumentChange.Type.ADDED ? entity : null));
+			}
+
+			members.forEach(member -> member.offer(id, entity));
+		}
+	}
+
+	/**
+	 * Current state of a document. Late subscribers get it as an ADDED change, built once and only if needed.
+	 */
+	private final class Document {
+
+		private final Map<String, Object> data;
+		private final String id;
+		private E added;
+
+		Document(Map<String, Object> data, String id, E added) {
+			this.data = data;
+			this.id = id;
+			this.added = added;
+		}
+
+		E replay() {
+			if (added == null) {
+				added = toEntity(data, id, DocumentChange.Type.ADDED);
+			}
+			return added;
+		}
+	}
+
+	/**
+	 * A subscriber. Changes are buffered until it subscribes, and then handled as its backpressure says. offer and
+	 * onError only queue, drain hands the queued changes to the subscriber, one thread at a time and in order.
+	 */
+	private static final class Member<E> {
+
+		private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger wip = new AtomicInteger();
+		private final UnicastProcessor<E> changes;
+		private final LatestByKeyBuffer<E> latestByDocument;
+		private final ListenerBackpressure backpressure;
+		private final int bufferSize;
+
+		Member(ListenerBackpressure backpressure, int bufferSize) {
+			this.backpressure = backpressure;
+			this.bufferSize = bufferSize;
+			if (backpressure == ListenerBackpressure.LATEST_PER_DOCUMENT) {
+				latestByDocument = new LatestByKeyBuffer<>();
+				changes = null;
+			} else {
+				latestByDocument = null;
+				changes = UnicastProcessor.create();
+			}
+		}
+
+		void offer(String id, E entity) {
+			pending.offer(() -> {
+				if (latestByDocument != null) {
+					latestByDocument.offer(id, entity);
+				} else {
+					changes.onNext(entity);
+				}
+			});
+		}
+
+		void onError(Throwable err) {
+			pending.offer(() -> {
+				if (latestByDocument != null) {
+					latestByDocument.onError(err);
+				} else {
+					changes.onError(err);
+				}
+			});
+		}
+
+		/**
+		 * If another thread is already draining, it delivers the changes queued by this one too.
+		 */
+		void drain() {
+			if (wip.getAndIncrement() != 0) {
+				return;
+			}
+
+			int missed = 1;
+			while (missed != 0) {
+				for (Runnable change = pending.poll(); change != null; change = pending.poll()) {
+					change.run();
+				}
+				missed = wip.addAndGet(-missed);
+			}
+		}
+
+		Flowable<E> flow() {
+			if (latestByDocument != null) {
+				return latestByDocument.toFlowable();
+			}
+
+			return DefaultEventListener.withBackpressure(changes, backpressure, bufferSize);
+		}
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import io.reactivex.Single;
+import io.reactivex.subjects.SingleSubject;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * SingleFlight deduplicates concurrent identical reads. While a call for a key is running, later callers with the same
+ * key subscribe to its result instead of issuing a new call. The key is released as soon as the call ends, so results
+ * are never cached.
+ */
+public class SingleFlight {
+
+	private final ConcurrentMap<Object, SingleSubject<?>> inFlight = new ConcurrentHashMap<>();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * @param key identifies the read, keys must implement equals and hashCode.
+	 * @param call is only invoked if there is no running call for the key. It runs to the end even if every caller
+	 * disposes.
+	 * @return Single shared with every concurrent caller of the same key.
+	 */
+	public <V> Single<V> execute(Object key, Supplier<Single<V>> call) {
+		return Single.defer(() -> {
+			SingleSubject<V> result = SingleSubject.create();
+			SingleSubject<V> running = (SingleSubject<V>) inFlight.putIfAbsent(key, result);
+			if (running != null) {
+				hits.increment();
+				return running;
+			}
+
+			misses.increment();
+			try {
+				call.get().doOnEvent((value, err) -> inFlight.remove(key, result)).subscribe(result);
+			} catch (Throwable err) {
+				inFlight.remove(key, result);
+				result.onError(err);
+			}
+
+			return result;
+		});
+	}
+
+	/**
+	 * Amount of reads that joined a running call.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Amount of reads that issued a new call.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public int getInFlight() {
+		return inFlight.size();
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import com.google.api.core.ApiFutureCallback;
+
+import io.reactivex.subjects.SingleSubject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+/**
+ * Hands the raw Firestore snapshot over, so it can be mapped straight into an entity.
+ */
+public class SnapshotCallbackHandler<T> implements ApiFutureCallback<T> {
+
+	private static Logger LOG = LoggerFactory.getLogger(SnapshotCallbackHandler.class);
+
+	private SingleSubject<T> snapshot = SingleSubject.create();
+
+	@Override
+	public void onFailure(Throwable throwable) {
+		LOG.error(throwable.getMessage());
+		snapshot.onError(throwable);
+	}
+
+	@Override
+	public void onSuccess(T result) {
+		LOG.trace("Blocking firestore SDK response success.");
+		snapshot.onSuccess(result);
+	}
+
+	public SingleSubject<T> getSnapshot() {
+		return snapshot;
+	}
+}
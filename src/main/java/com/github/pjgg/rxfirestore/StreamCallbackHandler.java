@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import com.google.api.gax.rpc.ApiStreamObserver;
+import com.google.cloud.firestore.DocumentSnapshot;
+import io.reactivex.FlowableEmitter;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+/**
+ * Forward the documents of a Firestore streaming query as soon as they arrive. Documents that arrive once the
+ * subscriber has cancelled are dropped, the stream can not be cancelled.
+ */
+public class StreamCallbackHandler implements ApiStreamObserver<DocumentSnapshot> {
+
+	private static final Logger LOG = LoggerFactory.getLogger(StreamCallbackHandler.class);
+	private final FlowableEmitter<DocumentSnapshot> emitter;
+
+	public StreamCallbackHandler(FlowableEmitter<DocumentSnapshot> emitter) {
+		this.emitter = emitter;
+	}
+
+	@Override
+	public void onNext(DocumentSnapshot document) {
+		if (!emitter.isCancelled()) {
+			emitter.onNext(document);
+		}
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		LOG.error(throwable.getMessage());
+		emitter.tryOnError(throwable);
+	}
+
+	@Override
+	public void onCompleted() {
+		LOG.trace("Streaming firestore SDK response completed.");
+		emitter.onComplete();
+	}
+}
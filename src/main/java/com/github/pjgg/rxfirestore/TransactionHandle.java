@@ -0,0 +1,144 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Transaction;
+import io.reactivex.Maybe;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Reads and writes of a transaction run by runTransaction. Firestore requires every read to happen before the first
+ * write. Writes are buffered and committed together once the transaction function ends, and they are discarded if the
+ * transaction is aborted.
+ *
+ * @param <E> entity type of the repository.
+ */
+public final class TransactionHandle<E extends Entity> {
+
+	private final Transaction transaction;
+	private final BiFunction<String, String, DocumentReference> references;
+	private final Function<DocumentSnapshot, E> fromSnapshot;
+	private final Set<String> writes = ConcurrentHashMap.newKeySet();
+	private final Map<String, Runnable> stored = new ConcurrentHashMap<>();
+
+	/**
+	 * @param references document reference by collection name and ID.
+	 * @param fromSnapshot maps a read document into an entity.
+	 */
+	TransactionHandle(Transaction transaction, BiFunction<String, String, DocumentReference> references,
+		Function<DocumentSnapshot, E> fromSnapshot) {
+		this.transaction = transaction;
+		this.references = references;
+		this.fromSnapshot = fromSnapshot;
+	}
+
+	/**
+	 * Read a document. The transaction fails if the document is written by somebody else before it commits.
+	 *
+	 * @return Maybe with the entity, empty if the document does not exist.
+	 */
+	public Maybe<E> get(final String id, final String collectionName) {
+		SnapshotCallbackHandler<DocumentSnapshot> handler = new SnapshotCallbackHandler<>();
+		ApiFuture<DocumentSnapshot> response = transaction.get(references.apply(collectionName, id));
+		ApiFutures.addCallback(response, handler, Runnable::run);
+
+		return handler.getSnapshot()
+			.filter(DocumentSnapshot::exists)
+			.map(fromSnapshot::apply);
+	}
+
+	/**
+	 * Create the document, the transaction fails if it already exists.
+	 */
+	public TransactionHandle<E> insert(final String id, final String collectionName, final E entity) {
+		Map<String, Object> document = entity.toMap();
+		transaction.create(reference(id, collectionName), document);
+		stored(id, collectionName, entity, document);
+		return this;
+	}
+
+	/**
+	 * Create or overwrite the document.
+	 */
+	public TransactionHandle<E> upsert(final String id, final String collectionName, final E entity) {
+		Map<String, Object> document = entity.toMap();
+		transaction.set(reference(id, collectionName), document);
+		stored(id, collectionName, entity, document);
+		return this;
+	}
+
+	/**
+	 * Update the given fields of the document, the transaction fails if it does not exist.
+	 */
+	public TransactionHandle<E> update(final String id, final String collectionName, final Map<String, Object> fields) {
+		transaction.update(reference(id, collectionName), new HashMap<>(fields));
+		return this;
+	}
+
+	/**
+	 * Apply server-side field transforms to the document, see FieldTransforms.
+	 */
+	public TransactionHandle<E> update(final String id, final String collectionName, final FieldTransforms transforms) {
+		transaction.update(reference(id, collectionName), transforms.toMap());
+		return this;
+	}
+
+	public TransactionHandle<E> delete(final String id, final String collectionName) {
+		transaction.delete(reference(id, collectionName));
+		return this;
+	}
+
+	/**
+	 * @return written documents as collectionName/id, in order to drop them from caches once committed.
+	 */
+	Set<String> getWrites() {
+		return writes;
+	}
+
+	/**
+	 * Remember the entities written as a whole as the stored state of their documents, see DirtyTrackingEntity. Called
+	 * once the transaction is committed.
+	 */
+	void onCommitted() {
+		stored.values().forEach(Runnable::run);
+	}
+
+	private void stored(final String id, final String collectionName, final E entity,
+		final Map<String, Object> document) {
+		if (entity instanceof DirtyTrackingEntity) {
+			String path = DirtyTrackingEntity.path(id, collectionName);
+			stored.put(path, () -> ((DirtyTrackingEntity) entity).markClean(path, document));
+		}
+	}
+
+	private DocumentReference reference(final String id, final String collectionName) {
+		String path = DirtyTrackingEntity.path(id, collectionName);
+		writes.add(path);
+		stored.remove(path);
+		return references.apply(collectionName, id);
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contention metrics of the transactions run by runTransaction: attempts needed to commit, abort reasons and commit
+ * latency.
+ */
+public final class TransactionMetrics {
+
+	private final LongAdder transactions = new LongAdder();
+	private final LongAdder committed = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder attempts = new LongAdder();
+	private final Map<Integer, LongAdder> attemptsToCommit = new ConcurrentHashMap<>();
+	private final Map<String, LongAdder> abortReasons = new ConcurrentHashMap<>();
+	private final LongAdder commitNanos = new LongAdder();
+	private final AtomicLong maxCommitNanos = new AtomicLong();
+
+	void started() {
+		transactions.increment();
+	}
+
+	void attempted() {
+		attempts.increment();
+	}
+
+	void aborted(String reason) {
+		abortReasons.computeIfAbsent(reason, key -> new LongAdder()).increment();
+	}
+
+	void committed(int attempt, long nanos) {
+		committed.increment();
+		attemptsToCommit.computeIfAbsent(attempt, key -> new LongAdder()).increment();
+		commitNanos.add(nanos);
+		maxCommitNanos.accumulateAndGet(nanos, Math::max);
+	}
+
+	void failed() {
+		failed.increment();
+	}
+
+	public long getTransactions() {
+		return transactions.sum();
+	}
+
+	public long getCommitted() {
+		return committed.sum();
+	}
+
+	/**
+	 * @return transactions that ended with an error: not retryable, or still aborted after the last attempt.
+	 */
+	public long getFailed() {
+		return failed.sum();
+	}
+
+	public long getAttempts() {
+		return attempts.sum();
+	}
+
+	/**
+	 * @return attempts that were aborted and run again.
+	 */
+	public long getRetries() {
+		return attempts.sum() - transactions.sum();
+	}
+
+	/**
+	 * @return committed transactions by the attempt that committed them, 1 means no contention.
+	 */
+	public Map<Integer, Long> getAttemptsToCommit() {
+		Map<Integer, Long> result = new TreeMap<>();
+		attemptsToCommit.forEach((attempt, count) -> result.put(attempt, count.sum()));
+		return result;
+	}
+
+	/**
+	 * @return failed attempts by reason: the gRPC status code (ABORTED means contention) or the exception type.
+	 */
+	public Map<String, Long> getAbortReasons() {
+		Map<String, Long> result = new TreeMap<>();
+		abortReasons.forEach((reason, count) -> result.put(reason, count.sum()));
+		return result;
+	}
+
+	/**
+	 * @return average time between the end of the transaction function and the commit response.
+	 */
+	public double getAverageCommitLatencyMs() {
+		long count = committed.sum();
+		return count == 0 ? 0 : commitNanos.sum() / 1_000_000.0 / count;
+	}
+
+	public double getMaxCommitLatencyMs() {
+		return maxCommitNanos.get() / 1_000_000.0;
+	}
+
+	@Override
+	public String toString() {
+		return "transactions " + getTransactions() + " committed " + getCommitted() + " failed " + getFailed()
+			+ " retries " + getRetries() + " attempts to commit " + getAttemptsToCommit() + " abort reasons "
+			+ getAbortReasons() + " commit latency avg " + String.format("%.1f", getAverageCommitLatencyMs())
+			+ "ms max " + String.format("%.1f", getMaxCommitLatencyMs()) + "ms";
+	}
+}
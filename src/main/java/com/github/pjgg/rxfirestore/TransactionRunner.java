@@ -0,0 +1,172 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.rpc.ApiException;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Transaction;
+import com.google.cloud.firestore.TransactionOptions;
+import io.grpc.StatusRuntimeException;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * TransactionRunner runs transactions with retries on contention. The Firestore client is asked for a single attempt,
+ * and aborted attempts are run again after a jittered exponential backoff, scheduled on a timer instead of sleeping,
+ * up to maxAttempts.
+ * <p>
+ * The Firestore client of this version only takes a synchronous transaction function, so the reactive function is
+ * awaited on an io scheduler thread while it runs (reads and application logic). Callers, event loops and workers are
+ * never blocked, neither by the function nor by the commit or the backoff.
+ */
+final class TransactionRunner {
+
+	private static final Logger LOG = LoggerFactory.getLogger(TransactionRunner.class);
+
+	static final int DEFAULT_MAX_ATTEMPTS = 5;
+	static final long BASE_BACKOFF_MS = 50;
+	static final long MAX_BACKOFF_MS = 2000;
+
+	/**
+	 * Abort reason of contention: a document read by the transaction was written before its commit.
+	 */
+	static final String ABORTED = "ABORTED";
+
+	private final Function<Transaction.Function<Object>, ApiFuture<Object>> client;
+	private final Scheduler scheduler;
+	private final LongSupplier nanoTime;
+	private final DoubleSupplier random;
+	private final TransactionMetrics metrics = new TransactionMetrics();
+
+	TransactionRunner(Firestore firestore) {
+		this(function -> firestore.runTransaction(function,
+			TransactionOptions.create(runnable -> Schedulers.io().scheduleDirect(runnable), 1)),
+			Schedulers.computation(), System::nanoTime, () -> ThreadLocalRandom.current().nextDouble());
+	}
+
+	/**
+	 * @param client runs a single attempt of the transaction function.
+	 * @param scheduler of the backoff timers.
+	 * @param random jitter between 0 and 1.
+	 */
+	TransactionRunner(Function<Transaction.Function<Object>, ApiFuture<Object>> client, Scheduler scheduler,
+		LongSupplier nanoTime, DoubleSupplier random) {
+		this.client = client;
+		this.scheduler = scheduler;
+		this.nanoTime = nanoTime;
+		this.random = random;
+	}
+
+	<T> Single<T> run(Function<Transaction, Single<T>> body, int maxAttempts) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("maxAttempts must be greater than zero");
+		}
+
+		return Single.defer(() -> {
+			metrics.started();
+			return attempt(body, 1, maxAttempts);
+		});
+	}
+
+	TransactionMetrics getMetrics() {
+		return metrics;
+	}
+
+	private <T> Single<T> attempt(Function<Transaction, Single<T>> body, int attempt, int maxAttempts) {
+		AtomicLong bodyEnd = new AtomicLong();
+
+		return Single.<Object>create(emitter -> {
+			metrics.attempted();
+			ApiFuture<Object> response = client.apply(transaction -> {
+				Object result = body.apply(transaction).blockingGet();
+				bodyEnd.set(nanoTime.getAsLong());
+				return result;
+			});
+			ApiFutures.addCallback(response, new ApiFutureCallback<Object>() {
+				@Override
+				public void onFailure(Throwable throwable) {
+					emitter.onError(throwable);
+				}
+
+				@Override
+				public void onSuccess(Object result) {
+					emitter.onSuccess(result);
+				}
+			}, Runnable::run);
+		})
+			.map(result -> (T) result)
+			.doOnSuccess(result -> metrics.committed(attempt, nanoTime.getAsLong() - bodyEnd.get()))
+			.onErrorResumeNext(error -> {
+				String reason = abortReason(error);
+				metrics.aborted(reason);
+
+				if (!ABORTED.equals(reason) || attempt >= maxAttempts) {
+					metrics.failed();
+					return Single.error(error);
+				}
+
+				long backoff = backoffMs(attempt);
+				LOG.debug("Transaction attempt " + attempt + " aborted, retrying in " + backoff + "ms");
+				return Single.timer(backoff, TimeUnit.MILLISECONDS, scheduler)
+					.flatMap(tick -> attempt(body, attempt + 1, maxAttempts));
+			});
+	}
+
+	/**
+	 * Full jitter: a random delay up to the exponential backoff of the attempt, so that contending transactions do not
+	 * retry at the same time.
+	 */
+	long backoffMs(int attempt) {
+		return backoffMs(attempt, random.getAsDouble());
+	}
+
+	/**
+	 * @param random jitter between 0 and 1.
+	 */
+	static long backoffMs(int attempt, double random) {
+		long ceiling = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(attempt - 1, 20));
+		return (long) (random * ceiling);
+	}
+
+	/**
+	 * gRPC status code of the failure, if any, or the exception type.
+	 */
+	static String abortReason(Throwable error) {
+		for (Throwable cause = error; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+			if (cause instanceof ApiException) {
+				return ((ApiException) cause).getStatusCode().getCode().name();
+			}
+			if (cause instanceof StatusRuntimeException) {
+				return ((StatusRuntimeException) cause).getStatus().getCode().name();
+			}
+		}
+		return error.getClass().getSimpleName();
+	}
+}
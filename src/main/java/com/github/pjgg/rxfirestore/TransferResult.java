@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+/**
+ * Outcome of a BulkTransfer export or import.
+ */
+public final class TransferResult {
+
+	private final long documents;
+	private final long resumed;
+	private final long failed;
+	private final long bytes;
+	private final long elapsedMs;
+
+	TransferResult(long documents, long resumed, long failed, long bytes, long elapsedMs) {
+		this.documents = documents;
+		this.resumed = resumed;
+		this.failed = failed;
+		this.bytes = bytes;
+		this.elapsedMs = elapsedMs;
+	}
+
+	/**
+	 * @return documents transferred by this run, without the ones transferred before resuming.
+	 */
+	public long getDocuments() {
+		return documents;
+	}
+
+	/**
+	 * @return documents transferred by previous runs, according to the checkpoint.
+	 */
+	public long getResumed() {
+		return resumed;
+	}
+
+	/**
+	 * @return documents that could not be written (import only).
+	 */
+	public long getFailed() {
+		return failed;
+	}
+
+	/**
+	 * @return size of the file.
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	public long getElapsedMs() {
+		return elapsedMs;
+	}
+
+	/**
+	 * @return transferred documents per second.
+	 */
+	public double getThroughput() {
+		return elapsedMs == 0 ? 0 : documents * 1000.0 / elapsedMs;
+	}
+
+	@Override
+	public String toString() {
+		return "documents " + documents + " resumed " + resumed + " failed " + failed + " bytes " + bytes + " elapsed "
+			+ elapsedMs + "ms";
+	}
+}
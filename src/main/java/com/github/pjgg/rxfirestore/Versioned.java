@@ -0,0 +1,54 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import com.google.cloud.Timestamp;
+
+/**
+ * An entity together with the update time of its document, in order to write it back only if nobody else changed it
+ * in the meantime (optimistic concurrency), see RxFirestoreSdk.getVersioned.
+ *
+ * @param <E> entity type.
+ */
+public final class Versioned<E extends Entity> {
+
+	private final String id;
+	private final E entity;
+	private final Timestamp updateTime;
+
+	Versioned(String id, E entity, Timestamp updateTime) {
+		this.id = id;
+		this.entity = entity;
+		this.updateTime = updateTime;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public E getEntity() {
+		return entity;
+	}
+
+	/**
+	 * @return last update time of the document, to be used as expected update time of the next write.
+	 */
+	public Timestamp getUpdateTime() {
+		return updateTime;
+	}
+}
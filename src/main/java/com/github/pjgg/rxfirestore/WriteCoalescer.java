@@ -0,0 +1,312 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import com.google.cloud.firestore.WriteBatch;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+import io.reactivex.subjects.CompletableSubject;
+import io.reactivex.subjects.SingleSubject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * WriteCoalescer gathers single writes that arrive within a small window (time or size) and commits them together in
+ * one WriteBatch. The result of the commit is fanned out to every caller.
+ * <p>
+ * A document is never written twice in the same batch: a second write to a pending document flushes the current batch
+ * first, and the next batch is not committed until the previous one ends, so writes keep their order. If a batch
+ * fails, its writes are committed one by one, so only the failing write reports the error.
+ */
+public class WriteCoalescer {
+
+	private final long windowMs;
+	private final int maxBatchSize;
+	private final ScheduledExecutorService scheduler;
+	private final Function<List<Write>, Single<Boolean>> committer;
+
+	private List<Write> buffer = new ArrayList<>();
+	private final Set<String> bufferedPaths = new HashSet<>();
+	private Completable barrier = Completable.complete();
+	private ScheduledFuture<?> scheduledFlush;
+	private int committing;
+	private boolean closed;
+	private final CompletableSubject terminated = CompletableSubject.create();
+
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong writes = new AtomicLong();
+	private final AtomicInteger maxObservedBatchSize = new AtomicInteger();
+	private final AtomicLong duplicateFlushes = new AtomicLong();
+	private final AtomicLong fallbacks = new AtomicLong();
+
+	/**
+	 * @param windowMs max time that a write waits for other writes.
+	 * @param maxBatchSize the batch is committed as soon as it reaches this size. Can not be greater than the
+	 * WriteBatch limit.
+	 * @param committer commits a list of writes as one WriteBatch.
+	 */
+	public WriteCoalescer(long windowMs, int maxBatchSize, ScheduledExecutorService scheduler,
+		Function<List<Write>, Single<Boolean>> committer) {
+		if (windowMs < 1) {
+			throw new IllegalArgumentException("windowMs must be greater than zero");
+		}
+
+		if (maxBatchSize < 1 || maxBatchSize > FirestoreTemplate.MAX_BATCH_SIZE) {
+			throw new IllegalArgumentException(
+				"maxBatchSize must be between 1 and " + FirestoreTemplate.MAX_BATCH_SIZE);
+		}
+
+		this.windowMs = windowMs;
+		this.maxBatchSize = maxBatchSize;
+		this.scheduler = scheduler;
+		this.committer = committer;
+	}
+
+	/**
+	 * Queue a write.
+	 *
+	 * @param path document path, used to detect two writes to the same document.
+	 * @param operation adds the write to the batch.
+	 * @return Single that ends when the batch that contains the write is committed.
+	 */
+	public Single<Boolean> submit(String path, Consumer<WriteBatch> operation) {
+		return Single.defer(() -> {
+			Write write = new Write(path, operation);
+			enqueue(write);
+			return write.result;
+		});
+	}
+
+	/**
+	 * Commit the pending writes now.
+	 */
+	public void flush() {
+		Batch batch;
+		synchronized (this) {
+			batch = drain();
+		}
+
+		commit(batch);
+	}
+
+	/**
+	 * Commit the pending writes and reject new ones. The scheduler is not shut down, it belongs to the caller.
+	 *
+	 * @return Completable that ends once every batch has its result.
+	 */
+	public Completable close() {
+		Batch batch;
+		synchronized (this) {
+			closed = true;
+			batch = drain();
+		}
+
+		commit(batch);
+
+		synchronized (this) {
+			if (committing == 0) {
+				terminated.onComplete();
+			}
+		}
+		return terminated;
+	}
+
+	public long getWindowMs() {
+		return windowMs;
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	public long getBatches() {
+		return batches.get();
+	}
+
+	public long getWrites() {
+		return writes.get();
+	}
+
+	/**
+	 * Achieved batch size, writes per commit.
+	 */
+	public double getAverageBatchSize() {
+		long committedBatches = batches.get();
+		return committedBatches == 0 ? 0 : (double) writes.get() / committedBatches;
+	}
+
+	public int getMaxObservedBatchSize() {
+		return maxObservedBatchSize.get();
+	}
+
+	/**
+	 * Amount of batches that were flushed early because the same document was written twice.
+	 */
+	public long getDuplicateFlushes() {
+		return duplicateFlushes.get();
+	}
+
+	/**
+	 * Amount of failed batches whose writes were committed one by one.
+	 */
+	public long getFallbacks() {
+		return fallbacks.get();
+	}
+
+	private void enqueue(Write write) {
+		Batch full = null;
+		boolean accepted;
+		synchronized (this) {
+			accepted = !closed;
+			if (accepted) {
+				if (bufferedPaths.contains(write.path)) {
+					duplicateFlushes.incrementAndGet();
+					barrier = commit(drain());
+				}
+
+				buffer.add(write);
+				bufferedPaths.add(write.path);
+
+				if (buffer.size() >= maxBatchSize) {
+					full = drain();
+				} else if (buffer.size() == 1) {
+					scheduledFlush = scheduler.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+				}
+			}
+		}
+
+		if (!accepted) {
+			write.result.onError(new IllegalStateException("WriteCoalescer is closed"));
+		}
+		commit(full);
+	}
+
+	/**
+	 * Take the buffered writes. Must be called holding the lock.
+	 */
+	private Batch drain() {
+		if (scheduledFlush != null) {
+			scheduledFlush.cancel(false);
+			scheduledFlush = null;
+		}
+
+		if (buffer.isEmpty()) {
+			return null;
+		}
+
+		final Batch batch = new Batch(buffer, barrier);
+		buffer = new ArrayList<>();
+		bufferedPaths.clear();
+		barrier = Completable.complete();
+		return batch;
+	}
+
+	/**
+	 * @return Completable that ends (never with error) once every write of the batch has its result.
+	 */
+	private Completable commit(Batch batch) {
+		if (batch == null) {
+			return Completable.complete();
+		}
+
+		synchronized (this) {
+			committing++;
+		}
+		batches.incrementAndGet();
+		writes.addAndGet(batch.writes.size());
+		maxObservedBatchSize.accumulateAndGet(batch.writes.size(), Math::max);
+
+		Completable done = batch.barrier
+			.andThen(Single.defer(() -> committer.apply(batch.writes)))
+			.doOnSuccess(committed -> batch.writes.forEach(write -> write.result.onSuccess(committed)))
+			.ignoreElement()
+			.onErrorResumeNext(err -> fallback(batch.writes, err))
+			.doFinally(this::committed)
+			.cache();
+
+		done.subscribe();
+		return done;
+	}
+
+	private synchronized void committed() {
+		committing--;
+		if (closed && committing == 0) {
+			terminated.onComplete();
+		}
+	}
+
+	private Completable fallback(List<Write> failed, Throwable err) {
+		if (failed.size() == 1) {
+			failed.get(0).result.onError(err);
+			return Completable.complete();
+		}
+
+		fallbacks.incrementAndGet();
+		return Flowable.fromIterable(failed)
+			.concatMapCompletable(write -> committer.apply(Collections.singletonList(write))
+				.doOnSuccess(write.result::onSuccess)
+				.doOnError(write.result::onError)
+				.ignoreElement()
+				.onErrorComplete());
+	}
+
+	/**
+	 * A single write waiting to be committed.
+	 */
+	public static final class Write {
+
+		private final String path;
+		private final Consumer<WriteBatch> operation;
+		private final SingleSubject<Boolean> result = SingleSubject.create();
+
+		Write(String path, Consumer<WriteBatch> operation) {
+			this.path = path;
+			this.operation = operation;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public Consumer<WriteBatch> getOperation() {
+			return operation;
+		}
+	}
+
+	private static final class Batch {
+
+		private final List<Write> writes;
+		private final Completable barrier;
+
+		Batch(List<Write> writes, Completable barrier) {
+			this.writes = writes;
+			this.barrier = barrier;
+		}
+	}
+}
@@ -0,0 +1,13 @@
+package com.github.pjgg.rxfirestore.exceptions;
+
+/**
+ * The document was changed (or deleted) since the expected update time, see RxFirestoreSdk.update with precondition.
+ */
+public class PreconditionFailedExceptions extends RxFirestoreExceptions {
+
+	public static final int PRECONDITION_FAILED_CODE = 3;
+
+	public PreconditionFailedExceptions(String msg) {
+		super(PRECONDITION_FAILED_CODE, msg);
+	}
+}
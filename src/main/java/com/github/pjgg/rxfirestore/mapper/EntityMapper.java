@@ -0,0 +1,43 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore.mapper;
+
+import com.github.pjgg.rxfirestore.Entity;
+import com.google.cloud.firestore.DocumentSnapshot;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps an entity to and from Firestore documents. Implementations are generated for entities annotated with
+ * FirestoreEntity.
+ */
+public interface EntityMapper<E extends Entity> {
+
+	HashMap<String, Object> toMap(E entity);
+
+	/**
+	 * Populate the entity with the given document. Fields that are not present in the document are left untouched.
+	 */
+	E fromMap(Map<String, Object> document, E entity);
+
+	/**
+	 * Populate the entity straight from the snapshot, without materializing the document as a map. Fields that are
+	 * not present in the snapshot are left untouched.
+	 */
+	E fromSnapshot(DocumentSnapshot snapshot, E entity);
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore.mapper;
+
+import com.github.pjgg.rxfirestore.Entity;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of generated mappers. Each entity class is resolved once and cached.
+ */
+public final class EntityMappers {
+
+	public static final String MAPPER_SUFFIX = "_FirestoreMapper";
+
+	private static final Map<Class<?>, Optional<EntityMapper<?>>> MAPPERS = new ConcurrentHashMap<>();
+
+	private EntityMappers() {
+	}
+
+	public static <E extends Entity> Optional<EntityMapper<E>> lookup(Class<E> entityClass) {
+		Optional<EntityMapper<?>> mapper = MAPPERS.computeIfAbsent(entityClass, EntityMappers::load);
+		return mapper.map(found -> (EntityMapper<E>) found);
+	}
+
+	public static String mapperName(String entityBinaryName) {
+		int packageEnd = entityBinaryName.lastIndexOf('.');
+		return entityBinaryName.substring(0, packageEnd + 1)
+				+ entityBinaryName.substring(packageEnd + 1).replace('$', '_')
+				+ MAPPER_SUFFIX;
+	}
+
+	private static Optional<EntityMapper<?>> load(Class<?> entityClass) {
+		try {
+			Class<?> mapperClass = Class.forName(mapperName(entityClass.getName()), true, entityClass.getClassLoader());
+			return Optional.of((EntityMapper<?>) mapperClass.getDeclaredConstructor().newInstance());
+		} catch (ClassNotFoundException e) {
+			return Optional.empty();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Unable to instantiate mapper of " + entityClass.getName(), e);
+		}
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore.mapper;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Entities annotated with FirestoreEntity get an EntityMapper generated at compile time (a class named
+ * {@code <EntityName>_FirestoreMapper} in the same package). The mapper writes the entity fields straight into the map
+ * that Firestore expects and populates the entity from a DocumentSnapshot, with no JSON and no reflection.
+ * <p>
+ * Fields are read and written through their getters and setters. Jackson {@code @JsonProperty} names and
+ * {@code @JsonIgnore} are honored.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface FirestoreEntity {
+}
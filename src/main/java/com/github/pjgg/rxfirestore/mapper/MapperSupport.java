@@ -0,0 +1,63 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore.mapper;
+
+import com.google.cloud.Timestamp;
+import java.util.Date;
+
+/**
+ * Value conversions used by generated mappers. Firestore returns every integer as Long and every decimal as Double,
+ * and dates either as Timestamp or Date.
+ */
+public final class MapperSupport {
+
+	private MapperSupport() {
+	}
+
+	public static Integer toInteger(Object value) {
+		return value instanceof Integer ? (Integer) value : ((Number) value).intValue();
+	}
+
+	public static Long toLong(Object value) {
+		return value instanceof Long ? (Long) value : ((Number) value).longValue();
+	}
+
+	public static Short toShort(Object value) {
+		return value instanceof Short ? (Short) value : ((Number) value).shortValue();
+	}
+
+	public static Double toDouble(Object value) {
+		return value instanceof Double ? (Double) value : ((Number) value).doubleValue();
+	}
+
+	public static Float toFloat(Object value) {
+		return value instanceof Float ? (Float) value : ((Number) value).floatValue();
+	}
+
+	public static Date toDate(Object value) {
+		return value instanceof Timestamp ? ((Timestamp) value).toDate() : (Date) value;
+	}
+
+	public static Timestamp toTimestamp(Object value) {
+		return value instanceof Date ? Timestamp.of((Date) value) : (Timestamp) value;
+	}
+
+	public static <T extends Enum<T>> T toEnum(Class<T> type, Object value) {
+		return Enum.valueOf(type, (String) value);
+	}
+}
@@ -0,0 +1,500 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore.mapper.processor;
+
+import com.github.pjgg.rxfirestore.mapper.EntityMappers;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generate an EntityMapper for every class annotated with FirestoreEntity.
+ */
+public class EntityMapperProcessor extends AbstractProcessor {
+
+	private static final String ENTITY = "com.github.pjgg.rxfirestore.Entity";
+	private static final String FIRESTORE_ENTITY = "com.github.pjgg.rxfirestore.mapper.FirestoreEntity";
+	private static final String DOCUMENT_ID = "com.github.pjgg.rxfirestore.mapper.DocumentId";
+	private static final String EVENT_TYPE = "com.github.pjgg.rxfirestore.mapper.EventType";
+	private static final String JSON_PROPERTY = "com.fasterxml.jackson.annotation.JsonProperty";
+	private static final String JSON_IGNORE = "com.fasterxml.jackson.annotation.JsonIgnore";
+	private static final String JSON_FORMAT = "com.fasterxml.jackson.annotation.JsonFormat";
+	private static final String MAPPER_SUPPORT = "com.github.pjgg.rxfirestore.mapper.MapperSupport";
+
+	/**
+	 * Types of the values that Firestore returns, that can be cast straight away, also inside lists and maps.
+	 */
+	private static final Set<String> FIRESTORE_TYPES = new HashSet<>(Arrays.asList("java.lang.Object",
+		"java.lang.String", "java.lang.Boolean", "java.lang.Long", "java.lang.Double", "java.lang.Number",
+		"com.google.cloud.Timestamp", "com.google.cloud.firestore.GeoPoint", "com.google.cloud.firestore.Blob",
+		"com.google.cloud.firestore.DocumentReference"));
+
+	/**
+	 * Types that are converted from the Firestore ones by MapperSupport, only as field types.
+	 */
+	private static final Set<String> CONVERTED_TYPES = new HashSet<>(Arrays.asList("java.lang.Integer",
+		"java.lang.Short", "java.lang.Float", "java.util.Date"));
+
+	@Override
+	public Set<String> getSupportedAnnotationTypes() {
+		return Collections.singleton(FIRESTORE_ENTITY);
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		TypeElement annotation = processingEnv.getElementUtils().getTypeElement(FIRESTORE_ENTITY);
+		if (annotation == null) {
+			return false;
+		}
+
+		for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+			if (isValidEntity(element)) {
+				generate((TypeElement) element);
+			}
+		}
+
+		return true;
+	}
+
+	private boolean isValidEntity(Element element) {
+		TypeElement entityType = processingEnv.getElementUtils().getTypeElement(ENTITY);
+		String error = null;
+		if (element.getKind() != ElementKind.CLASS) {
+			error = "@FirestoreEntity must annotate a class";
+		} else if (element.getModifiers().contains(Modifier.ABSTRACT)) {
+			error = "@FirestoreEntity class must not be abstract";
+		} else if (element.getModifiers().contains(Modifier.PRIVATE)) {
+			error = "@FirestoreEntity class must not be private";
+		} else if (((TypeElement) element).getNestingKind() == NestingKind.MEMBER
+			&& !element.getModifiers().contains(Modifier.STATIC)) {
+			error = "@FirestoreEntity nested class must be static";
+		} else if (!((TypeElement) element).getTypeParameters().isEmpty()) {
+			error = "@FirestoreEntity class must not be generic";
+		} else if (!processingEnv.getTypeUtils().isAssignable(element.asType(), entityType.asType())) {
+			error = "@FirestoreEntity class must implement " + ENTITY;
+		}
+
+		if (error != null) {
+			processingEnv.getMessager().printMessage(Kind.ERROR, error, element);
+			return false;
+		}
+
+		return true;
+	}
+
+	private void generate(TypeElement entity) {
+		PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(entity);
+		String packageName = packageElement.getQualifiedName().toString();
+		String mapperName = EntityMappers.mapperName(processingEnv.getElementUtils().getBinaryName(entity).toString());
+		String mapperSimpleName = mapperName.substring(mapperName.lastIndexOf('.') + 1);
+		String entityName = entity.getQualifiedName().toString();
+
+		Property documentId = null;
+		Property eventType = null;
+		List<Property> properties = new ArrayList<>();
+		for (Property property : collectProperties(entity, packageElement)) {
+			if (property.hasAnnotation(DOCUMENT_ID)) {
+				documentId = property;
+			} else if (property.hasAnnotation(EVENT_TYPE)) {
+				eventType = property;
+			} else {
+				properties.add(property);
+			}
+		}
+
+		try {
+			JavaFileObject file = processingEnv.getFiler().createSourceFile(mapperName, entity);
+			try (PrintWriter out = new PrintWriter(file.openWriter())) {
+				if (!packageName.isEmpty()) {
+					out.println("package " + packageName + ";");
+					out.println();
+				}
+
+				out.println("/**");
+				out.println(" * Generated by " + EntityMapperProcessor.class.getName() + ". Do not edit.");
+				out.println(" */");
+				out.println("@SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+				out.println("public final class " + mapperSimpleName
+					+ " implements com.github.pjgg.rxfirestore.mapper.EntityMapper<" + entityName + "> {");
+				out.println();
+
+				for (int i = 0; i < properties.size(); i++) {
+					out.println("\tprivate static final com.google.cloud.firestore.FieldPath PATH_" + i
+						+ " = com.google.cloud.firestore.FieldPath.of(\"" + escape(properties.get(i).name) + "\");");
+				}
+				out.println();
+
+				out.println("\t@Override");
+				out.println("\tpublic java.util.HashMap<String, Object> toMap(" + entityName + " entity) {");
+				out.println("\t\tjava.util.HashMap<String, Object> document = new java.util.HashMap<>("
+					+ capacity(properties.size()) + ");");
+				for (Property property : properties) {
+					if (property.getter != null) {
+						out.println("\t\tdocument.put(\"" + escape(property.name) + "\", " + property.write() + ");");
+					}
+				}
+				out.println("\t\treturn document;");
+				out.println("\t}");
+				out.println();
+
+				out.println("\t@Override");
+				out.println("\tpublic " + entityName + " fromMap(java.util.Map<String, Object> document, "
+					+ entityName + " entity) {");
+				out.println("\t\tObject value;");
+				writeRead(out, documentId, "document.get(\"_id\")");
+				writeRead(out, eventType, "document.get(\"_eventType\")");
+				for (Property property : properties) {
+					writeRead(out, property, "document.get(\"" + escape(property.name) + "\")");
+				}
+				out.println("\t\treturn entity;");
+				out.println("\t}");
+				out.println();
+
+				out.println("\t@Override");
+				out.println("\tpublic " + entityName + " fromSnapshot("
+					+ "com.google.cloud.firestore.DocumentSnapshot snapshot, " + entityName + " entity) {");
+				out.println("\t\tObject value;");
+				writeRead(out, documentId, "snapshot.getId()");
+				for (int i = 0; i < properties.size(); i++) {
+					writeRead(out, properties.get(i), "snapshot.get(PATH_" + i + ")");
+				}
+				out.println("\t\treturn entity;");
+				out.println("\t}");
+				out.println("}");
+			}
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Kind.ERROR, "Unable to write " + mapperName + ": " + e, entity);
+		}
+	}
+
+	private void writeRead(PrintWriter out, Property property, String source) {
+		if (property == null || property.setter == null) {
+			return;
+		}
+
+		out.println("\t\tvalue = " + source + ";");
+		out.println("\t\tif (value != null) {");
+		out.println("\t\t\t" + property.read("value") + ";");
+		out.println("\t\t}");
+	}
+
+	private List<Property> collectProperties(TypeElement entity, PackageElement packageElement) {
+		List<TypeElement> hierarchy = new ArrayList<>();
+		TypeElement current = entity;
+		while (current != null && !current.getQualifiedName().contentEquals("java.lang.Object")) {
+			hierarchy.add(0, current);
+			TypeMirror superclass = current.getSuperclass();
+			current = superclass.getKind() == TypeKind.DECLARED
+				? (TypeElement) ((DeclaredType) superclass).asElement()
+				: null;
+		}
+
+		List<ExecutableElement> methods = ElementFilter
+			.methodsIn(processingEnv.getElementUtils().getAllMembers(entity));
+		Map<String, Property> properties = new LinkedHashMap<>();
+		for (TypeElement type : hierarchy) {
+			for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+				Set<Modifier> modifiers = field.getModifiers();
+				if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+					continue;
+				}
+
+				Property property = new Property(field);
+				property.getter = findGetter(methods, field);
+				property.setter = findSetter(methods, field);
+				if (isDirectlyAccessible(field, packageElement)) {
+					property.getter = Optional.ofNullable(property.getter).orElse(field.getSimpleName().toString());
+					property.setter = Optional.ofNullable(property.setter).orElse(field.getSimpleName() + " = ");
+				}
+
+				if (property.isIgnored()) {
+					continue;
+				}
+
+				String error = property.unsupported();
+				if (error != null) {
+					processingEnv.getMessager().printMessage(Kind.ERROR, error, field);
+					continue;
+				}
+
+				property.name = property.jsonName().orElse(field.getSimpleName().toString());
+				properties.put(property.name, property);
+			}
+		}
+
+		return new ArrayList<>(properties.values());
+	}
+
+	private boolean isDirectlyAccessible(VariableElement field, PackageElement packageElement) {
+		if (field.getModifiers().contains(Modifier.PUBLIC)) {
+			return true;
+		}
+
+		return !field.getModifiers().contains(Modifier.PRIVATE)
+			&& processingEnv.getElementUtils().getPackageOf(field).equals(packageElement);
+	}
+
+	private String findGetter(List<ExecutableElement> methods, VariableElement field) {
+		String suffix = capitalize(field.getSimpleName().toString());
+		for (ExecutableElement method : methods) {
+			String name = method.getSimpleName().toString();
+			boolean nameMatches = name.equals("get" + suffix)
+				|| (name.equals("is" + suffix) && field.asType().getKind() == TypeKind.BOOLEAN);
+			if (nameMatches && isPublicInstance(method) && method.getParameters().isEmpty()
+				&& processingEnv.getTypeUtils().isSameType(method.getReturnType(), field.asType())) {
+				return name + "()";
+			}
+		}
+
+		return null;
+	}
+
+	private String findSetter(List<ExecutableElement> methods, VariableElement field) {
+		String setterName = "set" + capitalize(field.getSimpleName().toString());
+		for (ExecutableElement method : methods) {
+			if (method.getSimpleName().contentEquals(setterName) && isPublicInstance(method)
+				&& method.getParameters().size() == 1
+				&& processingEnv.getTypeUtils().isSameType(method.getParameters().get(0).asType(), field.asType())) {
+				return setterName + "(";
+			}
+		}
+
+		return null;
+	}
+
+	private static boolean isPublicInstance(ExecutableElement method) {
+		return method.getModifiers().contains(Modifier.PUBLIC) && !method.getModifiers().contains(Modifier.STATIC);
+	}
+
+	private static String capitalize(String name) {
+		return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+	private static int capacity(int size) {
+		return Math.max(16, (int) (size / 0.75f) + 1);
+	}
+
+	private static Optional<AnnotationMirror> annotation(Element element, String annotationName) {
+		if (element == null) {
+			return Optional.empty();
+		}
+
+		for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+			TypeElement annotationType = (TypeElement) mirror.getAnnotationType().asElement();
+			if (annotationType.getQualifiedName().contentEquals(annotationName)) {
+				return Optional.of(mirror);
+			}
+		}
+
+		return Optional.empty();
+	}
+
+	private final class Property {
+
+		private final VariableElement field;
+		private String name;
+		private String getter;
+		private String setter;
+
+		Property(VariableElement field) {
+			this.field = field;
+		}
+
+		boolean hasAnnotation(String annotationName) {
+			return annotation(field, annotationName).isPresent();
+		}
+
+		boolean isIgnored() {
+			Optional<AnnotationMirror> ignore = annotation(field, JSON_IGNORE);
+			if (!ignore.isPresent()) {
+				return false;
+			}
+
+			for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+				: ignore.get().getElementValues().entrySet()) {
+				if (entry.getKey().getSimpleName().contentEquals("value")) {
+					return Boolean.TRUE.equals(entry.getValue().getValue());
+				}
+			}
+
+			return true;
+		}
+
+		/**
+		 * @return why the field can not be mapped, null if it can.
+		 */
+		String unsupported() {
+			if (getter == null && setter == null) {
+				return "Field has no getter nor setter, make it transient or annotate it with @JsonIgnore in order "
+					+ "not to store it: " + field.getSimpleName();
+			}
+			if (hasAnnotation(JSON_FORMAT)) {
+				return "@JsonFormat is not supported by generated mappers: " + field.getSimpleName();
+			}
+			if ((hasAnnotation(DOCUMENT_ID) || hasAnnotation(EVENT_TYPE))
+				&& !processingEnv.getTypeUtils().erasure(field.asType()).toString().equals("java.lang.String")) {
+				return "@DocumentId and @EventType fields must be String: " + field.getSimpleName();
+			}
+			if (!isSupported(field.asType(), false)) {
+				return "Field type " + field.asType() + " can not be read back from Firestore by generated mappers: "
+					+ field.getSimpleName();
+			}
+
+			return null;
+		}
+
+		/**
+		 * @param nested true for list elements and map values, that are not converted.
+		 */
+		private boolean isSupported(TypeMirror type, boolean nested) {
+			switch (type.getKind()) {
+				case BOOLEAN:
+				case INT:
+				case LONG:
+				case SHORT:
+				case DOUBLE:
+				case FLOAT:
+					return !nested;
+				case WILDCARD:
+					TypeMirror bound = ((WildcardType) type).getExtendsBound();
+					return bound == null || isSupported(bound, true);
+				case DECLARED:
+					break;
+				default:
+					return false;
+			}
+
+			DeclaredType declared = (DeclaredType) type;
+			String typeName = processingEnv.getTypeUtils().erasure(type).toString();
+			List<? extends TypeMirror> arguments = declared.getTypeArguments();
+			switch (typeName) {
+				case "java.util.List":
+					return arguments.isEmpty() || isSupported(arguments.get(0), true);
+				case "java.util.Map":
+					return arguments.isEmpty() || (arguments.get(0).toString().equals("java.lang.String")
+						&& isSupported(arguments.get(1), true));
+				default:
+					return FIRESTORE_TYPES.contains(typeName)
+						|| (!nested && (CONVERTED_TYPES.contains(typeName)
+						|| declared.asElement().getKind() == ElementKind.ENUM));
+			}
+		}
+
+		Optional<String> jsonName() {
+			return annotation(field, JSON_PROPERTY).flatMap(mirror -> {
+				for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+					: mirror.getElementValues().entrySet()) {
+					if (entry.getKey().getSimpleName().contentEquals("value")) {
+						return Optional.of((String) entry.getValue().getValue()).filter(value -> !value.isEmpty());
+					}
+				}
+
+				return Optional.empty();
+			});
+		}
+
+		String write() {
+			String access = "entity." + getter;
+			if (isEnum()) {
+				return access + " == null ? null : " + access + ".name()";
+			}
+
+			return access;
+		}
+
+		String read(String value) {
+			String assignment = "entity." + setter + convert(value);
+			return setter.endsWith("(") ? assignment + ")" : assignment;
+		}
+
+		private boolean isEnum() {
+			TypeMirror type = field.asType();
+			return type.getKind() == TypeKind.DECLARED
+				&& ((DeclaredType) type).asElement().getKind() == ElementKind.ENUM;
+		}
+
+		private String convert(String value) {
+			TypeMirror type = field.asType();
+			if (type.getKind().isPrimitive()) {
+				type = processingEnv.getTypeUtils().boxedClass((PrimitiveType) type).asType();
+			}
+
+			String typeName = processingEnv.getTypeUtils().erasure(type).toString();
+			switch (typeName) {
+				case "java.lang.Integer":
+					return MAPPER_SUPPORT + ".toInteger(" + value + ")";
+				case "java.lang.Long":
+					return MAPPER_SUPPORT + ".toLong(" + value + ")";
+				case "java.lang.Short":
+					return MAPPER_SUPPORT + ".toShort(" + value + ")";
+				case "java.lang.Double":
+					return MAPPER_SUPPORT + ".toDouble(" + value + ")";
+				case "java.lang.Float":
+					return MAPPER_SUPPORT + ".toFloat(" + value + ")";
+				case "java.util.Date":
+					return MAPPER_SUPPORT + ".toDate(" + value + ")";
+				case "com.google.cloud.Timestamp":
+					return MAPPER_SUPPORT + ".toTimestamp(" + value + ")";
+				default:
+					if (isEnum()) {
+						return MAPPER_SUPPORT + ".toEnum(" + typeName + ".class, " + value + ")";
+					}
+
+					return "(" + typeName + ") " + value;
+			}
+		}
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.cloud.Timestamp;
+import java.util.Date;
+import org.junit.Test;
+
+public class AggregateTest {
+
+	@Test
+	public void should_aggregate_numbers() {
+		Aggregate aggregate = new Aggregate();
+		aggregate.accept(3);
+		aggregate.accept(4.5);
+		aggregate.accept(null);
+		aggregate.accept(1L);
+
+		assertThat(aggregate.getCount()).isEqualTo(4);
+		assertThat(aggregate.getSum()).isEqualTo(8.5);
+		assertThat(aggregate.getAverage()).isEqualTo(8.5 / 3);
+		assertThat(aggregate.getMin()).isEqualTo(1L);
+		assertThat(aggregate.getMax()).isEqualTo(4.5);
+	}
+
+	@Test
+	public void should_order_min_and_max_as_firestore() {
+		Aggregate aggregate = new Aggregate();
+		aggregate.accept("Toyota");
+		aggregate.accept(new Date(0));
+		aggregate.accept(2019);
+
+		assertThat(aggregate.getMin()).isEqualTo(2019L);
+		assertThat(aggregate.getMax()).isEqualTo("Toyota");
+		assertThat(aggregate.getSum()).isEqualTo(2019);
+	}
+
+	@Test
+	public void should_merge_partitions() {
+		Aggregate first = new Aggregate();
+		first.accept(Timestamp.ofTimeSecondsAndNanos(10, 0));
+		Aggregate second = new Aggregate();
+		second.accept(Timestamp.ofTimeSecondsAndNanos(5, 0));
+		Aggregate empty = new Aggregate();
+
+		Aggregate merged = new Aggregate().merge(first).merge(second).merge(empty);
+
+		assertThat(merged.getCount()).isEqualTo(2);
+		assertThat(merged.getMin()).isEqualTo(Timestamp.ofTimeSecondsAndNanos(5, 0));
+		assertThat(merged.getMax()).isEqualTo(Timestamp.ofTimeSecondsAndNanos(10, 0));
+		assertThat(merged.getAverage()).isNaN();
+	}
+}
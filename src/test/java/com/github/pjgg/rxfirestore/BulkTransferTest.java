@@ -0,0 +1,185 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.Blob;
+import com.google.cloud.firestore.GeoPoint;
+import io.reactivex.Single;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BulkTransferTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final TreeMap<String, Map<String, Object>> collection = new TreeMap<>();
+	private final Map<String, Map<String, Object>> imported = new HashMap<>();
+	private final AtomicBoolean failing = new AtomicBoolean();
+
+	@Test
+	public void should_export_and_import_every_document() throws IOException {
+		fill(25);
+		Path file = folder.getRoot().toPath().resolve("cars.ndjson");
+
+		TransferResult exported = transfer().exportTo(new Query(Vehicle.CARS_COLLECTION_NAME), file, false)
+			.blockingGet();
+		TransferResult loaded = transfer().importFrom(file, Vehicle.CARS_COLLECTION_NAME, 3).blockingGet();
+
+		assertThat(exported.getDocuments()).isEqualTo(25);
+		assertThat(Files.readAllLines(file)).hasSize(25);
+		assertThat(loaded.getDocuments()).isEqualTo(25);
+		assertThat(imported).isEqualTo(withoutIds());
+		assertThat(BulkTransfer.checkpointOf(file)).doesNotExist();
+	}
+
+	@Test
+	public void should_resume_export_from_checkpoint() throws IOException {
+		fill(25);
+		Path file = folder.getRoot().toPath().resolve("cars.ndjson.gz");
+		failing.set(true);
+
+		transfer().exportTo(new Query(Vehicle.CARS_COLLECTION_NAME), file, true).test()
+			.awaitDone(5, TimeUnit.SECONDS)
+			.assertError(IllegalStateException.class);
+
+		assertThat(BulkTransfer.checkpointOf(file)).exists();
+
+		failing.set(false);
+		TransferResult exported = transfer().exportTo(new Query(Vehicle.CARS_COLLECTION_NAME), file, true)
+			.blockingGet();
+
+		assertThat(exported.getResumed()).isEqualTo(20);
+		assertThat(exported.getDocuments()).isEqualTo(5);
+		assertThat(gunzip(file)).hasSize(25).doesNotHaveDuplicates();
+
+		transfer().importFrom(file, Vehicle.CARS_COLLECTION_NAME, 2).blockingGet();
+		assertThat(imported).isEqualTo(withoutIds());
+	}
+
+	@Test
+	public void should_keep_checkpoint_of_failed_imports() throws IOException {
+		fill(5);
+		Path file = folder.getRoot().toPath().resolve("cars.ndjson");
+		transfer().exportTo(new Query(Vehicle.CARS_COLLECTION_NAME), file, false).blockingGet();
+		failing.set(true);
+
+		TransferResult failed = transfer().importFrom(file, Vehicle.CARS_COLLECTION_NAME, 2).blockingGet();
+
+		assertThat(failed.getFailed()).isEqualTo(5);
+		assertThat(BulkTransfer.checkpointOf(file)).exists();
+
+		failing.set(false);
+		TransferResult loaded = transfer().importFrom(file, Vehicle.CARS_COLLECTION_NAME, 2).blockingGet();
+
+		assertThat(loaded.getDocuments()).isEqualTo(5);
+		assertThat(imported).isEqualTo(withoutIds());
+	}
+
+	private BulkTransfer transfer() {
+		return new BulkTransfer(this::fetch, this::upsert, path -> null, 5, 10);
+	}
+
+	/**
+	 * Fake Firestore: documents ordered by ID, the page after the 20th document fails while failing.
+	 */
+	private Single<List<Map<String, Object>>> fetch(Query page) {
+		String after = page.getStartAfter().isEmpty() ? null : (String) page.getStartAfter().get(0);
+		List<Map<String, Object>> documents = (after == null ? collection : collection.tailMap(after, false))
+			.values().stream()
+			.limit(page.getLimit())
+			.map(HashMap::new)
+			.collect(Collectors.toList());
+
+		if (failing.get() && after != null && after.compareTo(String.format("car-%02d", 20)) >= 0) {
+			return Single.error(new IllegalStateException("boom"));
+		}
+		return Single.just(documents);
+	}
+
+	private Single<Map<String, Boolean>> upsert(Map<String, Map<String, Object>> documents, String collectionName) {
+		Map<String, Boolean> results = new HashMap<>();
+		documents.forEach((id, document) -> {
+			if (!failing.get()) {
+				imported.put(id, document);
+			}
+			results.put(id, !failing.get());
+		});
+		return Single.just(results);
+	}
+
+	private void fill(int size) {
+		for (int i = 0; i < size; i++) {
+			Map<String, Object> car = new HashMap<>();
+			car.put("_id", String.format("car-%02d", i));
+			car.put(Vehicle.BRAND, "Toyota");
+			car.put("year", 2000L + i);
+			car.put("price", 9999.5);
+			car.put("registered", Timestamp.ofTimeSecondsAndNanos(1_500_000_000L + i, 123));
+			car.put("garage", new GeoPoint(40.4, -3.7));
+			car.put("key", Blob.fromBytes(new byte[] {1, 2, (byte) i}));
+			car.put("colors", Arrays.asList("red", null, true));
+			Map<String, Object> engine = new HashMap<>();
+			engine.put("power", 110L);
+			car.put("engine", engine);
+			collection.put((String) car.get("_id"), car);
+		}
+	}
+
+	private Map<String, Map<String, Object>> withoutIds() {
+		Map<String, Map<String, Object>> documents = new HashMap<>();
+		collection.forEach((id, document) -> {
+			Map<String, Object> copy = new HashMap<>(document);
+			copy.remove("_id");
+			documents.put(id, copy);
+		});
+		return documents;
+	}
+
+	private static List<String> gunzip(Path file) throws IOException {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+			new GZIPInputStream(new FileInputStream(file.toFile())), StandardCharsets.UTF_8))) {
+			List<String> lines = new ArrayList<>();
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				lines.add(line);
+			}
+			return lines;
+		}
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.cloud.firestore.DocumentChange;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CollectionReplicaTest {
+
+	private final AtomicLong now = new AtomicLong();
+	private CollectionReplica replica;
+
+	@Before
+	public void setup() {
+		replica = new CollectionReplica(new Query(Vehicle.CARS_COLLECTION_NAME), now::get);
+		replica.apply(DocumentChange.Type.ADDED, "1", car("Toyota", 1998, "red", "blue"));
+		replica.apply(DocumentChange.Type.ADDED, "2", car("Seat", 2005, "red"));
+		replica.apply(DocumentChange.Type.ADDED, "3", car("Toyota", 2012, "white"));
+		replica.snapshotApplied();
+	}
+
+	@Test
+	public void should_answer_equal_to_from_hash_index() {
+		Query query = new Query(Vehicle.CARS_COLLECTION_NAME).whereEqualTo(Vehicle.BRAND, "Toyota");
+
+		assertThat(ids(replica.get(query))).containsExactly("1", "3");
+	}
+
+	@Test
+	public void should_answer_ranges_ordered_by_field() {
+		Query query = new Query(Vehicle.CARS_COLLECTION_NAME)
+			.whereGreaterThan("year", 1998)
+			.whereLessThan("year", 3000L);
+
+		assertThat(ids(replica.get(query))).containsExactly("2", "3");
+		assertThat(ids(replica.get(new Query(Vehicle.CARS_COLLECTION_NAME).whereLessThan("year", 2005.0))))
+			.containsExactly("1");
+		assertThat(replica.get(new Query(Vehicle.CARS_COLLECTION_NAME).whereGreaterThan("year", "1998"))).isEmpty();
+	}
+
+	@Test
+	public void should_answer_array_contains_from_inverted_index() {
+		Query query = new Query(Vehicle.CARS_COLLECTION_NAME)
+			.whereArrayContains("colors", "red")
+			.whereEqualTo(Vehicle.BRAND, "Seat");
+
+		assertThat(ids(replica.get(query))).containsExactly("2");
+	}
+
+	@Test
+	public void should_not_share_nested_values_with_readers() {
+		Query query = new Query(Vehicle.CARS_COLLECTION_NAME).whereEqualTo(Vehicle.BRAND, "Seat");
+
+		((List<Object>) replica.get(query).get(0).get("colors")).add("black");
+
+		assertThat(replica.get(new Query(Vehicle.CARS_COLLECTION_NAME).whereArrayContains("colors", "black")))
+			.isEmpty();
+		assertThat((List<Object>) replica.get(query).get(0).get("colors")).containsExactly("red");
+	}
+
+	@Test
+	public void should_apply_modifications_and_removals() {
+		replica.apply(DocumentChange.Type.MODIFIED, "1", car("Seat", 1998, "green"));
+		replica.apply(DocumentChange.Type.REMOVED, "2", car("Seat", 2005, "red"));
+		replica.snapshotApplied();
+
+		assertThat(ids(replica.get(new Query(Vehicle.CARS_COLLECTION_NAME).whereEqualTo(Vehicle.BRAND, "Seat"))))
+			.containsExactly("1");
+		assertThat(replica.get(new Query(Vehicle.CARS_COLLECTION_NAME).whereArrayContains("colors", "red"))).isEmpty();
+		assertThat(replica.getSize()).isEqualTo(2);
+	}
+
+	@Test
+	public void should_apply_limit_and_offset() {
+		Query query = new Query(Vehicle.CARS_COLLECTION_NAME).withOffset(1).withLimit(1);
+
+		assertThat(ids(replica.get(query))).containsExactly("2");
+	}
+
+	@Test
+	public void should_apply_default_limit_as_server() {
+		for (int i = 4; i < 30; i++) {
+			replica.apply(DocumentChange.Type.ADDED, String.valueOf(i), car("Toyota", 2000 + i));
+		}
+
+		assertThat(replica.get(new Query(Vehicle.CARS_COLLECTION_NAME))).hasSize(FirestoreTemplate.DEFAULT_QUERY_LIMIT);
+		assertThat(replica.get(new Query(Vehicle.CARS_COLLECTION_NAME).withLimit(25))).hasSize(25);
+	}
+
+	@Test
+	public void should_filter_nested_fields() {
+		Map<String, Object> car = car("Tesla", 2019);
+		Map<String, Object> engine = new HashMap<>();
+		engine.put("power", 450L);
+		car.put("engine", engine);
+		replica.apply(DocumentChange.Type.ADDED, "4", car);
+
+		assertThat(ids(replica.get(new Query(Vehicle.CARS_COLLECTION_NAME).whereGreaterThan("engine.power", 300))))
+			.containsExactly("4");
+	}
+
+	@Test
+	public void should_project_selected_fields() {
+		Map<String, Object> car = car("Tesla", 2019);
+		Map<String, Object> engine = new HashMap<>();
+		engine.put("power", 450L);
+		engine.put("cells", 7000L);
+		car.put("engine", engine);
+		replica.apply(DocumentChange.Type.ADDED, "4", car);
+
+		List<Map<String, Object>> documents = replica.get(new Query(Vehicle.CARS_COLLECTION_NAME)
+			.whereEqualTo(Vehicle.BRAND, "Tesla")
+			.select("year", "engine.power"));
+
+		assertThat(documents).hasSize(1);
+		assertThat(documents.get(0)).containsOnlyKeys("_id", "year", "engine");
+		assertThat((Map<String, Object>) documents.get(0).get("engine")).containsOnlyKeys("power");
+	}
+
+	@Test
+	public void should_only_answer_covered_queries() {
+		CollectionReplica toyotas = new CollectionReplica(
+			new Query(Vehicle.CARS_COLLECTION_NAME).whereEqualTo(Vehicle.BRAND, "Toyota"), now::get);
+		Query query = new Query(Vehicle.CARS_COLLECTION_NAME).whereEqualTo(Vehicle.BRAND, "Toyota");
+
+		assertThat(toyotas.canAnswer(query)).isFalse();
+
+		toyotas.snapshotApplied();
+
+		assertThat(toyotas.canAnswer(query)).isTrue();
+		assertThat(toyotas.canAnswer(new Query(Vehicle.CARS_COLLECTION_NAME))).isFalse();
+		assertThat(toyotas.canAnswer(new Query("bikes").whereEqualTo(Vehicle.BRAND, "Toyota"))).isFalse();
+
+		toyotas.close();
+
+		assertThat(toyotas.canAnswer(query)).isFalse();
+	}
+
+	@Test
+	public void should_report_staleness() {
+		now.set(250_000_000);
+
+		assertThat(replica.getStalenessMs()).isEqualTo(250);
+		assertThat(replica.getSnapshots()).isEqualTo(1);
+		assertThat(replica.getEstimatedBytes()).isPositive();
+	}
+
+	private static Map<String, Object> car(String brand, long year, String... colors) {
+		Map<String, Object> car = new HashMap<>();
+		car.put(Vehicle.BRAND, brand);
+		car.put("year", year);
+		car.put("colors", Arrays.asList(colors));
+		return car;
+	}
+
+	private static List<String> ids(List<Map<String, Object>> documents) {
+		return documents.stream().map(document -> (String) document.get("_id")).collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import io.reactivex.exceptions.MissingBackpressureException;
+import io.reactivex.subscribers.TestSubscriber;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class DefaultEventListenerTest {
+
+	@Test
+	public void should_keep_latest_change_per_document() {
+		DefaultEventListener<Vehicle> listener = listener(ListenerBackpressure.LATEST_PER_DOCUMENT);
+		TestSubscriber<Vehicle> subscriber = listener.getSource().test(0);
+
+		listener.publish("1", vehicle("Auris"));
+		listener.publish("2", vehicle("Ibiza"));
+		listener.publish("1", vehicle("Yaris"));
+
+		subscriber.assertNoValues();
+		subscriber.request(1);
+		subscriber.assertValueCount(1);
+		subscriber.assertValueAt(0, v -> v.getModel().equals("Yaris"));
+
+		listener.publish("3", vehicle("Model 3"));
+		subscriber.request(5);
+
+		subscriber.assertValueCount(3);
+		subscriber.assertValueAt(1, v -> v.getModel().equals("Ibiza"));
+		subscriber.assertValueAt(2, v -> v.getModel().equals("Model 3"));
+	}
+
+	@Test
+	public void should_fail_on_buffer_overflow() {
+		DefaultEventListener<Vehicle> listener = listener(ListenerBackpressure.BUFFER);
+		TestSubscriber<Vehicle> subscriber = listener.getSource().test(0);
+
+		listener.publish("1", vehicle("Auris"));
+		listener.publish("2", vehicle("Ibiza"));
+		subscriber.assertNoErrors();
+
+		listener.publish("3", vehicle("Model 3"));
+		subscriber.assertError(MissingBackpressureException.class);
+	}
+
+	@Test
+	public void should_drop_oldest_changes() {
+		DefaultEventListener<Vehicle> listener = listener(ListenerBackpressure.DROP_OLDEST);
+		TestSubscriber<Vehicle> subscriber = listener.getSource().test(0);
+
+		listener.publish("1", vehicle("Auris"));
+		listener.publish("2", vehicle("Ibiza"));
+		listener.publish("3", vehicle("Model 3"));
+		subscriber.request(5);
+
+		subscriber.assertValueCount(2);
+		subscriber.assertValueAt(0, v -> v.getModel().equals("Ibiza"));
+	}
+
+	@Test
+	public void should_emit_a_batch_per_snapshot() {
+		DefaultEventListener<Vehicle> listener = listener(ListenerBackpressure.BUFFER);
+		TestSubscriber<List<Vehicle>> subscriber = listener.getBatches().test();
+
+		listener.publishBatch(Arrays.asList(vehicle("Auris"), vehicle("Ibiza")));
+
+		subscriber.assertValueCount(1);
+		subscriber.assertValueAt(0, batch -> batch.size() == 2);
+	}
+
+	private static DefaultEventListener<Vehicle> listener(ListenerBackpressure backpressure) {
+		return new DefaultEventListener<>(new Vehicle(), backpressure, 2);
+	}
+
+	private static Vehicle vehicle(String model) {
+		return new Vehicle("Toyota", model, true);
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+import com.github.pjgg.rxfirestore.mapper.DocumentId;
+import com.github.pjgg.rxfirestore.mapper.FirestoreEntity;
+import com.google.cloud.firestore.FieldValue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class DirtyTrackingEntityTest {
+
+	@Test
+	public void should_write_everything_until_stored() {
+		Car car = car();
+
+		assertThat(car.changesFrom(car.toMap())).isNull();
+		assertThat(car.hasChanges()).isTrue();
+		assertThat(car.changedFields()).contains("brand", "year", "engine");
+	}
+
+	@Test
+	public void should_only_report_changed_fields() {
+		Car car = car();
+		car.markClean("1", Vehicle.CARS_COLLECTION_NAME);
+
+		assertThat(car.hasChanges()).isFalse();
+
+		car.year = 2020L;
+
+		assertThat(car.changesFrom(car.toMap())).containsOnly(entry("year", 2020L));
+	}
+
+	@Test
+	public void should_write_everything_to_another_document() {
+		Car car = car();
+		car.markClean("1", Vehicle.CARS_COLLECTION_NAME);
+		car.year = 2020L;
+
+		assertThat(car.changesFrom(DirtyTrackingEntity.path("1", Vehicle.CARS_COLLECTION_NAME), car.toMap()))
+			.containsOnly(entry("year", 2020L));
+		assertThat(car.changesFrom(DirtyTrackingEntity.path("2", Vehicle.CARS_COLLECTION_NAME), car.toMap())).isNull();
+		assertThat(car.changesFrom(DirtyTrackingEntity.path("1", "bikes"), car.toMap())).isNull();
+	}
+
+	@Test
+	public void should_use_dotted_paths_for_nested_changes() {
+		Car car = car();
+		car.markClean("1", Vehicle.CARS_COLLECTION_NAME);
+
+		car.engine.put("power", 150L);
+		car.engine.remove("fuel");
+		car.engine.put("cells", 7000L);
+
+		Map<String, Object> changes = car.changesFrom(car.toMap());
+
+		assertThat(changes).containsOnlyKeys("engine.power", "engine.fuel", "engine.cells");
+		assertThat(changes.get("engine.power")).isEqualTo(150L);
+		assertThat(changes.get("engine.fuel")).isEqualTo(FieldValue.delete());
+	}
+
+	@Test
+	public void should_find_in_place_changes_of_mapped_lists_and_maps() {
+		Map<String, Object> document = new HashMap<>();
+		document.put("_id", "1");
+		document.put("tags", new ArrayList<>(Arrays.asList("covered")));
+		document.put("specs", new HashMap<>(Collections.singletonMap("size", 2L)));
+
+		Garage garage = (Garage) new Garage().fromJsonAsMap(document);
+		garage.markClean("1", garage.getCollectionName());
+
+		garage.getTags().add("heated");
+		garage.getSpecs().put("size", 3L);
+
+		assertThat(garage.changesFrom(garage.toMap()))
+			.containsOnly(entry("tags", Arrays.asList("covered", "heated")), entry("specs.size", 3L));
+	}
+
+	@Test
+	public void should_nest_changes_for_merge() {
+		Map<String, Object> changes = new HashMap<>();
+		changes.put("year", 2020L);
+		changes.put("engine.power", 150L);
+		changes.put("engine.battery.cells", 7000L);
+
+		Map<String, Object> document = DirtyTrackingEntity.nest(changes);
+
+		assertThat(document).containsOnlyKeys("year", "engine");
+		Map<String, Object> engine = (Map<String, Object>) document.get("engine");
+		assertThat(engine).containsEntry("power", 150L);
+		assertThat((Map<String, Object>) engine.get("battery")).containsOnly(entry("cells", 7000L));
+	}
+
+	private static Car car() {
+		Car car = new Car();
+		car.brand = "Toyota";
+		car.year = 2019L;
+		car.engine = new HashMap<>();
+		car.engine.put("power", 110L);
+		car.engine.put("fuel", "hybrid");
+		return car;
+	}
+
+	@FirestoreEntity
+	public static class Garage extends DirtyTrackingEntity {
+
+		@DocumentId
+		private String id;
+		private List<String> tags;
+		private Map<String, Object> specs;
+
+		@Override
+		public String getCollectionName() {
+			return "garages";
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public void setId(String id) {
+			this.id = id;
+		}
+
+		public List<String> getTags() {
+			return tags;
+		}
+
+		public void setTags(List<String> tags) {
+			this.tags = tags;
+		}
+
+		public Map<String, Object> getSpecs() {
+			return specs;
+		}
+
+		public void setSpecs(Map<String, Object> specs) {
+			this.specs = specs;
+		}
+	}
+
+	public static class Car extends DirtyTrackingEntity {
+
+		public String brand;
+		public Long year;
+		public Map<String, Object> engine;
+
+		@Override
+		public String getCollectionName() {
+			return Vehicle.CARS_COLLECTION_NAME;
+		}
+
+		@Override
+		public HashMap<String, Object> toMap() {
+			HashMap<String, Object> document = new HashMap<>();
+			document.put(Vehicle.BRAND, brand);
+			document.put("year", year);
+			document.put("engine", engine == null ? null : new HashMap<>(engine));
+			return document;
+		}
+
+		@Override
+		public Entity fromJsonAsMap(Map<String, Object> json) {
+			brand = (String) json.get(Vehicle.BRAND);
+			year = (Long) json.get("year");
+			engine = (Map<String, Object>) json.get("engine");
+			return this;
+		}
+	}
+}
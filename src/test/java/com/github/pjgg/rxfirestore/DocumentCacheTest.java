@@ -0,0 +1,110 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class DocumentCacheTest {
+
+	private final AtomicLong now = new AtomicLong();
+
+	@Test
+	public void should_evict_least_recently_used() {
+		DocumentCache cache = new DocumentCache(2, Long.MAX_VALUE, 0, now::get);
+
+		cache.put("cars/1", document("Toyota"), cache.getEpoch());
+		cache.put("cars/2", document("Seat"), cache.getEpoch());
+		cache.get("cars/1");
+		cache.put("cars/3", document("Tesla"), cache.getEpoch());
+
+		assertThat(cache.get("cars/1")).containsEntry(Vehicle.BRAND, "Toyota");
+		assertThat(cache.get("cars/2")).isNull();
+		assertThat(cache.get("cars/3")).containsEntry(Vehicle.BRAND, "Tesla");
+		assertThat(cache.getEvictions()).isEqualTo(1);
+		assertThat(cache.getSize()).isEqualTo(2);
+	}
+
+	@Test
+	public void should_not_share_nested_values_with_readers() {
+		DocumentCache cache = new DocumentCache(10, Long.MAX_VALUE, 0, now::get);
+		Map<String, Object> document = document("Toyota");
+		document.put("engine", new HashMap<>(Collections.singletonMap("power", 110L)));
+		cache.put("cars/1", document, cache.getEpoch());
+
+		((Map<String, Object>) document.get("engine")).put("power", 90L);
+		DirtyTrackingEntityTest.Car car = (DirtyTrackingEntityTest.Car) new DirtyTrackingEntityTest.Car()
+			.fromJsonAsMap(cache.get("cars/1"));
+		car.engine.put("power", 150L);
+
+		assertThat((Map<String, Object>) cache.get("cars/1").get("engine")).containsEntry("power", 110L);
+	}
+
+	@Test
+	public void should_evict_by_bytes() {
+		long documentSize = DocumentCache.estimateSize("cars/1") + DocumentCache.estimateSize(document("Toyota"));
+		DocumentCache cache = new DocumentCache(100, documentSize * 2, 0, now::get);
+
+		cache.put("cars/1", document("Toyota"), cache.getEpoch());
+		cache.put("cars/2", document("Toyota"), cache.getEpoch());
+		cache.put("cars/3", document("Toyota"), cache.getEpoch());
+
+		assertThat(cache.getSize()).isEqualTo(2);
+		assertThat(cache.getEstimatedBytes()).isEqualTo(documentSize * 2);
+		assertThat(cache.get("cars/1")).isNull();
+	}
+
+	@Test
+	public void should_expire_after_ttl() {
+		DocumentCache cache = new DocumentCache(10, Long.MAX_VALUE, 100, now::get);
+		cache.put("cars/1", document("Toyota"), cache.getEpoch());
+
+		now.set(99_000_000);
+		assertThat(cache.get("cars/1")).isNotNull();
+
+		now.set(100_000_000);
+		assertThat(cache.get("cars/1")).isNull();
+		assertThat(cache.getExpirations()).isEqualTo(1);
+		assertThat(cache.getHitRatio()).isEqualTo(0.5);
+	}
+
+	@Test
+	public void should_not_cache_reads_that_overlap_a_write() {
+		DocumentCache cache = new DocumentCache(10, Long.MAX_VALUE, 0, now::get);
+		cache.put("cars/1", document("Toyota"), cache.getEpoch());
+
+		long readEpoch = cache.getEpoch();
+		cache.invalidate("cars/1");
+		cache.put("cars/1", document("Toyota"), readEpoch);
+
+		assertThat(cache.get("cars/1")).isNull();
+		assertThat(cache.getEstimatedBytes()).isZero();
+	}
+
+	private static Map<String, Object> document(String brand) {
+		Map<String, Object> document = new HashMap<>();
+		document.put(Vehicle.BRAND, brand);
+		document.put(Vehicle.DISPLACEMENT, 1800L);
+		return document;
+	}
+}
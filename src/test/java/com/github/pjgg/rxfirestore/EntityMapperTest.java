@@ -0,0 +1,237 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.github.pjgg.rxfirestore.mapper.DocumentId;
+import com.github.pjgg.rxfirestore.mapper.EntityMapper;
+import com.github.pjgg.rxfirestore.mapper.EntityMappers;
+import com.github.pjgg.rxfirestore.mapper.FirestoreEntity;
+import com.github.pjgg.rxfirestore.mapper.processor.EntityMapperProcessor;
+import com.google.cloud.Timestamp;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import org.junit.Test;
+
+public class EntityMapperTest {
+
+	@Test
+	public void should_find_generated_mapper() {
+		assertThat(EntityMappers.lookup(Vehicle.class)).isPresent();
+		assertThat(EntityMappers.lookup(Sample.class)).isPresent();
+	}
+
+	@Test
+	public void should_not_write_id_and_event_type() {
+		Vehicle vehicle = new Vehicle("Toyota", "Auris", true);
+		vehicle.setId("001");
+		vehicle.setEventType("ADDED");
+
+		HashMap<String, Object> document = vehicle.toMap();
+
+		assertThat(document)
+			.containsEntry(Vehicle.BRAND, "Toyota")
+			.containsEntry(Vehicle.MODEL, "Auris")
+			.containsEntry(Vehicle.ELECTRIC, true)
+			.containsEntry(Vehicle.DISPLACEMENT, 0)
+			.doesNotContainKeys("id", "eventType", "_id", "_eventType");
+	}
+
+	@Test
+	public void should_read_id_event_type_and_fields() {
+		Map<String, Object> document = new HashMap<>();
+		document.put("_id", "001");
+		document.put("_eventType", "MODIFIED");
+		document.put(Vehicle.BRAND, "Toyota");
+		document.put(Vehicle.DISPLACEMENT, 1800L);
+
+		Vehicle vehicle = EntityMappers.lookup(Vehicle.class).get().fromMap(document, new Vehicle());
+
+		assertThat(vehicle.getId()).isEqualTo("001");
+		assertThat(vehicle.getEventType()).isEqualTo("MODIFIED");
+		assertThat(vehicle.getBrand()).isEqualTo("Toyota");
+		assertThat(vehicle.getDisplacement()).isEqualTo(1800L);
+		assertThat(vehicle.getModel()).isNull();
+	}
+
+	@Test
+	public void should_convert_firestore_native_types() {
+		Date now = new Date();
+		Map<String, Object> document = new HashMap<>();
+		document.put("_id", "002");
+		document.put("doors", 5L);
+		document.put("price", 21000L);
+		document.put("created", Timestamp.of(now));
+		document.put("fuel", "DIESEL");
+		document.put("plate", "1234-BCD");
+
+		EntityMapper<Sample> mapper = EntityMappers.lookup(Sample.class).get();
+		Sample sample = (Sample) new Sample().fromJsonAsMap(document);
+
+		assertThat(sample.getKey()).isEqualTo("002");
+		assertThat(sample.getDoors()).isEqualTo(5);
+		assertThat(sample.getPrice()).isEqualTo(21000.0);
+		assertThat(sample.getCreated()).isEqualTo(now);
+		assertThat(sample.getFuel()).isEqualTo(Fuel.DIESEL);
+		assertThat(sample.getPlate()).isNull();
+		assertThat(mapper.toMap(sample))
+			.containsEntry("doors", 5)
+			.containsEntry("fuel", "DIESEL")
+			.doesNotContainKeys("key", "plate");
+	}
+
+	@Test
+	public void should_reject_fields_that_can_not_be_read_back() throws IOException {
+		String source = "package sample;\n"
+			+ "@com.github.pjgg.rxfirestore.mapper.FirestoreEntity\n"
+			+ "public class Shop implements com.github.pjgg.rxfirestore.Entity {\n"
+			+ "\tpublic String name;\n"
+			+ "\tpublic java.util.List<String> tags;\n"
+			+ "\tpublic java.util.Set<String> brands;\n"
+			+ "\tpublic java.util.List<Integer> sizes;\n"
+			+ "\tpublic Character grade;\n"
+			+ "\t@com.fasterxml.jackson.annotation.JsonFormat public java.util.Date opened;\n"
+			+ "\tprivate String owner;\n"
+			+ "\tpublic String getCollectionName() {\n"
+			+ "\t\treturn \"shops\";\n"
+			+ "\t}\n"
+			+ "}\n";
+
+		assertThat(compile("sample.Shop", source))
+			.hasSize(5)
+			.anySatisfy(error -> assertThat(error).contains("java.util.Set<java.lang.String>", "brands"))
+			.anySatisfy(error -> assertThat(error).contains("java.util.List<java.lang.Integer>", "sizes"))
+			.anySatisfy(error -> assertThat(error).contains("java.lang.Character", "grade"))
+			.anySatisfy(error -> assertThat(error).contains("@JsonFormat", "opened"))
+			.anySatisfy(error -> assertThat(error).contains("no getter nor setter", "owner"));
+	}
+
+	/**
+	 * @return errors of running the entity mapper processor on the source.
+	 */
+	private static List<String> compile(String className, String source) throws IOException {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		JavaFileObject file = new SimpleJavaFileObject(
+			URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE) {
+			@Override
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return source;
+			}
+		};
+
+		Path output = Files.createTempDirectory("mappers");
+		List<String> options = Arrays.asList("-proc:only", "-s", output.toString(),
+			"-classpath", System.getProperty("java.class.path"),
+			"-processor", EntityMapperProcessor.class.getName());
+		compiler.getTask(null, null, diagnostics, options, null, Collections.singletonList(file)).call();
+
+		return diagnostics.getDiagnostics().stream()
+			.filter(diagnostic -> diagnostic.getKind() == Diagnostic.Kind.ERROR)
+			.map(diagnostic -> diagnostic.getMessage(null))
+			.collect(Collectors.toList());
+	}
+
+	enum Fuel {
+		DIESEL, ELECTRIC
+	}
+
+	@FirestoreEntity
+	public static class Sample implements Entity {
+
+		@DocumentId
+		private String key;
+		private int doors;
+		private double price;
+		private Date created;
+		private Fuel fuel;
+		@JsonIgnore
+		private String plate;
+
+		@Override
+		public String getCollectionName() {
+			return "samples";
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public void setKey(String key) {
+			this.key = key;
+		}
+
+		public int getDoors() {
+			return doors;
+		}
+
+		public void setDoors(int doors) {
+			this.doors = doors;
+		}
+
+		public double getPrice() {
+			return price;
+		}
+
+		public void setPrice(double price) {
+			this.price = price;
+		}
+
+		public Date getCreated() {
+			return created;
+		}
+
+		public void setCreated(Date created) {
+			this.created = created;
+		}
+
+		public Fuel getFuel() {
+			return fuel;
+		}
+
+		public void setFuel(Fuel fuel) {
+			this.fuel = fuel;
+		}
+
+		public String getPlate() {
+			return plate;
+		}
+
+		public void setPlate(String plate) {
+			this.plate = plate;
+		}
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.cloud.firestore.FieldValue;
+import java.util.Map;
+import org.junit.Test;
+
+public class FieldTransformsTest {
+
+	@Test
+	public void should_map_transforms_by_field_path() {
+		Map<String, Object> fields = new FieldTransforms()
+			.increment("stats.views", 1)
+			.arrayUnion("tags", "hybrid")
+			.arrayRemove("colors", "red")
+			.serverTimestamp("updatedAt")
+			.set(Vehicle.MODEL, "Yaris")
+			.toMap();
+
+		assertThat(fields).containsOnlyKeys("stats.views", "tags", "colors", "updatedAt", Vehicle.MODEL);
+		assertThat(fields.get("stats.views")).isEqualTo(FieldValue.increment(1));
+		assertThat(fields.get("tags")).isEqualTo(FieldValue.arrayUnion("hybrid"));
+		assertThat(fields.get("updatedAt")).isEqualTo(FieldValue.serverTimestamp());
+		assertThat(fields.get(Vehicle.MODEL)).isEqualTo("Yaris");
+	}
+
+	@Test
+	public void should_reject_changing_a_field_twice() {
+		FieldTransforms transforms = new FieldTransforms().arrayUnion("tags", "hybrid");
+
+		assertThatThrownBy(() -> transforms.arrayRemove("tags", "diesel"))
+			.isInstanceOf(IllegalArgumentException.class);
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.cloud.NoCredentials;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class FirestoreClientsTest {
+
+	private final List<Firestore> created = new ArrayList<>();
+	private final List<Firestore> closed = new ArrayList<>();
+	private final FirestoreClients clients = new FirestoreClients(options -> client());
+
+	@Test
+	public void should_share_a_client_per_project_and_database() {
+		Firestore first = clients.acquire(options("project", "(default)"));
+		Firestore second = clients.acquire(options("project", "(default)"));
+		Firestore other = clients.acquire(options("project", "other"));
+
+		assertThat(first).isSameAs(second);
+		assertThat(other).isNotSameAs(first);
+		assertThat(created).hasSize(2);
+		assertThat(clients.getReferences(options("project", "(default)"))).isEqualTo(2);
+	}
+
+	@Test
+	public void should_close_when_last_user_releases() {
+		Firestore first = clients.acquire(options("project", "(default)"));
+		Firestore second = clients.acquire(options("project", "(default)"));
+
+		clients.release(first);
+
+		assertThat(closed).isEmpty();
+
+		clients.release(second);
+		clients.release(second);
+
+		assertThat(closed).hasSize(1);
+		assertThat(closed.get(0)).isSameAs(first);
+		assertThat(clients.getReferences(options("project", "(default)"))).isZero();
+	}
+
+	@Test
+	public void should_build_a_new_client_after_close() {
+		Firestore first = clients.acquire(options("project", "(default)"));
+		clients.release(first);
+
+		Firestore second = clients.acquire(options("project", "(default)"));
+
+		assertThat(second).isNotSameAs(first);
+		assertThat(created).hasSize(2);
+	}
+
+	private Firestore client() {
+		Firestore[] client = new Firestore[1];
+		client[0] = (Firestore) Proxy.newProxyInstance(Firestore.class.getClassLoader(), new Class<?>[] {Firestore.class},
+			(proxy, method, args) -> {
+				if ("close".equals(method.getName())) {
+					closed.add(client[0]);
+				}
+				return null;
+			});
+		created.add(client[0]);
+		return client[0];
+	}
+
+	private static FirestoreOptions options(String projectId, String databaseId) {
+		return FirestoreOptions.newBuilder()
+			.setProjectId(projectId)
+			.setDatabaseId(databaseId)
+			.setCredentials(NoCredentials.getInstance())
+			.build();
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
+import org.junit.Test;
+
+public class IdRangesTest {
+
+	@Test
+	public void should_split_by_consecutive_id_ranges() {
+		Query query = new Query(Vehicle.CARS_COLLECTION_NAME).whereEqualTo(Vehicle.BRAND, "Toyota");
+
+		List<Query> ranges = IdRanges.split(query, 4);
+
+		assertThat(ranges).hasSize(4).allMatch(range -> range.getEqualTo().equals(query.getEqualTo())
+			&& range.getOrderBy().containsKey(Query.DOCUMENT_ID));
+		assertThat(ranges.get(0).getStartAt()).isEmpty();
+		assertThat(ranges.get(0).getEndBefore()).containsExactly("F");
+		assertThat(ranges.get(1).getStartAt()).containsExactly("F");
+		assertThat(ranges.get(3).getStartAt()).isEqualTo(ranges.get(2).getEndBefore());
+		assertThat(ranges.get(3).getEndBefore()).isEmpty();
+		assertThat(query.getOrderBy()).isEmpty();
+	}
+
+	@Test
+	public void should_keep_the_query_without_partitions() {
+		Query query = new Query(Vehicle.CARS_COLLECTION_NAME).withLimit(10);
+
+		assertThat(IdRanges.split(query, 1)).containsExactly(query);
+	}
+
+	@Test
+	public void should_reject_queries_that_can_not_be_split() {
+		Query query = new Query(Vehicle.CARS_COLLECTION_NAME).whereGreaterThan("year", 2000);
+
+		assertThatThrownBy(() -> IdRanges.split(query, 2)).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> IdRanges.split(query, 0)).isInstanceOf(IllegalArgumentException.class);
+	}
+}
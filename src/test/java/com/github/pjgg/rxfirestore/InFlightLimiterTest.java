@@ -0,0 +1,69 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.reactivex.observers.TestObserver;
+import io.reactivex.subjects.SingleSubject;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class InFlightLimiterTest {
+
+	@Test
+	public void should_queue_operations_over_the_limit() {
+		InFlightLimiter limiter = new InFlightLimiter(2);
+		List<SingleSubject<Integer>> operations = new ArrayList<>();
+		List<TestObserver<Integer>> observers = new ArrayList<>();
+
+		for (int i = 0; i < 5; i++) {
+			SingleSubject<Integer> operation = SingleSubject.create();
+			operations.add(operation);
+			observers.add(limiter.submit(() -> operation).test());
+		}
+
+		assertThat(limiter.getInFlight()).isEqualTo(2);
+		assertThat(limiter.getPending()).isEqualTo(3);
+		assertThat(operations.get(2).hasObservers()).isFalse();
+
+		operations.get(0).onSuccess(0);
+
+		observers.get(0).assertValue(0);
+		assertThat(limiter.getInFlight()).isEqualTo(2);
+		assertThat(limiter.getPending()).isEqualTo(2);
+		assertThat(operations.get(2).hasObservers()).isTrue();
+	}
+
+	@Test
+	public void should_release_slot_on_error() {
+		InFlightLimiter limiter = new InFlightLimiter(1);
+		SingleSubject<Integer> failed = SingleSubject.create();
+		SingleSubject<Integer> next = SingleSubject.create();
+
+		TestObserver<Integer> failedObserver = limiter.submit(() -> failed).test();
+		limiter.submit(() -> next).test();
+
+		failed.onError(new IllegalStateException("boom"));
+
+		failedObserver.assertError(IllegalStateException.class);
+		assertThat(next.hasObservers()).isTrue();
+		assertThat(limiter.getInFlight()).isEqualTo(1);
+	}
+}
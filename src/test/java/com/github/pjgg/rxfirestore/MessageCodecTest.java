@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.vertx.core.buffer.Buffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class MessageCodecTest {
+
+	@Test
+	public void should_pass_document_reference_locally() {
+		HashMap<String, Object> document = vehicleDocument();
+
+		assertThat(new DocumentMessageCodec().transform(document)).isSameAs(document);
+	}
+
+	@Test
+	public void should_encode_document_to_wire() {
+		DocumentMessageCodec codec = new DocumentMessageCodec();
+		Buffer buffer = Buffer.buffer().appendString("header");
+		codec.encodeToWire(buffer, vehicleDocument());
+
+		HashMap<String, Object> decoded = codec.decodeFromWire("header".length(), buffer);
+
+		assertThat(decoded).isEqualTo(vehicleDocument());
+	}
+
+	@Test
+	public void should_encode_document_list_to_wire() {
+		DocumentListMessageCodec codec = new DocumentListMessageCodec();
+		List<Map<String, Object>> documents = new ArrayList<>();
+		documents.add(vehicleDocument());
+		documents.add(vehicleDocument());
+
+		Buffer buffer = Buffer.buffer();
+		codec.encodeToWire(buffer, documents);
+
+		assertThat(codec.transform(documents)).isSameAs(documents);
+		assertThat(codec.decodeFromWire(0, buffer)).isEqualTo(documents);
+	}
+
+	@Test
+	public void should_encode_query_to_wire() {
+		QueryMessageCodec codec = new QueryMessageCodec();
+		Query query = new Query(Vehicle.CARS_COLLECTION_NAME).whereEqualTo(Vehicle.BRAND, "Toyota").withLimit(5);
+
+		Buffer buffer = Buffer.buffer();
+		codec.encodeToWire(buffer, query);
+		Query decoded = codec.decodeFromWire(0, buffer);
+
+		assertThat(codec.transform(query)).isSameAs(query);
+		assertThat(decoded.getCollectionName()).isEqualTo(Vehicle.CARS_COLLECTION_NAME);
+		assertThat(decoded.getEqualTo()).containsEntry(Vehicle.BRAND, "Toyota");
+		assertThat(decoded.getLimit()).isEqualTo(5);
+	}
+
+	private HashMap<String, Object> vehicleDocument() {
+		HashMap<String, Object> document = new HashMap<>();
+		document.put(Vehicle.BRAND, "Toyota");
+		document.put(Vehicle.MODEL, "Auris");
+		document.put(Vehicle.ELECTRIC, true);
+		document.put("tags", Arrays.asList("hybrid", "compact"));
+		return document;
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.cloud.Timestamp;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class NdjsonCodecTest {
+
+	private final NdjsonCodec codec = new NdjsonCodec(path -> null);
+
+	@Test
+	public void should_keep_decimals_that_json_can_not_hold() throws IOException {
+		Map<String, Object> document = new HashMap<>();
+		document.put("nan", Double.NaN);
+		document.put("max", Double.POSITIVE_INFINITY);
+		document.put("values", Arrays.asList(Double.NEGATIVE_INFINITY, 1.5, "NaN"));
+
+		assertThat(roundTrip(document)).isEqualTo(document);
+	}
+
+	@Test
+	public void should_not_take_dollar_fields_as_tags() throws IOException {
+		Map<String, Object> document = new HashMap<>();
+		document.put("price", Collections.singletonMap("$timestamp", "yesterday"));
+		document.put("$ref", "A-1");
+		document.put("$$geo", 1L);
+		document.put("created", Timestamp.ofTimeSecondsAndNanos(1, 2));
+
+		assertThat(roundTrip(document)).isEqualTo(document);
+	}
+
+	private Map<String, Object> roundTrip(Map<String, Object> document) throws IOException {
+		return codec.decode(new String(codec.encode(document), StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.reactivex.Flowable;
+import io.reactivex.processors.PublishProcessor;
+import io.reactivex.subscribers.TestSubscriber;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class PartitionedScanTest {
+
+	private final AtomicLong now = new AtomicLong();
+	private final List<Query> partitions = IdRanges.split(new Query(Vehicle.CARS_COLLECTION_NAME), 3);
+
+	@Test
+	public void should_merge_every_partition() {
+		PartitionedScan<String> scan = new PartitionedScan<>(partitions,
+			partition -> Flowable.just("a", "b").map(id -> partition.getStartAt() + id), now::get);
+
+		List<String> documents = scan.toFlowable(2).toList().blockingGet();
+
+		assertThat(documents).hasSize(6);
+		assertThat(scan.getDocuments()).isEqualTo(6);
+		assertThat(scan.getProgress()).allMatch(progress -> progress.getState() == ScanProgress.State.DONE);
+	}
+
+	@Test
+	public void should_bound_parallelism_and_report_progress() {
+		List<PublishProcessor<String>> streams = new ArrayList<>();
+		PartitionedScan<String> scan = new PartitionedScan<>(partitions, partition -> {
+			PublishProcessor<String> stream = PublishProcessor.create();
+			streams.add(stream);
+			return stream;
+		}, now::get);
+
+		TestSubscriber<String> subscriber = scan.toFlowable(2).test();
+
+		assertThat(streams).hasSize(2);
+		assertThat(scan.getProgress().get(2).getState()).isEqualTo(ScanProgress.State.PENDING);
+
+		streams.get(0).onNext("1");
+		streams.get(0).onNext("2");
+		now.set(500_000_000);
+		streams.get(0).onComplete();
+
+		ScanProgress first = scan.getProgress().get(0);
+		assertThat(first.getState()).isEqualTo(ScanProgress.State.DONE);
+		assertThat(first.getElapsedMs()).isEqualTo(500);
+		assertThat(first.getThroughput()).isEqualTo(4.0);
+		assertThat(streams).hasSize(3);
+
+		streams.get(1).onError(new IllegalStateException("boom"));
+
+		assertThat(scan.getProgress().get(1).getState()).isEqualTo(ScanProgress.State.FAILED);
+		subscriber.assertError(IllegalStateException.class);
+	}
+
+	@Test
+	public void should_hand_partitions_to_consumer() {
+		PartitionedScan<String> scan = new PartitionedScan<>(partitions, partition -> Flowable.just("a"), now::get);
+		List<Integer> consumed = new ArrayList<>();
+
+		scan.forEachPartition(1, (progress, documents) -> documents.ignoreElements()
+			.doOnComplete(() -> consumed.add(progress.getPartition())))
+			.blockingAwait();
+
+		assertThat(consumed).containsExactly(0, 1, 2);
+	}
+}
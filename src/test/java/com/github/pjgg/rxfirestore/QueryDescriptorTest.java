@@ -0,0 +1,137 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.GeoPoint;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import org.junit.Test;
+
+public class QueryDescriptorTest {
+
+	@Test
+	public void should_encode_and_decode_query() {
+		Query query = new Query(Vehicle.CARS_COLLECTION_NAME)
+			.whereEqualTo(Vehicle.BRAND, "Toyota")
+			.whereEqualTo(Vehicle.ELECTRIC, true)
+			.whereArrayContains("tags", "hybrid")
+			.whereGreaterThan(Vehicle.DISPLACEMENT, 1000L)
+			.whereLessThan("price", 25000.5)
+			.withLimit(50)
+			.withOffset(10);
+
+		Query decoded = QueryDescriptor.decode(QueryDescriptor.encode(query));
+
+		assertThat(decoded.getCollectionName()).isEqualTo(Vehicle.CARS_COLLECTION_NAME);
+		assertThat(decoded.getEqualTo()).isEqualTo(query.getEqualTo());
+		assertThat(decoded.getArrayContains()).isEqualTo(query.getArrayContains());
+		assertThat(decoded.getGreaterThan()).isEqualTo(query.getGreaterThan());
+		assertThat(decoded.getLessThan()).isEqualTo(query.getLessThan());
+		assertThat(decoded.getLimit()).isEqualTo(50);
+		assertThat(decoded.getOffset()).isEqualTo(10);
+	}
+
+	@Test
+	public void should_encode_firestore_value_types() {
+		Query query = new Query(Vehicle.CARS_COLLECTION_NAME)
+			.whereEqualTo("createdDate", new Date(1546300800000L))
+			.whereEqualTo("updatedAt", Timestamp.ofTimeSecondsAndNanos(1546300800L, 500))
+			.whereEqualTo("garage", new GeoPoint(40.4, -3.7))
+			.whereEqualTo("owners", Arrays.asList("Pablo", null, -1))
+			.whereEqualTo("engine", Collections.singletonMap("cc", 1800));
+
+		Query decoded = QueryDescriptor.decode(QueryDescriptor.encode(query));
+
+		assertThat(decoded.getEqualTo()).isEqualTo(query.getEqualTo());
+		assertThat(decoded.isLimitSet()).isFalse();
+		assertThat(decoded.isOffsetSet()).isFalse();
+	}
+
+	@Test
+	public void should_produce_same_encoding_for_equivalent_queries() {
+		Query first = new Query(Vehicle.CARS_COLLECTION_NAME).whereEqualTo("a", 1).whereEqualTo("b", 2);
+		Query second = new Query(Vehicle.CARS_COLLECTION_NAME).whereEqualTo("b", 2).whereEqualTo("a", 1);
+
+		assertThat(QueryDescriptor.encode(first)).isEqualTo(QueryDescriptor.encode(second));
+	}
+
+	@Test
+	public void should_encode_cursor() {
+		Query query = new Query(Vehicle.CARS_COLLECTION_NAME)
+			.whereGreaterThan(Vehicle.DISPLACEMENT, 1000L)
+			.withStartAfter(Arrays.asList(1800L, "car-1"));
+
+		Query decoded = QueryDescriptor.decode(QueryDescriptor.encode(query));
+
+		assertThat(decoded.getStartAfter()).containsExactly(1800L, "car-1");
+	}
+
+	@Test
+	public void should_encode_select() {
+		Query query = new Query(Vehicle.CARS_COLLECTION_NAME).select(Vehicle.BRAND, "engine.power");
+
+		Query decoded = QueryDescriptor.decode(QueryDescriptor.encode(query));
+
+		assertThat(decoded.getSelect()).containsExactly(Vehicle.BRAND, "engine.power");
+		assertThat(QueryDescriptor.decode(QueryDescriptor.encode(new Query("cars").select())).isSelectSet()).isTrue();
+		assertThat(QueryDescriptor.decode(QueryDescriptor.encode(new Query("cars"))).isSelectSet()).isFalse();
+	}
+
+	@Test
+	public void should_encode_order_and_cursors() {
+		Vehicle last = new Vehicle("Toyota", "Auris", true);
+		Query query = new Query(Vehicle.CARS_COLLECTION_NAME)
+			.orderBy(Vehicle.BRAND, Query.Direction.DESCENDING)
+			.startAfter(last, "car-1")
+			.endBefore("Audi");
+
+		Query decoded = QueryDescriptor.decode(QueryDescriptor.encode(query));
+
+		assertThat(decoded.getOrderBy()).containsExactly(entry(Vehicle.BRAND, Query.Direction.DESCENDING),
+			entry(Query.DOCUMENT_ID, Query.Direction.DESCENDING));
+		assertThat(decoded.getStartAfter()).containsExactly("Toyota", "car-1");
+		assertThat(decoded.getEndBefore()).containsExactly("Audi");
+		assertThat(decoded.getStartAt()).isEmpty();
+	}
+
+	@Test
+	public void should_decode_version_without_cursor() {
+		byte[] encoded = QueryDescriptor.encode(new Query(Vehicle.CARS_COLLECTION_NAME).withLimit(5));
+		byte[] version1 = Arrays.copyOf(encoded, encoded.length - 5);
+		version1[0] = 1;
+
+		Query decoded = QueryDescriptor.decode(version1);
+
+		assertThat(decoded.getLimit()).isEqualTo(5);
+		assertThat(decoded.getStartAfter()).isEmpty();
+	}
+
+	@Test
+	public void should_reject_unknown_version() {
+		byte[] encoded = QueryDescriptor.encode(new Query(Vehicle.CARS_COLLECTION_NAME));
+		encoded[0] = 99;
+
+		assertThatThrownBy(() -> QueryDescriptor.decode(encoded)).isInstanceOf(IllegalArgumentException.class);
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.reactivex.Single;
+import io.reactivex.subscribers.TestSubscriber;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.Test;
+
+public class QueryPagerTest {
+
+	private final List<Map<String, Object>> collection = IntStream.range(0, 10)
+		.mapToObj(QueryPagerTest::document)
+		.collect(Collectors.toList());
+	private final List<Query> pages = new ArrayList<>();
+
+	@Test
+	public void should_walk_every_page_with_cursors() {
+		Query query = new Query(Vehicle.CARS_COLLECTION_NAME);
+
+		List<String> ids = new QueryPager<>(query, 3, this::fetch, document -> QueryPager.cursorOf(query, document))
+			.stream()
+			.map(document -> (String) document.get("_id"))
+			.toList()
+			.blockingGet();
+
+		assertThat(ids).hasSize(10).startsWith("doc-00").endsWith("doc-09");
+		assertThat(pages).hasSize(4);
+		assertThat(pages.get(0).getStartAfter()).isEmpty();
+		assertThat(pages.get(1).getStartAfter()).containsExactly("doc-02");
+		assertThat(pages.get(3).getLimit()).isEqualTo(3);
+	}
+
+	@Test
+	public void should_not_request_pages_without_demand() {
+		Query query = new Query(Vehicle.CARS_COLLECTION_NAME);
+		TestSubscriber<Map<String, Object>> subscriber = new QueryPager<>(query, 2, this::fetch,
+			document -> QueryPager.cursorOf(query, document))
+			.stream()
+			.test(1);
+
+		subscriber.assertValueCount(1);
+		assertThat(pages).hasSize(2);
+
+		subscriber.request(2);
+
+		subscriber.assertValueCount(3);
+		assertThat(pages).hasSize(3);
+	}
+
+	@Test
+	public void should_stop_at_query_limit_and_keep_offset_on_first_page() {
+		Query query = new Query(Vehicle.CARS_COLLECTION_NAME).withLimit(5).withOffset(2);
+
+		List<Map<String, Object>> documents = new QueryPager<>(query, 3, this::fetch,
+			document -> QueryPager.cursorOf(query, document))
+			.stream()
+			.toList()
+			.blockingGet();
+
+		assertThat(documents).extracting(document -> document.get("_id"))
+			.containsExactly("doc-02", "doc-03", "doc-04", "doc-05", "doc-06");
+		assertThat(pages).extracting(Query::getLimit).containsExactly(3, 2);
+		assertThat(pages.get(1).isOffsetSet()).isFalse();
+	}
+
+	@Test
+	public void should_use_inequality_field_in_cursor() {
+		Query query = new Query(Vehicle.CARS_COLLECTION_NAME).whereGreaterThan("year", 2000);
+
+		assertThat(QueryPager.cursorOf(query, collection.get(4))).containsExactly(2004, "doc-04");
+	}
+
+	@Test
+	public void should_select_order_field_for_cursors() {
+		Query query = new Query(Vehicle.CARS_COLLECTION_NAME).whereGreaterThan("year", 2000).select(Vehicle.BRAND);
+
+		new QueryPager<>(query, 20, this::fetch, document -> QueryPager.cursorOf(query, document))
+			.stream()
+			.test()
+			.assertValueCount(10);
+
+		assertThat(pages.get(0).getSelect()).containsExactly(Vehicle.BRAND, "year");
+		assertThat(query.getSelect()).containsExactly(Vehicle.BRAND);
+	}
+
+	@Test
+	public void should_page_by_order_fields() {
+		Query query = new Query(Vehicle.CARS_COLLECTION_NAME)
+			.orderBy("year", Query.Direction.DESCENDING)
+			.startAt(2008);
+
+		new QueryPager<>(query, 2, this::fetch, document -> QueryPager.cursorOf(query, document))
+			.stream()
+			.test(1);
+
+		assertThat(QueryPager.cursorOf(query, collection.get(4))).containsExactly(2004, "doc-04");
+		assertThat(pages.get(0).getStartAt()).containsExactly(2008);
+		assertThat(pages.get(1).getStartAt()).isEmpty();
+		assertThat(pages.get(1).getOrderBy()).containsOnlyKeys("year");
+	}
+
+	@Test
+	public void should_propagate_page_errors() {
+		Query query = new Query(Vehicle.CARS_COLLECTION_NAME);
+
+		new QueryPager<Map<String, Object>>(query, 3, page -> Single.error(new IllegalStateException("boom")),
+			document -> QueryPager.cursorOf(query, document))
+			.stream()
+			.test()
+			.assertError(IllegalStateException.class);
+	}
+
+	/**
+	 * Fake Firestore: documents ordered by ID, startAfter on the document ID, offset only without cursor.
+	 */
+	private Single<List<Map<String, Object>>> fetch(Query page) {
+		pages.add(page);
+
+		int from = 0;
+		if (!page.getStartAfter().isEmpty()) {
+			String after = (String) page.getStartAfter().get(page.getStartAfter().size() - 1);
+			from = Collections.binarySearch(ids(), after) + 1;
+		} else if (page.isOffsetSet()) {
+			from = page.getOffset();
+		}
+
+		int to = Math.min(collection.size(), from + page.getLimit());
+		return Single.just(new ArrayList<>(collection.subList(Math.min(from, to), to)));
+	}
+
+	private List<String> ids() {
+		return collection.stream().map(document -> (String) document.get("_id")).collect(Collectors.toList());
+	}
+
+	private static Map<String, Object> document(int index) {
+		Map<String, Object> document = new HashMap<>();
+		document.put("_id", String.format("doc-%02d", index));
+		document.put("year", 2000 + index);
+		return document;
+	}
+}
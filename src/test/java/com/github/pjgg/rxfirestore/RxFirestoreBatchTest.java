@@ -0,0 +1,61 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RxFirestoreBatchTest {
+
+	private final String brandName = "Seat";
+
+	@Before
+	public void clean_scenario() {
+
+		Query query = TestSuite.getInstance().vehicleRepository.queryBuilderSync(Vehicle.CARS_COLLECTION_NAME);
+		List<String> ids = new ArrayList<>();
+		TestSuite.getInstance().vehicleRepository.get(query.whereEqualTo("brand", brandName).withLimit(10000))
+			.blockingGet().forEach(vehicle -> ids.add(vehicle.getId()));
+		TestSuite.getInstance().vehicleRepository.deleteAll(ids, Vehicle.CARS_COLLECTION_NAME).blockingGet();
+	}
+
+	@Test
+	public void should_insert_and_delete_more_than_one_batch() {
+		List<Vehicle> vehicles = new ArrayList<>();
+		for (int i = 0; i < FirestoreTemplate.MAX_BATCH_SIZE * 2 + 1; i++) {
+			vehicles.add(new Vehicle(brandName, "Ibiza " + i, false));
+		}
+
+		Map<String, Boolean> inserted = TestSuite.getInstance().vehicleRepository
+			.insertAll(vehicles, Vehicle.CARS_COLLECTION_NAME, 2).blockingGet();
+
+		assertThat(inserted).hasSize(vehicles.size());
+		assertThat(inserted.values()).containsOnly(true);
+
+		Map<String, Boolean> deleted = TestSuite.getInstance().vehicleRepository
+			.deleteAll(new ArrayList<>(inserted.keySet()), Vehicle.CARS_COLLECTION_NAME).blockingGet();
+
+		assertThat(deleted.keySet()).containsExactlyElementsOf(inserted.keySet());
+		assertThat(deleted.values()).containsOnly(true);
+	}
+}
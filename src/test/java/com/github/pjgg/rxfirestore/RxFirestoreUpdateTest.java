@@ -19,6 +19,7 @@ package com.github.pjgg.rxfirestore;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import com.github.pjgg.rxfirestore.exceptions.PreconditionFailedExceptions;
 import io.reactivex.Observable;
 import io.reactivex.Single;
 import io.reactivex.observers.TestObserver;
@@ -26,6 +27,8 @@ import io.reactivex.observers.TestObserver;
 
 import io.vertx.junit5.VertxExtension;
 import io.vertx.junit5.VertxTestContext;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
@@ -73,28 +76,102 @@ public class RxFirestoreUpdateTest {
 	}
 
 
-/*
-	@Ignore
 	@Test
-	public void should_update_partial_car(){
-
+	public void should_update_partial_car_in_transaction() {
 		String expectedModel = "Auris_updated";
-		HashMap<String, Object> u = new HashMap();
-		u.put("model", expectedModel);
-
-		var vehicle = new Vehicle("Toyota", "Auris", true);
-		var ID = vehicleRepository.insert(vehicle).blockingGet();
-		vehicle.setModel(expectedModel);
-		var isUpdated = vehicleRepository.update(ID, Vehicle.CARS_COLLECTION_NAME, u).blockingGet();
-
-		if (isUpdated) {
-			var retrievedCar = vehicleRepository.get(ID, Vehicle.CARS_COLLECTION_NAME).blockingGet();
-			assertEquals(retrievedCar.getModel(), expectedModel);
-		}else{
-			assertTrue(false, "Should update vehicle model, but return isUpdated false.");
-		}
+		VehicleRepository repository = TestSuite.getInstance().vehicleRepository;
+		String id = repository.insert(new Vehicle(brandName, "Auris", true)).blockingGet();
+
+		Boolean updated = repository.runTransaction(transaction -> transaction.get(id, Vehicle.CARS_COLLECTION_NAME)
+			.toSingle()
+			.map(vehicle -> {
+				HashMap<String, Object> fields = new HashMap<>();
+				fields.put(Vehicle.MODEL, expectedModel);
+				transaction.update(id, Vehicle.CARS_COLLECTION_NAME, fields);
+				return true;
+			}))
+			.blockingGet();
+
+		assertThat(updated).isTrue();
+		assertThat(repository.get(id, Vehicle.CARS_COLLECTION_NAME).blockingGet().getModel()).isEqualTo(expectedModel);
+		assertThat(repository.getTransactionMetrics().getCommitted()).isPositive();
+	}
+
+	@Test
+	public void should_increment_without_reading() {
+		VehicleRepository repository = TestSuite.getInstance().vehicleRepository;
+		Vehicle vehicle = new Vehicle(brandName, "Auris", true);
+		vehicle.setDisplacement(1800);
+		String id = repository.insert(vehicle).blockingGet();
+
+		Single.merge(
+			repository.transform(id, Vehicle.CARS_COLLECTION_NAME, new FieldTransforms().increment(Vehicle.DISPLACEMENT, 100)),
+			repository.transform(id, Vehicle.CARS_COLLECTION_NAME, new FieldTransforms().increment(Vehicle.DISPLACEMENT, 50)))
+			.blockingSubscribe();
+
+		Vehicle retrieved = repository.get(id, Vehicle.CARS_COLLECTION_NAME).blockingGet();
+		assertThat(retrieved.getDisplacement().longValue()).isEqualTo(1950);
+	}
+
+	@Test
+	public void should_fail_update_of_stale_version() {
+		VehicleRepository repository = TestSuite.getInstance().vehicleRepository;
+		String id = repository.insert(new Vehicle(brandName, "Auris", true)).blockingGet();
+		Versioned<Vehicle> read = repository.getVersioned(id, Vehicle.CARS_COLLECTION_NAME).blockingGet();
+
+		read.getEntity().setModel("Auris_updated");
+		repository.update(id, Vehicle.CARS_COLLECTION_NAME, read.getEntity(), read.getUpdateTime()).blockingGet();
+
+		repository.update(id, Vehicle.CARS_COLLECTION_NAME, read.getEntity(), read.getUpdateTime())
+			.test()
+			.awaitDone(5, TimeUnit.SECONDS)
+			.assertError(PreconditionFailedExceptions.class);
 	}
 
+	@Test
+	public void should_check_precondition_of_unchanged_dirty_tracking_entity() {
+		RxFirestoreSdk<DirtyTrackingEntityTest.Car> repository = new RxFirestoreSdk<>(DirtyTrackingEntityTest.Car::new,
+			TestSuite.getInstance().getVertx());
+		DirtyTrackingEntityTest.Car car = new DirtyTrackingEntityTest.Car();
+		car.brand = brandName;
+		car.year = 2019L;
+		car.engine = new HashMap<>();
+		String id = repository.insert(car).blockingGet();
+		Versioned<DirtyTrackingEntityTest.Car> read = repository.getVersioned(id, Vehicle.CARS_COLLECTION_NAME)
+			.blockingGet();
+
+		assertThat(read.getEntity().hasChanges()).isFalse();
+		assertThat(repository.update(id, Vehicle.CARS_COLLECTION_NAME, read.getEntity(), read.getUpdateTime())
+			.blockingGet()).isTrue();
+
+		repository.transform(id, Vehicle.CARS_COLLECTION_NAME, new FieldTransforms().increment("year", 1)).blockingGet();
+
+		repository.update(id, Vehicle.CARS_COLLECTION_NAME, read.getEntity(), read.getUpdateTime())
+			.test()
+			.awaitDone(5, TimeUnit.SECONDS)
+			.assertError(PreconditionFailedExceptions.class);
+
+		repository.delete(id, Vehicle.CARS_COLLECTION_NAME).blockingGet();
+
+		repository.update(id, Vehicle.CARS_COLLECTION_NAME, read.getEntity(), read.getUpdateTime())
+			.test()
+			.awaitDone(5, TimeUnit.SECONDS)
+			.assertError(PreconditionFailedExceptions.class);
+	}
 
-*/
+	@Test
+	public void should_retry_concurrent_read_modify_write() {
+		VehicleRepository repository = TestSuite.getInstance().vehicleRepository;
+		Vehicle vehicle = new Vehicle(brandName, "Auris", true);
+		vehicle.setDisplacement(0);
+		String id = repository.insert(vehicle).blockingGet();
+
+		Single.merge(Collections.nCopies(3, repository.readModifyWrite(id, Vehicle.CARS_COLLECTION_NAME, car -> {
+			car.setDisplacement(car.getDisplacement().longValue() + 1);
+			return car;
+		}))).blockingSubscribe();
+
+		Vehicle retrieved = repository.get(id, Vehicle.CARS_COLLECTION_NAME).blockingGet();
+		assertThat(retrieved.getDisplacement().longValue()).isEqualTo(3);
+	}
 }
@@ -25,6 +25,7 @@ import com.github.pjgg.rxfirestore.exceptions.NotFoundExceptions;
 import io.vertx.core.eventbus.ReplyException;
 import io.vertx.junit5.VertxExtension;
 import io.vertx.junit5.VertxTestContext;
+import java.util.Arrays;
 import java.util.List;
 
 import io.reactivex.Observable;
@@ -107,6 +108,116 @@ public class RxfirestoreGetTest {
 	}
 
 
+	@Test
+	public void should_get_many_cars_and_report_missing() {
+		VehicleRepository vehicleRepository = TestSuite.getInstance().vehicleRepository;
+		String first = vehicleRepository.insert(new Vehicle(brandName, "Auris", true)).blockingGet();
+		String second = vehicleRepository.insert(new Vehicle(brandName, "Yaris", false)).blockingGet();
+
+		GetAllResponse<Vehicle> response = vehicleRepository
+			.get(Arrays.asList(second, "001", first), Vehicle.CARS_COLLECTION_NAME).blockingGet();
+
+		assertThat(response.getFound().keySet()).containsExactly(second, first);
+		assertThat(response.getFound().get(first).getModel()).isEqualTo("Auris");
+		assertThat(response.getMissing()).containsExactly("001");
+	}
+
+	@Test
+	public void should_stream_every_car_page_by_page() {
+		VehicleRepository vehicleRepository = TestSuite.getInstance().vehicleRepository;
+		for (int i = 0; i < 5; i++) {
+			vehicleRepository.insert(new Vehicle(brandName, "Auris", true)).blockingGet();
+		}
+
+		Query query = vehicleRepository.queryBuilderSync(Vehicle.CARS_COLLECTION_NAME).whereEqualTo("brand", brandName);
+		List<Vehicle> vehicles = vehicleRepository.stream(query, 2).toList().blockingGet();
+
+		assertThat(vehicles).hasSize(5).allMatch(v -> v.getBrand().equals(brandName));
+	}
+
+	@Test
+	public void should_server_stream_cars() {
+		VehicleRepository vehicleRepository = TestSuite.getInstance().vehicleRepository;
+		for (int i = 0; i < 3; i++) {
+			vehicleRepository.insert(new Vehicle(brandName, "Auris", true)).blockingGet();
+		}
+
+		Query query = vehicleRepository.queryBuilderSync(Vehicle.CARS_COLLECTION_NAME).whereEqualTo("brand", brandName);
+		List<Vehicle> vehicles = vehicleRepository.serverStream(query).toList().blockingGet();
+
+		assertThat(vehicles).hasSize(3).allMatch(v -> v.getBrand().equals(brandName));
+	}
+
+	@Test
+	public void should_select_fields_and_stream_ids() {
+		VehicleRepository vehicleRepository = TestSuite.getInstance().vehicleRepository;
+		String id = vehicleRepository.insert(new Vehicle(brandName, "Auris", true)).blockingGet();
+
+		Query query = vehicleRepository.queryBuilderSync(Vehicle.CARS_COLLECTION_NAME)
+			.whereEqualTo("brand", brandName)
+			.select(Vehicle.BRAND);
+		List<Vehicle> vehicles = vehicleRepository.get(query).blockingGet();
+
+		assertThat(vehicles).hasSize(1).allMatch(v -> v.getBrand().equals(brandName) && v.getModel().equals("NONE"));
+		assertThat(vehicleRepository.streamIds(query).toList().blockingGet()).containsExactly(id);
+	}
+
+	@Test
+	public void should_page_with_cursors() {
+		VehicleRepository vehicleRepository = TestSuite.getInstance().vehicleRepository;
+		for (int i = 0; i < 3; i++) {
+			vehicleRepository.insert(new Vehicle(brandName, "Auris", true)).blockingGet();
+		}
+
+		Query first = vehicleRepository.queryBuilderSync(Vehicle.CARS_COLLECTION_NAME)
+			.whereEqualTo("brand", brandName)
+			.orderBy(Query.DOCUMENT_ID)
+			.withLimit(2);
+		List<Vehicle> firstPage = vehicleRepository.get(first).blockingGet();
+		Vehicle last = firstPage.get(firstPage.size() - 1);
+
+		Query next = vehicleRepository.queryBuilderSync(Vehicle.CARS_COLLECTION_NAME)
+			.whereEqualTo("brand", brandName)
+			.orderBy(Query.DOCUMENT_ID)
+			.startAfter(last, last.getId())
+			.withLimit(2);
+		List<Vehicle> nextPage = vehicleRepository.get(next).blockingGet();
+
+		assertThat(firstPage).hasSize(2);
+		assertThat(nextPage).hasSize(1);
+		assertThat(nextPage.get(0).getId().compareTo(last.getId())).isPositive();
+	}
+
+	@Test
+	public void should_count_and_aggregate_cars() {
+		VehicleRepository vehicleRepository = TestSuite.getInstance().vehicleRepository;
+		for (int i = 0; i < 3; i++) {
+			vehicleRepository.insert(new Vehicle(brandName, "Auris", true)).blockingGet();
+		}
+
+		Query query = vehicleRepository.queryBuilderSync(Vehicle.CARS_COLLECTION_NAME).whereEqualTo("brand", brandName);
+
+		assertThat(vehicleRepository.count(query).blockingGet()).isEqualTo(3);
+		assertThat(vehicleRepository.count(query, 4).blockingGet()).isEqualTo(3);
+		assertThat(vehicleRepository.aggregate(query, Vehicle.MODEL, 2).blockingGet().getMax()).isEqualTo("Auris");
+	}
+
+	@Test
+	public void should_scan_partitions_concurrently() {
+		VehicleRepository vehicleRepository = TestSuite.getInstance().vehicleRepository;
+		for (int i = 0; i < 5; i++) {
+			vehicleRepository.insert(new Vehicle(brandName, "Auris", true)).blockingGet();
+		}
+
+		Query query = vehicleRepository.queryBuilderSync(Vehicle.CARS_COLLECTION_NAME).whereEqualTo("brand", brandName);
+		PartitionedScan<Vehicle> scan = vehicleRepository.scan(query, 4);
+		List<Vehicle> vehicles = scan.toFlowable(2).toList().blockingGet();
+
+		assertThat(vehicles).hasSize(5).allMatch(v -> v.getBrand().equals(brandName));
+		assertThat(scan.getDocuments()).isEqualTo(5);
+		assertThat(scan.getProgress()).hasSize(4).allMatch(p -> p.getState() == ScanProgress.State.DONE);
+	}
+
 	@Test
 	public void should_get_where() throws Throwable {
 		TestObserver<List<Vehicle>> testObserver = new TestObserver();
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.reactivex.subscribers.TestSubscriber;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.reactivex.core.Vertx;
+import io.vertx.reactivex.core.eventbus.EventBus;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ServerStreamTest {
+
+	private Vertx vertx;
+	private EventBus eventBus;
+
+	@Before
+	public void setup() {
+		vertx = Vertx.vertx();
+		eventBus = vertx.eventBus();
+		eventBus.getDelegate().registerCodec(new QueryMessageCodec());
+		eventBus.getDelegate().registerCodec(new DocumentListMessageCodec());
+	}
+
+	@After
+	public void tearDown() {
+		vertx.close();
+	}
+
+	@Test
+	public void should_fail_without_stream_handler() throws InterruptedException {
+		TestSubscriber<Map<String, Object>> subscriber = RxFirestoreSdk
+			.receiveStream(eventBus, new Query(Vehicle.CARS_COLLECTION_NAME), 1000, 60000).test();
+
+		subscriber.await(5, TimeUnit.SECONDS);
+		subscriber.assertError(err -> err instanceof ReplyException
+			&& ((ReplyException) err).failureType() == ReplyFailure.NO_HANDLERS);
+	}
+
+	@Test
+	public void should_fail_when_the_stream_stops() throws InterruptedException {
+		eventBus.localConsumer(FirestoreTemplate.TOPIC_QUERY_STREAM, message -> {
+			message.reply(null);
+			eventBus.send(message.headers().get("_streamAddress"),
+				Collections.singletonList(Collections.singletonMap("_id", "1")),
+				new DeliveryOptions().setCodecName(DocumentListMessageCodec.NAME));
+		});
+
+		TestSubscriber<Map<String, Object>> subscriber = RxFirestoreSdk
+			.receiveStream(eventBus, new Query(Vehicle.CARS_COLLECTION_NAME), 1000, 200).test();
+
+		subscriber.await(5, TimeUnit.SECONDS);
+		assertThat(subscriber.values()).hasSize(1);
+		subscriber.assertError(err -> err instanceof ReplyException
+			&& ((ReplyException) err).failureType() == ReplyFailure.TIMEOUT);
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.cloud.firestore.DocumentChange;
+import com.google.cloud.firestore.EventListener;
+import com.google.cloud.firestore.QuerySnapshot;
+import io.reactivex.Flowable;
+import io.reactivex.subscribers.TestSubscriber;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class SharedQueryListenersTest {
+
+	private final List<SharedQueryListeners<Vehicle>.Shared> registered = new ArrayList<>();
+	private final AtomicInteger removed = new AtomicInteger();
+	private final SharedQueryListeners<Vehicle> listeners = new SharedQueryListeners<>(Vehicle::new, this::register);
+
+	@Test
+	public void should_share_a_listener_per_query() {
+		TestSubscriber<Vehicle> first = listeners.listen(toyotas(), ListenerBackpressure.BUFFER, 10).test();
+		TestSubscriber<Vehicle> second = listeners.listen(toyotas(), ListenerBackpressure.BUFFER, 10).test();
+		listeners.listen(new Query(Vehicle.CARS_COLLECTION_NAME), ListenerBackpressure.BUFFER, 10).test();
+
+		assertThat(registered).hasSize(2);
+		assertThat(listeners.getSubscribers()).isEqualTo(3);
+
+		registered.get(0).apply(DocumentChange.Type.ADDED, "1", car("Auris"));
+
+		first.assertValueCount(1);
+		second.assertValueCount(1);
+		assertThat(first.values().get(0)).isSameAs(second.values().get(0));
+	}
+
+	@Test
+	public void should_share_a_listener_of_queries_that_only_differ_on_limit() {
+		listeners.listen(toyotas().withLimit(10), ListenerBackpressure.BUFFER, 10).test();
+		listeners.listen(toyotas().withOffset(5).select(Vehicle.MODEL), ListenerBackpressure.BUFFER, 10).test();
+
+		assertThat(registered).hasSize(1);
+	}
+
+	@Test
+	public void should_not_share_a_listener_of_queries_that_can_not_be_encoded() {
+		Query query = toyotas().whereEqualTo("currency", Currency.getInstance("EUR"));
+
+		Flowable<Vehicle> first = listeners.listen(query, ListenerBackpressure.BUFFER, 10);
+		first.test();
+		TestSubscriber<Vehicle> second = listeners.listen(query, ListenerBackpressure.BUFFER, 10).test();
+
+		assertThat(registered).hasSize(2);
+		second.cancel();
+		assertThat(removed.get()).isEqualTo(1);
+		assertThat(listeners.getListeners()).isEqualTo(1);
+	}
+
+	@Test
+	public void should_replay_current_documents_to_late_subscribers() {
+		TestSubscriber<Vehicle> first = listeners.listen(toyotas(), ListenerBackpressure.BUFFER, 10).test();
+		SharedQueryListeners<Vehicle>.Shared shared = registered.get(0);
+		shared.apply(DocumentChange.Type.ADDED, "1", car("Auris"));
+		shared.apply(DocumentChange.Type.ADDED, "2", car("Yaris"));
+		shared.apply(DocumentChange.Type.MODIFIED, "1", car("Corolla"));
+		shared.apply(DocumentChange.Type.REMOVED, "2", car("Yaris"));
+
+		TestSubscriber<Vehicle> late = listeners.listen(toyotas(), ListenerBackpressure.BUFFER, 10).test();
+		shared.apply(DocumentChange.Type.ADDED, "3", car("Prius"));
+
+		first.assertValueCount(5);
+		late.assertValueCount(2);
+		late.assertValueAt(0, v -> v.getModel().equals("Corolla") && v.getEventType().equals("ADDED"));
+		late.assertValueAt(1, v -> v.getModel().equals("Prius"));
+	}
+
+	@Test
+	public void should_remove_the_listener_with_the_last_subscriber() {
+		TestSubscriber<Vehicle> first = listeners.listen(toyotas(), ListenerBackpressure.LATEST, 10).test();
+		TestSubscriber<Vehicle> second = listeners.listen(toyotas(), ListenerBackpressure.LATEST, 10).test();
+
+		first.cancel();
+		assertThat(removed.get()).isZero();
+
+		second.cancel();
+		assertThat(removed.get()).isEqualTo(1);
+		assertThat(listeners.getListeners()).isZero();
+
+		listeners.listen(toyotas(), ListenerBackpressure.LATEST, 10).test();
+		assertThat(registered).hasSize(2);
+	}
+
+	@Test
+	public void should_keep_latest_change_per_document_of_busy_subscribers() {
+		TestSubscriber<Vehicle> busy = listeners.listen(toyotas(), ListenerBackpressure.LATEST_PER_DOCUMENT, 10)
+			.test(0);
+		SharedQueryListeners<Vehicle>.Shared shared = registered.get(0);
+		shared.apply(DocumentChange.Type.ADDED, "1", car("Auris"));
+		shared.apply(DocumentChange.Type.MODIFIED, "1", car("Corolla"));
+		shared.apply(DocumentChange.Type.ADDED, "2", car("Yaris"));
+
+		busy.request(10);
+
+		busy.assertValueCount(2);
+		busy.assertValueAt(0, v -> v.getModel().equals("Corolla"));
+	}
+
+	@Test
+	public void should_not_block_other_queries_while_a_subscriber_is_slow() throws InterruptedException {
+		CountDownLatch delivering = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		listeners.listen(toyotas(), ListenerBackpressure.BUFFER, 10).subscribe(vehicle -> {
+			delivering.countDown();
+			release.await();
+		});
+		Thread listenerThread = new Thread(() -> registered.get(0).apply(DocumentChange.Type.ADDED, "1", car("Auris")));
+		listenerThread.start();
+		assertThat(delivering.await(5, TimeUnit.SECONDS)).isTrue();
+
+		TestSubscriber<Vehicle> other = listeners.listen(new Query(Vehicle.CARS_COLLECTION_NAME),
+			ListenerBackpressure.BUFFER, 10).test();
+		registered.get(1).apply(DocumentChange.Type.ADDED, "2", car("Yaris"));
+
+		other.assertValueCount(1);
+		assertThat(listeners.getSubscribers()).isEqualTo(2);
+
+		release.countDown();
+		listenerThread.join(5000);
+	}
+
+	private com.google.cloud.firestore.ListenerRegistration register(Query query,
+		EventListener<QuerySnapshot> listener) {
+		registered.add((SharedQueryListeners<Vehicle>.Shared) listener);
+		return removed::incrementAndGet;
+	}
+
+	private static Query toyotas() {
+		return new Query(Vehicle.CARS_COLLECTION_NAME).whereEqualTo(Vehicle.BRAND, "Toyota");
+	}
+
+	private static Map<String, Object> car(String model) {
+		Map<String, Object> car = new HashMap<>();
+		car.put(Vehicle.BRAND, "Toyota");
+		car.put(Vehicle.MODEL, model);
+		car.put("electric", false);
+		return car;
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.reactivex.observers.TestObserver;
+import io.reactivex.subjects.SingleSubject;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+	@Test
+	public void should_share_running_call() {
+		SingleFlight singleFlight = new SingleFlight();
+		SingleSubject<String> response = SingleSubject.create();
+		AtomicInteger calls = new AtomicInteger();
+
+		TestObserver<String> first = singleFlight.execute("cars/001", () -> {
+			calls.incrementAndGet();
+			return response;
+		}).test();
+		TestObserver<String> second = singleFlight.execute("cars/001", () -> {
+			calls.incrementAndGet();
+			return response;
+		}).test();
+
+		assertThat(calls.get()).isEqualTo(1);
+		assertThat(singleFlight.getInFlight()).isEqualTo(1);
+
+		response.onSuccess("Toyota");
+
+		first.assertValue("Toyota");
+		second.assertValue("Toyota");
+		assertThat(singleFlight.getHits()).isEqualTo(1);
+		assertThat(singleFlight.getMisses()).isEqualTo(1);
+		assertThat(singleFlight.getInFlight()).isZero();
+	}
+
+	@Test
+	public void should_release_key_when_call_ends() {
+		SingleFlight singleFlight = new SingleFlight();
+		SingleSubject<String> failed = SingleSubject.create();
+
+		TestObserver<String> first = singleFlight.execute("cars/001", () -> failed).test();
+		failed.onError(new IllegalStateException("boom"));
+		TestObserver<String> second = singleFlight.execute("cars/001", () -> SingleSubject.<String>create()).test();
+
+		first.assertError(IllegalStateException.class);
+		second.assertNotComplete();
+		assertThat(singleFlight.getMisses()).isEqualTo(2);
+		assertThat(singleFlight.getHits()).isZero();
+	}
+
+	@Test
+	public void should_not_share_different_keys() {
+		SingleFlight singleFlight = new SingleFlight();
+		Query toyota = new Query(Vehicle.CARS_COLLECTION_NAME).whereEqualTo(Vehicle.BRAND, "Toyota");
+		Query seat = new Query(Vehicle.CARS_COLLECTION_NAME).whereEqualTo(Vehicle.BRAND, "Seat");
+
+		singleFlight.execute(ByteBuffer.wrap(QueryDescriptor.encode(toyota)), SingleSubject::create).test();
+		singleFlight.execute(ByteBuffer.wrap(QueryDescriptor.encode(seat)), SingleSubject::create).test();
+		singleFlight.execute(ByteBuffer.wrap(QueryDescriptor.encode(toyota)), SingleSubject::create).test();
+
+		assertThat(singleFlight.getMisses()).isEqualTo(2);
+		assertThat(singleFlight.getHits()).isEqualTo(1);
+	}
+}
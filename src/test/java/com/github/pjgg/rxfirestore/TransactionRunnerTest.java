@@ -0,0 +1,116 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.firestore.Transaction;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.reactivex.Single;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.TestScheduler;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class TransactionRunnerTest {
+
+	private final TestScheduler scheduler = new TestScheduler();
+	private final AtomicLong now = new AtomicLong();
+	private final AtomicInteger runs = new AtomicInteger();
+	private final AtomicInteger aborts = new AtomicInteger();
+	private final TransactionRunner runner = new TransactionRunner(this::attempt, scheduler, now::get, () -> 1.0);
+
+	@Test
+	public void should_retry_aborted_attempts_after_backoff() {
+		aborts.set(2);
+
+		TestObserver<String> observer = runner.run(transaction -> Single.just("done"), 5).test();
+
+		observer.assertNoValues();
+		assertThat(runs).hasValue(1);
+
+		scheduler.advanceTimeBy(TransactionRunner.BASE_BACKOFF_MS, TimeUnit.MILLISECONDS);
+		assertThat(runs).hasValue(2);
+
+		scheduler.advanceTimeBy(TransactionRunner.BASE_BACKOFF_MS * 2, TimeUnit.MILLISECONDS);
+		observer.assertValue("done");
+
+		TransactionMetrics metrics = runner.getMetrics();
+		assertThat(metrics.getAttempts()).isEqualTo(3);
+		assertThat(metrics.getRetries()).isEqualTo(2);
+		assertThat(metrics.getAttemptsToCommit()).containsEntry(3, 1L);
+		assertThat(metrics.getAbortReasons()).containsEntry(TransactionRunner.ABORTED, 2L);
+		assertThat(metrics.getAverageCommitLatencyMs()).isEqualTo(5.0);
+	}
+
+	@Test
+	public void should_fail_after_max_attempts() {
+		aborts.set(10);
+
+		TestObserver<String> observer = runner.run(transaction -> Single.just("done"), 2).test();
+		scheduler.advanceTimeBy(1, TimeUnit.MINUTES);
+
+		observer.assertError(StatusRuntimeException.class);
+		assertThat(runs).hasValue(2);
+		assertThat(runner.getMetrics().getFailed()).isEqualTo(1);
+		assertThat(runner.getMetrics().getCommitted()).isZero();
+	}
+
+	@Test
+	public void should_not_retry_function_errors() {
+		runner.run(transaction -> Single.error(new IllegalStateException("out of stock")), 5)
+			.test()
+			.assertError(IllegalStateException.class);
+
+		assertThat(runs).hasValue(1);
+		assertThat(runner.getMetrics().getAbortReasons()).containsOnlyKeys("IllegalStateException");
+	}
+
+	@Test
+	public void should_cap_jittered_backoff() {
+		TransactionRunner half = new TransactionRunner(this::attempt, scheduler, now::get, () -> 0.5);
+
+		assertThat(runner.backoffMs(1)).isEqualTo(TransactionRunner.BASE_BACKOFF_MS);
+		assertThat(runner.backoffMs(3)).isEqualTo(TransactionRunner.BASE_BACKOFF_MS * 4);
+		assertThat(runner.backoffMs(30)).isEqualTo(TransactionRunner.MAX_BACKOFF_MS);
+		assertThat(half.backoffMs(1)).isEqualTo(TransactionRunner.BASE_BACKOFF_MS / 2);
+	}
+
+	/**
+	 * Fake Firestore client: runs the function without transaction, the commit takes 5ms, and the first attempts are
+	 * aborted.
+	 */
+	private ApiFuture<Object> attempt(Transaction.Function<Object> function) {
+		runs.incrementAndGet();
+		try {
+			Object result = function.updateCallback(null);
+			now.addAndGet(TimeUnit.MILLISECONDS.toNanos(5));
+			if (aborts.getAndDecrement() > 0) {
+				return ApiFutures.immediateFailedFuture(new StatusRuntimeException(Status.ABORTED));
+			}
+			return ApiFutures.immediateFuture(result);
+		} catch (Exception e) {
+			return ApiFutures.immediateFailedFuture(e);
+		}
+	}
+}
@@ -17,14 +17,17 @@
 
 package com.github.pjgg.rxfirestore;
 
-import com.fasterxml.jackson.annotation.JsonFormat.Shape;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.github.pjgg.rxfirestore.mapper.DocumentId;
+import com.github.pjgg.rxfirestore.mapper.EventType;
+import com.github.pjgg.rxfirestore.mapper.FirestoreEntity;
 import io.vertx.core.json.Json;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
-import com.fasterxml.jackson.annotation.JsonFormat;
 
+@FirestoreEntity
 public class Vehicle implements Entity {
 
 	public final static String CARS_COLLECTION_NAME = "cars";
@@ -33,14 +36,16 @@ public class Vehicle implements Entity {
 	public final static String ELECTRIC = "electric";
 	public final static String DISPLACEMENT = "displacement";
 
+	@DocumentId
 	private String id;
+	@EventType
 	private String eventType;
 	private String brand;
 	private String model;
 	private Boolean electric;
 	private Number displacement;
 
-	@JsonFormat(shape = Shape.STRING, pattern = "dd-MM-yyyy hh:mm:ss")
+	@JsonIgnore
 	private Date createdDate;
 
 	public Vehicle() {
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.reactivex.Single;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.subjects.SingleSubject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Test;
+
+public class WriteCoalescerTest {
+
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+	private final List<List<String>> commits = new ArrayList<>();
+	private final List<SingleSubject<Boolean>> responses = new ArrayList<>();
+
+	@After
+	public void tearDown() {
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void should_commit_when_batch_is_full() {
+		WriteCoalescer coalescer = new WriteCoalescer(60000, 3, scheduler, this::commit);
+
+		List<TestObserver<Boolean>> observers = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			observers.add(coalescer.submit("cars/" + i, batch -> { }).test());
+		}
+
+		assertThat(commits).containsExactly(paths("cars/0", "cars/1", "cars/2"));
+		responses.get(0).onSuccess(true);
+
+		observers.forEach(observer -> observer.assertValue(true));
+		assertThat(coalescer.getBatches()).isEqualTo(1);
+		assertThat(coalescer.getAverageBatchSize()).isEqualTo(3.0);
+		assertThat(coalescer.getMaxObservedBatchSize()).isEqualTo(3);
+	}
+
+	@Test
+	public void should_commit_when_window_ends() {
+		WriteCoalescer coalescer = new WriteCoalescer(10, 200, scheduler, writes -> Single.just(true));
+
+		TestObserver<Boolean> first = coalescer.submit("cars/0", batch -> { }).test();
+		TestObserver<Boolean> second = coalescer.submit("cars/1", batch -> { }).test();
+
+		first.awaitDone(1, TimeUnit.SECONDS).assertValue(true);
+		second.awaitDone(1, TimeUnit.SECONDS).assertValue(true);
+		assertThat(coalescer.getBatches()).isEqualTo(1);
+	}
+
+	@Test
+	public void should_never_write_same_document_twice_in_one_batch() {
+		WriteCoalescer coalescer = new WriteCoalescer(60000, 200, scheduler, this::commit);
+
+		coalescer.submit("cars/0", batch -> { }).test();
+		coalescer.submit("cars/1", batch -> { }).test();
+		TestObserver<Boolean> rewrite = coalescer.submit("cars/0", batch -> { }).test();
+		coalescer.flush();
+
+		assertThat(commits).containsExactly(paths("cars/0", "cars/1"));
+		assertThat(coalescer.getDuplicateFlushes()).isEqualTo(1);
+
+		responses.get(0).onSuccess(true);
+
+		assertThat(commits).containsExactly(paths("cars/0", "cars/1"), paths("cars/0"));
+		responses.get(1).onSuccess(true);
+		rewrite.assertValue(true);
+	}
+
+	@Test
+	public void should_commit_one_by_one_when_batch_fails() {
+		WriteCoalescer coalescer = new WriteCoalescer(60000, 2, scheduler, writes -> {
+			boolean fails = writes.stream().anyMatch(write -> write.getPath().equals("cars/missing"));
+			return fails ? Single.error(new IllegalStateException("NOT_FOUND")) : Single.just(true);
+		});
+
+		TestObserver<Boolean> existing = coalescer.submit("cars/0", batch -> { }).test();
+		TestObserver<Boolean> missing = coalescer.submit("cars/missing", batch -> { }).test();
+
+		existing.assertValue(true);
+		missing.assertError(IllegalStateException.class);
+		assertThat(coalescer.getFallbacks()).isEqualTo(1);
+	}
+
+	@Test
+	public void should_commit_pending_writes_on_close() {
+		WriteCoalescer coalescer = new WriteCoalescer(60000, 200, scheduler, this::commit);
+
+		TestObserver<Boolean> pending = coalescer.submit("cars/0", batch -> { }).test();
+		TestObserver<Void> closed = coalescer.close().test();
+
+		assertThat(commits).containsExactly(paths("cars/0"));
+		closed.assertNotComplete();
+		coalescer.submit("cars/1", batch -> { }).test().assertError(IllegalStateException.class);
+
+		responses.get(0).onSuccess(true);
+
+		pending.assertValue(true);
+		closed.assertComplete();
+		assertThat(commits).hasSize(1);
+	}
+
+	private Single<Boolean> commit(List<WriteCoalescer.Write> writes) {
+		commits.add(writes.stream().map(WriteCoalescer.Write::getPath).collect(Collectors.toList()));
+		SingleSubject<Boolean> response = SingleSubject.create();
+		responses.add(response);
+		return response;
+	}
+
+	private static List<String> paths(String... paths) {
+		return Arrays.asList(paths);
+	}
+}
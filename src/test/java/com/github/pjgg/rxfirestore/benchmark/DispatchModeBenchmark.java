@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore.benchmark;
+
+import com.github.pjgg.rxfirestore.DispatchMode;
+import com.github.pjgg.rxfirestore.RxFirestoreSdk;
+import com.github.pjgg.rxfirestore.RxFirestoreSdkOptions;
+import com.github.pjgg.rxfirestore.Vehicle;
+import io.vertx.reactivex.core.Vertx;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compare EVENT_BUS against DIRECT dispatch mode: throughput and latency percentiles of get by ID against a real
+ * Firestore database (GOOGLE_APPLICATION_CREDENTIALS is required).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Threads(16)
+@Fork(1)
+public class DispatchModeBenchmark {
+
+	@Param({"EVENT_BUS", "DIRECT"})
+	private DispatchMode dispatchMode;
+
+	private Vertx vertx;
+	private RxFirestoreSdk<Vehicle> repository;
+	private String documentId;
+
+	@Setup
+	public void setup() {
+		vertx = Vertx.vertx();
+		repository = new RxFirestoreSdk<>(Vehicle::new, vertx,
+			new RxFirestoreSdkOptions().setDispatchMode(dispatchMode));
+		documentId = repository.insert(new Vehicle("Toyota", "Auris", true)).blockingGet();
+	}
+
+	@TearDown
+	public void tearDown() {
+		repository.delete(documentId, Vehicle.CARS_COLLECTION_NAME).blockingGet();
+		vertx.close();
+	}
+
+	@Benchmark
+	public Vehicle get() {
+		return repository.get(documentId, Vehicle.CARS_COLLECTION_NAME).blockingGet();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(DispatchModeBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore.benchmark;
+
+import com.github.pjgg.rxfirestore.Vehicle;
+import com.github.pjgg.rxfirestore.mapper.EntityMapper;
+import com.github.pjgg.rxfirestore.mapper.EntityMappers;
+import io.vertx.core.json.Json;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compare Jackson (entity to document) and fromJsonAsMap (document to entity) against the generated EntityMapper.
+ * Does not need Firestore.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EntityMappingBenchmark {
+
+	private Vehicle vehicle;
+	private Map<String, Object> document;
+	private EntityMapper<Vehicle> mapper;
+
+	@Setup
+	public void setup() {
+		vehicle = new Vehicle("Toyota", "Auris", true);
+		document = new HashMap<>();
+		document.put("_id", "001");
+		document.put(Vehicle.BRAND, "Toyota");
+		document.put(Vehicle.MODEL, "Auris");
+		document.put(Vehicle.ELECTRIC, true);
+		document.put(Vehicle.DISPLACEMENT, 1800L);
+		mapper = EntityMappers.lookup(Vehicle.class).get();
+	}
+
+	@Benchmark
+	public HashMap<String, Object> jacksonToMap() {
+		return Json.mapper.convertValue(vehicle, HashMap.class);
+	}
+
+	@Benchmark
+	public HashMap<String, Object> mapperToMap() {
+		return mapper.toMap(vehicle);
+	}
+
+	@Benchmark
+	public Object fromJsonAsMap() {
+		return new Vehicle().fromJsonAsMap(document);
+	}
+
+	@Benchmark
+	public Vehicle mapperFromMap() {
+		return mapper.fromMap(document, new Vehicle());
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(EntityMappingBenchmark.class.getSimpleName()).build()).run();
+	}
+}
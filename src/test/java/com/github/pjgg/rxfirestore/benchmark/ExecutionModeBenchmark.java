@@ -0,0 +1,107 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.pjgg.rxfirestore.benchmark;
+
+import com.github.pjgg.rxfirestore.FirestoreTemplate;
+import io.reactivex.Flowable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compare BLOCKING against ASYNC execution mode, firing a burst of concurrent get calls against a real Firestore
+ * database (GOOGLE_APPLICATION_CREDENTIALS is required). BLOCKING mode is simulated with a pool of
+ * DB_THREAD_POOL_SIZE threads, as the worker pool does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class ExecutionModeBenchmark {
+
+	private static final String COLLECTION_NAME = "benchmark";
+
+	@Param({"1000", "5000"})
+	private int concurrentRequests;
+
+	private FirestoreTemplate firestoreTemplate;
+	private ExecutorService workerPool;
+	private String documentId;
+
+	@Setup
+	public void setup() {
+		firestoreTemplate = new FirestoreTemplate();
+		workerPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2);
+
+		HashMap<String, Object> document = new HashMap<>();
+		document.put("brand", "Toyota");
+		document.put("model", "Auris");
+		documentId = firestoreTemplate.insert(document, COLLECTION_NAME);
+	}
+
+	@TearDown
+	public void tearDown() {
+		firestoreTemplate.delete(documentId, COLLECTION_NAME);
+		workerPool.shutdownNow();
+	}
+
+	@Benchmark
+	public void blocking() throws Exception {
+		List<Future<?>> responses = new ArrayList<>(concurrentRequests);
+		for (int i = 0; i < concurrentRequests; i++) {
+			responses.add(workerPool.submit(() -> firestoreTemplate.get(documentId, COLLECTION_NAME)));
+		}
+
+		for (Future<?> response : responses) {
+			response.get();
+		}
+	}
+
+	@Benchmark
+	public void async() {
+		Flowable.range(0, concurrentRequests)
+			.flatMapSingle(i -> firestoreTemplate.rxGet(documentId, COLLECTION_NAME), false, concurrentRequests)
+			.ignoreElements()
+			.blockingAwait();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(ExecutionModeBenchmark.class.getSimpleName()).build()).run();
+	}
+}
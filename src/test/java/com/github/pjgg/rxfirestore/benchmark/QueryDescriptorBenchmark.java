@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019 RxFirestore.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.github.pjgg.rxfirestore.benchmark;
+
+import com.github.pjgg.rxfirestore.Query;
+import com.github.pjgg.rxfirestore.QueryDescriptor;
+import com.github.pjgg.rxfirestore.Vehicle;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.SerializationUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compare Java object serialization of a Query against its compact binary encoding (QueryDescriptor). Each benchmark
+ * encodes and decodes the same query. Does not need Firestore.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryDescriptorBenchmark {
+
+	private Query query;
+
+	@Setup
+	public void setup() {
+		query = new BenchmarkQuery(Vehicle.CARS_COLLECTION_NAME)
+			.whereEqualTo(Vehicle.BRAND, "Toyota")
+			.whereEqualTo(Vehicle.ELECTRIC, true)
+			.whereGreaterThan(Vehicle.DISPLACEMENT, 1000)
+			.withLimit(50);
+	}
+
+	@Benchmark
+	public Query javaSerialization() {
+		return SerializationUtils.deserialize(SerializationUtils.serialize(query));
+	}
+
+	@Benchmark
+	public Query queryDescriptor() {
+		return QueryDescriptor.decode(QueryDescriptor.encode(query));
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(QueryDescriptorBenchmark.class.getSimpleName()).build()).run();
+	}
+
+	/**
+	 * Query constructor is protected, repositories build them through queryBuilder.
+	 */
+	private static final class BenchmarkQuery extends Query {
+
+		BenchmarkQuery(String collectionName) {
+			super(collectionName);
+		}
+	}
+}